@@ -1,6 +1,7 @@
 package io.onedev.server;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
 import com.google.inject.matcher.AbstractMatcher;
 import com.google.inject.matcher.Matchers;
 import com.thoughtworks.xstream.XStream;
@@ -78,8 +79,16 @@ import io.onedev.server.search.code.CodeIndexManager;
 import io.onedev.server.search.code.CodeSearchManager;
 import io.onedev.server.search.code.DefaultCodeIndexManager;
 import io.onedev.server.search.code.DefaultCodeSearchManager;
+import io.onedev.server.search.entity.CompiledQueryManager;
+import io.onedev.server.search.entity.DefaultCompiledQueryManager;
+import io.onedev.server.search.entitytext.BuildTextManager;
+import io.onedev.server.search.entitytext.CodeCommentTextManager;
+import io.onedev.server.search.entitytext.DefaultBuildTextManager;
+import io.onedev.server.search.entitytext.DefaultCodeCommentTextManager;
 import io.onedev.server.search.entitytext.DefaultIssueTextManager;
+import io.onedev.server.search.entitytext.DefaultPullRequestTextManager;
 import io.onedev.server.search.entitytext.IssueTextManager;
+import io.onedev.server.search.entitytext.PullRequestTextManager;
 import io.onedev.server.security.*;
 import io.onedev.server.security.realm.AbstractAuthorizingRealm;
 import io.onedev.server.ssh.*;
@@ -111,8 +120,11 @@ import io.onedev.server.web.editable.EditSupportLocator;
 import io.onedev.server.web.editable.EditSupportRegistry;
 import io.onedev.server.web.exceptionhandler.PageExpiredExceptionHandler;
 import io.onedev.server.web.mapper.BasePageMapper;
+import io.onedev.server.web.page.codesearch.CodeSearchPage;
 import io.onedev.server.web.page.layout.AdministrationMenuContribution;
 import io.onedev.server.web.page.layout.AdministrationSettingContribution;
+import io.onedev.server.web.page.layout.MainMenuContribution;
+import io.onedev.server.web.page.layout.SidebarMenuItem;
 import io.onedev.server.web.page.project.blob.render.BlobRenderer;
 import io.onedev.server.web.page.project.setting.ProjectSettingContribution;
 import io.onedev.server.web.page.test.TestPage;
@@ -132,6 +144,7 @@ import org.apache.shiro.web.servlet.ShiroFilter;
 import org.apache.wicket.Application;
 import org.apache.wicket.protocol.http.WicketFilter;
 import org.apache.wicket.protocol.http.WicketServlet;
+import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.eclipse.jetty.server.session.SessionDataStoreFactory;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.glassfish.jersey.server.ResourceConfig;
@@ -228,6 +241,7 @@ public class CoreModule extends AbstractPluginModule {
 		bind(CommitInfoManager.class).to(DefaultCommitInfoManager.class);
 		bind(IssueInfoManager.class).to(DefaultIssueInfoManager.class);
 		bind(VisitInfoManager.class).to(DefaultVisitInfoManager.class);
+		bind(LastCommitsInfoManager.class).to(DefaultLastCommitsInfoManager.class);
 		bind(BatchWorkManager.class).to(DefaultBatchWorkManager.class);
 		bind(WorkExecutor.class).to(DefaultWorkExecutor.class);
 		bind(GroupManager.class).to(DefaultGroupManager.class);
@@ -271,6 +285,10 @@ public class CoreModule extends AbstractPluginModule {
 		bind(EmailAddressManager.class).to(DefaultEmailAddressManager.class);
 		bind(GpgKeyManager.class).to(DefaultGpgKeyManager.class);
 		bind(IssueTextManager.class).to(DefaultIssueTextManager.class);
+		bind(PullRequestTextManager.class).to(DefaultPullRequestTextManager.class);
+		bind(CodeCommentTextManager.class).to(DefaultCodeCommentTextManager.class);
+		bind(BuildTextManager.class).to(DefaultBuildTextManager.class);
+		bind(CompiledQueryManager.class).to(DefaultCompiledQueryManager.class);
 		bind(PendingSuggestionApplyManager.class).to(DefaultPendingSuggestionApplyManager.class);
 		bind(IssueAuthorizationManager.class).to(DefaultIssueAuthorizationManager.class);
 		bind(DashboardManager.class).to(DefaultDashboardManager.class);
@@ -283,6 +301,9 @@ public class CoreModule extends AbstractPluginModule {
 		bind(PackLabelManager.class).to(DefaultPackLabelManager.class);
 		bind(PullRequestLabelManager.class).to(DefaultPullRequestLabelManager.class);
 		bind(IssueTouchManager.class).to(DefaultIssueTouchManager.class);
+		bind(PullRequestTouchManager.class).to(DefaultPullRequestTouchManager.class);
+		bind(CodeCommentTouchManager.class).to(DefaultCodeCommentTouchManager.class);
+		bind(BuildTouchManager.class).to(DefaultBuildTouchManager.class);
 		bind(AlertManager.class).to(DefaultAlertManager.class);
 		bind(UpdateCheckManager.class).to(DefaultUpdateCheckManager.class);
 		bind(StopwatchManager.class).to(DefaultStopwatchManager.class);
@@ -339,6 +360,7 @@ public class CoreModule extends AbstractPluginModule {
 		bind(BasicAuthenticationFilter.class);
 		bind(BearerAuthenticationFilter.class);
 		bind(PasswordService.class).to(DefaultPasswordService.class);
+		bind(PermissionMatrixManager.class).to(DefaultPermissionMatrixManager.class);
 		bind(ShiroFilter.class);
 		install(new ShiroAopModule());
         contribute(FilterChainConfigurator.class, filterChainManager -> {
@@ -354,6 +376,8 @@ public class CoreModule extends AbstractPluginModule {
 	private void configureGit() {
 		contribute(ObjectMapperConfigurator.class, GitObjectMapperConfigurator.class);
 		bind(GitService.class).to(DefaultGitService.class);
+		bind(UploadPackCacheManager.class).to(DefaultUploadPackCacheManager.class);
+		bind(ArchiveManager.class).to(DefaultArchiveManager.class);
 		bind(GitLocation.class).toProvider(GitLocationProvider.class);
 		bind(GitFilter.class);
 		bind(GoGetFilter.class);
@@ -421,6 +445,8 @@ public class CoreModule extends AbstractPluginModule {
 		bind(TaskButton.TaskFutureManager.class);
 		
 		contribute(AdministrationMenuContribution.class, (AdministrationMenuContribution) ArrayList::new);
+		contribute(MainMenuContribution.class, (MainMenuContribution) () -> Lists.newArrayList(
+				new SidebarMenuItem.Page("code", "Code Search", CodeSearchPage.class, new PageParameters())));
 	}
 	
 	private void configureBuild() {
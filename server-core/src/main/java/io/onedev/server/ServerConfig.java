@@ -32,6 +32,8 @@ public class ServerConfig {
 
 	private static final String PROP_CLUSTER_PORT = "cluster_port";
 
+	private static final String PROP_DISK_CACHE_SIZE = "disk_cache_size";
+
 	private final int httpPort;
 
 	private final int sshPort;
@@ -42,6 +44,8 @@ public class ServerConfig {
 
 	private final int clusterPort;
 
+	private final int diskCacheSize;
+
 	public ServerConfig(File installDir) {
 		File file = new File(installDir, "conf/server.properties");
 		Properties props = loadProperties(file);
@@ -146,6 +150,14 @@ public class ServerConfig {
 			clusterPort = 5710;
 		else
 			clusterPort = parseInt(clusterPortStr.trim());
+
+		String diskCacheSizeStr = System.getenv(PROP_DISK_CACHE_SIZE);
+		if (StringUtils.isBlank(diskCacheSizeStr))
+			diskCacheSizeStr = props.getProperty(PROP_DISK_CACHE_SIZE);
+		if (StringUtils.isBlank(diskCacheSizeStr))
+			diskCacheSize = 4096;
+		else
+			diskCacheSize = parseInt(diskCacheSizeStr.trim());
 	}
 
 	public int getHttpPort() {
@@ -167,5 +179,13 @@ public class ServerConfig {
 	public String getServerName() {
 		return serverName;
 	}
+
+	/**
+	 * @return max size in mega bytes of each disk cache of the server, such as cache of git 
+	 * 			fetch responses and cache of repository archives
+	 */
+	public int getDiskCacheSize() {
+		return diskCacheSize;
+	}
 	
 }
@@ -0,0 +1,158 @@
+package io.onedev.server.agent;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.InflaterInputStream;
+
+import io.onedev.server.job.log.JobLogMessage;
+
+/**
+ * Log lines of a single job carried by payload of a job log message. Payload sent with 
+ * message type <tt>JOB_LOG</tt> is either a single line (<tt>jobToken:sessionId:message</tt>), 
+ * or a batch of lines distinguished by a leading zero byte which never starts a job token.
+ * <p>
+ * Layout: marker byte (0), flags byte (bit 0 set if body is deflate compressed), followed
+ * by body: job token, number of lines, and for each line: session id (empty if absent) and
+ * message, with strings encoded as length prefixed UTF-8 bytes.
+ */
+public class JobLogBatch {
+
+	private static final byte MARKER = 0;
+
+	private static final byte FLAG_COMPRESSED = 1;
+
+	// Limit of decoded body size, to guard against malformed or hostile payloads
+	static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+	// Each line takes at least two length prefixes
+	private static final int MIN_LINE_BYTES = 8;
+
+	private final String jobToken;
+
+	private final List<JobLogMessage> messages;
+
+	public JobLogBatch(String jobToken, List<JobLogMessage> messages) {
+		this.jobToken = jobToken;
+		this.messages = messages;
+	}
+
+	public String getJobToken() {
+		return jobToken;
+	}
+
+	public List<JobLogMessage> getMessages() {
+		return messages;
+	}
+
+	public static JobLogBatch parse(byte[] data) {
+		if (data.length >= 2 && data[0] == MARKER) {
+			return decode(data);
+		} else {
+			String dataString = new String(data, StandardCharsets.UTF_8);
+			List<JobLogMessage> messages = new ArrayList<>();
+			int jobTokenEnd = dataString.indexOf(':');
+			if (jobTokenEnd != -1) {
+				int sessionIdEnd = dataString.indexOf(':', jobTokenEnd + 1);
+				if (sessionIdEnd != -1) {
+					String sessionId = dataString.substring(jobTokenEnd + 1, sessionIdEnd);
+					if (sessionId.length() == 0)
+						sessionId = null;
+					messages.add(new JobLogMessage(dataString.substring(sessionIdEnd + 1), sessionId));
+				} else {
+					// Keep message without session id as plain text
+					messages.add(new JobLogMessage(dataString.substring(jobTokenEnd + 1), null));
+				}
+				return new JobLogBatch(dataString.substring(0, jobTokenEnd), messages);
+			} else {
+				return new JobLogBatch(dataString, messages);
+			}
+		}
+	}
+
+	private static JobLogBatch decode(byte[] data) {
+		InputStream is = new ByteArrayInputStream(data, 2, data.length - 2);
+		int maxBytes;
+		if ((data[1] & FLAG_COMPRESSED) != 0) {
+			is = new InflaterInputStream(is);
+			maxBytes = MAX_BODY_BYTES;
+		} else {
+			maxBytes = data.length - 2;
+		}
+		LimitedInputStream lis = new LimitedInputStream(is, maxBytes);
+		try (DataInputStream dis = new DataInputStream(lis)) {
+			String jobToken = readString(dis, lis);
+			int count = dis.readInt();
+			if (count < 0 || (long) count * MIN_LINE_BYTES > lis.remaining)
+				throw new IOException("Invalid line count: " + count);
+			List<JobLogMessage> messages = new ArrayList<>(count);
+			for (int i=0; i<count; i++) {
+				String sessionId = readString(dis, lis);
+				if (sessionId.length() == 0)
+					sessionId = null;
+				messages.add(new JobLogMessage(readString(dis, lis), sessionId));
+			}
+			return new JobLogBatch(jobToken, messages);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String readString(DataInputStream is, LimitedInputStream lis) throws IOException {
+		int length = is.readInt();
+		if (length < 0 || length > lis.remaining)
+			throw new IOException("Invalid string length: " + length);
+		byte[] bytes = new byte[length];
+		is.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Input stream failing when more than specified number of bytes is read
+	 */
+	private static class LimitedInputStream extends FilterInputStream {
+
+		long remaining;
+
+		LimitedInputStream(InputStream in, long limit) {
+			super(in);
+			remaining = limit;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1)
+				consumed(1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int count = super.read(b, off, len);
+			if (count > 0)
+				consumed(count);
+			return count;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long count = super.skip(n);
+			consumed(count);
+			return count;
+		}
+
+		private void consumed(long count) throws IOException {
+			remaining -= count;
+			if (remaining < 0)
+				throw new IOException("Job log batch exceeds " + MAX_BODY_BYTES + " bytes");
+		}
+
+	}
+
+}
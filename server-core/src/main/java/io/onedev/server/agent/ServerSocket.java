@@ -26,6 +26,8 @@ import io.onedev.server.exception.ServerNotReadyException;
 import io.onedev.server.job.JobContext;
 import io.onedev.server.job.JobManager;
 import io.onedev.server.job.ResourceAllocator;
+import io.onedev.server.job.log.BatchTaskLogger;
+import io.onedev.server.job.log.JobLogMessage;
 import io.onedev.server.job.log.LogManager;
 import io.onedev.server.terminal.AgentShell;
 
@@ -125,16 +127,16 @@ public class ServerSocket {
 					break;
 				case JOB_LOG:
 					try {
-						String dataString = new String(messageData, StandardCharsets.UTF_8);
-						String jobToken = StringUtils.substringBefore(dataString, ":");
-						String remaining = StringUtils.substringAfter(dataString, ":");
-						String sessionId = StringUtils.substringBefore(remaining, ":");
-						if (sessionId.length() == 0)
-							sessionId = null;
-						String logMessage = StringUtils.substringAfter(remaining, ":");
-						TaskLogger logger = OneDev.getInstance(LogManager.class).getJobLogger(jobToken);
-						if (logger != null)
-							logger.log(logMessage, sessionId);
+						JobLogBatch batch = JobLogBatch.parse(messageData);
+						if (!batch.getMessages().isEmpty()) {
+							TaskLogger logger = OneDev.getInstance(LogManager.class).getJobLogger(batch.getJobToken());
+							if (logger instanceof BatchTaskLogger) {
+								((BatchTaskLogger) logger).log(batch.getMessages());
+							} else if (logger != null) {
+								for (JobLogMessage logMessage: batch.getMessages())
+									logger.log(logMessage.getMessage(), logMessage.getSessionId());
+							}
+						}
 					} catch (Exception e) {
 						logger.error("Error processing job log", e);
 					}
@@ -12,6 +12,7 @@ import io.onedev.server.git.CommandUtils;
 import io.onedev.server.git.GitFilter;
 import io.onedev.server.git.GitUtils;
 import io.onedev.server.git.LfsObject;
+import io.onedev.server.git.UploadPackCacheManager;
 import io.onedev.server.git.command.AdvertiseReceiveRefsCommand;
 import io.onedev.server.git.command.AdvertiseUploadRefsCommand;
 import io.onedev.server.git.hook.HookUtils;
@@ -71,11 +72,14 @@ public class ClusterResource {
 	
 	private final WorkExecutor workExecutor;
 	
+	private final UploadPackCacheManager uploadPackCacheManager;
+	
 	@Inject
 	public ClusterResource(ProjectManager projectManager, CommitInfoManager commitInfoManager, 
 						   AttachmentManager attachmentManager, VisitInfoManager visitInfoManager, 
 						   WorkExecutor workExecutor, StorageManager storageManager, 
-						   PackBlobManager packBlobManager, BuildManager buildManager) {
+						   PackBlobManager packBlobManager, BuildManager buildManager, 
+						   UploadPackCacheManager uploadPackCacheManager) {
 		this.commitInfoManager = commitInfoManager;
 		this.projectManager = projectManager;
 		this.workExecutor = workExecutor;
@@ -84,6 +88,7 @@ public class ClusterResource {
 		this.storageManager = storageManager;
 		this.packBlobManager = packBlobManager;
 		this.buildManager = buildManager;
+		this.uploadPackCacheManager = uploadPackCacheManager;
 	}
 
 	@Path("/project-files")
@@ -264,14 +269,16 @@ public class ClusterResource {
 			try {
 				File gitDir = projectManager.getGitDir(projectId);
 				if (upload) {
-					workExecutor.submit(new PrioritizedRunnable(GitFilter.PRIORITY) {
-						
-						@Override
-						public void run() {
-							CommandUtils.uploadPack(gitDir, hookEnvs, protocol, is, output);
-						}
-						
-					}).get();
+					uploadPackCacheManager.uploadPack(projectId, protocol, is, output, (packInput, packOutput) -> {
+						workExecutor.submit(new PrioritizedRunnable(GitFilter.PRIORITY) {
+							
+							@Override
+							public void run() {
+								CommandUtils.uploadPack(gitDir, hookEnvs, protocol, packInput, packOutput);
+							}
+							
+						}).get();
+					});
 				} else {
 					workExecutor.submit(new PrioritizedRunnable(GitFilter.PRIORITY) {
 						
@@ -6073,4 +6073,55 @@ public class DataMigrator {
 		}
 	}
 	
+	private void migrate153(File dataDir, Stack<Integer> versions) {
+		var pullRequestTouchesDoc = new VersionedXmlDoc();
+		var pullRequestTouchesElement = pullRequestTouchesDoc.addElement("list");
+		var codeCommentTouchesDoc = new VersionedXmlDoc();
+		var codeCommentTouchesElement = codeCommentTouchesDoc.addElement("list");
+		var buildTouchesDoc = new VersionedXmlDoc();
+		var buildTouchesElement = buildTouchesDoc.addElement("list");
+
+		var pullRequestTouchId = 1L;
+		var codeCommentTouchId = 1L;
+		var buildTouchId = 1L;
+		for (File file : dataDir.listFiles()) {
+			if (file.getName().startsWith("PullRequests.xml")) {
+				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
+				for (Element element : dom.getRootElement().elements()) {
+					var pullRequestTouchElement = pullRequestTouchesElement.addElement("io.onedev.server.model.PullRequestTouch");
+					pullRequestTouchElement.addAttribute("revision", "0.0.0");
+					pullRequestTouchElement.addElement("id").setText(String.valueOf(pullRequestTouchId++));
+					pullRequestTouchElement.addElement("project").setText(element.elementTextTrim("targetProject"));
+					pullRequestTouchElement.addElement("requestId").setText(element.elementTextTrim("id"));
+				}
+			} else if (file.getName().startsWith("CodeComments.xml")) {
+				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
+				for (Element element : dom.getRootElement().elements()) {
+					var codeCommentTouchElement = codeCommentTouchesElement.addElement("io.onedev.server.model.CodeCommentTouch");
+					codeCommentTouchElement.addAttribute("revision", "0.0.0");
+					codeCommentTouchElement.addElement("id").setText(String.valueOf(codeCommentTouchId++));
+					codeCommentTouchElement.addElement("project").setText(element.elementTextTrim("project"));
+					codeCommentTouchElement.addElement("commentId").setText(element.elementTextTrim("id"));
+				}
+			} else if (file.getName().startsWith("Builds.xml")) {
+				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
+				for (Element element : dom.getRootElement().elements()) {
+					var buildTouchElement = buildTouchesElement.addElement("io.onedev.server.model.BuildTouch");
+					buildTouchElement.addAttribute("revision", "0.0.0");
+					buildTouchElement.addElement("id").setText(String.valueOf(buildTouchId++));
+					buildTouchElement.addElement("project").setText(element.elementTextTrim("project"));
+					buildTouchElement.addElement("buildId").setText(element.elementTextTrim("id"));
+				}
+			} else if (file.getName().startsWith("PullRequestTouchs.xml")
+					|| file.getName().startsWith("CodeCommentTouchs.xml")
+					|| file.getName().startsWith("BuildTouchs.xml")) {
+				FileUtils.deleteFile(file);
+			}
+		}
+
+		pullRequestTouchesDoc.writeToFile(new File(dataDir, "PullRequestTouchs.xml"), true);
+		codeCommentTouchesDoc.writeToFile(new File(dataDir, "CodeCommentTouchs.xml"), true);
+		buildTouchesDoc.writeToFile(new File(dataDir, "BuildTouchs.xml"), true);
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,16 @@
+package io.onedev.server.entitymanager;
+
+import io.onedev.server.model.BuildTouch;
+import io.onedev.server.model.Project;
+import io.onedev.server.persistence.dao.EntityManager;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface BuildTouchManager extends EntityManager<BuildTouch> {
+	
+	void touch(Project project, Collection<Long> buildIds, boolean newBuilds);
+	
+	List<BuildTouch> queryTouchesAfter(Long projectId, Long afterTouchId, int count);
+	
+}
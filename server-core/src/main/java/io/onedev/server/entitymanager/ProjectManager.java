@@ -1,6 +1,7 @@
 package io.onedev.server.entitymanager;
 
 import io.onedev.server.cluster.ClusterTask;
+import io.onedev.server.git.RepositoryPool;
 import io.onedev.server.model.Project;
 import io.onedev.server.model.support.code.GitPackConfig;
 import io.onedev.server.persistence.dao.EntityManager;
@@ -63,6 +64,17 @@ public interface ProjectManager extends EntityManager<Project> {
 	
 	Repository getRepository(Long projectId);
 	
+	/**
+	 * Lease repository of specified project. The repository will not be closed due to idle 
+	 * until released via {@link #releaseRepository(Long, Repository)}. Operations spanning a long time 
+	 * should lease the repository instead of calling {@link #getRepository(Long)}
+	 */
+	Repository leaseRepository(Long projectId);
+	
+	void releaseRepository(Long projectId, Repository repository);
+	
+	RepositoryPool.Stats getRepositoryPoolStats();
+	
 	List<Project> query(EntityQuery<Project> query, int firstResult, int maxResults);
 	
 	int count(Criteria<Project> criteria);
@@ -50,6 +50,12 @@ public interface PullRequestManager extends EntityManager<PullRequest> {
 
     void checkAsync(PullRequest request, boolean sourceUpdated, boolean updateBuildCommit);
     
+    /**
+     * Run pending check of specified pull request ahead of others, for instance when the pull 
+     * request is being viewed. Does nothing if there is no pending check of the pull request
+     */
+    void prioritizeCheck(PullRequest request);
+    
     void merge(PullRequest request, @Nullable String commitMessage);
     
     void open(PullRequest request);
@@ -0,0 +1,16 @@
+package io.onedev.server.entitymanager;
+
+import io.onedev.server.model.PullRequestTouch;
+import io.onedev.server.model.Project;
+import io.onedev.server.persistence.dao.EntityManager;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface PullRequestTouchManager extends EntityManager<PullRequestTouch> {
+	
+	void touch(Project project, Collection<Long> requestIds, boolean newRequests);
+	
+	List<PullRequestTouch> queryTouchesAfter(Long projectId, Long afterTouchId, int count);
+	
+}
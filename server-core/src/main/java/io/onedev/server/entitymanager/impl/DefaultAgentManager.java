@@ -13,6 +13,7 @@ import io.onedev.commons.utils.ExplicitException;
 import io.onedev.server.cluster.ClusterManager;
 import io.onedev.server.event.Listen;
 import io.onedev.server.event.ListenerRegistry;
+import io.onedev.server.event.agent.AgentAttributesUpdated;
 import io.onedev.server.event.agent.AgentConnected;
 import io.onedev.server.event.agent.AgentDisconnected;
 import io.onedev.server.event.entity.EntityPersisted;
@@ -443,6 +444,7 @@ public class DefaultAgentManager extends BaseEntityManager<Agent> implements Age
 				return null;
 			});
 		}
+		listenerRegistry.post(new AgentAttributesUpdated(agent));
 	}
 
 	@Override
@@ -17,6 +17,7 @@ import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.system.SystemStarting;
 import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.git.service.GitService;
+import io.onedev.server.job.log.JobLogFile;
 import io.onedev.server.model.*;
 import io.onedev.server.model.support.build.BuildPreservation;
 import io.onedev.server.persistence.SequenceGenerator;
@@ -1074,6 +1075,10 @@ public class DefaultBuildManager extends BaseEntityManager<Build> implements Bui
 				var buildPath = getProjectRelativeDirPath(buildNumber);
 				projectManager.syncFile(projectId, buildPath + "/" + LOG_FILE, 
 						getLogLockName(projectId, buildNumber), activeServer);
+				projectManager.syncFile(projectId, buildPath + "/" + JobLogFile.INDEX_FILE_NAME, 
+						getLogLockName(projectId, buildNumber), activeServer);
+				projectManager.syncFile(projectId, buildPath + "/" + JobLogFile.DATA_FILE_NAME, 
+						getLogLockName(projectId, buildNumber), activeServer);
 				if (clusterManager.runOnServer(activeServer, () -> getArtifactsDir(projectId, buildNumber).exists())) {
 					var artifactsDir = storageManager.initArtifactsDir(projectId, buildNumber);
 					var artifactsPath = Build.getProjectRelativeDirPath(buildNumber) + "/" + ARTIFACTS_DIR;
@@ -0,0 +1,114 @@
+package io.onedev.server.entitymanager.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import io.onedev.server.entitymanager.BuildTouchManager;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.ListenerRegistry;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.event.project.build.BuildSubmitted;
+import io.onedev.server.event.project.build.BuildUpdated;
+import io.onedev.server.event.project.build.BuildsTouched;
+import io.onedev.server.model.*;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.persistence.annotation.Transactional;
+import io.onedev.server.persistence.dao.BaseEntityManager;
+import io.onedev.server.persistence.dao.Dao;
+import io.onedev.server.persistence.dao.EntityCriteria;
+import org.hibernate.criterion.Restrictions;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static io.onedev.server.model.BuildTouch.PROP_BUILD_ID;
+import static io.onedev.server.model.BuildTouch.PROP_PROJECT;
+
+@Singleton
+public class DefaultBuildTouchManager extends BaseEntityManager<BuildTouch> 
+		implements BuildTouchManager {
+	
+	private static final int BATCH_SIZE = 500;
+	
+	private final ProjectManager projectManager;
+	
+	private final TransactionManager transactionManager;
+	
+	private final ListenerRegistry listenerRegistry;
+	
+	@Inject
+    public DefaultBuildTouchManager(Dao dao, ProjectManager projectManager, TransactionManager transactionManager, 
+									ListenerRegistry listenerRegistry) {
+        super(dao);
+		this.projectManager = projectManager;
+		this.transactionManager = transactionManager;
+		this.listenerRegistry = listenerRegistry;
+    }
+
+	@Transactional
+	@Override
+	public void touch(Project project, Collection<Long> buildIds, boolean newBuilds) {
+		var projectId = project.getId();
+		transactionManager.runAfterCommit(() -> transactionManager.runAsync(() -> {
+			var innerProject = projectManager.load(projectId);
+			
+			if (!newBuilds) {
+				for (var partition: Lists.partition(new ArrayList<>(buildIds), BATCH_SIZE)) {
+					CriteriaBuilder builder = getSession().getCriteriaBuilder();
+					CriteriaDelete<BuildTouch> criteriaDelete = builder.createCriteriaDelete(BuildTouch.class);
+					Root<BuildTouch> root = criteriaDelete.from(BuildTouch.class);
+					criteriaDelete.where(
+							builder.equal(root.get(PROP_PROJECT), innerProject),
+							root.get(PROP_BUILD_ID).in(partition));
+					getSession().createQuery(criteriaDelete).executeUpdate();
+				}
+			}
+			
+			for (var buildId: buildIds) {
+				var touch = new BuildTouch();
+				touch.setProject(innerProject);
+				touch.setBuildId(buildId);
+				dao.persist(touch);
+			}
+			listenerRegistry.post(new BuildsTouched(innerProject, buildIds));
+		}));
+	}
+	
+	@Sessional
+	@Override
+	public List<BuildTouch> queryTouchesAfter(Long projectId, Long afterTouchId, int count) {
+		EntityCriteria<BuildTouch> criteria = EntityCriteria.of(BuildTouch.class);
+		criteria.add(Restrictions.eq("project.id", projectId));
+		criteria.add(Restrictions.gt(AbstractEntity.PROP_ID, afterTouchId));
+		return dao.query(criteria, 0, count);
+	}
+	
+	@Transactional
+	@Listen
+	public void on(BuildSubmitted event) {
+		touch(event.getProject(), Sets.newHashSet(event.getBuild().getId()), true);
+	}
+
+	@Transactional
+	@Listen
+	public void on(BuildUpdated event) {
+		touch(event.getProject(), Sets.newHashSet(event.getBuild().getId()), false);
+	}
+
+	@Transactional
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Build) {
+			Build build = (Build) event.getEntity();
+			touch(build.getProject(), Sets.newHashSet(build.getId()), false);
+		}
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,132 @@
+package io.onedev.server.entitymanager.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import io.onedev.server.entitymanager.CodeCommentTouchManager;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.ListenerRegistry;
+import io.onedev.server.event.project.codecomment.*;
+import io.onedev.server.model.*;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.persistence.annotation.Transactional;
+import io.onedev.server.persistence.dao.BaseEntityManager;
+import io.onedev.server.persistence.dao.Dao;
+import io.onedev.server.persistence.dao.EntityCriteria;
+import org.hibernate.criterion.Restrictions;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static io.onedev.server.model.CodeCommentTouch.PROP_COMMENT_ID;
+import static io.onedev.server.model.CodeCommentTouch.PROP_PROJECT;
+
+@Singleton
+public class DefaultCodeCommentTouchManager extends BaseEntityManager<CodeCommentTouch> 
+		implements CodeCommentTouchManager {
+	
+	private static final int BATCH_SIZE = 500;
+	
+	private final ProjectManager projectManager;
+	
+	private final TransactionManager transactionManager;
+	
+	private final ListenerRegistry listenerRegistry;
+	
+	@Inject
+    public DefaultCodeCommentTouchManager(Dao dao, ProjectManager projectManager, TransactionManager transactionManager, 
+									ListenerRegistry listenerRegistry) {
+        super(dao);
+		this.projectManager = projectManager;
+		this.transactionManager = transactionManager;
+		this.listenerRegistry = listenerRegistry;
+    }
+
+	@Transactional
+	@Override
+	public void touch(Project project, Collection<Long> commentIds, boolean newComments) {
+		var projectId = project.getId();
+		transactionManager.runAfterCommit(() -> transactionManager.runAsync(() -> {
+			var innerProject = projectManager.load(projectId);
+			
+			if (!newComments) {
+				for (var partition: Lists.partition(new ArrayList<>(commentIds), BATCH_SIZE)) {
+					CriteriaBuilder builder = getSession().getCriteriaBuilder();
+					CriteriaDelete<CodeCommentTouch> criteriaDelete = builder.createCriteriaDelete(CodeCommentTouch.class);
+					Root<CodeCommentTouch> root = criteriaDelete.from(CodeCommentTouch.class);
+					criteriaDelete.where(
+							builder.equal(root.get(PROP_PROJECT), innerProject),
+							root.get(PROP_COMMENT_ID).in(partition));
+					getSession().createQuery(criteriaDelete).executeUpdate();
+				}
+			}
+			
+			for (var commentId: commentIds) {
+				var touch = new CodeCommentTouch();
+				touch.setProject(innerProject);
+				touch.setCommentId(commentId);
+				dao.persist(touch);
+			}
+			listenerRegistry.post(new CodeCommentsTouched(innerProject, commentIds));
+		}));
+	}
+	
+	@Sessional
+	@Override
+	public List<CodeCommentTouch> queryTouchesAfter(Long projectId, Long afterTouchId, int count) {
+		EntityCriteria<CodeCommentTouch> criteria = EntityCriteria.of(CodeCommentTouch.class);
+		criteria.add(Restrictions.eq("project.id", projectId));
+		criteria.add(Restrictions.gt(AbstractEntity.PROP_ID, afterTouchId));
+		return dao.query(criteria, 0, count);
+	}
+	
+	@Transactional
+	@Listen
+	public void on(CodeCommentCreated event) {
+		touch(event.getProject(), Sets.newHashSet(event.getComment().getId()), true);
+	}
+
+	@Transactional
+	@Listen
+	public void on(CodeCommentEdited event) {
+		touch(event.getProject(), Sets.newHashSet(event.getComment().getId()), false);
+	}
+
+	@Transactional
+	@Listen
+	public void on(CodeCommentReplyCreated event) {
+		touch(event.getProject(), Sets.newHashSet(event.getComment().getId()), false);
+	}
+
+	@Transactional
+	@Listen
+	public void on(CodeCommentReplyEdited event) {
+		touch(event.getProject(), Sets.newHashSet(event.getComment().getId()), false);
+	}
+
+	@Transactional
+	@Listen
+	public void on(CodeCommentReplyDeleted event) {
+		touch(event.getProject(), Sets.newHashSet(event.getComment().getId()), false);
+	}
+
+	@Transactional
+	@Listen
+	public void on(CodeCommentDeleted event) {
+		touch(event.getProject(), Sets.newHashSet(event.getCommentId()), false);
+	}
+
+	@Transactional
+	@Listen
+	public void on(CodeCommentsDeleted event) {
+		touch(event.getProject(), event.getCommentIds(), false);
+	}
+
+}
\ No newline at end of file
@@ -3,8 +3,15 @@ package io.onedev.server.entitymanager.impl;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 import com.google.common.collect.Sets;
+import com.hazelcast.core.EntryEvent;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.MapEvent;
 import com.hazelcast.map.IMap;
+import com.hazelcast.map.listener.EntryAddedListener;
+import com.hazelcast.map.listener.EntryEvictedListener;
+import com.hazelcast.map.listener.EntryRemovedListener;
+import com.hazelcast.map.listener.EntryUpdatedListener;
+import com.hazelcast.map.listener.MapClearedListener;
 import io.onedev.commons.bootstrap.Bootstrap;
 import io.onedev.commons.loader.ManagedSerializedForm;
 import io.onedev.commons.utils.ExceptionUtils;
@@ -32,6 +39,7 @@ import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.git.CommandUtils;
 import io.onedev.server.git.GitTask;
 import io.onedev.server.git.GitUtils;
+import io.onedev.server.git.RepositoryPool;
 import io.onedev.server.git.command.CloneCommand;
 import io.onedev.server.git.command.LfsFetchAllCommand;
 import io.onedev.server.git.command.LfsFetchCommand;
@@ -81,7 +89,6 @@ import org.apache.shiro.authz.Permission;
 import org.apache.shiro.authz.UnauthorizedException;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.diff.DiffAlgorithm.SupportedAlgorithm;
-import org.eclipse.jgit.internal.storage.file.FileRepository;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.hibernate.Session;
@@ -105,7 +112,6 @@ import javax.ws.rs.core.Response;
 import java.io.*;
 import java.nio.file.Files;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.locks.Lock;
 import java.util.function.Consumer;
@@ -188,7 +194,7 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 	private final Collection<String> reservedNames = Sets.newHashSet("robots.txt", "sitemap.xml", "sitemap.txt",
 			"favicon.ico", "favicon.png", "logo.png", "wicket", "projects");
 
-	private final Map<Long, Repository> repositoryCache = new ConcurrentHashMap<>();
+	private final RepositoryPool repositoryPool = new RepositoryPool(this::getGitDir);
 	
 	private volatile IMap<Long, LinkedHashMap<String, ProjectReplica>> replicas;
 	
@@ -241,21 +247,22 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 
 	@Override
 	public Repository getRepository(Long projectId) {
-		Repository repository = repositoryCache.get(projectId);
-		if (repository == null) {
-			synchronized (repositoryCache) {
-				repository = repositoryCache.get(projectId);
-				if (repository == null) {
-					try {
-						repository = new FileRepository(getGitDir(projectId));
-					} catch (IOException e) {
-						throw new RuntimeException(e);
-					}
-					repositoryCache.put(projectId, repository);
-				}
-			}
-		}
-		return repository;
+		return repositoryPool.get(projectId);
+	}
+
+	@Override
+	public Repository leaseRepository(Long projectId) {
+		return repositoryPool.lease(projectId);
+	}
+
+	@Override
+	public void releaseRepository(Long projectId, Repository repository) {
+		repositoryPool.release(projectId, repository);
+	}
+
+	@Override
+	public RepositoryPool.Stats getRepositoryPoolStats() {
+		return repositoryPool.getStats();
 	}
 
 	@Transactional
@@ -442,11 +449,7 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 			dao.remove(project);
 			lastEventDateManager.delete(project.getLastEventDate());
 
-			synchronized (repositoryCache) {
-				Repository repository = repositoryCache.remove(project.getId());
-				if (repository != null)
-					repository.close();
-			}
+			repositoryPool.remove(project.getId());
 
 			listenerRegistry.post(new ProjectDeleted(project));
 		});
@@ -724,8 +727,12 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 	@Transactional
 	@Listen
 	public void on(SystemStarting event) {
+		RepositoryPool.configureWindowCache();
+		
 		HazelcastInstance hazelcastInstance = clusterManager.getHazelcastInstance();
-		cache = new ProjectCache(hazelcastInstance.getMap("projectCache"));
+		IMap<Long, ProjectFacade> cacheMap = hazelcastInstance.getMap("projectCache");
+		cache = new ProjectCache(cacheMap);
+		cacheMap.addEntryListener(new ProjectCacheInvalidator(), false);
 		var cacheInited = hazelcastInstance.getCPSubsystem().getAtomicLong("projectCacheInited");		
 		clusterManager.init(cacheInited, () -> {
 			for (Project project : query()) {
@@ -890,12 +897,7 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 			notifyActiveServerChanged(newActiveServers);
 		}
 		
-		synchronized (repositoryCache) {
-			for (Repository repository : repositoryCache.values()) {
-				repository.close();
-			}
-			repositoryCache.clear();
-		}
+		repositoryPool.clear();
 	}
 
 	@Transactional
@@ -960,16 +962,16 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 	public Collection<Project> getPermittedProjects(BasePermission permission) {
 		User user = SecurityUtils.getUser();
 		if (permission.isApplicable(UserFacade.of(user))) {
-			ProjectCache cacheClone = cache.clone();
+			// Reads are served from local index of the cache, no need to clone
 			Collection<Long> permittedProjectIds;
 			if (user != null) {
 				if (user.isRoot() || user.isSystem()) {
-					return cacheClone.getProjects();
+					return cache.getProjects();
 				} else {
 					permittedProjectIds = new HashSet<>();
 					for (Group group : user.getGroups()) {
 						if (group.isAdministrator())
-							return cacheClone.getProjects();
+							return cache.getProjects();
 						for (GroupAuthorization authorization : group.getAuthorizations()) {
 							if (authorization.getRole().implies(permission))
 								addSubTreeIds(permittedProjectIds, authorization.getProject());
@@ -978,7 +980,7 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 					Group defaultLoginGroup = settingManager.getSecuritySetting().getDefaultLoginGroup();
 					if (defaultLoginGroup != null) {
 						if (defaultLoginGroup.isAdministrator())
-							return cacheClone.getProjects();
+							return cache.getProjects();
 						for (GroupAuthorization authorization : defaultLoginGroup.getAuthorizations()) {
 							if (authorization.getRole().implies(permission))
 								addSubTreeIds(permittedProjectIds, authorization.getProject());
@@ -989,12 +991,12 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 						if (authorization.getRole().implies(permission))
 							addSubTreeIds(permittedProjectIds, authorization.getProject());
 					}
-					addIdsPermittedByDefaultRole(cacheClone, permittedProjectIds, permission);
+					addIdsPermittedByDefaultRole(cache, permittedProjectIds, permission);
 				}
 			} else {
 				permittedProjectIds = new HashSet<>();
 				if (settingManager.getSecuritySetting().isEnableAnonymousAccess())
-					addIdsPermittedByDefaultRole(cacheClone, permittedProjectIds, permission);
+					addIdsPermittedByDefaultRole(cache, permittedProjectIds, permission);
 			}
 
 			return permittedProjectIds.stream().map(it -> load(it)).collect(toSet());
@@ -1964,4 +1966,38 @@ public class DefaultProjectManager extends BaseEntityManager<Project>
 		return new ManagedSerializedForm(ProjectManager.class);
 	}
 	
+	/**
+	 * Refresh local index of project cache when cached projects are changed by any server
+	 */
+	private class ProjectCacheInvalidator implements EntryAddedListener<Long, ProjectFacade>, 
+			EntryUpdatedListener<Long, ProjectFacade>, EntryRemovedListener<Long, ProjectFacade>, 
+			EntryEvictedListener<Long, ProjectFacade>, MapClearedListener {
+
+		@Override
+		public void entryAdded(EntryEvent<Long, ProjectFacade> event) {
+			cache.refresh(event.getKey());
+		}
+
+		@Override
+		public void entryUpdated(EntryEvent<Long, ProjectFacade> event) {
+			cache.refresh(event.getKey());
+		}
+
+		@Override
+		public void entryRemoved(EntryEvent<Long, ProjectFacade> event) {
+			cache.refresh(event.getKey());
+		}
+
+		@Override
+		public void entryEvicted(EntryEvent<Long, ProjectFacade> event) {
+			cache.refresh(event.getKey());
+		}
+
+		@Override
+		public void mapCleared(MapEvent event) {
+			cache.invalidate();
+		}
+		
+	}
+	
 }
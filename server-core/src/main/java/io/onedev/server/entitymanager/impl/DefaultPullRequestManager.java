@@ -17,6 +17,8 @@ import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.project.RefUpdated;
 import io.onedev.server.event.project.build.BuildEvent;
 import io.onedev.server.event.project.pullrequest.*;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.git.GitUtils;
 import io.onedev.server.git.service.GitService;
 import io.onedev.server.xodus.CommitInfoManager;
@@ -43,9 +45,13 @@ import io.onedev.server.search.entity.EntitySort.Direction;
 import io.onedev.server.search.entity.pullrequest.PullRequestQuery;
 import io.onedev.server.security.SecurityUtils;
 import io.onedev.server.security.permission.ReadCode;
+import io.onedev.server.taskschedule.SchedulableTask;
+import io.onedev.server.taskschedule.TaskScheduler;
 import io.onedev.server.util.ProjectAndBranch;
 import io.onedev.server.util.ProjectPullRequestStats;
 import io.onedev.server.util.ProjectScopedNumber;
+import io.onedev.server.util.concurrent.PrioritizedRunnable;
+import io.onedev.server.util.concurrent.WorkExecutor;
 import io.onedev.server.util.criteria.Criteria;
 import io.onedev.server.util.facade.EmailAddressFacade;
 import io.onedev.server.util.reviewrequirement.ReviewRequirement;
@@ -59,6 +65,8 @@ import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.query.Query;
 import org.joda.time.DateTime;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -76,12 +84,16 @@ import static io.onedev.server.model.support.pullrequest.MergeStrategy.*;
 
 @Singleton
 public class DefaultPullRequestManager extends BaseEntityManager<PullRequest> 
-		implements PullRequestManager, Serializable {
+		implements PullRequestManager, SchedulableTask, Serializable {
 
 	private static final long serialVersionUID = 1L;
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultPullRequestManager.class);
 	
+	private static final int VIEWED_CHECK_PRIORITY = 10;
+	
+	private static final int CHECK_PRIORITY = 90;
+	
 	private final PullRequestUpdateManager updateManager;
 	
 	private final ProjectManager projectManager;
@@ -108,6 +120,16 @@ public class DefaultPullRequestManager extends BaseEntityManager<PullRequest>
 	
 	private final SequenceGenerator numberGenerator;
 	
+	private final WorkExecutor workExecutor;
+	
+	private final TaskScheduler taskScheduler;
+	
+	private final ClusterManager clusterManager;
+	
+	private final PullRequestCheckQueue checkQueue = new PullRequestCheckQueue();
+	
+	private volatile String taskId;
+	
 	@Inject
 	public DefaultPullRequestManager(Dao dao, PullRequestUpdateManager updateManager, 
 									 PullRequestReviewManager reviewManager, ListenerRegistry listenerRegistry, 
@@ -116,7 +138,8 @@ public class DefaultPullRequestManager extends BaseEntityManager<PullRequest>
 									 CommitInfoManager commitInfoManager, ClusterManager clusterManager, 
 									 UserManager userManager, GitService gitService, 
 									 PendingSuggestionApplyManager pendingSuggestionApplyManager, 
-									 PullRequestInfoManager pullRequestInfoManager) {
+									 PullRequestInfoManager pullRequestInfoManager, WorkExecutor workExecutor, 
+									 TaskScheduler taskScheduler) {
 		super(dao);
 		
 		this.updateManager = updateManager;
@@ -131,6 +154,9 @@ public class DefaultPullRequestManager extends BaseEntityManager<PullRequest>
 		this.userManager = userManager;
 		this.gitService = gitService;
 		this.pullRequestInfoManager = pullRequestInfoManager;
+		this.workExecutor = workExecutor;
+		this.taskScheduler = taskScheduler;
+		this.clusterManager = clusterManager;
 		
 		numberGenerator = new SequenceGenerator(PullRequest.class, clusterManager, dao);
 	}
@@ -515,6 +541,35 @@ public class DefaultPullRequestManager extends BaseEntityManager<PullRequest>
 		}
 	}
 	
+	@Sessional
+	@Listen
+	public void on(SystemStarted event) {
+		taskId = taskScheduler.schedule(this);
+		
+		/*
+		 * Pending checks are only kept in memory and are lost upon server restart. Re-queue 
+		 * checks of open requests in projects served by this server whose source update is 
+		 * not yet recorded, or whose merge preview is missing or outdated
+		 */
+		String localServer = clusterManager.getLocalServerAddress();
+		long now = System.currentTimeMillis();
+		for (PullRequest request: query(EntityCriteria.of(PullRequest.class).add(ofOpen()))) {
+			if (localServer.equals(projectManager.getActiveServer(request.getTargetProject().getId(), false))) {
+				boolean sourceUpdated = request.getSourceProject() != null 
+						&& !request.getLatestUpdate().getHeadCommitHash().equals(request.getSource().getObjectName(false));
+				if (sourceUpdated || request.checkMergePreview() == null) 
+					checkQueue.add(request.getId(), sourceUpdated, sourceUpdated, false, now);
+			}
+		}
+		dispatchChecks();
+	}
+	
+	@Listen
+	public void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+	}
+	
 	@Sessional
 	@Listen
 	public void on(RefUpdated event) {
@@ -527,7 +582,7 @@ public class DefaultPullRequestManager extends BaseEntityManager<PullRequest>
 			for (PullRequest request: query(EntityCriteria.of(PullRequest.class).add(criterion))) {
 				boolean sourceUpdated = request.getSource() != null 
 						&& request.getSource().equals(projectAndBranch);
-				checkAsync(request, sourceUpdated, sourceUpdated);
+				checkAsync(request, sourceUpdated, sourceUpdated, !sourceUpdated);
 			}
 		}
 	}
@@ -646,7 +701,13 @@ public class DefaultPullRequestManager extends BaseEntityManager<PullRequest>
 	}
 	
 	@Sessional
+	@Override
 	public void checkAsync(PullRequest request, boolean sourceUpdated, boolean updateBuildCommit) {
+		checkAsync(request, sourceUpdated, updateBuildCommit, false);
+	}
+	
+	private void checkAsync(PullRequest request, boolean sourceUpdated, boolean updateBuildCommit, 
+							boolean debounce) {
 		Long projectId = request.getTargetProject().getId();
 		Long requestId = request.getId();
 		
@@ -662,30 +723,9 @@ public class DefaultPullRequestManager extends BaseEntityManager<PullRequest>
 
 					@Override
 					public Void call() {
-						try {
-							LockUtils.call(getSerialLockName(requestId), true, new ClusterTask<Void>() {
-
-								private static final long serialVersionUID = 1L;
-
-								@Override
-								public Void call() {
-									transactionManager.run(new ClusterRunnable() {
-
-										private static final long serialVersionUID = 1L;
-
-										@Override
-										public void run() {
-											PullRequest request = load(requestId);
-											check(request, sourceUpdated, updateBuildCommit);
-										}
-
-									});
-									return null;
-								}
-
-							});
-						} catch (Exception e) {
-							logger.error("Error checking pull request", e);
+						if (checkQueue.add(requestId, sourceUpdated, updateBuildCommit, 
+								debounce, System.currentTimeMillis())) {
+							dispatchChecks();
 						}
 						return null;
 					}
@@ -697,6 +737,81 @@ public class DefaultPullRequestManager extends BaseEntityManager<PullRequest>
 		
 	}
 	
+	@Sessional
+	@Override
+	public void prioritizeCheck(PullRequest request) {
+		Long projectId = request.getTargetProject().getId();
+		Long requestId = request.getId();
+		projectManager.submitToActiveServer(projectId, new ClusterTask<Void>() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public Void call() {
+				if (checkQueue.prioritize(requestId, System.currentTimeMillis()))
+					dispatchChecks();
+				return null;
+			}
+
+		});
+	}
+	
+	private void dispatchChecks() {
+		for (var pendingCheck: checkQueue.poll(System.currentTimeMillis())) {
+			Long requestId = pendingCheck.requestId;
+			int priority = pendingCheck.prioritized? VIEWED_CHECK_PRIORITY: CHECK_PRIORITY;
+			workExecutor.submit(new PrioritizedRunnable(priority) {
+
+				@Override
+				public void run() {
+					try {
+						LockUtils.call(getSerialLockName(requestId), true, new ClusterTask<Void>() {
+
+							private static final long serialVersionUID = 1L;
+
+							@Override
+							public Void call() {
+								transactionManager.run(new ClusterRunnable() {
+
+									private static final long serialVersionUID = 1L;
+
+									@Override
+									public void run() {
+										PullRequest request = get(requestId);
+										if (request != null) {
+											check(request, pendingCheck.sourceUpdated, 
+													pendingCheck.updateBuildCommit);
+										}
+									}
+
+								});
+								return null;
+							}
+
+						});
+					} catch (Exception e) {
+						logger.error("Error checking pull request", e);
+					} finally {
+						checkQueue.finish(requestId);
+					}
+					// Dispatch check of this request queued while we are running
+					dispatchChecks();
+				}
+				
+			});
+		}
+	}
+
+	@Override
+	public void execute() {
+		dispatchChecks();
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatSecondlyForever();
+	}
+	
 	@Transactional
 	@Override
 	public void checkReviews(PullRequest request, boolean sourceUpdated) {
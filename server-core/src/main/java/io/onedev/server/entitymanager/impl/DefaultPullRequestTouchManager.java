@@ -0,0 +1,136 @@
+package io.onedev.server.entitymanager.impl;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import io.onedev.server.entitymanager.PullRequestTouchManager;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.ListenerRegistry;
+import io.onedev.server.event.project.pullrequest.*;
+import io.onedev.server.model.*;
+import io.onedev.server.model.support.pullrequest.changedata.PullRequestDescriptionChangeData;
+import io.onedev.server.model.support.pullrequest.changedata.PullRequestTitleChangeData;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.persistence.annotation.Transactional;
+import io.onedev.server.persistence.dao.BaseEntityManager;
+import io.onedev.server.persistence.dao.Dao;
+import io.onedev.server.persistence.dao.EntityCriteria;
+import org.hibernate.criterion.Restrictions;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaDelete;
+import javax.persistence.criteria.Root;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static io.onedev.server.model.PullRequestTouch.PROP_REQUEST_ID;
+import static io.onedev.server.model.PullRequestTouch.PROP_PROJECT;
+
+@Singleton
+public class DefaultPullRequestTouchManager extends BaseEntityManager<PullRequestTouch> 
+		implements PullRequestTouchManager {
+	
+	private static final int BATCH_SIZE = 500;
+	
+	private final ProjectManager projectManager;
+	
+	private final TransactionManager transactionManager;
+	
+	private final ListenerRegistry listenerRegistry;
+	
+	@Inject
+    public DefaultPullRequestTouchManager(Dao dao, ProjectManager projectManager, TransactionManager transactionManager, 
+									ListenerRegistry listenerRegistry) {
+        super(dao);
+		this.projectManager = projectManager;
+		this.transactionManager = transactionManager;
+		this.listenerRegistry = listenerRegistry;
+    }
+
+	@Transactional
+	@Override
+	public void touch(Project project, Collection<Long> requestIds, boolean newRequests) {
+		var projectId = project.getId();
+		transactionManager.runAfterCommit(() -> transactionManager.runAsync(() -> {
+			var innerProject = projectManager.load(projectId);
+			
+			if (!newRequests) {
+				for (var partition: Lists.partition(new ArrayList<>(requestIds), BATCH_SIZE)) {
+					CriteriaBuilder builder = getSession().getCriteriaBuilder();
+					CriteriaDelete<PullRequestTouch> criteriaDelete = builder.createCriteriaDelete(PullRequestTouch.class);
+					Root<PullRequestTouch> root = criteriaDelete.from(PullRequestTouch.class);
+					criteriaDelete.where(
+							builder.equal(root.get(PROP_PROJECT), innerProject),
+							root.get(PROP_REQUEST_ID).in(partition));
+					getSession().createQuery(criteriaDelete).executeUpdate();
+				}
+			}
+			
+			for (var requestId: requestIds) {
+				var touch = new PullRequestTouch();
+				touch.setProject(innerProject);
+				touch.setRequestId(requestId);
+				dao.persist(touch);
+			}
+			listenerRegistry.post(new PullRequestsTouched(innerProject, requestIds));
+		}));
+	}
+	
+	@Sessional
+	@Override
+	public List<PullRequestTouch> queryTouchesAfter(Long projectId, Long afterTouchId, int count) {
+		EntityCriteria<PullRequestTouch> criteria = EntityCriteria.of(PullRequestTouch.class);
+		criteria.add(Restrictions.eq("project.id", projectId));
+		criteria.add(Restrictions.gt(AbstractEntity.PROP_ID, afterTouchId));
+		return dao.query(criteria, 0, count);
+	}
+	
+	@Transactional
+	@Listen
+	public void on(PullRequestOpened event) {
+		touch(event.getProject(), Sets.newHashSet(event.getRequest().getId()), true);
+	}
+
+	@Transactional
+	@Listen
+	public void on(PullRequestChanged event) {
+		var data = event.getChange().getData();
+		if (data instanceof PullRequestTitleChangeData || data instanceof PullRequestDescriptionChangeData)
+			touch(event.getProject(), Sets.newHashSet(event.getRequest().getId()), false);
+	}
+
+	@Transactional
+	@Listen
+	public void on(PullRequestCommentCreated event) {
+		touch(event.getProject(), Sets.newHashSet(event.getRequest().getId()), false);
+	}
+
+	@Transactional
+	@Listen
+	public void on(PullRequestCommentEdited event) {
+		touch(event.getProject(), Sets.newHashSet(event.getRequest().getId()), false);
+	}
+
+	@Transactional
+	@Listen
+	public void on(PullRequestCommentDeleted event) {
+		touch(event.getProject(), Sets.newHashSet(event.getRequest().getId()), false);
+	}
+
+	@Transactional
+	@Listen
+	public void on(PullRequestDeleted event) {
+		touch(event.getProject(), Sets.newHashSet(event.getRequestId()), false);
+	}
+
+	@Transactional
+	@Listen
+	public void on(PullRequestsDeleted event) {
+		touch(event.getProject(), event.getRequestIds(), false);
+	}
+
+}
\ No newline at end of file
@@ -0,0 +1,114 @@
+package io.onedev.server.entitymanager.impl;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Queue of pending pull request checks. Checks of same pull request are coalesced into one
+ * check with flags combined, and at most one check of a pull request is dispatched at any
+ * time. Checks triggered by target branch updates are debounced, as a busy target branch
+ * may otherwise cause merge preview of all pull requests targeting it to be re-calculated
+ * upon every push. Debounced check is postponed upon further target branch updates, but
+ * not longer than {@link #MAX_DEBOUNCE_DELAY} since it is queued.
+ */
+class PullRequestCheckQueue {
+
+	static final long DEBOUNCE_DELAY = 5000L;
+
+	static final long MAX_DEBOUNCE_DELAY = 60000L;
+
+	private final Map<Long, PendingCheck> pendingChecks = new HashMap<>();
+
+	private final Set<Long> runningChecks = new HashSet<>();
+
+	/**
+	 * @return <tt>true</tt> if check of specified request is due now, and should be dispatched
+	 */
+	synchronized boolean add(Long requestId, boolean sourceUpdated, boolean updateBuildCommit,
+							 boolean debounce, long now) {
+		PendingCheck pendingCheck = pendingChecks.get(requestId);
+		if (pendingCheck == null) {
+			pendingCheck = new PendingCheck(requestId, now);
+			pendingChecks.put(requestId, pendingCheck);
+		}
+		pendingCheck.sourceUpdated |= sourceUpdated;
+		pendingCheck.updateBuildCommit |= updateBuildCommit;
+		if (debounce)
+			pendingCheck.dueTime = Math.min(now + DEBOUNCE_DELAY, pendingCheck.queueTime + MAX_DEBOUNCE_DELAY);
+		else
+			pendingCheck.dueTime = now;
+		return pendingCheck.dueTime <= now && !runningChecks.contains(requestId);
+	}
+
+	/**
+	 * Mark pending check of specified request as prioritized, and make it due immediately
+	 *
+	 * @return <tt>true</tt> if there is a pending check of specified request
+	 */
+	synchronized boolean prioritize(Long requestId, long now) {
+		PendingCheck pendingCheck = pendingChecks.get(requestId);
+		if (pendingCheck != null) {
+			pendingCheck.prioritized = true;
+			pendingCheck.dueTime = now;
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	/**
+	 * Poll due checks, with prioritized checks first. Polled checks are considered running
+	 * until {@link #finish(Long)} is called, and further checks of same request will not be
+	 * polled until then
+	 */
+	synchronized List<PendingCheck> poll(long now) {
+		List<PendingCheck> dueChecks = new ArrayList<>();
+		for (Iterator<PendingCheck> it = pendingChecks.values().iterator(); it.hasNext();) {
+			PendingCheck pendingCheck = it.next();
+			if (pendingCheck.dueTime <= now && !runningChecks.contains(pendingCheck.requestId)) {
+				dueChecks.add(pendingCheck);
+				runningChecks.add(pendingCheck.requestId);
+				it.remove();
+			}
+		}
+		dueChecks.sort(Comparator.comparing((PendingCheck it) -> !it.prioritized)
+				.thenComparingLong(it -> it.dueTime));
+		return dueChecks;
+	}
+
+	synchronized void finish(Long requestId) {
+		runningChecks.remove(requestId);
+	}
+
+	synchronized int size() {
+		return pendingChecks.size();
+	}
+
+	static class PendingCheck {
+
+		final Long requestId;
+
+		final long queueTime;
+
+		long dueTime;
+
+		boolean sourceUpdated;
+
+		boolean updateBuildCommit;
+
+		boolean prioritized;
+
+		PendingCheck(Long requestId, long queueTime) {
+			this.requestId = requestId;
+			this.queueTime = queueTime;
+		}
+
+	}
+
+}
@@ -0,0 +1,11 @@
+package io.onedev.server.event.agent;
+
+import io.onedev.server.model.Agent;
+
+public class AgentAttributesUpdated extends AgentEvent {
+	
+	public AgentAttributesUpdated(Agent agent) {
+		super(agent);
+	}
+
+}
@@ -0,0 +1,30 @@
+package io.onedev.server.event.project.build;
+
+import io.onedev.server.event.project.ProjectEvent;
+import io.onedev.server.model.Project;
+import io.onedev.server.security.SecurityUtils;
+
+import java.util.Collection;
+import java.util.Date;
+
+public class BuildsTouched extends ProjectEvent {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final Collection<Long> buildIds;
+	
+	public BuildsTouched(Project project, Collection<Long> buildIds) {
+		super(SecurityUtils.getUser(), new Date(), project);
+		this.buildIds = buildIds;
+	}
+	
+	public Collection<Long> getBuildIds() {
+		return buildIds;
+	}
+
+	@Override
+	public String getActivity() {
+		return "builds touched";
+	}
+	
+}
@@ -0,0 +1,30 @@
+package io.onedev.server.event.project.codecomment;
+
+import io.onedev.server.event.project.ProjectEvent;
+import io.onedev.server.model.Project;
+import io.onedev.server.security.SecurityUtils;
+
+import java.util.Collection;
+import java.util.Date;
+
+public class CodeCommentsTouched extends ProjectEvent {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final Collection<Long> commentIds;
+	
+	public CodeCommentsTouched(Project project, Collection<Long> commentIds) {
+		super(SecurityUtils.getUser(), new Date(), project);
+		this.commentIds = commentIds;
+	}
+	
+	public Collection<Long> getCommentIds() {
+		return commentIds;
+	}
+
+	@Override
+	public String getActivity() {
+		return "code comments touched";
+	}
+	
+}
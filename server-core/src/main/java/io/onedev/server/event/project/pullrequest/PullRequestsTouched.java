@@ -0,0 +1,30 @@
+package io.onedev.server.event.project.pullrequest;
+
+import io.onedev.server.event.project.ProjectEvent;
+import io.onedev.server.model.Project;
+import io.onedev.server.security.SecurityUtils;
+
+import java.util.Collection;
+import java.util.Date;
+
+public class PullRequestsTouched extends ProjectEvent {
+	
+	private static final long serialVersionUID = 1L;
+	
+	private final Collection<Long> requestIds;
+	
+	public PullRequestsTouched(Project project, Collection<Long> requestIds) {
+		super(SecurityUtils.getUser(), new Date(), project);
+		this.requestIds = requestIds;
+	}
+	
+	public Collection<Long> getRequestIds() {
+		return requestIds;
+	}
+
+	@Override
+	public String getActivity() {
+		return "pull requests touched";
+	}
+	
+}
@@ -0,0 +1,76 @@
+package io.onedev.server.git;
+
+import java.io.InputStream;
+import java.io.Serializable;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+public interface ArchiveManager {
+
+	/**
+	 * Get information of archive of specified revision. The archive itself is not generated, so 
+	 * that it is cheap to validate client cached archive against returned hash
+	 *
+	 * @param projectId
+	 * 			id of the project to archive
+	 * @param revision
+	 * 			revision to archive
+	 * @param format
+	 * 			archive format, either <tt>zip</tt> or <tt>tgz</tt>
+	 * @param prefix
+	 * 			prefix of paths inside the archive, <tt>null</tt> for no prefix
+	 * @return information of the archive
+	 */
+	ArchiveInfo getArchive(Long projectId, String revision, String format, @Nullable String prefix);
+
+	/**
+	 * Generate archive of specified commit on active server of the project if it is not cached 
+	 * there. Concurrent calls for the same archive wait for a single generation
+	 * 
+	 * @return length of the archive
+	 */
+	long generateArchive(Long projectId, ObjectId commitId, String format, @Nullable String prefix);
+
+	/**
+	 * Open archive of specified commit for read. This method should be called on active server
+	 * of the project, and the archive will be generated again if it has been evicted from cache
+	 * since calling {@link #generateArchive(Long, ObjectId, String, String)}
+	 */
+	InputStream openArchive(Long projectId, ObjectId commitId, String format, @Nullable String prefix);
+
+	class ArchiveInfo implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String commitHash;
+
+		private final String hash;
+
+		private final long lastModified;
+
+		public ArchiveInfo(String commitHash, String hash, long lastModified) {
+			this.commitHash = commitHash;
+			this.hash = hash;
+			this.lastModified = lastModified;
+		}
+
+		public String getCommitHash() {
+			return commitHash;
+		}
+
+		/**
+		 * @return hash identifying content of the archive, suitable to be used as ETag
+		 */
+		public String getHash() {
+			return hash;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+	}
+
+}
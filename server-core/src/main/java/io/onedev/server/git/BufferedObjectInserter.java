@@ -0,0 +1,147 @@
+package io.onedev.server.git;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.util.IO;
+
+/**
+ * Object inserter holding inserted objects in memory until {@link #flush()} is called. Objects
+ * not flushed are discarded when the inserter is closed, so that an in-core merge failing with
+ * conflicts does not leave unreferenced objects in the repository. Readers created via
+ * {@link #newReader()} can see objects not flushed yet.
+ *
+ * Objects larger than {@link #MAX_BUFFERED_SIZE} are written to underlying inserter directly
+ * to avoid excessive memory usage.
+ */
+public class BufferedObjectInserter extends ObjectInserter {
+
+	private static final int MAX_BUFFERED_SIZE = 16 * 1024 * 1024;
+
+	private final ObjectInserter delegate;
+
+	private final Map<ObjectId, BufferedObject> bufferedObjects = new LinkedHashMap<>();
+
+	public BufferedObjectInserter(ObjectInserter delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public ObjectId insert(int type, byte[] data, int off, int len) throws IOException {
+		ObjectId objectId = idFor(type, data, off, len);
+		if (!bufferedObjects.containsKey(objectId))
+			bufferedObjects.put(objectId, new BufferedObject(type, Arrays.copyOfRange(data, off, off + len)));
+		return objectId;
+	}
+
+	@Override
+	public ObjectId insert(int type, long length, InputStream in) throws IOException {
+		if (length <= MAX_BUFFERED_SIZE) {
+			byte[] data = new byte[(int) length];
+			IO.readFully(in, data, 0, data.length);
+			return insert(type, data, 0, data.length);
+		} else {
+			return delegate.insert(type, length, in);
+		}
+	}
+
+	@Override
+	public PackParser newPackParser(InputStream in) throws IOException {
+		return delegate.newPackParser(in);
+	}
+
+	@Override
+	public ObjectReader newReader() {
+		ObjectReader reader = delegate.newReader();
+		return new ObjectReader.Filter() {
+
+			@Override
+			protected ObjectReader delegate() {
+				return reader;
+			}
+
+			@Override
+			public ObjectReader newReader() {
+				return BufferedObjectInserter.this.newReader();
+			}
+
+			@Override
+			public boolean has(AnyObjectId objectId) throws IOException {
+				return bufferedObjects.containsKey(objectId) || super.has(objectId);
+			}
+
+			@Override
+			public boolean has(AnyObjectId objectId, int typeHint) throws IOException {
+				return bufferedObjects.containsKey(objectId) || super.has(objectId, typeHint);
+			}
+
+			@Override
+			public ObjectLoader open(AnyObjectId objectId, int typeHint)
+					throws MissingObjectException, IncorrectObjectTypeException, IOException {
+				BufferedObject bufferedObject = bufferedObjects.get(objectId);
+				if (bufferedObject != null) {
+					if (typeHint != OBJ_ANY && typeHint != bufferedObject.type)
+						throw new IncorrectObjectTypeException(objectId.copy(), typeHint);
+					return new ObjectLoader.SmallObject(bufferedObject.type, bufferedObject.data);
+				} else {
+					return super.open(objectId, typeHint);
+				}
+			}
+
+			@Override
+			public long getObjectSize(AnyObjectId objectId, int typeHint)
+					throws MissingObjectException, IncorrectObjectTypeException, IOException {
+				BufferedObject bufferedObject = bufferedObjects.get(objectId);
+				if (bufferedObject != null)
+					return bufferedObject.data.length;
+				else
+					return super.getObjectSize(objectId, typeHint);
+			}
+
+			@Override
+			public ObjectInserter getCreatedFromInserter() {
+				return BufferedObjectInserter.this;
+			}
+
+		};
+	}
+
+	@Override
+	public void flush() throws IOException {
+		for (BufferedObject bufferedObject: bufferedObjects.values())
+			delegate.insert(bufferedObject.type, bufferedObject.data);
+		delegate.flush();
+		bufferedObjects.clear();
+	}
+
+	@Override
+	public void close() {
+		bufferedObjects.clear();
+		delegate.close();
+	}
+
+	private static class BufferedObject {
+
+		final int type;
+
+		final byte[] data;
+
+		BufferedObject(int type, byte[] data) {
+			this.type = type;
+			this.data = data;
+		}
+
+	}
+
+}
@@ -0,0 +1,174 @@
+package io.onedev.server.git;
+
+import static io.onedev.server.util.IOUtils.BUFFER_SIZE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.Lock;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jgit.api.ArchiveCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.archive.TgzFormat;
+import org.eclipse.jgit.archive.ZipFormat;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import com.google.common.hash.Hashing;
+
+import io.onedev.commons.bootstrap.Bootstrap;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.commons.utils.LockUtils;
+import io.onedev.server.ServerConfig;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.git.exception.ObjectNotFoundException;
+import io.onedev.server.util.DiskCache;
+
+/**
+ * Archives are cached as files under temp directory, keyed by hash of archived tree, commit
+ * time (used by JGit as modification time of archive entries), format and prefix. Archive
+ * content is fully determined by the key, so cached archives never need to be invalidated,
+ * and are shared by all projects on the server. Least recently used archives are removed
+ * when total cache size exceeds disk cache size of the server.
+ */
+@Singleton
+public class DefaultArchiveManager implements ArchiveManager {
+
+	private static final String FORMAT_ZIP = "zip";
+
+	private static final String FORMAT_TGZ = "tgz";
+
+	private final ProjectManager projectManager;
+
+	private final DiskCache cache;
+
+	@Inject
+	public DefaultArchiveManager(ProjectManager projectManager, ServerConfig serverConfig) {
+		this(projectManager, new DiskCache(new File(Bootstrap.getTempDir(), "archive-cache"), 
+				serverConfig.getDiskCacheSize() * 1024L * 1024L));
+	}
+
+	public DefaultArchiveManager(ProjectManager projectManager, DiskCache cache) {
+		this.projectManager = projectManager;
+		this.cache = cache;
+
+		// Register once here, as registering/unregistering per request races with each other
+		ArchiveCommand.registerFormat(FORMAT_ZIP, new ZipFormat());
+		ArchiveCommand.registerFormat(FORMAT_TGZ, new TgzFormat());
+	}
+
+	@Override
+	public ArchiveInfo getArchive(Long projectId, String revision, String format, @Nullable String prefix) {
+		return projectManager.runOnActiveServer(projectId, () -> {
+			Repository repository = projectManager.getRepository(projectId);
+			ObjectId commitId = repository.resolve(revision);
+			if (commitId == null)
+				throw new ObjectNotFoundException("Unable to find revision: " + revision);
+			RevCommit commit = parseCommit(repository, commitId);
+			String hash = getHash(commit, format, prefix);
+			return new ArchiveInfo(commit.name(), hash, commit.getCommitTime() * 1000L);
+		});
+	}
+
+	@Override
+	public long generateArchive(Long projectId, ObjectId commitId, String format, @Nullable String prefix) {
+		return projectManager.runOnActiveServer(projectId, () -> {
+			Repository repository = projectManager.getRepository(projectId);
+			return cache(repository, parseCommit(repository, commitId), format, prefix);
+		});
+	}
+
+	@Override
+	public InputStream openArchive(Long projectId, ObjectId commitId, String format, @Nullable String prefix) {
+		Repository repository = projectManager.getRepository(projectId);
+		RevCommit commit = parseCommit(repository, commitId);
+		String cachePath = getCachePath(getHash(commit, format, prefix), format);
+		while (true) {
+			cache(repository, commit, format, prefix);
+			InputStream is = cache.open(cachePath);
+			if (is != null)
+				return is;
+			// Evicted concurrently, generate again
+		}
+	}
+
+	private RevCommit parseCommit(Repository repository, ObjectId commitId) {
+		try (RevWalk revWalk = new RevWalk(repository)) {
+			return revWalk.parseCommit(commitId);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private String getHash(RevCommit commit, String format, @Nullable String prefix) {
+		return Hashing.sha256().newHasher()
+				.putString(commit.getTree().name(), UTF_8)
+				.putInt(commit.getCommitTime())
+				.putString(format, UTF_8)
+				.putString(StringUtils.defaultString(prefix), UTF_8)
+				.hash().toString();
+	}
+
+	private String getCachePath(String hash, String format) {
+		return hash + "." + format;
+	}
+
+	/**
+	 * @return length of cached archive
+	 */
+	private long cache(Repository repository, RevCommit commit, String format, @Nullable String prefix) {
+		String cachePath = getCachePath(getHash(commit, format, prefix), format);
+		Long length = cache.getLength(cachePath);
+		if (length != null)
+			return length;
+
+		Lock lock = LockUtils.getLock("archive-cache:" + cachePath);
+		lock.lock();
+		try {
+			length = cache.getLength(cachePath);
+			if (length != null)
+				return length;
+
+			File tempFile = cache.newTempFile(cachePath);
+			try {
+				try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE)) {
+					ArchiveCommand archive = Git.wrap(repository).archive();
+					archive.setFormat(format);
+					archive.setTree(commit);
+					if (prefix != null)
+						archive.setPrefix(prefix);
+					archive.setOutputStream(os);
+					archive.call();
+				}
+				return cache.store(cachePath, tempFile);
+			} finally {
+				if (tempFile.exists())
+					FileUtils.deleteFile(tempFile);
+			}
+		} catch (IOException | GitAPIException e) {
+			throw new RuntimeException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Listen
+	public void on(SystemStarted event) {
+		cache.clean();
+	}
+
+}
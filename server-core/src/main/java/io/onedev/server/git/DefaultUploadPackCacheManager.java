@@ -0,0 +1,399 @@
+package io.onedev.server.git;
+
+import static io.onedev.server.util.IOUtils.BUFFER_SIZE;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Comparator.comparing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Lock;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.jgit.lib.Ref;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import io.onedev.commons.bootstrap.Bootstrap;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.commons.utils.LockUtils;
+import io.onedev.server.ServerConfig;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.project.RefUpdated;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.util.DiskCache;
+
+/**
+ * Responses are cached as files under temp directory, keyed by hash of normalized request,
+ * protocol and refs of the project. Only the final request of a negotiation (the one
+ * containing <tt>done</tt>) with side band enabled is cached, as response of other requests
+ * is either cheap to compute, or can not be verified for completeness. Identical requests
+ * arriving while the response is being computed wait for it and are then served from cache,
+ * so that concurrent clones of same commit only run upload pack once. Hash of refs is 
+ * remembered per project until refs are updated, so that fetches do not need to read all 
+ * refs to compute the key.
+ */
+@Singleton
+public class DefaultUploadPackCacheManager implements UploadPackCacheManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultUploadPackCacheManager.class);
+
+	private static final int MAX_REQUEST_SIZE = 1024 * 1024;
+
+	private static final byte[] FLUSH_PKT = "0000".getBytes(US_ASCII);
+
+	private final ProjectManager projectManager;
+
+	private final DiskCache cache;
+
+	// project id -> number of times refs of the project being updated
+	private final Map<Long, Long> generations = new HashMap<>();
+
+	// project id -> hash of refs of the project, guarded by generations
+	private final Map<Long, String> refsHashes = new HashMap<>();
+
+	@Inject
+	public DefaultUploadPackCacheManager(ProjectManager projectManager, ServerConfig serverConfig) {
+		this(projectManager, new DiskCache(new File(Bootstrap.getTempDir(), "upload-pack-cache"), 
+				serverConfig.getDiskCacheSize() * 1024L * 1024L));
+	}
+
+	DefaultUploadPackCacheManager(ProjectManager projectManager, DiskCache cache) {
+		this.projectManager = projectManager;
+		this.cache = cache;
+	}
+
+	@Override
+	public void uploadPack(Long projectId, @Nullable String protocol, InputStream stdin, OutputStream stdout,
+						   Runner runner) throws IOException, InterruptedException, ExecutionException {
+		byte[] request = readRequest(stdin);
+		if (request.length > MAX_REQUEST_SIZE) {
+			runner.run(new SequenceInputStream(new ByteArrayInputStream(request), stdin), stdout);
+			return;
+		}
+
+		if (isGzipped(request)) {
+			// Git clients compress large requests with many haves. Upload pack only accepts 
+			// plain requests, so decompress here also to normalize them
+			byte[] decompressed;
+			try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(request))) {
+				decompressed = readRequest(is);
+			}
+			if (decompressed.length > MAX_REQUEST_SIZE) {
+				runner.run(new ByteArrayInputStream(request), stdout);
+				return;
+			}
+			request = decompressed;
+		}
+
+		String normalizedRequest = normalizeRequest(request);
+		if (normalizedRequest == null) {
+			runner.run(new ByteArrayInputStream(request), stdout);
+			return;
+		}
+
+		long generation = getGeneration(projectId);
+		String key = Hashing.sha256().newHasher()
+				.putString(StringUtils.defaultString(protocol), UTF_8).putString("\n", UTF_8)
+				.putString(normalizedRequest, UTF_8)
+				.putString(getRefsHash(projectId, generation), UTF_8)
+				.hash().toString();
+
+		String cachePath = projectId + "/" + key;
+		if (serve(cachePath, stdout))
+			return;
+
+		Lock lock = LockUtils.getLock("upload-pack-cache:" + projectId + ":" + key);
+		lock.lockInterruptibly();
+		try {
+			if (serve(cachePath, stdout))
+				return;
+
+			File tempFile = cache.newTempFile(cachePath);
+			try {
+				CachingOutputStream cachingStdout = new CachingOutputStream(stdout, tempFile, 
+						cache.getMaxSize() / 4);
+				try {
+					runner.run(new ByteArrayInputStream(request), cachingStdout);
+				} finally {
+					cachingStdout.closeCache();
+				}
+				if (cachingStdout.isComplete())
+					store(projectId, generation, cachePath, tempFile);
+			} finally {
+				if (tempFile.exists())
+					FileUtils.deleteFile(tempFile);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private byte[] readRequest(InputStream is) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int length;
+		while (baos.size() <= MAX_REQUEST_SIZE && (length = is.read(buffer)) != -1)
+			baos.write(buffer, 0, length);
+		return baos.toByteArray();
+	}
+
+	private static boolean isGzipped(byte[] request) {
+		// Pkt-line always starts with hex digits, so there is no ambiguity
+		return request.length >= 2 && (request[0] & 0xff) == 0x1f && (request[1] & 0xff) == 0x8b;
+	}
+
+	private long getGeneration(Long projectId) {
+		synchronized (generations) {
+			return generations.getOrDefault(projectId, 0L);
+		}
+	}
+
+	private String getRefsHash(Long projectId, long generation) throws IOException {
+		synchronized (generations) {
+			String refsHash = refsHashes.get(projectId);
+			if (refsHash != null)
+				return refsHash;
+		}
+		Hasher hasher = Hashing.sha256().newHasher();
+		List<Ref> refs = new ArrayList<>(projectManager.getRepository(projectId).getRefDatabase().getRefs());
+		refs.sort(comparing(Ref::getName));
+		for (Ref ref: refs) {
+			hasher.putString(ref.getName(), UTF_8);
+			if (ref.getObjectId() != null)
+				hasher.putString(ref.getObjectId().name(), UTF_8);
+		}
+		String refsHash = hasher.hash().toString();
+		synchronized (generations) {
+			// Refs might be updated while computing hash
+			if (generations.getOrDefault(projectId, 0L) == generation)
+				refsHashes.put(projectId, refsHash);
+		}
+		return refsHash;
+	}
+
+	private boolean serve(String cachePath, OutputStream stdout) throws IOException {
+		InputStream is = cache.open(cachePath);
+		if (is == null)
+			return false;
+		try (is) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int length;
+			while ((length = is.read(buffer)) != -1) {
+				stdout.write(buffer, 0, length);
+				stdout.flush();
+			}
+		}
+		return true;
+	}
+
+	private void store(Long projectId, long generation, String cachePath, File tempFile) {
+		synchronized (generations) {
+			// Refs updated while computing response
+			if (generations.getOrDefault(projectId, 0L) != generation)
+				return;
+			try {
+				cache.store(cachePath, tempFile);
+			} catch (IOException e) {
+				logger.warn("Error caching upload pack response", e);
+			}
+		}
+	}
+
+	private void invalidate(Long projectId) {
+		synchronized (generations) {
+			generations.merge(projectId, 1L, Long::sum);
+			refsHashes.remove(projectId);
+			String projectPrefix = projectId + "/";
+			cache.removeIf(it -> it.startsWith(projectPrefix));
+		}
+	}
+
+	@Sessional
+	@Listen
+	public void on(RefUpdated event) {
+		invalidate(event.getProject().getId());
+	}
+
+	@Listen
+	public void on(SystemStarted event) {
+		cache.clean();
+	}
+
+	private static boolean isVolatileCapability(String capability) {
+		return capability.startsWith("agent=") || capability.startsWith("session-id=");
+	}
+
+	/**
+	 * Normalize specified upload pack request so that identical requests from different
+	 * clients result in same string. Capabilities identifying the client are removed, and
+	 * capabilities of protocol v0 are sorted.
+	 *
+	 * @return normalized request, or <tt>null</tt> if the request is malformed, or response
+	 * 			of the request should not be cached
+	 */
+	@Nullable
+	static String normalizeRequest(byte[] request) {
+		StringBuilder builder = new StringBuilder();
+		boolean sideBand = false;
+		boolean done = false;
+		boolean firstWant = true;
+		int pos = 0;
+		while (pos < request.length) {
+			if (pos + 4 > request.length)
+				return null;
+			int length;
+			try {
+				length = Integer.parseInt(new String(request, pos, 4, US_ASCII), 16);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if (length == 0 || length == 1 || length == 2) {
+				// flush, delimiter and response end packets
+				builder.append(String.format("%04x\n", length));
+				pos += 4;
+				continue;
+			} else if (length < 4 || pos + length > request.length) {
+				return null;
+			}
+
+			String line = StringUtils.removeEnd(new String(request, pos + 4, length - 4, UTF_8), "\n");
+			pos += length;
+			if (line.equals("command=fetch")) {
+				// Protocol v2 always sends pack data via side band
+				sideBand = true;
+			} else if (line.equals("done")) {
+				done = true;
+			} else if (isVolatileCapability(line)) {
+				continue;
+			} else if (firstWant && line.startsWith("want ")) {
+				firstWant = false;
+				List<String> fields = new ArrayList<>(Arrays.asList(line.split(" ")));
+				List<String> capabilities = fields.subList(Math.min(2, fields.size()), fields.size());
+				capabilities.removeIf(DefaultUploadPackCacheManager::isVolatileCapability);
+				if (capabilities.stream().anyMatch(it -> it.startsWith("side-band")))
+					sideBand = true;
+				Collections.sort(capabilities);
+				line = String.join(" ", fields);
+			}
+			builder.append(line).append("\n");
+		}
+		if (done && sideBand)
+			return builder.toString();
+		else
+			return null;
+	}
+
+	/**
+	 * Write to client and cache file at the same time. Writing to cache file is abandoned if
+	 * it fails or response gets too large, without affecting the client
+	 */
+	private static class CachingOutputStream extends OutputStream {
+
+		private final OutputStream out;
+
+		private OutputStream cache;
+
+		private boolean abandoned;
+
+		private long size;
+
+		private final long maxSize;
+
+		private final byte[] tail = new byte[4];
+
+		CachingOutputStream(OutputStream out, File cacheFile, long maxSize) {
+			this.out = out;
+			this.maxSize = maxSize;
+			try {
+				cache = new FileOutputStream(cacheFile);
+			} catch (FileNotFoundException e) {
+				logger.warn("Error opening upload pack cache file", e);
+				abandoned = true;
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			if (len >= tail.length) {
+				System.arraycopy(b, off + len - tail.length, tail, 0, tail.length);
+			} else {
+				System.arraycopy(tail, len, tail, 0, tail.length - len);
+				System.arraycopy(b, off, tail, tail.length - len, len);
+			}
+			size += len;
+			if (cache != null) {
+				try {
+					if (size <= maxSize) {
+						cache.write(b, off, len);
+					} else {
+						abandoned = true;
+						closeCache();
+					}
+				} catch (IOException e) {
+					logger.warn("Error writing upload pack cache file", e);
+					abandoned = true;
+					closeCache();
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		void closeCache() {
+			if (cache != null) {
+				try {
+					cache.close();
+				} catch (IOException e) {
+					logger.warn("Error closing upload pack cache file", e);
+					abandoned = true;
+				}
+				cache = null;
+			}
+		}
+
+		/**
+		 * @return whether the response is fully written to cache file. Response of side band
+		 * 			enabled request always ends with a flush packet, and its absence indicates
+		 * 			that upload pack exits early with tolerated errors
+		 */
+		boolean isComplete() {
+			return !abandoned && size >= tail.length && Arrays.equals(tail, FLUSH_PKT);
+		}
+
+	}
+
+}
@@ -68,17 +68,21 @@ public class GitFilter implements Filter {
 	
 	private final ClusterManager clusterManager;
 	
+	private final UploadPackCacheManager uploadPackCacheManager;
+	
 	private final Set<CodePullAuthorizationSource> codePullAuthorizationSources;
 	
 	@Inject
 	public GitFilter(OneDev oneDev, ProjectManager projectManager, WorkExecutor workExecutor, 
 					 SessionManager sessionManager, ClusterManager clusterManager, 
+					 UploadPackCacheManager uploadPackCacheManager, 
 					 Set<CodePullAuthorizationSource> codePullAuthorizationSources) {
 		this.onedev = oneDev;
 		this.projectManager = projectManager;
 		this.workExecutor = workExecutor;
 		this.sessionManager = sessionManager;
 		this.clusterManager = clusterManager;
+		this.uploadPackCacheManager = uploadPackCacheManager;
 		this.codePullAuthorizationSources = codePullAuthorizationSources;
 	}
 	
@@ -167,14 +171,16 @@ public class GitFilter implements Filter {
 			if (activeServer.equals(clusterManager.getLocalServerAddress())) {
 				File gitDir = projectManager.getGitDir(projectId);
 				if (upload) {
-					workExecutor.submit(new PrioritizedRunnable(PRIORITY) {
-						
-						@Override
-						public void run() {
-							CommandUtils.uploadPack(gitDir, hookEnvs, protocol, stdin, stdout);
-						}
-						
-					}).get();
+					uploadPackCacheManager.uploadPack(projectId, protocol, stdin, stdout, (input, output) -> {
+						workExecutor.submit(new PrioritizedRunnable(PRIORITY) {
+							
+							@Override
+							public void run() {
+								CommandUtils.uploadPack(gitDir, hookEnvs, protocol, input, output);
+							}
+							
+						}).get();
+					});
 				} else {
 					workExecutor.submit(new PrioritizedRunnable(PRIORITY) {
 						
@@ -236,7 +242,8 @@ public class GitFilter implements Filter {
 				// Run immediately if accessed with cluster credential to avoid 
 				// possible deadlock as caller itself might also hold some 
 				// resources (db connections, work executors etc) 
-				CommandUtils.uploadPack(gitDir, hookEnvs, protocol, stdin, stdout);
+				uploadPackCacheManager.uploadPack(projectId, protocol, stdin, stdout, 
+						(input, output) -> CommandUtils.uploadPack(gitDir, hookEnvs, protocol, input, output));
 			} else {
 				// Run immediately. See above for reason
 				CommandUtils.receivePack(gitDir, hookEnvs, protocol, stdin, stdout);
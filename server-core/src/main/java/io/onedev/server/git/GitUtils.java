@@ -13,6 +13,7 @@ import io.onedev.server.git.exception.RefUpdateException;
 import io.onedev.server.git.service.DiffEntryFacade;
 import io.onedev.server.git.service.RefFacade;
 import io.onedev.server.util.GpgUtils;
+import io.onedev.server.util.Pair;
 import org.bouncycastle.bcpg.ArmoredOutputStream;
 import org.bouncycastle.bcpg.BCPGOutputStream;
 import org.bouncycastle.bcpg.HashAlgorithmTags;
@@ -415,67 +416,106 @@ public class GitUtils {
 
 	@Nullable
 	public static ObjectId rebase(Repository repository, ObjectId source, ObjectId target, PersonIdent committer) {
-		try (RevWalk revWalk = new RevWalk(repository); ObjectInserter inserter = repository.newObjectInserter();) {
+		List<Pair<ObjectId, ObjectId>> rebasedTrees = rebaseTrees(repository, source, target);
+		if (rebasedTrees != null)
+			return commitRebase(repository, target, rebasedTrees, committer);
+		else
+			return null;
+	}
+
+	/**
+	 * Rebase trees of commits reachable from source but not from target onto target, without 
+	 * creating any commits. Trees are only written into repository if all commits can be rebased
+	 * 
+	 * @return list of pairs of original commit id and rebased tree id in commit order, with 
+	 * 			commits becoming empty after rebase excluded, or <tt>null</tt> if there are conflicts 
+	 */
+	@Nullable
+	public static List<Pair<ObjectId, ObjectId>> rebaseTrees(Repository repository, ObjectId source, ObjectId target) {
+		try (ObjectInserter inserter = new BufferedObjectInserter(repository.newObjectInserter());
+			 ObjectReader reader = inserter.newReader();
+			 RevWalk revWalk = new RevWalk(reader)) {
 			RevCommit sourceCommit = revWalk.parseCommit(source);
 			RevCommit targetCommit = revWalk.parseCommit(target);
 			revWalk.setRevFilter(RevFilter.NO_MERGES);
 			List<RevCommit> commits = RevWalkUtils.find(revWalk, sourceCommit, targetCommit);
 			Collections.reverse(commits);
-			RevCommit headCommit = targetCommit;
+			List<Pair<ObjectId, ObjectId>> rebasedTrees = new ArrayList<>();
+			ObjectId headTreeId = targetCommit.getTree().getId();
+			ObjectId headTreeish = targetCommit;
 			for (RevCommit commit : commits) {
-				ResolveMerger merger = (ResolveMerger) MergeStrategy.RECURSIVE.newMerger(repository, true);
+				ResolveMerger merger = (ResolveMerger) MergeStrategy.RECURSIVE.newMerger(inserter, repository.getConfig());
 				merger.setBase(commit.getParent(0));
-				if (merger.merge(headCommit, commit)) {
-					if (!headCommit.getTree().getId().equals(merger.getResultTreeId())) {
-						if (!commit.getTree().getId().equals(merger.getResultTreeId())
-								|| !commit.getParent(0).equals(headCommit)) {
-							CommitBuilder commitBuilder = new CommitBuilder();
-							commitBuilder.setAuthor(commit.getAuthorIdent());
-							commitBuilder.setCommitter(committer);
-							commitBuilder.setParentId(headCommit);
-							commitBuilder.setMessage(commit.getFullMessage());
-							commitBuilder.setTreeId(merger.getResultTreeId());
-							headCommit = revWalk.parseCommit(inserter.insert(commitBuilder));
-						} else {
-							headCommit = commit;
-						}
+				// Do not flush here, objects should only be written if all commits can be rebased
+				if (merger.merge(false, headTreeish, commit)) {
+					ObjectId resultTreeId = merger.getResultTreeId();
+					if (!headTreeId.equals(resultTreeId)) {
+						rebasedTrees.add(new Pair<>(commit.copy(), resultTreeId));
+						headTreeId = resultTreeId;
+						headTreeish = resultTreeId;
 					}
 				} else {
 					return null;
 				}
 			}
 			inserter.flush();
+			return rebasedTrees;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Create commits on top of target for trees calculated by {@link #rebaseTrees(Repository, ObjectId, ObjectId)}. 
+	 * Original commits are reused if their parents and trees are not changed by the rebase
+	 * 
+	 * @return head of rebased commits
+	 */
+	public static ObjectId commitRebase(Repository repository, ObjectId target,
+										List<Pair<ObjectId, ObjectId>> rebasedTrees, PersonIdent committer) {
+		try (ObjectInserter inserter = repository.newObjectInserter();
+			 RevWalk revWalk = new RevWalk(repository)) {
+			RevCommit headCommit = revWalk.parseCommit(target);
+			for (Pair<ObjectId, ObjectId> rebasedTree: rebasedTrees) {
+				RevCommit commit = revWalk.parseCommit(rebasedTree.getLeft());
+				if (!commit.getTree().getId().equals(rebasedTree.getRight())
+						|| !commit.getParent(0).equals(headCommit)) {
+					CommitBuilder commitBuilder = new CommitBuilder();
+					commitBuilder.setAuthor(commit.getAuthorIdent());
+					commitBuilder.setCommitter(committer);
+					commitBuilder.setParentId(headCommit);
+					commitBuilder.setMessage(commit.getFullMessage());
+					commitBuilder.setTreeId(rebasedTree.getRight());
+					headCommit = revWalk.parseCommit(inserter.insert(commitBuilder));
+				} else {
+					headCommit = commit;
+				}
+			}
+			inserter.flush();
 			return headCommit.copy();
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * Merge specified commits in memory without touching work tree. Objects created by the
+	 * merge are only written into repository if merge succeeds
+	 *
+	 * @return tree id of merge result, or <tt>null</tt> if there are merge conflicts
+	 */
 	@Nullable
-	public static ObjectId merge(Repository repository, ObjectId targetCommitId, ObjectId sourceCommitId,
-								 boolean squash, PersonIdent committer, PersonIdent author, String commitMessage,
-								 boolean useOursOnConflict) {
-		try (RevWalk revWalk = new RevWalk(repository); ObjectInserter inserter = repository.newObjectInserter();) {
-			RevCommit sourceCommit = revWalk.parseCommit(sourceCommitId);
-			RevCommit targetCommit = revWalk.parseCommit(targetCommitId);
+	public static ObjectId mergeTree(Repository repository, ObjectId targetCommitId, ObjectId sourceCommitId,
+									 boolean useOursOnConflict) {
+		try (ObjectInserter inserter = new BufferedObjectInserter(repository.newObjectInserter())) {
 			Merger merger;
 			if (useOursOnConflict)
-				merger = MergeStrategy.OURS.newMerger(repository, true);
+				merger = MergeStrategy.OURS.newMerger(inserter, repository.getConfig());
 			else
-				merger = MergeStrategy.RECURSIVE.newMerger(repository, true);
-			if (merger.merge(targetCommit, sourceCommit)) {
-				CommitBuilder mergedCommit = new CommitBuilder();
-				mergedCommit.setAuthor(author);
-				mergedCommit.setCommitter(committer);
-				if (squash)
-					mergedCommit.setParentId(targetCommit);
-				else
-					mergedCommit.setParentIds(targetCommit, sourceCommit);
-				mergedCommit.setMessage(commitMessage);
-				mergedCommit.setTreeId(merger.getResultTreeId());
-				ObjectId mergedCommitId = inserter.insert(mergedCommit);
+				merger = MergeStrategy.RECURSIVE.newMerger(inserter, repository.getConfig());
+			if (merger.merge(false, targetCommitId, sourceCommitId)) {
 				inserter.flush();
-				return mergedCommitId;
+				return merger.getResultTreeId().copy();
 			} else {
 				return null;
 			}
@@ -484,6 +524,40 @@ public class GitUtils {
 		}
 	}
 
+	public static ObjectId commitMerge(Repository repository, ObjectId targetCommitId, ObjectId sourceCommitId,
+									   ObjectId treeId, boolean squash, PersonIdent committer, PersonIdent author,
+									   String commitMessage) {
+		try (ObjectInserter inserter = repository.newObjectInserter()) {
+			CommitBuilder mergedCommit = new CommitBuilder();
+			mergedCommit.setAuthor(author);
+			mergedCommit.setCommitter(committer);
+			if (squash)
+				mergedCommit.setParentId(targetCommitId);
+			else
+				mergedCommit.setParentIds(targetCommitId, sourceCommitId);
+			mergedCommit.setMessage(commitMessage);
+			mergedCommit.setTreeId(treeId);
+			ObjectId mergedCommitId = inserter.insert(mergedCommit);
+			inserter.flush();
+			return mergedCommitId;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Nullable
+	public static ObjectId merge(Repository repository, ObjectId targetCommitId, ObjectId sourceCommitId,
+								 boolean squash, PersonIdent committer, PersonIdent author, String commitMessage,
+								 boolean useOursOnConflict) {
+		ObjectId treeId = mergeTree(repository, targetCommitId, sourceCommitId, useOursOnConflict);
+		if (treeId != null) {
+			return commitMerge(repository, targetCommitId, sourceCommitId, treeId, squash,
+					committer, author, commitMessage);
+		} else {
+			return null;
+		}
+	}
+
 	public static Collection<String> getChangedFiles(Repository repository, ObjectId oldCommitId,
 													 ObjectId newCommitId) {
 		Collection<String> changedFiles = new HashSet<>();
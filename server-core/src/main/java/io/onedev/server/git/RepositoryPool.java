@@ -0,0 +1,165 @@
+package io.onedev.server.git;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.function.Function;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.WindowCache;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.storage.file.WindowCacheStats;
+
+import io.onedev.server.util.concurrent.ResourcePool;
+
+/**
+ * Pool of opened repositories based on {@link ResourcePool}. Callers of {@link #get(Long)} 
+ * may keep the repository indefinitely, so repositories handed out this way are only 
+ * dropped from the pool on eviction and never closed. Their pack files are still bounded 
+ * and closed by JGit window cache. Repositories only accessed via {@link #lease(Long)} are 
+ * closed on eviction.
+ */
+public class RepositoryPool {
+
+	private static final int MAX_OPEN_REPOSITORIES = 1000;
+
+	private static final long MIN_IDLE_TIME = 5 * 60 * 1000L;
+
+	private static final long MAX_IDLE_TIME = 60 * 60 * 1000L;
+
+	private static final int MAX_OPEN_PACK_FILES = 1024;
+
+	private static final int MB = 1024 * 1024;
+
+	private final ResourcePool<Long, Repository> repositories;
+
+	public RepositoryPool(Function<Long, File> gitDirResolver) {
+		repositories = new ResourcePool<Long, Repository>(MAX_OPEN_REPOSITORIES, MIN_IDLE_TIME, MAX_IDLE_TIME, false) {
+
+			@Override
+			protected Repository open(Long projectId) {
+				try {
+					return new FileRepository(gitDirResolver.apply(projectId));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+			@Override
+			protected void close(Repository repository) {
+				repository.close();
+			}
+
+		};
+	}
+
+	/**
+	 * Install pack window cache settings of JGit derived from max heap size. JGit defaults
+	 * (10M for packed git and delta base cache, 8K window) are tuned for client use, and
+	 * cause excessive pack file reads when serving many large repositories
+	 */
+	public static void configureWindowCache() {
+		long maxMemory = Runtime.getRuntime().maxMemory();
+		WindowCacheConfig config = new WindowCacheConfig();
+		config.setPackedGitLimit(Math.max(10L * MB, Math.min(maxMemory / 8, 2048L * MB)));
+		config.setPackedGitWindowSize(maxMemory >= 2048L * MB? 64 * 1024: 16 * 1024);
+		config.setDeltaBaseCacheLimit((int) Math.max(10L * MB, Math.min(maxMemory / 32, 256L * MB)));
+		config.setStreamFileThreshold((int) Math.max(MB, Math.min(maxMemory / 64, 64L * MB)));
+		config.setPackedGitOpenFiles(Math.max(128, (int) Math.min(MAX_OPEN_PACK_FILES, maxMemory / (4L * MB))));
+		config.setPackedGitMMAP(false);
+		config.install();
+	}
+
+	public Repository get(Long projectId) {
+		return repositories.get(projectId);
+	}
+
+	/**
+	 * Lease repository of specified project. The repository will not be closed until the lease
+	 * is released via {@link #release(Long, Repository)}
+	 */
+	public Repository lease(Long projectId) {
+		return repositories.lease(projectId);
+	}
+
+	public void release(Long projectId, Repository repository) {
+		repositories.release(projectId, repository);
+	}
+
+	public void remove(Long projectId) {
+		repositories.remove(projectId);
+	}
+
+	public void clear() {
+		repositories.clear();
+	}
+
+	public Stats getStats() {
+		WindowCacheStats windowCacheStats = WindowCache.getInstance().getStats();
+		return new Stats(repositories.getHitCount(), repositories.getMissCount(), repositories.size(), 
+				repositories.getEvictionCount(), windowCacheStats.getOpenFileCount(), 
+				windowCacheStats.getHitRatio());
+	}
+
+	public static class Stats implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long hitCount;
+
+		private final long missCount;
+
+		private final int openRepositoryCount;
+
+		private final long evictionCount;
+
+		private final long openPackFileCount;
+
+		private final double packWindowHitRatio;
+
+		public Stats(long hitCount, long missCount, int openRepositoryCount, long evictionCount,
+					 long openPackFileCount, double packWindowHitRatio) {
+			this.hitCount = hitCount;
+			this.missCount = missCount;
+			this.openRepositoryCount = openRepositoryCount;
+			this.evictionCount = evictionCount;
+			this.openPackFileCount = openPackFileCount;
+			this.packWindowHitRatio = packWindowHitRatio;
+		}
+
+		public long getHitCount() {
+			return hitCount;
+		}
+
+		public long getMissCount() {
+			return missCount;
+		}
+
+		public double getHitRate() {
+			long requestCount = hitCount + missCount;
+			return requestCount != 0? (double) hitCount / requestCount: 1.0;
+		}
+
+		public int getOpenRepositoryCount() {
+			return openRepositoryCount;
+		}
+
+		/**
+		 * @return number of repositories closed due to idle or pool size limit since startup
+		 */
+		public long getEvictionCount() {
+			return evictionCount;
+		}
+
+		public long getOpenPackFileCount() {
+			return openPackFileCount;
+		}
+
+		public double getPackWindowHitRatio() {
+			return packWindowHitRatio;
+		}
+
+	}
+
+}
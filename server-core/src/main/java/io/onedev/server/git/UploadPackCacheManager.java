@@ -0,0 +1,37 @@
+package io.onedev.server.git;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+
+public interface UploadPackCacheManager {
+
+	/**
+	 * Serve a stateless upload pack request of specified project. Response of the final
+	 * negotiation request (the one containing <tt>done</tt>) is cached, and identical requests
+	 * are answered from the cache until refs of the project are updated
+	 *
+	 * @param projectId
+	 * 			id of the project to upload pack from
+	 * @param protocol
+	 * 			value of git protocol header, <tt>null</tt> for protocol v0
+	 * @param stdin
+	 * 			stream to read request from
+	 * @param stdout
+	 * 			stream to write response to
+	 * @param runner
+	 * 			runner to run actual upload pack if response is not cached
+	 */
+	void uploadPack(Long projectId, @Nullable String protocol, InputStream stdin, OutputStream stdout,
+					Runner runner) throws IOException, InterruptedException, ExecutionException;
+
+	interface Runner {
+
+		void run(InputStream stdin, OutputStream stdout) throws InterruptedException, ExecutionException;
+
+	}
+
+}
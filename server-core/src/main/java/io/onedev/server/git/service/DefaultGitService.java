@@ -1,12 +1,15 @@
 package io.onedev.server.git.service;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import io.onedev.commons.loader.ManagedSerializedForm;
 import io.onedev.commons.utils.*;
 import io.onedev.commons.utils.command.Commandline;
 import io.onedev.commons.utils.command.LineConsumer;
+import io.onedev.server.OneDev;
 import io.onedev.server.cluster.ClusterManager;
 import io.onedev.server.cluster.ClusterTask;
 import io.onedev.server.entitymanager.ProjectManager;
@@ -24,7 +27,9 @@ import io.onedev.server.model.Project;
 import io.onedev.server.model.User;
 import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.persistence.annotation.Sessional;
-import org.apache.commons.lang3.SerializationUtils;
+import io.onedev.server.util.Pair;
+import io.onedev.server.xodus.CommitInfoManager;
+import io.onedev.server.xodus.LastCommitsInfoManager;
 import org.bouncycastle.openpgp.PGPSecretKeyRing;
 import org.eclipse.jgit.api.CreateBranchCommand;
 import org.eclipse.jgit.api.Git;
@@ -34,7 +39,6 @@ import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.RevisionSyntaxException;
 import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revwalk.*;
-import org.eclipse.jgit.revwalk.LastCommitsOfChildren.Value;
 import org.eclipse.jgit.revwalk.filter.RevFilter;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.slf4j.Logger;
@@ -47,7 +51,6 @@ import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.concurrent.locks.ReadWriteLock;
 
 import static io.onedev.server.git.command.LogCommand.Field.*;
 
@@ -56,8 +59,6 @@ public class DefaultGitService implements GitService, Serializable {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultGitService.class);
 	
-	private static final int LAST_COMMITS_CACHE_THRESHOLD = 1000;
-	
 	private final ProjectManager projectManager;
 	
 	private final SettingManager settingManager;
@@ -68,6 +69,24 @@ public class DefaultGitService implements GitService, Serializable {
 	
 	private final ListenerRegistry listenerRegistry;
 	
+	/*
+	 * Merge preview of a pull request is re-calculated whenever source or target branch changes, 
+	 * and many pull requests often share same source and target heads (re-opened pull requests, 
+	 * pull requests targeting different branches pointing to same commit, etc.). Results are 
+	 * cached by commits being merged so that same merge is not calculated again. Merged tree 
+	 * instead of merged commit is cached for merge as commit message differs between pull 
+	 * requests
+	 */
+	private final Cache<String, Optional<ObjectId>> mergeTreeCache = 
+			CacheBuilder.newBuilder().maximumSize(10000).build();
+	
+	/*
+	 * Rebased trees instead of rebased commits are cached, as commits should carry committer 
+	 * and time of current rebase
+	 */
+	private final Cache<String, Optional<List<Pair<ObjectId, ObjectId>>>> rebaseCache = 
+			CacheBuilder.newBuilder().maximumSize(10000).build();
+	
 	@Inject
 	public DefaultGitService(ProjectManager projectManager, SettingManager settingManager, 
 							 SessionManager sessionManager, ClusterManager clusterManager, 
@@ -91,6 +110,14 @@ public class DefaultGitService implements GitService, Serializable {
 		return projectManager.getGitDir(projectId);
 	}
 
+	private CommitInfoManager getCommitInfoManager() {
+		return OneDev.getInstance(CommitInfoManager.class);
+	}
+	
+	private LastCommitsInfoManager getLastCommitsInfoManager() {
+		return OneDev.getInstance(LastCommitsInfoManager.class);
+	}
+	
 	private <T> T runOnProjectServer(Long projectId, ClusterTask<T> task) {
 		return projectManager.runOnActiveServer(projectId, task);
 	}
@@ -555,6 +582,10 @@ public class DefaultGitService implements GitService, Serializable {
 			Map<ObjectId, T> values, int limit) {
 		Long projectId = project.getId();
 
+		Collection<T> filteredByGraph = getCommitInfoManager().filterParents(projectId, commitId, values, limit);
+		if (filteredByGraph != null)
+			return filteredByGraph;
+		
 		return runOnProjectServer(projectId, () -> {
 			Collection<T> filteredValues = new HashSet<>();
 			try (RevWalk revWalk = new RevWalk(getRepository(projectId))) {
@@ -934,20 +965,60 @@ public class DefaultGitService implements GitService, Serializable {
 	public ObjectId merge(Project project, ObjectId targetCommitId, ObjectId sourceCommitId, boolean squash,
 			PersonIdent committer, PersonIdent author, String commitMessage, boolean useOursOnConflict) {
 		Long projectId = project.getId();
-		return runOnProjectServer(projectId, () -> GitUtils.merge(getRepository(projectId), targetCommitId, sourceCommitId, squash, 
-				committer, author, commitMessage, useOursOnConflict));
+		return runOnProjectServer(projectId, () -> {
+			Repository repository = getRepository(projectId);
+			String cacheKey = projectId + ":" + targetCommitId.name() + ":" + sourceCommitId.name() 
+					+ ":" + useOursOnConflict;
+			Optional<ObjectId> treeId = mergeTreeCache.getIfPresent(cacheKey);
+			if (treeId == null || treeId.isPresent() && !repository.getObjectDatabase().has(treeId.get())) {
+				treeId = Optional.ofNullable(GitUtils.mergeTree(repository, targetCommitId, sourceCommitId, 
+						useOursOnConflict));
+				mergeTreeCache.put(cacheKey, treeId);
+			}
+			if (treeId.isPresent()) {
+				return GitUtils.commitMerge(repository, targetCommitId, sourceCommitId, treeId.get(), 
+						squash, committer, author, commitMessage);
+			} else {
+				return null;
+			}
+		});
 	}
 
 	@Override
 	public boolean isMergedInto(Project project, Map<String, String> gitEnvs, ObjectId base, ObjectId tip) {
 		Long projectId = project.getId();
+		if (gitEnvs == null || gitEnvs.isEmpty()) {
+			Boolean ancestor = getCommitInfoManager().isAncestor(projectId, base, tip);
+			if (ancestor != null)
+				return ancestor;
+		}
 		return runOnProjectServer(projectId, () -> GitUtils.isMergedInto(getRepository(projectId), gitEnvs, base, tip));
 	}
 
 	@Override
 	public ObjectId rebase(Project project, ObjectId source, ObjectId target, PersonIdent committer) {
 		Long projectId = project.getId();
-		return runOnProjectServer(projectId, () -> GitUtils.rebase(getRepository(projectId), source, target, committer));
+		return runOnProjectServer(projectId, () -> {
+			Repository repository = getRepository(projectId);
+			String cacheKey = projectId + ":" + source.name() + ":" + target.name();
+			Optional<List<Pair<ObjectId, ObjectId>>> rebasedTrees = rebaseCache.getIfPresent(cacheKey);
+			if (rebasedTrees != null && rebasedTrees.isPresent()) {
+				for (Pair<ObjectId, ObjectId> rebasedTree: rebasedTrees.get()) {
+					if (!repository.getObjectDatabase().has(rebasedTree.getRight())) {
+						rebasedTrees = null;
+						break;
+					}
+				}
+			}
+			if (rebasedTrees == null) {
+				rebasedTrees = Optional.ofNullable(GitUtils.rebaseTrees(repository, source, target));
+				rebaseCache.put(cacheKey, rebasedTrees);
+			}
+			if (rebasedTrees.isPresent())
+				return GitUtils.commitRebase(repository, target, rebasedTrees.get(), committer);
+			else
+				return null;
+		});
 	}
 
 	@Override
@@ -1152,75 +1223,7 @@ public class DefaultGitService implements GitService, Serializable {
 	@Override
 	public LastCommitsOfChildren getLastCommitsOfChildren(Project project, ObjectId revId, String path) {
 		Long projectId = project.getId();
-		return runOnProjectServer(projectId, () -> {
-			String normalizedPath = path;
-			if (normalizedPath == null)
-				normalizedPath = "";
-			
-			final File cacheDir = new File(
-					projectManager.getInfoDir(projectId), 
-					"last_commits/" + normalizedPath + "/onedev_last_commits");
-			
-			final ReadWriteLock lock;
-			try {
-				lock = LockUtils.getReadWriteLock(cacheDir.getCanonicalPath());
-			} catch (IOException e) {
-				throw new RuntimeException(e);
-			}
-			
-			final Set<ObjectId> commitIds = new HashSet<>(); 
-			
-			lock.readLock().lock();
-			try {
-				if (cacheDir.exists()) {
-					for (String each: cacheDir.list()) 
-						commitIds.add(ObjectId.fromString(each));
-				} 	
-			} finally {
-				lock.readLock().unlock();
-			}
-			
-			LastCommitsOfChildren.Cache cache;
-			if (!commitIds.isEmpty()) {
-				cache = commitId -> {
-					if (commitIds.contains(commitId)) {
-						lock.readLock().lock();
-						try {
-							byte[] bytes = FileUtils.readFileToByteArray(new File(cacheDir, commitId.name()));
-							return (Map<String, Value>) SerializationUtils.deserialize(bytes);
-						} catch (IOException e) {
-							throw new RuntimeException(e);
-						} finally {
-							lock.readLock().unlock();
-						}
-					} else {
-						return null;
-					}
-				};
-			} else {
-				cache = null;
-			}
-
-			long time = System.currentTimeMillis();
-			Repository repository = getRepository(projectId);
-			LastCommitsOfChildren lastCommits = new LastCommitsOfChildren(repository, revId, normalizedPath, cache);
-			long elapsed = System.currentTimeMillis()-time;
-			if (elapsed > LAST_COMMITS_CACHE_THRESHOLD) {
-				lock.writeLock().lock();
-				try {
-					if (!cacheDir.exists())
-						FileUtils.createDir(cacheDir);
-					FileUtils.writeByteArrayToFile(
-							new File(cacheDir, revId.name()), 
-							SerializationUtils.serialize(lastCommits));
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				} finally {
-					lock.writeLock().unlock();
-				}
-			}
-			return lastCommits;
-		});
+		return runOnProjectServer(projectId, () -> getLastCommitsInfoManager().getLastCommitsOfChildren(projectId, revId, path));
 	}
 
 	@Override
@@ -1242,13 +1245,22 @@ public class DefaultGitService implements GitService, Serializable {
 	public Map<ObjectId, AheadBehind> getAheadBehinds(Project project, ObjectId baseId, 
 			Collection<ObjectId> compareIds) {
 		Long projectId = project.getId();
+		
+		Map<ObjectId, AheadBehind> aheadBehindsFromGraph = 
+				getCommitInfoManager().getAheadBehinds(projectId, baseId, compareIds);
+		if (aheadBehindsFromGraph.size() == compareIds.size())
+			return aheadBehindsFromGraph;
+		
+		Collection<ObjectId> remainingIds = new ArrayList<>(compareIds);
+		remainingIds.removeAll(aheadBehindsFromGraph.keySet());
+		
 		return runOnProjectServer(projectId, () -> {
 			try (RevWalk revWalk = new RevWalk(getRepository(projectId))) {
-				Map<ObjectId, AheadBehind> aheadBehinds = new HashMap<>();
+				Map<ObjectId, AheadBehind> aheadBehinds = new HashMap<>(aheadBehindsFromGraph);
 				RevCommit baseCommit = revWalk.lookupCommit(baseId);
 				revWalk.markStart(baseCommit);
 				Map<ObjectId, RevCommit> compareCommits = new HashMap<>();
-				for (ObjectId compareId: compareIds) {
+				for (ObjectId compareId: remainingIds) {
 					RevCommit compareCommit = revWalk.lookupCommit(compareId);
 					compareCommits.put(compareId, compareCommit);
 					revWalk.markStart(compareCommit);
@@ -1267,7 +1279,7 @@ public class DefaultGitService implements GitService, Serializable {
 						baseSet.add(commit.copy());
 					revWalk.reset();
 					
-					for (ObjectId compareId: compareIds) {
+					for (ObjectId compareId: remainingIds) {
 						RevCommit compareCommit = Preconditions.checkNotNull(compareCommits.get(compareId));
 						revWalk.markStart(compareCommit);
 						revWalk.markUninteresting(mergeBase);
@@ -1289,7 +1301,7 @@ public class DefaultGitService implements GitService, Serializable {
 						aheadBehinds.put(compareId, new AheadBehind(ahead, behind));
 					}					
 				} else {
-					for (ObjectId compareId: compareIds) {
+					for (ObjectId compareId: remainingIds) {
 						RevCommit compareCommit = Preconditions.checkNotNull(compareCommits.get(compareId));
 						revWalk.markUninteresting(baseCommit);
 						revWalk.markStart(compareCommit);
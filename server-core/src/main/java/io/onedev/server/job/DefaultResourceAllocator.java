@@ -1,21 +1,30 @@
 package io.onedev.server.job;
 
+import com.hazelcast.core.EntryAdapter;
+import com.hazelcast.core.EntryEvent;
 import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.MapEvent;
+import com.hazelcast.replicatedmap.ReplicatedMap;
 import io.onedev.commons.loader.ManagedSerializedForm;
 import io.onedev.commons.utils.ExplicitException;
 import io.onedev.server.cluster.ClusterManager;
 import io.onedev.server.cluster.ClusterRunnable;
 import io.onedev.server.entitymanager.AgentManager;
 import io.onedev.server.event.Listen;
+import io.onedev.server.event.agent.AgentAttributesUpdated;
 import io.onedev.server.event.agent.AgentConnected;
 import io.onedev.server.event.agent.AgentDisconnected;
 import io.onedev.server.event.cluster.ConnectionRestored;
+import io.onedev.server.event.entity.EntityPersisted;
+import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.system.SystemStarted;
 import io.onedev.server.event.system.SystemStarting;
 import io.onedev.server.event.system.SystemStopped;
 import io.onedev.server.event.system.SystemStopping;
-import io.onedev.server.model.AbstractEntity;
+import io.onedev.server.model.Agent;
+import io.onedev.server.model.AgentAttribute;
 import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.persistence.annotation.Sessional;
 import io.onedev.server.persistence.annotation.Transactional;
 import io.onedev.server.search.entity.agent.AgentQuery;
 import io.onedev.server.taskschedule.SchedulableTask;
@@ -31,15 +40,30 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
-import static java.lang.Integer.MAX_VALUE;
 import static java.util.stream.Collectors.toList;
 import static java.util.stream.Collectors.toSet;
 
+/**
+ * Jobs waiting for resources are queued per executor and agent query, and are allocated 
+ * in order of queuing when resources are released, or when servers and agents become 
+ * available. Agent queries are matched against an in-memory index of online agents.  
+ */
 @Singleton
 public class DefaultResourceAllocator implements ResourceAllocator, Serializable, SchedulableTask {
 
@@ -63,6 +87,19 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 
 	private volatile Map<Long, Long> disconnectingAgents;
 	
+	private final Map<Long, Agent> onlineAgents = new ConcurrentHashMap<>();
+	
+	private final AtomicLong onlineAgentsVersion = new AtomicLong();
+	
+	private final Lock allocationLock = new ReentrantLock();
+	
+	private final Map<String, WaitQueue> waitQueues = new LinkedHashMap<>();
+	
+	private final AtomicLong waiterSequence = new AtomicLong();
+	
+	// Waiters allocated but not yet acquired on resource nodes, keyed by waiter sequence
+	private final Map<Long, Waiter> allocatedWaiters = new HashMap<>();
+	
 	private volatile String taskId;
 	
 	@Inject
@@ -84,7 +121,9 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 	public void on(SystemStarting event) {
 		HazelcastInstance hazelcastInstance = clusterManager.getHazelcastInstance();
 
-		nodeCpus = hazelcastInstance.getReplicatedMap("nodeCpus");
+		ReplicatedMap<String, Integer> nodeCpus = hazelcastInstance.getReplicatedMap("nodeCpus");
+		nodeCpus.addEntryListener(new AllocationTrigger<>());
+		this.nodeCpus = nodeCpus;
 		var localServer = clusterManager.getLocalServerAddress();
 		try {
 			nodeCpus.put(
@@ -94,8 +133,12 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 			logger.debug("Error calling oshi", e);
 			nodeCpus.put(localServer, 4);
 		}
-		resourceUsagesCache = hazelcastInstance.getReplicatedMap("resourceUsagesCache");
-		disconnectingAgents = hazelcastInstance.getReplicatedMap("disconnectingAgents");
+		ReplicatedMap<String, Integer> resourceUsagesCache = hazelcastInstance.getReplicatedMap("resourceUsagesCache");
+		resourceUsagesCache.addEntryListener(new AllocationTrigger<>());
+		this.resourceUsagesCache = resourceUsagesCache;
+		ReplicatedMap<Long, Long> disconnectingAgents = hazelcastInstance.getReplicatedMap("disconnectingAgents");
+		disconnectingAgents.addEntryListener(new AllocationTrigger<>());
+		this.disconnectingAgents = disconnectingAgents;
 		removeNodeFromResourceUsagesCache(localServer);		
 	}
 
@@ -105,8 +148,15 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 			nodeCpus.remove(clusterManager.getLocalServerAddress());
 	}
 
+	@Sessional
 	@Listen
 	public void on(SystemStarted event) {
+		for (var agentId: agentManager.getOnlineAgents()) {
+			var agent = agentManager.get(agentId);
+			if (agent != null)
+				onlineAgents.put(agentId, newAgentSnapshot(agent));
+		}
+		onlineAgentsChanged();
 		taskId = taskScheduler.schedule(this);
 	}
 	
@@ -162,6 +212,7 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 			}
 			disconnectingAgents.remove(agentId);
 		});
+		updateOnlineAgent(event.getAgent(), false);
 	}
 
 	@Transactional
@@ -171,6 +222,94 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 		transactionManager.runAfterCommit(() -> {
 			nodeCpus.remove(String.valueOf(agentId));
 		});
+		removeOnlineAgent(agentId);
+	}
+	
+	@Sessional
+	@Listen
+	public void on(AgentAttributesUpdated event) {
+		updateOnlineAgent(event.getAgent(), true);
+	}
+
+	@Transactional
+	@Listen
+	public void on(EntityPersisted event) {
+		// Agent connected for the first time is handled by AgentConnected event, as its 
+		// attributes are not created yet at this point. Agent is also persisted for changes 
+		// irrelevant to allocation, such as last used date, which are skipped when updating
+		if (event.getEntity() instanceof Agent && !event.isNewEntity())
+			updateOnlineAgent((Agent) event.getEntity(), true);
+	}
+
+	@Transactional
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Agent)
+			removeOnlineAgent(event.getEntity().getId());
+	}
+
+	private Agent newAgentSnapshot(Agent agent) {
+		var snapshot = new Agent();
+		snapshot.setId(agent.getId());
+		snapshot.setName(agent.getName());
+		snapshot.setIpAddress(agent.getIpAddress());
+		snapshot.setOsName(agent.getOsName());
+		snapshot.setOsVersion(agent.getOsVersion());
+		snapshot.setOsArch(agent.getOsArch());
+		snapshot.setCpus(agent.getCpus());
+		snapshot.setPaused(agent.isPaused());
+		for (var attribute: agent.getAttributes()) {
+			var attributeSnapshot = new AgentAttribute();
+			attributeSnapshot.setAgent(snapshot);
+			attributeSnapshot.setName(attribute.getName());
+			attributeSnapshot.setValue(attribute.getValue());
+			snapshot.getAttributes().add(attributeSnapshot);
+		}
+		return snapshot;
+	}
+	
+	private boolean isSnapshotChanged(Agent snapshot, Agent agent) {
+		return !Objects.equals(snapshot.getName(), agent.getName())
+				|| !Objects.equals(snapshot.getIpAddress(), agent.getIpAddress())
+				|| !Objects.equals(snapshot.getOsName(), agent.getOsName())
+				|| !Objects.equals(snapshot.getOsVersion(), agent.getOsVersion())
+				|| !Objects.equals(snapshot.getOsArch(), agent.getOsArch())
+				|| snapshot.getCpus() != agent.getCpus()
+				|| snapshot.isPaused() != agent.isPaused()
+				|| !snapshot.getAttributeMap().equals(agent.getAttributeMap());
+	}
+	
+	private void updateOnlineAgent(Agent agent, boolean onlyIfPresent) {
+		var agentId = agent.getId();
+		if (onlyIfPresent) {
+			// Online agents index is the same on all servers, so checking the local one 
+			// avoids broadcasting for offline agents or unchanged snapshots
+			var currentSnapshot = onlineAgents.get(agentId);
+			if (currentSnapshot == null || !isSnapshotChanged(currentSnapshot, agent))
+				return;
+		}
+		var snapshot = newAgentSnapshot(agent);
+		transactionManager.runAfterCommit(() -> clusterManager.submitToAllServers(() -> {
+			if (onlyIfPresent)
+				onlineAgents.replace(agentId, snapshot);
+			else 
+				onlineAgents.put(agentId, snapshot);
+			onlineAgentsChanged();
+			return null;
+		}));
+	}
+	
+	private void removeOnlineAgent(Long agentId) {
+		transactionManager.runAfterCommit(() -> clusterManager.submitToAllServers(() -> {
+			onlineAgents.remove(agentId);
+			onlineAgentsChanged();
+			return null;
+		}));
+	}
+	
+	private void onlineAgentsChanged() {
+		onlineAgentsVersion.incrementAndGet();
+		allocate();
 	}
 
 	private int getAllocationScore(int totalResources, int usedResources, int requiredResources) {
@@ -188,21 +327,11 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 	@Override
 	public void agentDisconnecting(Long agentId) {
 		disconnectingAgents.put(agentId, agentId);
-		while (true) {
-			boolean idle = true;
-			synchronized (resourceUsages) {
-				for (var entry : resourceUsages.entrySet()) {
-					if (entry.getKey().startsWith(agentId + ":") && entry.getValue() > 0) {
-						idle = false;
-						break;
-					}
-				}
-			}
-			if (idle) {
-				break;
-			} else {
+		synchronized (resourceUsages) {
+			while (resourceUsages.entrySet().stream().anyMatch(
+					it -> it.getKey().startsWith(agentId + ":") && it.getValue() > 0)) {
 				try {
-					Thread.sleep(1000);
+					resourceUsages.wait();
 				} catch (InterruptedException e) {
 					throw new RuntimeException(e);
 				}
@@ -224,14 +353,17 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 
 	@Nullable
 	private String allocateResource(Collection<String> resourceNodes, String resourceType, 
-									int totalResources, int requiredResources) {
+									int totalResources, int requiredResources, 
+									Map<String, Integer> pendingUsages) {
 		String allocated = null;
 		var maxScore = 0;
 		for (var resourceNode: resourceNodes) {
 			var effectiveTotalResources = getEffectiveTotalResources(resourceNode, totalResources);
-			var usedResources = resourceUsagesCache.get(resourceNode + ":" + resourceType);
+			var resourceKey = resourceNode + ":" + resourceType;
+			var usedResources = resourceUsagesCache.get(resourceKey);
 			if (usedResources == null)
 				usedResources = 0;
+			usedResources += pendingUsages.getOrDefault(resourceKey, 0);
 			var score = getAllocationScore(effectiveTotalResources, usedResources, requiredResources);
 
 			if (score > maxScore) {
@@ -243,8 +375,8 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 	}
 
 	private void acquireResource(String resourceKey, int totalResources, int acquireResources) {
-		while (true) {
-			synchronized (resourceUsages) {	
+		synchronized (resourceUsages) {
+			while (true) {
 				var usedResources = resourceUsages.get(resourceKey);				
 				if (usedResources == null)
 					usedResources = 0;
@@ -254,11 +386,11 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 					resourceUsagesCache.put(resourceKey, usedResources);
 					break;
 				}
-			}
-			try {
-				Thread.sleep(100);
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
+				try {
+					resourceUsages.wait();
+				} catch (InterruptedException e) {
+					throw new RuntimeException(e);
+				}
 			}
 		}
 	}
@@ -269,75 +401,209 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 			usedResources -= releaseResources;
 			resourceUsages.put(resourceKey, usedResources);
 			resourceUsagesCache.put(resourceKey, usedResources);
+			resourceUsages.notifyAll();
 		}
 	}
-
-	@Override
-	public void runServerJob(String resourceType, int totalResources,
-							 int requiredResources, ClusterRunnable runnable) {
-		while (true) {
+	
+	private Collection<String> getResourceNodes(WaitQueue queue) {
+		if (queue.agentQuery != null) {
+			if (queue.matchedAgentsVersion != onlineAgentsVersion.get()) {
+				queue.matchedAgentsVersion = onlineAgentsVersion.get();
+				queue.matchedAgents = onlineAgents.values().stream()
+						.filter(it -> !it.isPaused() && queue.agentQuery.matches(it))
+						.map(it -> it.getId())
+						.collect(toSet());
+			}
+			var onlineServers = clusterManager.getOnlineServers();
+			return queue.matchedAgents.stream()
+					.filter(it -> !disconnectingAgents.containsKey(it))
+					.filter(it -> {
+						var server = agentManager.getAgentServer(it);
+						return server != null && onlineServers.contains(server);
+					})
+					.map(Object::toString)
+					.collect(toList());
+		} else {
 			var servers = clusterManager.getServerAddresses();
 			servers.retainAll(clusterManager.getOnlineServers());
-			var server = allocateResource(servers, resourceType, totalResources, requiredResources);
-			if (server != null) {
-				jobManager.runJob(server, () -> {
-					int effectiveTotalResources = getEffectiveTotalResources(server, totalResources);
-					var resourceKey = server + ":" + resourceType;
-					acquireResource(resourceKey, effectiveTotalResources, requiredResources);
-					try {
-						jobManager.runJob(server, runnable);
-					} finally {
-						releaseResource(resourceKey, requiredResources);
-					}
-				});
-				break;
+			return servers;
+		}
+	}
+
+	/**
+	 * Allocate resources to queued jobs. Queues are visited in order of their earliest queued 
+	 * jobs, and jobs in a queue are allocated strictly in order, so that jobs requiring more 
+	 * resources are not starved by later ones 
+	 */
+	private void allocate() {
+		allocationLock.lock();
+		try {
+			// Allocated resources are not reflected in resource usages cache until acquired 
+			// on the resource node, and should be counted until then
+			Map<String, Integer> pendingUsages = new HashMap<>();
+			for (var waiter: allocatedWaiters.values())
+				pendingUsages.merge(waiter.resourceKey, waiter.requiredResources, Integer::sum);
+			var queues = waitQueues.values().stream()
+					.filter(it -> !it.waiters.isEmpty())
+					.sorted(Comparator.comparingLong(it -> it.waiters.peek().sequence))
+					.collect(toList());
+			for (var queue: queues) {
+				Collection<String> resourceNodes = null;
+				var allocated = false;
+				Waiter waiter;
+				while ((waiter = queue.waiters.peek()) != null) {
+					if (resourceNodes == null)
+						resourceNodes = getResourceNodes(queue);
+					var resourceNode = allocateResource(resourceNodes, queue.resourceType, 
+							queue.totalResources, waiter.requiredResources, pendingUsages);
+					if (resourceNode == null)
+						break;
+					queue.waiters.remove();
+					queue.allocated(System.currentTimeMillis() - waiter.queueTime);
+					waiter.resourceNode = resourceNode;
+					waiter.resourceKey = resourceNode + ":" + queue.resourceType;
+					pendingUsages.merge(waiter.resourceKey, waiter.requiredResources, Integer::sum);
+					allocatedWaiters.put(waiter.sequence, waiter);
+					allocated = true;
+				}
+				if (allocated)
+					queue.condition.signalAll();
 			}
+		} catch (Exception e) {
+			logger.error("Error allocating resources", e);
+		} finally {
+			allocationLock.unlock();
+		}
+	}
+	
+	/**
+	 * Called when resource allocated to specified waiter is acquired on the resource node, 
+	 * or is not going to be acquired, so that it is no longer counted as pending
+	 */
+	private void allocationAcquired(Long waiterSequence) {
+		allocationLock.lock();
+		try {
+			if (allocatedWaiters.remove(waiterSequence) != null)
+				allocate();
+		} finally {
+			allocationLock.unlock();
+		}
+	}
+	
+	private Waiter waitForResource(@Nullable AgentQuery agentQuery, String resourceType, 
+								   int totalResources, int requiredResources) {
+		var queueKey = resourceType + ":" + totalResources;
+		if (agentQuery != null)
+			queueKey += ":" + agentQuery;
+		var waiter = new Waiter(waiterSequence.incrementAndGet(), requiredResources);
+		allocationLock.lock();
+		try {
+			var queue = waitQueues.computeIfAbsent(queueKey, 
+					it -> new WaitQueue(agentQuery, resourceType, totalResources));
+			queue.waiters.add(waiter);
 			try {
-				Thread.sleep(1000);
+				allocate();
+				while (waiter.resourceNode == null) 
+					queue.condition.await();
+				return waiter;
 			} catch (InterruptedException e) {
+				// Resource may have been allocated before interruption is noticed
+				if (waiter.resourceNode != null)
+					allocationAcquired(waiter.sequence);
 				throw new RuntimeException(e);
+			} finally {
+				queue.waiters.remove(waiter);
+				if (queue.waiters.isEmpty())
+					waitQueues.remove(queueKey);
 			}
+		} finally {
+			allocationLock.unlock();
 		}
 	}
 
+	@Override
+	public void runServerJob(String resourceType, int totalResources,
+							 int requiredResources, ClusterRunnable runnable) {
+		var waiter = waitForResource(null, resourceType, totalResources, requiredResources);
+		var waiterSequence = waiter.sequence;
+		var allocatingServer = clusterManager.getLocalServerAddress();
+		try {
+			var server = waiter.resourceNode;
+			jobManager.runJob(server, () -> {
+				int effectiveTotalResources = getEffectiveTotalResources(server, totalResources);
+				var resourceKey = server + ":" + resourceType;
+				acquireResource(resourceKey, effectiveTotalResources, requiredResources);
+				try {
+					notifyAllocationAcquired(allocatingServer, waiterSequence);
+					jobManager.runJob(server, runnable);
+				} finally {
+					releaseResource(resourceKey, requiredResources);
+				}
+			});
+		} finally {
+			allocationAcquired(waiterSequence);
+		}
+	}
+	
+	private void notifyAllocationAcquired(String allocatingServer, Long waiterSequence) {
+		clusterManager.submitToServer(allocatingServer, () -> {
+			allocationAcquired(waiterSequence);
+			return null;
+		});
+	}
+
 	@Override
 	public void runAgentJob(AgentQuery agentQuery, String resourceType,
 							int totalResources, int requiredResources, 
 							AgentRunnable runnable) {
-		while (true) {
-			var agentIds = agentManager.query(agentQuery, 0, MAX_VALUE)
-					.stream().filter(it -> it.isOnline() && !it.isPaused())
-					.map(AbstractEntity::getId)
-					.collect(toSet());
-			agentIds.removeAll(disconnectingAgents.keySet());
-			var agentIdString = allocateResource(
-					agentIds.stream().map(Object::toString).collect(toList()),
-					resourceType, totalResources, requiredResources);
-			var agentId = agentIdString != null? Long.valueOf(agentIdString): null;
-			if (agentId != null) {
-				var server = agentManager.getAgentServer(agentId);
-				if (server == null)
-					throw new ExplicitException("Can not find server managing allocated agent, please retry later");
-
-				jobManager.runJob(server, () -> {
-					var effectiveTotalResources = getEffectiveTotalResources(agentIdString, totalResources);
-					var resourceKey = agentId + ":" + resourceType;
-					acquireResource(resourceKey, effectiveTotalResources, requiredResources);
-					try {
-						updateLastUsedDate(agentId);
-						runnable.run(agentId);
-					} finally {
-						releaseResource(resourceKey, requiredResources);
-					}
-				});
-				break;
-			}
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				throw new RuntimeException(e);
+		var waiter = waitForResource(agentQuery, resourceType, totalResources, requiredResources);
+		var waiterSequence = waiter.sequence;
+		var allocatingServer = clusterManager.getLocalServerAddress();
+		try {
+			var agentIdString = waiter.resourceNode;
+			var agentId = Long.valueOf(agentIdString);
+			var server = agentManager.getAgentServer(agentId);
+			if (server == null)
+				throw new ExplicitException("Can not find server managing allocated agent, please retry later");
+	
+			jobManager.runJob(server, () -> {
+				var effectiveTotalResources = getEffectiveTotalResources(agentIdString, totalResources);
+				var resourceKey = agentId + ":" + resourceType;
+				acquireResource(resourceKey, effectiveTotalResources, requiredResources);
+				try {
+					notifyAllocationAcquired(allocatingServer, waiterSequence);
+					updateLastUsedDate(agentId);
+					runnable.run(agentId);
+				} finally {
+					releaseResource(resourceKey, requiredResources);
+				}
+			});
+		} finally {
+			allocationAcquired(waiterSequence);
+		}
+	}
+
+	@Override
+	public Collection<ResourceAllocationMetrics> getMetrics() {
+		Collection<ResourceAllocationMetrics> metrics = new ArrayList<>();
+		allocationLock.lock();
+		try {
+			var now = System.currentTimeMillis();
+			for (var queue: waitQueues.values()) {
+				var earliestWaiter = queue.waiters.peek();
+				metrics.add(new ResourceAllocationMetrics(
+						queue.resourceType, 
+						queue.agentQuery != null? queue.agentQuery.toString(): null, 
+						queue.waiters.size(), 
+						earliestWaiter != null? now - earliestWaiter.queueTime: 0, 
+						queue.allocationCount, 
+						queue.lastWaitTime, 
+						queue.allocationCount != 0? queue.totalWaitTime / queue.allocationCount: 0));
 			}
+		} finally {
+			allocationLock.unlock();
 		}
+		return metrics;
 	}
 
 	@Override
@@ -352,4 +618,73 @@ public class DefaultResourceAllocator implements ResourceAllocator, Serializable
 		return SimpleScheduleBuilder.repeatHourlyForever();
 	}
 	
+	private class WaitQueue {
+		
+		final AgentQuery agentQuery;
+		
+		final String resourceType;
+		
+		final int totalResources;
+		
+		final Condition condition = allocationLock.newCondition();
+		
+		final Queue<Waiter> waiters = new ArrayDeque<>();
+		
+		Collection<Long> matchedAgents;
+		
+		long matchedAgentsVersion = -1;
+		
+		long allocationCount;
+		
+		long totalWaitTime;
+		
+		long lastWaitTime;
+		
+		WaitQueue(@Nullable AgentQuery agentQuery, String resourceType, int totalResources) {
+			this.agentQuery = agentQuery;
+			this.resourceType = resourceType;
+			this.totalResources = totalResources;
+		}
+		
+		void allocated(long waitTime) {
+			allocationCount++;
+			totalWaitTime += waitTime;
+			lastWaitTime = waitTime;
+		}
+		
+	}
+	
+	private static class Waiter {
+		
+		final long sequence;
+		
+		final int requiredResources;
+		
+		final long queueTime = System.currentTimeMillis();
+		
+		String resourceNode;
+		
+		String resourceKey;
+		
+		Waiter(long sequence, int requiredResources) {
+			this.sequence = sequence;
+			this.requiredResources = requiredResources;
+		}
+		
+	}
+	
+	private class AllocationTrigger<K, V> extends EntryAdapter<K, V> {
+
+		@Override
+		public void onEntryEvent(EntryEvent<K, V> event) {
+			allocate();
+		}
+
+		@Override
+		public void onMapEvent(MapEvent event) {
+			allocate();
+		}
+		
+	}
+	
 }
@@ -0,0 +1,75 @@
+package io.onedev.server.job;
+
+import java.io.Serializable;
+
+public class ResourceAllocationMetrics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String resourceType;
+	
+	private final String agentQuery;
+	
+	private final int queueLength;
+	
+	private final long longestWaitTime;
+	
+	private final long allocationCount;
+	
+	private final long lastWaitTime;
+	
+	private final long averageWaitTime;
+	
+	public ResourceAllocationMetrics(String resourceType, String agentQuery, int queueLength, 
+									 long longestWaitTime, long allocationCount, long lastWaitTime, 
+									 long averageWaitTime) {
+		this.resourceType = resourceType;
+		this.agentQuery = agentQuery;
+		this.queueLength = queueLength;
+		this.longestWaitTime = longestWaitTime;
+		this.allocationCount = allocationCount;
+		this.lastWaitTime = lastWaitTime;
+		this.averageWaitTime = averageWaitTime;
+	}
+
+	public String getResourceType() {
+		return resourceType;
+	}
+
+	/**
+	 * @return agent query of jobs in the queue, or <tt>null</tt> for server jobs
+	 */
+	public String getAgentQuery() {
+		return agentQuery;
+	}
+
+	/**
+	 * @return number of jobs waiting for resources
+	 */
+	public int getQueueLength() {
+		return queueLength;
+	}
+
+	/**
+	 * @return milliseconds the earliest queued job has been waiting
+	 */
+	public long getLongestWaitTime() {
+		return longestWaitTime;
+	}
+
+	public long getAllocationCount() {
+		return allocationCount;
+	}
+
+	/**
+	 * @return milliseconds last allocated job waited, from being queued to allocated
+	 */
+	public long getLastWaitTime() {
+		return lastWaitTime;
+	}
+
+	public long getAverageWaitTime() {
+		return averageWaitTime;
+	}
+	
+}
@@ -3,6 +3,8 @@ package io.onedev.server.job;
 import io.onedev.server.cluster.ClusterRunnable;
 import io.onedev.server.search.entity.agent.AgentQuery;
 
+import java.util.Collection;
+
 public interface ResourceAllocator {
 
 	void runServerJob(String resourceType, int totalResources, int requiredResources, 
@@ -12,5 +14,10 @@ public interface ResourceAllocator {
 					 int requiredResources, AgentRunnable runnable);
 	
 	void agentDisconnecting(Long agentId);
+	
+	/**
+	 * @return metrics of jobs waiting for resources on this server, one per executor and agent query
+	 */
+	Collection<ResourceAllocationMetrics> getMetrics();
 
 }
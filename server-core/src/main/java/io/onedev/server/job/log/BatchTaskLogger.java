@@ -0,0 +1,18 @@
+package io.onedev.server.job.log;
+
+import java.util.List;
+
+import io.onedev.commons.utils.TaskLogger;
+
+/**
+ * Task logger able to process a batch of messages in one call. Implementations should 
+ * override {@link #log(List)} to amortize per message cost such as locking and remote calls
+ */
+public abstract class BatchTaskLogger extends TaskLogger {
+
+	public void log(List<JobLogMessage> messages) {
+		for (JobLogMessage message: messages)
+			log(message.getMessage(), message.getSessionId());
+	}
+	
+}
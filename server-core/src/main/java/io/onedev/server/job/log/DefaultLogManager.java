@@ -1,8 +1,10 @@
 package io.onedev.server.job.log;
 
 import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
 import io.onedev.commons.loader.ManagedSerializedForm;
 import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.TaskLogger;
 import io.onedev.server.OneDev;
 import io.onedev.server.buildspec.job.log.JobLogEntry;
@@ -18,6 +20,7 @@ import io.onedev.server.event.Listen;
 import io.onedev.server.event.project.build.BuildFinished;
 import io.onedev.server.model.Build;
 import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.util.Pair;
 import io.onedev.server.web.websocket.WebSocketManager;
 import org.antlr.v4.runtime.tree.TerminalNode;
 import org.apache.commons.lang3.StringUtils;
@@ -27,6 +30,7 @@ import org.joda.time.format.DateTimeFormatter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.*;
@@ -48,6 +52,10 @@ public class DefaultLogManager implements LogManager, Serializable {
 
 	private static final int MAX_CACHE_ENTRIES = 10000;
 	
+	private static final int MIGRATE_BATCH_SIZE = 10000;
+	
+	private static final int STREAM_BATCH_SIZE = 256;
+	
 	private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormat.forPattern("HH:mm:ss");	
 	
 	private static final Pattern EOL_PATTERN = Pattern.compile("\r?\n");
@@ -58,12 +66,13 @@ public class DefaultLogManager implements LogManager, Serializable {
 	
 	private final BuildManager buildManager;
 	
-	private final Map<String, LogSnippet> recentSnippets = new ConcurrentHashMap<>();
+	private final Map<String, RecentLogEntries> recentEntries = new ConcurrentHashMap<>();
 	
 	private final Map<String, TaskLogger> jobLoggers = new ConcurrentHashMap<>();
 	
 	@Inject
-	public DefaultLogManager(WebSocketManager webSocketManager, ProjectManager projectManager, BuildManager buildManager) {
+	public DefaultLogManager(WebSocketManager webSocketManager, ProjectManager projectManager, 
+							 BuildManager buildManager) {
 		this.projectManager = projectManager;
 		this.webSocketManager = webSocketManager;
 		this.buildManager = buildManager;
@@ -85,65 +94,95 @@ public class DefaultLogManager implements LogManager, Serializable {
 		Long buildNumber = build.getNumber();
 		Collection<String> secretValuesToMask = build.getSecretValuesToMask();
 		secretValuesToMask.addAll(jobSecretsToMask);
-		return new TaskLogger() {
+		return new BatchTaskLogger() {
 			
 			private final Map<String, StyleBuilder> styleBuilders = new ConcurrentHashMap<>();
 			
 			private void doLog(String message, StyleBuilder styleBuilder) {
-				for (String maskSecret: secretValuesToMask)
-					message = StringUtils.replace(message, maskSecret, SecretInput.MASK);
+				doLog(Lists.newArrayList(new Pair<>(message, styleBuilder)));
+			}
+			
+			private void doLog(List<Pair<String, StyleBuilder>> messages) {
+				if (messages.isEmpty())
+					return;
 				
-				String maskedMessage = message;
-				write(getLogLockName(projectId, buildNumber), () -> {
+				List<Pair<String, StyleBuilder>> maskedMessages = new ArrayList<>();
+				for (var message: messages) {
+					String maskedMessage = message.getLeft();
+					for (String maskSecret: secretValuesToMask)
+						maskedMessage = StringUtils.replace(maskedMessage, maskSecret, SecretInput.MASK);
+					maskedMessages.add(new Pair<>(maskedMessage, message.getRight()));
+				}
+				
+				boolean logged = write(getLogLockName(projectId, buildNumber), () -> {
+					boolean added = false;
 					String logKey = getLogKey(projectId, buildNumber);
-					LogSnippet snippet = recentSnippets.get(logKey);
-					if (snippet == null) {
-						File logFile = Build.getLogFile(projectId, buildNumber);
-						if (!logFile.exists())	{
-							snippet = new LogSnippet();
-							recentSnippets.put(logKey, snippet);
+					RecentLogEntries entries = recentEntries.get(logKey);
+					if (entries == null) {
+						if (!Build.getLogFile(projectId, buildNumber).exists() 
+								&& !getJobLogFile(projectId, buildNumber).exists())	{
+							entries = new RecentLogEntries(MAX_CACHE_ENTRIES);
+							recentEntries.put(logKey, entries);
 						}
 					}
-					if (snippet != null) {
-						boolean entryAdded = false;
-						try {
-							snippet.entries.add(JobLogEntryEx.parse(maskedMessage, styleBuilder));
-							entryAdded = true;
-						} catch (Exception e) {
-							logger.error("Failed to parse job log message: " +  maskedMessage, e);
-						}
-						if (entryAdded) {
-							if (snippet.entries.size() > MAX_CACHE_ENTRIES) {
-								File logFile = Build.getLogFile(projectId, buildNumber);
-								try (ObjectOutputStream oos = newOutputStream(logFile)) {
-									while (snippet.entries.size() > MIN_CACHE_ENTRIES) {
-										writeLogEntry(oos, snippet.entries.remove(0));
-										snippet.offset++;
-									}
-								} catch (IOException e) {
-									throw new RuntimeException(e);
+					if (entries != null) {
+						for (var maskedMessage: maskedMessages) {
+							JobLogEntryEx entry = null;
+							try {
+								entry = JobLogEntryEx.parse(maskedMessage.getLeft(), maskedMessage.getRight());
+							} catch (Exception e) {
+								logger.error("Failed to parse job log message: " +  maskedMessage.getLeft(), e);
+							}
+							if (entry != null) {
+								if (entries.isFull()) {
+									getJobLogFile(projectId, buildNumber).append(
+											entries.removeOldest(MAX_CACHE_ENTRIES - MIN_CACHE_ENTRIES));
 								}
+								entries.add(entry);
+								added = true;
 							}
-							webSocketManager.notifyObservableChange(Build.getLogChangeObservable(buildId), null);
 						}
 					}
-					return null;
+					return added;
 				});
+				
+				// Notify once per batch outside of the lock. Notifications are further 
+				// coalesced by websocket manager
+				if (logged)
+					webSocketManager.notifyObservableChange(Build.getLogChangeObservable(buildId), null);
+			}
+			
+			private StyleBuilder getStyleBuilder(@Nullable String sessionId) {
+				if (sessionId != null) 
+					return styleBuilders.computeIfAbsent(sessionId, it -> new StyleBuilder());
+				else 
+					return new StyleBuilder();
 			}
 			
 			@Override
-			public void log(String message, String sessionId) {
+			public void log(List<JobLogMessage> messages) {
 				try {
-					StyleBuilder styleBuilder;
-					if (sessionId != null) {
-						styleBuilder = styleBuilders.get(sessionId);
-						if (styleBuilder == null) {
-							styleBuilder = new StyleBuilder();
-							styleBuilders.put(sessionId, styleBuilder);
+					// Plain messages between log instructions are logged with build log lock acquired once
+					List<Pair<String, StyleBuilder>> plainMessages = new ArrayList<>();
+					for (JobLogMessage message: messages) {
+						if (message.getMessage().startsWith(LogInstruction.PREFIX)) {
+							doLog(plainMessages);
+							plainMessages.clear();
+							log(message.getMessage(), message.getSessionId());
+						} else {
+							plainMessages.add(new Pair<>(message.getMessage(), getStyleBuilder(message.getSessionId())));
 						}
-					} else {
-						styleBuilder = new StyleBuilder();
 					}
+					doLog(plainMessages);
+				} catch (Exception e) {
+					logger.error("Error logging", e);
+				}
+			}
+			
+			@Override
+			public void log(String message, String sessionId) {
+				try {
+					StyleBuilder styleBuilder = getStyleBuilder(sessionId);
 					if (message.startsWith(LogInstruction.PREFIX)) {
 						InstructionContext instructionContext = LogInstruction.parse(message);
 						String name = instructionContext.Identifier().getText();
@@ -192,11 +231,14 @@ public class DefaultLogManager implements LogManager, Serializable {
 
 	@Override
 	public boolean matches(Build build, Pattern pattern) {
-		String key = getLogKey(build.getProject().getId(), build.getNumber());
+		Long projectId = build.getProject().getId();
+		Long buildNumber = build.getNumber();
+		String key = getLogKey(projectId, buildNumber);
+		migrateLegacyLog(projectId, buildNumber);
 		return read(build.getLogLockName(), () -> {
-			LogSnippet snippet = recentSnippets.get(key);
-			if (snippet != null) {
-				for (JobLogEntryEx entry: snippet.entries) {
+			RecentLogEntries entries = recentEntries.get(key);
+			if (entries != null) {
+				for (JobLogEntryEx entry: entries.getAll()) {
 					if ((build.getRetryDate() == null || !entry.getDate().before(build.getRetryDate())) 
 							&& pattern.matcher(entry.getMessageText()).find()) {
 						return true;
@@ -204,45 +246,50 @@ public class DefaultLogManager implements LogManager, Serializable {
 				}
 			}
 			
-			File logFile = build.getLogFile();
-			
-			if (logFile.exists()) {
-				try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-					while (true) {
-						JobLogEntry entry  = (JobLogEntry) ois.readObject();
-						if ((build.getRetryDate() == null || !entry.getDate().before(build.getRetryDate())) 
-								&& pattern.matcher(entry.getMessage()).find()) {
-							return true;
-						}
-					}
-				} catch (EOFException ignored) {
-				} catch (IOException|ClassNotFoundException e) {
-					throw new RuntimeException(e);
-				}
-			}
-			return false;
+			return !getJobLogFile(projectId, buildNumber).visit(entry -> 
+					(build.getRetryDate() != null && entry.getDate().before(build.getRetryDate())) 
+					|| !pattern.matcher(entry.getMessageText()).find());
 		});
 	}
 	
-	private List<JobLogEntryEx> readLogEntries(File logFile, int from, int count) {
-		List<JobLogEntryEx> entries = new ArrayList<>();
-		if (logFile.exists()) {
-			try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-				int numOfReadEntries = 0;
-				while (numOfReadEntries < from) {
-					ois.readObject();
-					numOfReadEntries++;
-				}
-				while (count == 0 || numOfReadEntries - from < count) {
-					entries.add(readLogEntry(ois));
-					numOfReadEntries++;
+	private JobLogFile getJobLogFile(Long projectId, Long buildNumber) {
+		return new JobLogFile(buildManager.getBuildDir(projectId, buildNumber));
+	}
+	
+	/**
+	 * Convert log file of legacy format (stream of Java serialized log entries) into 
+	 * indexed binary format
+	 */
+	private void migrateLegacyLog(Long projectId, Long buildNumber) {
+		if (Build.getLogFile(projectId, buildNumber).exists()) {
+			write(getLogLockName(projectId, buildNumber), () -> {
+				File legacyLogFile = Build.getLogFile(projectId, buildNumber);
+				if (legacyLogFile.exists()) {
+					JobLogFile jobLogFile = getJobLogFile(projectId, buildNumber);
+					jobLogFile.delete();
+					try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(legacyLogFile)))) {
+						List<JobLogEntryEx> entries = new ArrayList<>();
+						while (true) {
+							try {
+								entries.add(readLogEntry(ois));
+							} catch (EOFException e) {
+								break;
+							}
+							if (entries.size() == MIGRATE_BATCH_SIZE) {
+								jobLogFile.append(entries);
+								entries.clear();
+							}
+						}
+						jobLogFile.append(entries);
+					} catch (IOException | ClassNotFoundException e) {
+						throw new RuntimeException(e);
+					}
+					FileUtils.deleteFile(legacyLogFile);
+					projectManager.directoryModified(projectId, legacyLogFile.getParentFile());
 				}
-			} catch (EOFException ignored) {
-			} catch (IOException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
-			}
+				return null;
+			});
 		}
-		return entries;
 	}
 	
 	private JobLogEntryEx readLogEntry(ObjectInputStream ois) throws ClassNotFoundException, IOException {
@@ -253,44 +300,13 @@ public class DefaultLogManager implements LogManager, Serializable {
 			return (JobLogEntryEx) obj;
 	}
 	
-	private void writeLogEntry(ObjectOutputStream oos, JobLogEntryEx logEntry) throws IOException {
-		JobLogEntry spaceEfficientVersion = logEntry.getSpaceEfficientVersion();
-		if (spaceEfficientVersion != null)
-			oos.writeObject(spaceEfficientVersion);
-		else
-			oos.writeObject(logEntry);
-	}
-	
-	private LogSnippet readLogSnippetReversely(File logFile, int count) {
+	private LogSnippet readLogSnippetReversely(JobLogFile jobLogFile, int count) {
 		LogSnippet snippet = new LogSnippet();
-		if (logFile.exists()) {
-			try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-				while (true) {
-					snippet.entries.add(readLogEntry(ois));
-					if (snippet.entries.size() > count) {
-						snippet.entries.remove(0);
-						snippet.offset ++;
-					}
-				}
-			} catch (EOFException ignored) {
-			} catch (IOException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
-			}
-		}
+		snippet.offset = Math.max(0, jobLogFile.getEntryCount() - count);
+		snippet.entries.addAll(jobLogFile.read(snippet.offset, 0));
 		return snippet;
 	}
 	
-	private List<JobLogEntryEx> readLogEntries(List<JobLogEntryEx> cachedEntries, int from, int count) {
-		if (from < cachedEntries.size()) {
-			int to = from + count;
-			if (to == from || to > cachedEntries.size())
-				to = cachedEntries.size();
-			return new ArrayList<>(cachedEntries.subList(from, to));
-		} else {
-			return new ArrayList<>();
-		}
-	}
-	
 	@Sessional
 	@Override
 	public List<JobLogEntryEx> readLogEntries(Build build, int from, int count) {
@@ -302,22 +318,24 @@ public class DefaultLogManager implements LogManager, Serializable {
 
 			@Override
 			public List<JobLogEntryEx> call() {
+				migrateLegacyLog(projectId, buildNumber);
 				return read(getLogLockName(projectId, buildNumber), () -> {
-					File logFile = Build.getLogFile(projectId, buildNumber);
-					LogSnippet snippet = recentSnippets.get(getLogKey(projectId, buildNumber));
-					if (snippet != null) {
-						if (from >= snippet.offset) {
-							return readLogEntries(snippet.entries, from - snippet.offset, count);
+					JobLogFile logFile = getJobLogFile(projectId, buildNumber);
+					RecentLogEntries recentEntriesOfBuild = recentEntries.get(getLogKey(projectId, buildNumber));
+					if (recentEntriesOfBuild != null) {
+						int offset = recentEntriesOfBuild.getOffset();
+						if (from >= offset) {
+							return recentEntriesOfBuild.get(from - offset, count);
 						} else {
-							List<JobLogEntryEx> entries = new ArrayList<>(readLogEntries(logFile, from, count));
+							List<JobLogEntryEx> entries = new ArrayList<>(logFile.read(from, count));
 							if (count == 0)
-								entries.addAll(snippet.entries);
+								entries.addAll(recentEntriesOfBuild.getAll());
 							else if (entries.size() < count)
-								entries.addAll(readLogEntries(snippet.entries, 0, count - entries.size()));
+								entries.addAll(recentEntriesOfBuild.get(0, count - entries.size()));
 							return entries;
 						}
 					} else {
-						return readLogEntries(logFile, from, count);
+						return logFile.read(from, count);
 					}
 				});
 			}
@@ -336,19 +354,20 @@ public class DefaultLogManager implements LogManager, Serializable {
 
 			@Override
 			public LogSnippet call() {
+				migrateLegacyLog(projectId, buildNumber);
 				return read(getLogLockName(projectId, buildNumber), () -> {
-					File logFile = Build.getLogFile(projectId, buildNumber);
-					LogSnippet recentSnippet = recentSnippets.get(getLogKey(projectId, buildNumber));
-					if (recentSnippet != null) {
+					JobLogFile logFile = getJobLogFile(projectId, buildNumber);
+					RecentLogEntries recentEntriesOfBuild = recentEntries.get(getLogKey(projectId, buildNumber));
+					if (recentEntriesOfBuild != null) {
 						LogSnippet snippet = new LogSnippet();
-						if (count <= recentSnippet.entries.size()) {
-							snippet.entries.addAll(recentSnippet.entries.subList(
-									recentSnippet.entries.size() - count, recentSnippet.entries.size()));
+						int size = recentEntriesOfBuild.size();
+						if (count <= size) {
+							snippet.entries.addAll(recentEntriesOfBuild.get(size - count, count));
 						} else {
-							snippet.entries.addAll(readLogSnippetReversely(logFile, count - recentSnippet.entries.size()).entries);
-							snippet.entries.addAll(recentSnippet.entries);
+							snippet.entries.addAll(readLogSnippetReversely(logFile, count - size).entries);
+							snippet.entries.addAll(recentEntriesOfBuild.getAll());
 						}
-						snippet.offset = recentSnippet.entries.size() + recentSnippet.offset - snippet.entries.size();
+						snippet.offset = size + recentEntriesOfBuild.getOffset() - snippet.entries.size();
 						return snippet;
 					} else {
 						return readLogSnippetReversely(logFile, count);
@@ -359,41 +378,16 @@ public class DefaultLogManager implements LogManager, Serializable {
 		});
 	}
 	
-	private ObjectOutputStream newOutputStream(File logFile) {
-		try {
-			if (logFile.exists()) {
-				return new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true))) {
-
-					@Override
-					protected void writeStreamHeader() throws IOException {
-						reset();
-					}
-					
-				};
-			} else {
-				return new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(logFile)));
-			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-	}
-	
 	@Sessional
 	@Listen
 	public void on(BuildFinished event) {
 		Build build = event.getBuild();
 		Long projectId = build.getProject().getId();
 		write(build.getLogLockName(), () -> {
-			LogSnippet snippet = recentSnippets.remove(getLogKey(projectId, build.getNumber()));
-			if (snippet != null) {
-				File logFile = build.getLogFile();
-				try (ObjectOutputStream oos = newOutputStream(logFile)) {
-					for (JobLogEntryEx entry: snippet.entries)
-						writeLogEntry(oos, entry);
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				} 
-				projectManager.directoryModified(projectId, logFile.getParentFile());
+			RecentLogEntries entries = recentEntries.remove(getLogKey(projectId, build.getNumber()));
+			if (entries != null) {
+				getJobLogFile(projectId, build.getNumber()).append(entries.getAll());
+				projectManager.directoryModified(projectId, buildManager.getBuildDir(projectId, build.getNumber()));
 			}
 			return null;
 		});
@@ -410,7 +404,9 @@ public class DefaultLogManager implements LogManager, Serializable {
 
 	class LogStream extends InputStream {
 
-		private ObjectInputStream ois;
+		private JobLogFile.Reader jobLogReader;
+		
+		private int nextEntryIndex;
 		
 		private final Lock lock;
 
@@ -421,22 +417,24 @@ public class DefaultLogManager implements LogManager, Serializable {
 		private int pos = 0;
 		
 		public LogStream(Long projectId, Long buildNumber) {
+			migrateLegacyLog(projectId, buildNumber);
 			lock = getReadWriteLock(getLogLockName(projectId, buildNumber)).readLock();
 			lock.lock();
 			try {
-				File logFile = Build.getLogFile(projectId, buildNumber);
-				
-				if (logFile.exists())
-					ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+				JobLogFile jobLogFile = getJobLogFile(projectId, buildNumber);
+				if (jobLogFile.exists())
+					jobLogReader = jobLogFile.openReader();
 				
-				LogSnippet snippet = recentSnippets.get(getLogKey(projectId, buildNumber));
-				if (snippet != null) {
+				RecentLogEntries entries = recentEntries.get(getLogKey(projectId, buildNumber));
+				if (entries != null) {
 					StringBuilder builder = new StringBuilder();
-					for (JobLogEntryEx entry: snippet.entries)
+					for (JobLogEntryEx entry: entries.getAll())
 						builder.append(renderAsText(entry) + "\n");
 					recentBuffer = builder.toString().getBytes(StandardCharsets.UTF_8);
 				}
 			} catch (Exception e) {
+				if (jobLogReader != null)
+					jobLogReader.close();
 				lock.unlock();
 				throw ExceptionUtils.unchecked(e);
 			}
@@ -461,21 +459,14 @@ public class DefaultLogManager implements LogManager, Serializable {
 		@Override
 		public int read() throws IOException {
 			if (pos == buffer.length) {
-				if (ois != null) {
-					try {
-						buffer = (renderAsText(readLogEntry(ois)) + "\n").getBytes(StandardCharsets.UTF_8);
-					} catch (EOFException e) {
-						ois.close();
-						ois = null;
-						if (recentBuffer != null) {
-							buffer = recentBuffer;
-							recentBuffer = null;
-						} else {
-							return -1;
-						}
-					} catch (ClassNotFoundException e) {
-						throw new RuntimeException(e);
-					}
+				List<JobLogEntryEx> entries;
+				if (jobLogReader != null 
+						&& !(entries = jobLogReader.read(nextEntryIndex, STREAM_BATCH_SIZE)).isEmpty()) {
+					nextEntryIndex += entries.size();
+					StringBuilder builder = new StringBuilder();
+					for (JobLogEntryEx entry: entries)
+						builder.append(renderAsText(entry)).append("\n");
+					buffer = builder.toString().getBytes(StandardCharsets.UTF_8);
 				} else if (recentBuffer != null) {
 					buffer = recentBuffer;
 					recentBuffer = null;
@@ -492,8 +483,8 @@ public class DefaultLogManager implements LogManager, Serializable {
 		@Override
 		public void close() throws IOException {
 			try {
-				if (ois != null)
-					ois.close();
+				if (jobLogReader != null)
+					jobLogReader.close();
 			} finally {
 				lock.unlock();
 			}
@@ -0,0 +1,371 @@
+package io.onedev.server.job.log;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.buildspec.job.log.JobLogEntryEx;
+import io.onedev.server.buildspec.job.log.Message;
+import io.onedev.server.buildspec.job.log.Style;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Job log stored in a compact binary format. Log entries are grouped into blocks of
+ * {@link #BLOCK_ENTRIES} entries, with each block optionally deflate compressed. A sidecar
+ * index file records offset and entry count of each block with fixed-width records, so
+ * that block of any entry can be located with a single seek. All blocks except the last
+ * one are always full, and the last block will be rewritten in place when more entries 
+ * are appended.
+ * <p>
+ * Data block layout: compressed flag (byte), uncompressed length (int), stored length (int),
+ * followed by stored bytes. Index record layout: block offset (long), entry count (int).
+ * <p>
+ * This class does not handle concurrency, callers should protect access with build log lock.
+ */
+public class JobLogFile {
+
+	public static final String DATA_FILE_NAME = "build-log.dat";
+
+	public static final String INDEX_FILE_NAME = "build-log.idx";
+
+	static final int BLOCK_ENTRIES = 256;
+
+	private static final int BLOCK_HEADER_SIZE = 9;
+
+	private static final int INDEX_RECORD_SIZE = 12;
+
+	private static final int MIN_COMPRESS_SIZE = 512;
+
+	private final File dataFile;
+
+	private final File indexFile;
+
+	public JobLogFile(File buildDir) {
+		dataFile = new File(buildDir, DATA_FILE_NAME);
+		indexFile = new File(buildDir, INDEX_FILE_NAME);
+	}
+
+	public boolean exists() {
+		return indexFile.exists();
+	}
+
+	public void delete() {
+		if (dataFile.exists())
+			FileUtils.deleteFile(dataFile);
+		if (indexFile.exists())
+			FileUtils.deleteFile(indexFile);
+	}
+
+	private int getBlockCount() {
+		return (int) (indexFile.length() / INDEX_RECORD_SIZE);
+	}
+
+	public int getEntryCount() {
+		if (exists()) {
+			try (RandomAccessFile index = new RandomAccessFile(indexFile, "r")) {
+				int blockCount = getBlockCount();
+				if (blockCount != 0) {
+					index.seek((long) (blockCount - 1) * INDEX_RECORD_SIZE + 8);
+					return (blockCount - 1) * BLOCK_ENTRIES + index.readInt();
+				} else {
+					return 0;
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			return 0;
+		}
+	}
+
+	/**
+	 * Read log entries
+	 *
+	 * @param from
+	 * 			index of first entry to read
+	 * @param count
+	 * 			number of entries to read, use <tt>0</tt> to read all entries since <tt>from</tt>
+	 */
+	public List<JobLogEntryEx> read(int from, int count) {
+		if (exists()) {
+			try (Reader reader = openReader()) {
+				return reader.read(from, count);
+			}
+		} else {
+			return new ArrayList<>();
+		}
+	}
+	
+	/**
+	 * Open a reader keeping log files open for successive reads. Log file should exist 
+	 */
+	public Reader openReader() {
+		return new Reader();
+	}
+
+	/**
+	 * Iterate log entries in order until specified visitor returns <tt>false</tt>
+	 *
+	 * @return <tt>false</tt> if iteration is stopped by the visitor, <tt>true</tt> otherwise
+	 */
+	public boolean visit(Predicate<JobLogEntryEx> visitor) {
+		if (exists()) {
+			try (
+					RandomAccessFile index = new RandomAccessFile(indexFile, "r");
+					RandomAccessFile data = new RandomAccessFile(dataFile, "r")) {
+				int blockCount = getBlockCount();
+				for (int block = 0; block < blockCount; block++) {
+					for (JobLogEntryEx entry: readBlock(index, data, block)) {
+						if (!visitor.test(entry))
+							return false;
+					}
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return true;
+	}
+
+	public void append(List<JobLogEntryEx> entries) {
+		if (entries.isEmpty())
+			return;
+		try (
+				RandomAccessFile index = new RandomAccessFile(indexFile, "rw");
+				RandomAccessFile data = new RandomAccessFile(dataFile, "rw")) {
+			int blockCount = getBlockCount();
+
+			List<JobLogEntryEx> pendingEntries = new ArrayList<>();
+			long dataEnd = 0;
+			if (blockCount != 0) {
+				index.seek((long) (blockCount - 1) * INDEX_RECORD_SIZE);
+				long lastBlockOffset = index.readLong();
+				int lastBlockEntries = index.readInt();
+				if (lastBlockEntries < BLOCK_ENTRIES) {
+					/*
+					 * Rewrite last block in place to keep all blocks except the last one full. 
+					 * Index record of the block is removed before the block is overwritten, so 
+					 * that index never points to partially written data
+					 */
+					pendingEntries.addAll(readBlock(index, data, blockCount - 1));
+					blockCount--;
+					dataEnd = lastBlockOffset;
+				} else {
+					data.seek(lastBlockOffset + 5);
+					dataEnd = lastBlockOffset + BLOCK_HEADER_SIZE + data.readInt();
+				}
+			}
+			pendingEntries.addAll(entries);
+
+			index.setLength((long) blockCount * INDEX_RECORD_SIZE);
+			index.seek((long) blockCount * INDEX_RECORD_SIZE);
+			// Also discards partially written data from previous failures if any
+			data.setLength(dataEnd);
+			data.seek(dataEnd);
+
+			for (int i = 0; i < pendingEntries.size(); i += BLOCK_ENTRIES) {
+				List<JobLogEntryEx> entriesOfBlock = pendingEntries.subList(i,
+						Math.min(i + BLOCK_ENTRIES, pendingEntries.size()));
+				long blockOffset = data.getFilePointer();
+				data.write(encodeBlock(entriesOfBlock));
+				index.writeLong(blockOffset);
+				index.writeInt(entriesOfBlock.size());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public class Reader implements Closeable {
+		
+		private final RandomAccessFile index;
+		
+		private final RandomAccessFile data;
+		
+		Reader() {
+			try {
+				index = new RandomAccessFile(indexFile, "r");
+				try {
+					data = new RandomAccessFile(dataFile, "r");
+				} catch (IOException e) {
+					index.close();
+					throw e;
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		/**
+		 * Read log entries
+		 *
+		 * @param from
+		 * 			index of first entry to read
+		 * @param count
+		 * 			number of entries to read, use <tt>0</tt> to read all entries since <tt>from</tt>
+		 */
+		public List<JobLogEntryEx> read(int from, int count) {
+			List<JobLogEntryEx> entries = new ArrayList<>();
+			try {
+				int blockCount = (int) (index.length() / INDEX_RECORD_SIZE);
+				for (int block = from / BLOCK_ENTRIES; block < blockCount; block++) {
+					List<JobLogEntryEx> entriesOfBlock = readBlock(index, data, block);
+					int start = block == from / BLOCK_ENTRIES? from % BLOCK_ENTRIES: 0;
+					for (int i = start; i < entriesOfBlock.size(); i++) {
+						entries.add(entriesOfBlock.get(i));
+						if (count != 0 && entries.size() == count)
+							return entries;
+					}
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return entries;
+		}
+
+		@Override
+		public void close() {
+			try {
+				index.close();
+				data.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+	}
+	
+	private List<JobLogEntryEx> readBlock(RandomAccessFile index, RandomAccessFile data, int block)
+			throws IOException {
+		index.seek((long) block * INDEX_RECORD_SIZE);
+		long blockOffset = index.readLong();
+		int entryCount = index.readInt();
+
+		data.seek(blockOffset);
+		boolean compressed = data.readByte() != 0;
+		int uncompressedLength = data.readInt();
+		byte[] bytes = new byte[data.readInt()];
+		data.readFully(bytes);
+		if (compressed) {
+			Inflater inflater = new Inflater();
+			try {
+				inflater.setInput(bytes);
+				byte[] uncompressed = new byte[uncompressedLength];
+				int length = 0;
+				while (length < uncompressedLength && !inflater.finished()) {
+					int inflated = inflater.inflate(uncompressed, length, uncompressedLength - length);
+					if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+						break;
+					length += inflated;
+				}
+				if (length != uncompressedLength) {
+					throw new IOException("Truncated log block (block: " + block + ", expected length: "
+							+ uncompressedLength + ", actual length: " + length + ")");
+				}
+				bytes = uncompressed;
+			} catch (DataFormatException e) {
+				throw new IOException(e);
+			} finally {
+				inflater.end();
+			}
+		}
+
+		List<JobLogEntryEx> entries = new ArrayList<>(entryCount);
+		try (DataInputStream is = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			for (int i = 0; i < entryCount; i++)
+				entries.add(readEntry(is));
+		}
+		return entries;
+	}
+
+	private byte[] encodeBlock(List<JobLogEntryEx> entries) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (DataOutputStream os = new DataOutputStream(baos)) {
+			for (JobLogEntryEx entry: entries)
+				writeEntry(os, entry);
+		}
+		byte[] bytes = baos.toByteArray();
+
+		boolean compressed = false;
+		byte[] stored = bytes;
+		if (bytes.length >= MIN_COMPRESS_SIZE) {
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			try {
+				deflater.setInput(bytes);
+				deflater.finish();
+				ByteArrayOutputStream compressedBaos = new ByteArrayOutputStream(bytes.length / 2);
+				byte[] buffer = new byte[8192];
+				while (!deflater.finished()) {
+					int length = deflater.deflate(buffer);
+					compressedBaos.write(buffer, 0, length);
+				}
+				if (compressedBaos.size() < bytes.length) {
+					stored = compressedBaos.toByteArray();
+					compressed = true;
+				}
+			} finally {
+				deflater.end();
+			}
+		}
+
+		ByteArrayOutputStream blockBaos = new ByteArrayOutputStream(stored.length + BLOCK_HEADER_SIZE);
+		try (DataOutputStream os = new DataOutputStream(blockBaos)) {
+			os.writeByte(compressed? 1: 0);
+			os.writeInt(bytes.length);
+			os.writeInt(stored.length);
+			os.write(stored);
+		}
+		return blockBaos.toByteArray();
+	}
+
+	private void writeEntry(DataOutputStream os, JobLogEntryEx entry) throws IOException {
+		os.writeLong(entry.getDate().getTime());
+		os.writeInt(entry.getMessages().size());
+		for (Message message: entry.getMessages()) {
+			Style style = message.getStyle();
+			if (style.isDefault()) {
+				os.writeBoolean(false);
+			} else {
+				os.writeBoolean(true);
+				writeString(os, style.getColor());
+				writeString(os, style.getBackgroundColor());
+				os.writeBoolean(style.isBold());
+			}
+			writeString(os, message.getText());
+		}
+	}
+
+	private JobLogEntryEx readEntry(DataInputStream is) throws IOException {
+		Date date = new Date(is.readLong());
+		int messageCount = is.readInt();
+		List<Message> messages = new ArrayList<>(messageCount);
+		for (int i = 0; i < messageCount; i++) {
+			Style style;
+			if (is.readBoolean())
+				style = new Style(readString(is), readString(is), is.readBoolean());
+			else
+				style = new StyleBuilder().build();
+			messages.add(new Message(style, readString(is)));
+		}
+		return new JobLogEntryEx(date, messages);
+	}
+
+	private void writeString(DataOutputStream os, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		os.writeInt(bytes.length);
+		os.write(bytes);
+	}
+
+	private String readString(DataInputStream is) throws IOException {
+		byte[] bytes = new byte[is.readInt()];
+		is.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,29 @@
+package io.onedev.server.job.log;
+
+import java.io.Serializable;
+
+import javax.annotation.Nullable;
+
+public class JobLogMessage implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String message;
+	
+	private final String sessionId;
+	
+	public JobLogMessage(String message, @Nullable String sessionId) {
+		this.message = message;
+		this.sessionId = sessionId;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	@Nullable
+	public String getSessionId() {
+		return sessionId;
+	}
+	
+}
@@ -1,7 +1,11 @@
 package io.onedev.server.job.log;
 
+import java.util.List;
+
 import javax.annotation.Nullable;
 
+import com.google.common.collect.Lists;
+
 import io.onedev.commons.utils.TaskLogger;
 import io.onedev.server.OneDev;
 import io.onedev.server.cluster.ClusterTask;
@@ -12,22 +16,29 @@ public class LogTask implements ClusterTask<Void> {
 
 	private final String jobToken;
 	
-	private final String message;
+	private final List<JobLogMessage> messages;
 	
-	private final String sessionId;
+	public LogTask(String jobToken, List<JobLogMessage> messages) {
+		this.jobToken = jobToken;
+		this.messages = messages;
+	}
 	
 	public LogTask(String jobToken, String message, @Nullable String sessionId) {
-		this.jobToken = jobToken;
-		this.message = message;
-		this.sessionId = sessionId;
+		this(jobToken, Lists.newArrayList(new JobLogMessage(message, sessionId)));
 	}
 	
 	@Override
 	public Void call() {
 		TaskLogger logger = OneDev.getInstance(LogManager.class).getJobLogger(jobToken);
-		if (logger != null && !(logger instanceof ServerJobLogger))  
-			logger.log(message, sessionId);
+		if (logger != null && !(logger instanceof ServerJobLogger)) {
+			if (logger instanceof BatchTaskLogger) {
+				((BatchTaskLogger) logger).log(messages);
+			} else {
+				for (JobLogMessage message: messages)
+					logger.log(message.getMessage(), message.getSessionId());
+			}
+		}
 		return null;
 	}
 	
-}
\ No newline at end of file
+}
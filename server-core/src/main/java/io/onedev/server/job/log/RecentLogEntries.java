@@ -0,0 +1,88 @@
+package io.onedev.server.job.log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.onedev.server.buildspec.job.log.JobLogEntryEx;
+
+/**
+ * Bounded ring buffer holding log entries of a running build not yet flushed to disk.
+ * This class is not thread-safe, and should be accessed with build log lock held
+ */
+class RecentLogEntries {
+
+	private final JobLogEntryEx[] entries;
+
+	private int head;
+
+	private int size;
+
+	private int offset;
+
+	RecentLogEntries(int capacity) {
+		entries = new JobLogEntryEx[capacity];
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isFull() {
+		return size == entries.length;
+	}
+
+	/**
+	 * @return index of first entry in the buffer among all log entries of the build
+	 */
+	int getOffset() {
+		return offset;
+	}
+
+	void add(JobLogEntryEx entry) {
+		if (isFull())
+			throw new IllegalStateException("Log entry buffer is full");
+		entries[(head + size) % entries.length] = entry;
+		size++;
+	}
+
+	/**
+	 * Remove specified number of oldest entries from the buffer
+	 *
+	 * @return removed entries in order
+	 */
+	List<JobLogEntryEx> removeOldest(int count) {
+		List<JobLogEntryEx> removed = get(0, Math.min(count, size));
+		for (int i=0; i<removed.size(); i++) {
+			entries[head] = null;
+			head = (head + 1) % entries.length;
+		}
+		size -= removed.size();
+		offset += removed.size();
+		return removed;
+	}
+
+	/**
+	 * Get entries in the buffer
+	 *
+	 * @param from
+	 * 			index of first entry relative to the buffer
+	 * @param count
+	 * 			number of entries to get, use <tt>0</tt> to get all entries since <tt>from</tt>
+	 */
+	List<JobLogEntryEx> get(int from, int count) {
+		List<JobLogEntryEx> result = new ArrayList<>();
+		if (from < size) {
+			int to = from + count;
+			if (to == from || to > size)
+				to = size;
+			for (int i=from; i<to; i++)
+				result.add(entries[(head + i) % entries.length]);
+		}
+		return result;
+	}
+
+	List<JobLogEntryEx> getAll() {
+		return get(0, 0);
+	}
+
+}
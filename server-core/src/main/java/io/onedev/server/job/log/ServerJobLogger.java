@@ -1,11 +1,12 @@
 package io.onedev.server.job.log;
 
-import io.onedev.commons.utils.TaskLogger;
 import io.onedev.server.OneDev;
 import io.onedev.server.cluster.ClusterManager;
 import org.jetbrains.annotations.Nullable;
 
-public class ServerJobLogger extends TaskLogger {
+import java.util.List;
+
+public class ServerJobLogger extends BatchTaskLogger {
 	
 	private final String server;
 	
@@ -21,5 +22,11 @@ public class ServerJobLogger extends TaskLogger {
 		var clusterManager = OneDev.getInstance(ClusterManager.class);
 		clusterManager.runOnServer(server, new LogTask(jobToken, message, sessionId));	
 	}
+
+	@Override
+	public void log(List<JobLogMessage> messages) {
+		var clusterManager = OneDev.getInstance(ClusterManager.class);
+		clusterManager.runOnServer(server, new LogTask(jobToken, messages));	
+	}
 	
 }
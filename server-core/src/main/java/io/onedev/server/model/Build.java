@@ -78,6 +78,10 @@ public class Build extends ProjectBelonging
 	
 	public static final String ARTIFACTS_DIR = "artifacts";
 
+	/**
+	 * Log file of legacy format, which will be converted to {@link io.onedev.server.job.log.JobLogFile} 
+	 * on first read
+	 */
 	public static final String LOG_FILE = "build.log";
 
 	public static final int MAX_DESCRIPTION_LEN = 12000;
@@ -0,0 +1,55 @@
+package io.onedev.server.model;
+
+import io.onedev.server.model.support.EntityTouch;
+
+import javax.persistence.*;
+
+import static io.onedev.server.model.BuildTouch.*;
+
+@Entity
+@Table(indexes={@Index(columnList="o_project_id"), @Index(columnList= PROP_BUILD_ID)})
+public class BuildTouch extends EntityTouch {
+
+	private static final long serialVersionUID = 1L;
+	
+	public static final String PROP_PROJECT = "project";
+	
+	public static final String PROP_BUILD_ID = "buildId";
+
+	@ManyToOne(fetch=FetchType.LAZY)
+	private Project project;
+	
+	private Long buildId;
+
+	public Project getProject() {
+		return project;
+	}
+
+	public void setProject(Project project) {
+		this.project = project;
+	}
+
+	public Long getBuildId() {
+		return buildId;
+	}
+
+	public void setBuildId(Long buildId) {
+		this.buildId = buildId;
+	}
+
+	@Override
+	public Class<? extends AbstractEntity> getEntityClass() {
+		return Build.class;
+	}
+
+	@Override
+	public Long getProjectId() {
+		return getProject().getId();
+	}
+
+	@Override
+	public Long getEntityId() {
+		return getBuildId();
+	}
+	
+}
@@ -30,6 +30,7 @@ import io.onedev.server.model.Project;
 import io.onedev.server.model.User;
 import io.onedev.server.model.support.NamedQuery;
 import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.search.entity.CompiledQueryManager;
 import io.onedev.server.search.entity.build.BuildQuery;
 import io.onedev.server.security.permission.AccessBuild;
 import io.onedev.server.security.permission.JobPermission;
@@ -48,14 +49,17 @@ public class BuildNotificationManager extends AbstractNotificationManager {
 	
 	private final UserManager userManager;
 	
+	private final CompiledQueryManager compiledQueryManager;
+	
 	@Inject
 	public BuildNotificationManager(MailManager mailManager, UrlManager urlManager, 
 									UserManager userManager, SettingManager settingManager, 
-									MarkdownManager markdownManager) {
+									MarkdownManager markdownManager, CompiledQueryManager compiledQueryManager) {
 		super(markdownManager, settingManager);
 		this.mailManager = mailManager;
 		this.urlManager = urlManager;
 		this.userManager = userManager;
+		this.compiledQueryManager = compiledQueryManager;
 	}
 
 	private void fillSubscribedQueryStrings(Map<User, Collection<String>> subscribedQueryStrings, 
@@ -122,7 +126,9 @@ public class BuildNotificationManager extends AbstractNotificationManager {
 					for (String queryString: entry.getValue()) {
 						User.push(user);
 						try {
-							if (BuildQuery.parse(event.getProject(), queryString, true, true).matches(build)) {
+							var compiledQuery = compiledQueryManager.getQuery(Build.class, project, queryString, 
+									it -> BuildQuery.parse(project, it, true, true));
+							if (compiledQuery != null && compiledQuery.matches(build)) {
 								EmailAddress emailAddress = user.getPrimaryEmailAddress();
 								if (emailAddress != null && emailAddress.isVerified())
 									notifyEmails.add(emailAddress.getValue());
@@ -163,7 +169,9 @@ public class BuildNotificationManager extends AbstractNotificationManager {
 					for (String queryString: entry.getValue()) {
 						User.push(user);
 						try {
-							if (BuildQuery.parse(null, queryString, true, true).matches(build)) {
+							var compiledQuery = compiledQueryManager.getQuery(Build.class, null, queryString, 
+									it -> BuildQuery.parse(null, it, true, true));
+							if (compiledQuery != null && compiledQuery.matches(build)) {
 								EmailAddress emailAddress = user.getPrimaryEmailAddress();
 								if (emailAddress != null && emailAddress.isVerified())
 									notifyEmails.add(emailAddress.getValue());
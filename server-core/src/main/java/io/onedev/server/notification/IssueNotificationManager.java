@@ -27,6 +27,7 @@ import io.onedev.server.model.EmailAddress;
 import io.onedev.server.model.Group;
 import io.onedev.server.model.Issue;
 import io.onedev.server.model.IssueWatch;
+import io.onedev.server.model.Project;
 import io.onedev.server.model.User;
 import io.onedev.server.model.support.NamedQuery;
 import io.onedev.server.model.support.QueryPersonalization;
@@ -100,6 +101,11 @@ public class IssueNotificationManager extends AbstractNotificationManager {
 				return issue;
 			}
 
+			@Override
+			protected Project getProject() {
+				return issue.getProject();
+			}
+
 			@Override
 			protected Collection<? extends QueryPersonalization<?>> getQueryPersonalizations() {
 				return queryPersonalizationManager.query(new ProjectScope(issue.getProject(), true, true));
@@ -128,6 +134,11 @@ public class IssueNotificationManager extends AbstractNotificationManager {
 				return issue;
 			}
 
+			@Override
+			protected Project getProject() {
+				return null;
+			}
+
 			@Override
 			protected Collection<? extends QueryPersonalization<?>> getQueryPersonalizations() {
 				return userManager.query().stream().map(it->it.getIssueQueryPersonalization()).collect(Collectors.toList());
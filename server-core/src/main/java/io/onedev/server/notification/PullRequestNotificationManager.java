@@ -78,6 +78,11 @@ public class PullRequestNotificationManager extends AbstractNotificationManager
 				return request;
 			}
 
+			@Override
+			protected Project getProject() {
+				return request.getTargetProject();
+			}
+
 			@Override
 			protected Collection<? extends QueryPersonalization<?>> getQueryPersonalizations() {
 				return request.getTargetProject().getPullRequestQueryPersonalizations();
@@ -104,6 +109,11 @@ public class PullRequestNotificationManager extends AbstractNotificationManager
 				return request;
 			}
 
+			@Override
+			protected Project getProject() {
+				return null;
+			}
+
 			@Override
 			protected Collection<? extends QueryPersonalization<?>> getQueryPersonalizations() {
 				return userManager.query().stream().map(it -> it.getPullRequestQueryPersonalization()).collect(Collectors.toList());
@@ -1,24 +1,62 @@
 package io.onedev.server.persistence;
 
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
 import com.hazelcast.cp.IAtomicLong;
+import io.onedev.commons.loader.ManagedSerializedForm;
 import io.onedev.server.cluster.ClusterManager;
 import io.onedev.server.data.DataManager;
 import io.onedev.server.model.AbstractEntity;
+import io.onedev.server.model.BuildDependence;
+import io.onedev.server.model.BuildLabel;
+import io.onedev.server.model.BuildParam;
+import io.onedev.server.model.CodeCommentMention;
+import io.onedev.server.model.CoverageMetric;
+import io.onedev.server.model.IssueField;
+import io.onedev.server.model.IssueMention;
+import io.onedev.server.model.IssueWatch;
+import io.onedev.server.model.PackBlobReference;
+import io.onedev.server.model.PackLabel;
+import io.onedev.server.model.ProblemMetric;
+import io.onedev.server.model.PullRequestMention;
+import io.onedev.server.model.PullRequestWatch;
+import io.onedev.server.model.UnitTestMetric;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static io.onedev.server.persistence.PersistenceUtils.callWithTransaction;
 
+/**
+ * Ids of frequently inserted entities are leased from cluster wide counters in blocks, and 
+ * handed out locally. Ids of these entities are not ordered by creation time across servers, 
+ * so other entities, which may be ordered by id, are still allocated from counters directly. 
+ */
 @Singleton
-public class DefaultIdManager implements IdManager {
+public class DefaultIdManager implements IdManager, Serializable {
 
+	private static final long serialVersionUID = 1L;
+
+	private static final int BLOCK_SIZE = 1000;
+	
+	// Entities inserted in bulk and never ordered by id
+	private static final Collection<Class<?>> BLOCK_CLASSES = Sets.newHashSet(
+			BuildParam.class, BuildDependence.class, BuildLabel.class, 
+			IssueField.class, IssueMention.class, IssueWatch.class, 
+			PullRequestMention.class, PullRequestWatch.class, CodeCommentMention.class, 
+			PackBlobReference.class, PackLabel.class, 
+			CoverageMetric.class, ProblemMetric.class, UnitTestMetric.class);
+	
 	private final DataManager dataManager;
 	
 	private final ClusterManager clusterManager;
@@ -27,6 +65,8 @@ public class DefaultIdManager implements IdManager {
 	
 	private final Map<Class<?>, IAtomicLong> nextIds = new HashMap<>();
 	
+	private final Map<Class<?>, IdBlock> idBlocks = new HashMap<>();
+	
 	@Inject
 	public DefaultIdManager(DataManager dataManager, ClusterManager clusterManager,
                             SessionFactoryManager sessionFactoryManager) {
@@ -35,6 +75,10 @@ public class DefaultIdManager implements IdManager {
 		this.clusterManager = clusterManager;
 	}
 
+	public Object writeReplace() throws ObjectStreamException {
+		return new ManagedSerializedForm(IdManager.class);
+	}
+	
 	@SuppressWarnings("unchecked")
 	private long getMaxId(Connection conn, Class<?> entityClass) {
 		try (Statement stmt = conn.createStatement()) {
@@ -61,6 +105,8 @@ public class DefaultIdManager implements IdManager {
 					var nextId = clusterManager.getHazelcastInstance().getCPSubsystem().getAtomicLong(entityClass.getName());
 					clusterManager.init(nextId, () -> getMaxId(conn, entityClass) + 1);
 					nextIds.put(entityClass, nextId);
+					if (BLOCK_CLASSES.contains(entityClass))
+						idBlocks.put(entityClass, new IdBlock());
 				}
 				return null;
 			});
@@ -71,11 +117,37 @@ public class DefaultIdManager implements IdManager {
 
 	@Override
 	public long nextId(Class<?> entityClass) {
-		return nextIds.get(entityClass).getAndIncrement();
+		var nextAtomicId = nextIds.get(entityClass);
+		var idBlock = idBlocks.get(entityClass);
+		if (idBlock != null) {
+			synchronized (idBlock) {
+				if (idBlock.next == idBlock.end) {
+					var nextLease = idBlock.nextLease;
+					idBlock.nextLease = null;
+					if (nextLease != null)
+						idBlock.next = nextLease.join();
+					else
+						idBlock.next = nextAtomicId.getAndAdd(BLOCK_SIZE);
+					idBlock.end = idBlock.next + BLOCK_SIZE;
+				}
+				long nextId = idBlock.next++;
+				
+				// Lease next block in advance so that allocation does not wait for it 
+				// in most cases
+				if (idBlock.nextLease == null && idBlock.end - idBlock.next <= BLOCK_SIZE / 4)
+					idBlock.nextLease = nextAtomicId.getAndAddAsync(BLOCK_SIZE).toCompletableFuture();
+				return nextId;
+			}
+		} else {
+			return nextAtomicId.getAndIncrement();
+		}
 	}
 
 	@Override
 	public void useId(Class<?> entityClass, long id) {
+		// Blocks already leased by other servers may contain specified id
+		Preconditions.checkState(!idBlocks.containsKey(entityClass), 
+				"Specified id can not be used as ids of this entity are leased in blocks");
 		var nextAtomicId = nextIds.get(entityClass);
 		while (true) {
 			long nextId = nextAtomicId.getAndIncrement();
@@ -87,5 +159,15 @@ public class DefaultIdManager implements IdManager {
 			}
 		}
 	}
+	
+	private static class IdBlock {
+		
+		long next;
+		
+		long end;
+		
+		CompletableFuture<Long> nextLease;
+		
+	}
 
 }
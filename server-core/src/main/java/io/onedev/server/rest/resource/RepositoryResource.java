@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Splitter;
 import io.onedev.commons.utils.ExplicitException;
+import io.onedev.commons.utils.PlanarRange;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.git.*;
@@ -17,8 +18,16 @@ import io.onedev.server.rest.annotation.Api;
 import io.onedev.server.rest.InvalidParamException;
 import io.onedev.server.rest.resource.support.FileCreateOrUpdateRequest;
 import io.onedev.server.rest.resource.support.FileEditRequest;
+import io.onedev.server.rest.resource.support.RestConstants;
+import io.onedev.server.search.code.CodeSearchManager;
+import io.onedev.server.search.code.hit.ProjectQueryHit;
+import io.onedev.server.search.code.hit.TextHit;
+import io.onedev.server.search.code.query.BlobQuery;
+import io.onedev.server.search.code.query.TextQuery;
+import io.onedev.server.search.code.query.TooGeneralQueryException;
 import io.onedev.server.search.commit.CommitQuery;
 import io.onedev.server.security.SecurityUtils;
+import io.onedev.server.security.permission.ReadCode;
 import io.onedev.server.util.RevisionAndPath;
 import org.apache.commons.codec.binary.Base64;
 import org.apache.shiro.authz.UnauthorizedException;
@@ -37,6 +46,8 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.Serializable;
 import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 
 @Api(order=1100)
@@ -48,16 +59,22 @@ public class RepositoryResource {
 
 	private static final int MAX_COMMITS = 10000;
 	
+	private static final int MAX_CODE_SEARCH_HITS = 1000;
+	
 	private final ProjectManager projectManager;
 
 	private final GitService gitService;
 	
+	private final CodeSearchManager codeSearchManager;
+	
 	private final ObjectMapper mapper;
 	
 	@Inject
-	public RepositoryResource(ProjectManager projectManager, GitService gitService, ObjectMapper mapper) {
+	public RepositoryResource(ProjectManager projectManager, GitService gitService, 
+							  CodeSearchManager codeSearchManager, ObjectMapper mapper) {
 		this.projectManager = projectManager;
 		this.gitService = gitService;
+		this.codeSearchManager = codeSearchManager;
 		this.mapper = mapper;
 	}
 
@@ -419,6 +436,72 @@ public class RepositoryResource {
 		return response;
 	}
 
+	@Api(order=120, description="Search text in default branches of all projects with code read permission. "
+			+ "Hits are sorted by relevance. Projects whose default branches are not indexed yet are "
+			+ "skipped, and will be searched after being indexed")
+	@Path("/code-search")
+	@GET
+	public List<CodeSearchHit> searchCode(
+			@QueryParam("term") @Api(description="Text to search", example="getRepository") String term, 
+			@QueryParam("regex") @Api(description="Whether or not term is a regular expression") boolean regex, 
+			@QueryParam("wholeWord") @Api(description="Whether or not to match whole word") boolean wholeWord, 
+			@QueryParam("caseSensitive") @Api(description="Whether or not to match case") boolean caseSensitive, 
+			@QueryParam("fileNames") @Api(description="Optionally specify comma separated file name patterns to search in", example="*.java") String fileNames, 
+			@QueryParam("offset") @Api(example="0") int offset, 
+			@QueryParam("count") @Api(example="100") int count) {
+		if (offset < 0)
+			throw new InvalidParamException("Offset should not be negative");
+		if (count <= 0)
+			throw new InvalidParamException("Count should be greater than 0");
+		if (count > RestConstants.MAX_PAGE_SIZE)
+			throw new InvalidParamException("Count should not be greater than " + RestConstants.MAX_PAGE_SIZE);
+		if (offset + count > MAX_CODE_SEARCH_HITS)
+			throw new InvalidParamException("Offset plus count should not be greater than " + MAX_CODE_SEARCH_HITS);
+		if (StringUtils.isBlank(term))
+			throw new InvalidParamException("Search term should be specified");
+		if (regex) {
+			try {
+				Pattern.compile(term);
+			} catch (PatternSyntaxException e) {
+				throw new InvalidParamException("Invalid regular expression", e);
+			}
+		}
+		
+		Map<Long, Project> projects = new HashMap<>();
+		for (Project project: projectManager.getPermittedProjects(new ReadCode())) 
+			projects.put(project.getId(), project);
+		
+		BlobQuery query = new TextQuery.Builder(term)
+				.regex(regex).wholeWord(wholeWord).caseSensitive(caseSensitive).fileNames(fileNames)
+				.count(offset + count)
+				.build();
+		List<ProjectQueryHit> hits;
+		try {
+			hits = codeSearchManager.search(projects.keySet(), query).getHits();
+		} catch (TooGeneralQueryException e) {
+			throw new InvalidParamException("Search term is too general");
+		}
+		
+		List<CodeSearchHit> responses = new ArrayList<>();
+		for (ProjectQueryHit hit: hits.subList(Math.min(offset, hits.size()), hits.size())) {
+			CodeSearchHit response = new CodeSearchHit();
+			response.projectId = hit.getProjectId();
+			response.projectPath = projects.get(hit.getProjectId()).getPath();
+			response.commitHash = hit.getCommitId().name();
+			response.blobPath = hit.getHit().getBlobPath();
+			PlanarRange position = hit.getHit().getHitPos();
+			if (position != null) {
+				response.lineNumber = position.getFromRow() + 1;
+				response.fromColumn = position.getFromColumn();
+				response.toColumn = position.getToColumn();
+			}
+			if (hit.getHit() instanceof TextHit)
+				response.lineContent = ((TextHit) hit.getHit()).getLine();
+			responses.add(response);
+		}
+		return responses;
+	}
+	
 	// Wrap string inside an object to make return value a valid json for some third party 
 	// applications to consume
 	public static class FileEditResponse implements Serializable {
@@ -429,6 +512,32 @@ public class RepositoryResource {
 		
 	}
 
+	public static class CodeSearchHit implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+		
+		Long projectId;
+		
+		String projectPath;
+		
+		@Api(example="46c001b04cba0ca41588841f1ca32f50b582ee9b")
+		String commitHash;
+		
+		String blobPath;
+		
+		@Api(description="Line number of the hit, starting from 1")
+		Integer lineNumber;
+		
+		@Api(description="Column of the hit start inside the line, starting from 0")
+		Integer fromColumn;
+		
+		@Api(description="Column of the hit end inside the line (exclusive), starting from 0")
+		Integer toColumn;
+		
+		String lineContent;
+		
+	}
+
 	public static class RefResponse implements Serializable {
 
 		private static final long serialVersionUID = 1L;
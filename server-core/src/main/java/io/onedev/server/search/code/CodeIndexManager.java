@@ -2,6 +2,7 @@ package io.onedev.server.search.code;
 
 import javax.annotation.Nullable;
 
+import org.apache.lucene.search.SearcherManager;
 import org.eclipse.jgit.lib.ObjectId;
 
 import io.onedev.commons.jsymbol.Symbol;
@@ -15,4 +16,14 @@ public interface CodeIndexManager {
 	
 	String getIndexVersion(@Nullable SymbolExtractor<Symbol> extractor);
 	
+	/**
+	 * Get near real-time searcher manager of code index of specified project. The searcher 
+	 * manager is refreshed after each indexing. This method should be called on active 
+	 * server of the project
+	 * 
+	 * @return searcher manager of the project, or <tt>null</tt> if the project is not indexed yet
+	 */
+	@Nullable
+	SearcherManager getSearcherManager(Long projectId);
+	
 }
@@ -2,6 +2,7 @@ package io.onedev.server.search.code;
 
 import io.onedev.commons.jsymbol.Symbol;
 import io.onedev.server.model.Project;
+import io.onedev.server.search.code.hit.ProjectQueryResult;
 import io.onedev.server.search.code.hit.QueryHit;
 import io.onedev.server.search.code.hit.SymbolHit;
 import io.onedev.server.search.code.query.BlobQuery;
@@ -10,6 +11,7 @@ import org.apache.lucene.search.IndexSearcher;
 import org.eclipse.jgit.lib.ObjectId;
 
 import javax.annotation.Nullable;
+import java.util.Collection;
 import java.util.List;
 
 public interface CodeSearchManager {
@@ -26,6 +28,22 @@ public interface CodeSearchManager {
 	List<QueryHit> search(Project project, ObjectId commitId, BlobQuery query) 
 			throws TooGeneralQueryException;
 	
+	/**
+	 * Search default branches of specified projects with specified query. Each project is searched 
+	 * on its active server, and hits of all projects are merged by relevance.
+	 * 
+	 * @param projectIds
+	 * 			ids of projects to search. Caller should make sure that code of these projects can 
+	 * 			be read by current user 
+	 * @return
+	 * 			hits sorted by relevance with at most count of the query, and projects not searched 
+	 * 			as their default branches are not indexed yet
+	 * @throws 
+	 * 			TooGeneralQueryException if supplied query term is too general to possibly cause query slow
+	 */
+	ProjectQueryResult search(Collection<Long> projectIds, BlobQuery query) 
+			throws TooGeneralQueryException;
+	
 	@Nullable
 	List<Symbol> getSymbols(Project project, ObjectId blobId, String blobPath);
 	
@@ -1,7 +1,6 @@
 package io.onedev.server.search.code;
 
 import com.google.common.base.Preconditions;
-import com.google.common.base.Splitter;
 import io.onedev.commons.jsymbol.Symbol;
 import io.onedev.commons.jsymbol.SymbolExtractor;
 import io.onedev.commons.jsymbol.SymbolExtractorRegistry;
@@ -9,27 +8,33 @@ import io.onedev.commons.loader.ManagedSerializedForm;
 import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.StringUtils;
+import io.onedev.server.cluster.ClusterManager;
 import io.onedev.server.cluster.ClusterTask;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.event.Listen;
 import io.onedev.server.event.ListenerRegistry;
+import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.project.CommitIndexed;
 import io.onedev.server.event.project.RefUpdated;
 import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.git.GitUtils;
 import io.onedev.server.model.Project;
 import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.persistence.annotation.Transactional;
+import io.onedev.server.taskschedule.SchedulableTask;
+import io.onedev.server.taskschedule.TaskScheduler;
 import io.onedev.server.util.ContentDetector;
 import io.onedev.server.util.IndexResult;
 import io.onedev.server.util.concurrent.BatchWorkManager;
 import io.onedev.server.util.concurrent.BatchWorker;
 import io.onedev.server.util.concurrent.Prioritized;
+import io.onedev.server.util.concurrent.ResourcePool;
 import io.onedev.server.util.match.Matcher;
 import io.onedev.server.util.match.PathMatcher;
 import io.onedev.server.util.patternset.PatternSet;
 import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.lang.SerializationUtils;
 import org.apache.lucene.document.*;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.index.*;
@@ -44,9 +49,12 @@ import org.eclipse.jgit.lib.*;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.File;
@@ -54,14 +62,23 @@ import java.io.IOException;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static io.onedev.server.search.code.FieldConstants.*;
 import static io.onedev.server.search.code.IndexConstants.*;
 
+/**
+ * Searchers of project indexes are opened from directory readers, and refreshed after each 
+ * index commit. Index writers are only opened for indexing, and are closed once idle for a 
+ * while, or when too many of them are open, so that their buffers and file handles are not 
+ * held for projects not being indexed.
+ */
 @Singleton
-public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
+public class DefaultCodeIndexManager implements CodeIndexManager, SchedulableTask, Serializable {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultCodeIndexManager.class);
 
@@ -69,7 +86,15 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 	
 	private static final int BACKEND_INDEXING_PRIORITY = 90;
 	
-	private static final int DATA_VERSION = 7;
+	private static final int DATA_VERSION = 8;
+	
+	private static final int MIN_BLOBS_PER_THREAD = 100;
+	
+	private static final double RAM_BUFFER_SIZE_MB = 64;
+	
+	private static final int MAX_OPEN_WRITERS = 10;
+	
+	private static final long MAX_WRITER_IDLE_TIME = 5 * 60 * 1000L;
 	
 	private final BatchWorkManager batchWorkManager;
 	
@@ -79,13 +104,52 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 	
 	private final ListenerRegistry listenerRegistry;
 	
+	private final ClusterManager clusterManager;
+	
+	private final ExecutorService executorService;
+	
+	private final TaskScheduler taskScheduler;
+	
+	private final Map<Long, ProjectIndex> indexes = new ConcurrentHashMap<>();
+	
+	private final ResourcePool<Long, IndexWriter> writers = new ResourcePool<Long, IndexWriter>(
+			MAX_OPEN_WRITERS, 0, MAX_WRITER_IDLE_TIME, true) {
+
+		@Override
+		protected IndexWriter open(Long projectId) {
+			ProjectIndex index = Preconditions.checkNotNull(getIndex(projectId, true));
+			try {
+				return new IndexWriter(index.directory, newWriterConfig());
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		@Override
+		protected void close(IndexWriter writer) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+	};
+	
+	private volatile String taskId;
+	
 	@Inject
 	public DefaultCodeIndexManager(ListenerRegistry listenerRegistry, BatchWorkManager batchWorkManager, 
-								   SessionManager sessionManager, ProjectManager projectManager) {
+								   SessionManager sessionManager, ProjectManager projectManager, 
+								   ClusterManager clusterManager, ExecutorService executorService, 
+								   TaskScheduler taskScheduler) {
 		this.listenerRegistry = listenerRegistry;
 		this.batchWorkManager = batchWorkManager;
 		this.sessionManager = sessionManager;
 		this.projectManager = projectManager;
+		this.clusterManager = clusterManager;
+		this.executorService = executorService;
+		this.taskScheduler = taskScheduler;
 	}
 
 	public Object writeReplace() throws ObjectStreamException {
@@ -119,7 +183,9 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 	}
 	
 	private IndexResult index(Repository repository, AnyObjectId commitId, IndexWriter writer, 
-			IndexSearcher searcher, PatternSet filePatterns) throws Exception {
+			@Nullable IndexSearcher searcher, PatternSet filePatterns) throws Exception {
+		List<BlobToIndex> blobsToIndex = new ArrayList<>();
+		int checked = 0;
 		try (	RevWalk revWalk = new RevWalk(repository); 
 				TreeWalk treeWalk = new TreeWalk(repository)) {
 			treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
@@ -142,8 +208,6 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 			}
 	
 			Matcher matcher = new PathMatcher();
-			int indexed = 0;
-			int checked = 0;
 			while (treeWalk.next()) {
 				if ((treeWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_FILE 
 						&& (treeWalk.getTreeCount() == 1 || !treeWalk.idEqual(0, 1))) {
@@ -183,63 +247,112 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 							checked++;
 						}
 		
-						SymbolExtractor<Symbol> extractor = SymbolExtractorRegistry.getExtractor(blobName);
-						String currentBlobIndexVersion = getIndexVersion(extractor);
+						String currentBlobIndexVersion = getIndexVersion(SymbolExtractorRegistry.getExtractor(blobName));
 						String blobIndexVersion = blobIndexVersionRef.get();
 						if (blobIndexVersion != null) {
 							if (!blobIndexVersion.equals(currentBlobIndexVersion)) {
 								writer.deleteDocuments(query);
-								indexBlob(writer, repository, extractor, blobId, blobPath);
-								indexed++;
+								blobsToIndex.add(new BlobToIndex(blobId, blobPath));
 							}
 						} else {
-							indexBlob(writer, repository, extractor, blobId, blobPath);
-							indexed++;
+							blobsToIndex.add(new BlobToIndex(blobId, blobPath));
 						}
 					}
 					
 				}
 			}
+		}
+		
+		indexBlobs(writer, repository, blobsToIndex);
 	
-			// record current commit so that we know which commit has been indexed
-			Document document = new Document();
-			document.add(new StringField(COMMIT_HASH.name(), commitId.getName(), Store.NO));
-			document.add(new StoredField(COMMIT_INDEX_VERSION.name(), getIndexVersion()));
-			writer.updateDocument(COMMIT_HASH.getTerm(commitId.getName()), document);
-			
-			// record last commit so that we only need to indexing changed files for subsequent commits
-			document = new Document();
-			document.add(new StringField(META.name(), LAST_COMMIT.name(), Store.NO));
-			document.add(new StoredField(LAST_COMMIT_INDEX_VERSION.name(), getIndexVersion()));
-			document.add(new StoredField(LAST_COMMIT_HASH.name(), commitId.getName()));
-			writer.updateDocument(META.getTerm(LAST_COMMIT.name()), document);
-			
-			return new IndexResult(checked, indexed);
+		// record current commit so that we know which commit has been indexed
+		Document document = new Document();
+		document.add(new StringField(COMMIT_HASH.name(), commitId.getName(), Store.NO));
+		document.add(new StoredField(COMMIT_INDEX_VERSION.name(), getIndexVersion()));
+		writer.updateDocument(COMMIT_HASH.getTerm(commitId.getName()), document);
+		
+		// record last commit so that we only need to indexing changed files for subsequent commits
+		document = new Document();
+		document.add(new StringField(META.name(), LAST_COMMIT.name(), Store.NO));
+		document.add(new StoredField(LAST_COMMIT_INDEX_VERSION.name(), getIndexVersion()));
+		document.add(new StoredField(LAST_COMMIT_HASH.name(), commitId.getName()));
+		writer.updateDocument(META.getTerm(LAST_COMMIT.name()), document);
+		
+		return new IndexResult(checked, blobsToIndex.size());
+	}
+	
+	/*
+	 * Symbol extraction dominates indexing time, so blobs are indexed by multiple threads. Each 
+	 * thread uses its own object reader as object readers are not thread safe, while index writer 
+	 * can be shared 
+	 */
+	private void indexBlobs(IndexWriter writer, Repository repository, List<BlobToIndex> blobs) 
+			throws Exception {
+		int threads = Math.min(Runtime.getRuntime().availableProcessors(), 
+				(blobs.size() + MIN_BLOBS_PER_THREAD - 1) / MIN_BLOBS_PER_THREAD);
+		AtomicInteger nextIndex = new AtomicInteger(0);
+		AtomicBoolean aborted = new AtomicBoolean(false);
+		Callable<Void> task = () -> {
+			try (ObjectReader reader = repository.newObjectReader()) {
+				int index;
+				while (!aborted.get() && (index = nextIndex.getAndIncrement()) < blobs.size()) {
+					BlobToIndex blob = blobs.get(index);
+					indexBlob(writer, reader, blob.blobId, blob.blobPath);
+				}
+			} catch (Exception e) {
+				aborted.set(true);
+				throw e;
+			}
+			return null;
+		};
+		
+		List<Future<Void>> futures = new ArrayList<>();
+		for (int i = 1; i < threads; i++)
+			futures.add(executorService.submit(task));
+		Exception exception = null;
+		try {
+			task.call();
+		} catch (Exception e) {
+			exception = e;
+		}
+		for (Future<Void> future: futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				if (exception == null)
+					exception = ExceptionUtils.unchecked(e.getCause());
+			} catch (InterruptedException e) {
+				aborted.set(true);
+				if (exception == null)
+					exception = e;
+			}
 		}
+		if (exception != null)
+			throw exception;
 	}
 	
-	private void indexBlob(IndexWriter writer, Repository repository, 
-			SymbolExtractor<Symbol> extractor, ObjectId blobId, String blobPath) throws IOException {
+	private void indexBlob(IndexWriter writer, ObjectReader reader, ObjectId blobId, String blobPath) 
+			throws IOException {
+		String blobName = GitUtils.getBlobName(blobPath);
+		SymbolExtractor<Symbol> extractor = SymbolExtractorRegistry.getExtractor(blobName);
+		
 		Document document = new Document();
 		
 		document.add(new StoredField(BLOB_INDEX_VERSION.name(), getIndexVersion(extractor)));
 		document.add(new StringField(BLOB_HASH.name(), blobId.name(), Store.NO));
+		byte[] blobHash = new byte[Constants.OBJECT_ID_LENGTH];
+		blobId.copyRawTo(blobHash, 0);
+		document.add(new BinaryDocValuesField(BLOB_HASH.name(), new BytesRef(blobHash)));
 		document.add(new StringField(BLOB_PATH.name(), blobPath, Store.NO));
 		document.add(new BinaryDocValuesField(BLOB_PATH.name(), new BytesRef(blobPath.getBytes(StandardCharsets.UTF_8))));
-		
-		String blobName = GitUtils.getBlobName(blobPath);
-		
 		document.add(new StringField(BLOB_NAME.name(), blobName.toLowerCase(), Store.NO));
 		
-		ObjectLoader objectLoader = repository.open(blobId);
+		ObjectLoader objectLoader = reader.open(blobId);
 		if (objectLoader.getSize() <= MAX_INDEXABLE_BLOB_SIZE) {
 			byte[] bytes = objectLoader.getCachedBytes();
 			String content = ContentDetector.convertToText(bytes, blobName);
 			if (content != null) {
-				for (var line: Splitter.on('\n').split(content)) {
-					if (line.length() <= MAX_INDEXABLE_LINE_LEN)
-						document.add(new TextField(BLOB_TEXT.name(), line, Store.NO));
-				}
+				document.add(new TextField(BLOB_TEXT.name(), new LineNGramTokenStream(content, NGRAM_SIZE)));
 				
 				if (extractor != null) {
 					List<Symbol> symbols = null;
@@ -262,8 +375,7 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 								document.add(new StringField(fieldName, fieldValue, Store.NO));
 							}
 						}
-						byte[] bytesOfSymbols = SerializationUtils.serialize((Serializable) symbols);
-						document.add(new StoredField(BLOB_SYMBOL_LIST.name(), bytesOfSymbols));
+						document.add(new StoredField(BLOB_SYMBOL_LIST.name(), SymbolEncoding.encode(symbols)));
 					}
 				} 
 			} else {
@@ -277,61 +389,140 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 	}
 	
 	private BatchWorker getBatchWorker(Long projectId) {
-		return new BatchWorker("project-" + projectId + "-indexBlob", 1) {
+		return new BatchWorker("project-" + projectId + "-indexBlob") {
 
 			@Override
 			public void doWorks(List<Prioritized> works) {
 				sessionManager.run(() -> {
-					Preconditions.checkState(works.size() == 1);
-
 					Project project = projectManager.load(projectId);
-					ObjectId commitId = ((IndexWork) works.iterator().next()).getCommitId();
-					doIndex(project, commitId);
 					
-					listenerRegistry.post(new CommitIndexed(project, commitId.copy()));
+					// Works are sorted by priority, index commits of higher priority first
+					Set<ObjectId> commitIds = new LinkedHashSet<>();
+					for (Prioritized work: works)
+						commitIds.add(((IndexWork) work).getCommitId());
+					for (ObjectId commitId: commitIds) {
+						doIndex(project, commitId);
+						listenerRegistry.post(new CommitIndexed(project, commitId.copy()));
+					}
 				});
 			}
 			
 		};
 	}
 
-	private IndexResult doIndex(Project project, ObjectId commit, Directory directory, IndexSearcher searcher) {
-		IndexWriterConfig writerConfig = new IndexWriterConfig(new NGramAnalyzer(NGRAM_SIZE, NGRAM_SIZE));
-		writerConfig.setOpenMode(OpenMode.CREATE_OR_APPEND);
-		try (IndexWriter writer = new IndexWriter(directory, writerConfig)) {
+	private IndexResult doIndex(Project project, ObjectId commit) {
+		Long projectId = project.getId();
+		ProjectIndex index = Preconditions.checkNotNull(getIndex(projectId, true));
+		IndexWriter writer = writers.lease(projectId);
+		boolean failed = false;
+		try {
+			IndexSearcher searcher = index.searcherManager.acquire();
 			try {
+				if (getIndexVersion().equals(getCommitIndexVersion(searcher, commit)))
+					return new IndexResult(0, 0);
+				
 				logger.debug("Indexing commit (project: {}, commit: {})...", project.getPath(), commit.getName());
-				IndexResult indexResult = index(projectManager.getRepository(project.getId()), 
-						commit, writer, searcher, PatternSet.parse(project.findCodeAnalysisPatterns()));
+				
+				// No need to check indexed blobs for a fresh index
+				IndexResult indexResult = index(projectManager.getRepository(projectId), commit, writer, 
+						searcher.getIndexReader().numDocs() != 0? searcher: null, 
+						PatternSet.parse(project.findCodeAnalysisPatterns()));
 				writer.commit();
 				logger.debug("Commit indexed (project: {}, commit: {})", project.getPath(), commit.getName());
 				return indexResult;
 			} catch (Exception e) {
+				failed = true;
 				writer.rollback();
 				throw ExceptionUtils.unchecked(e);
+			} finally {
+				index.searcherManager.release(searcher);
 			}
 		} catch (IOException e) {
+			failed = true;
 			throw new RuntimeException(e);
+		} finally {
+			writers.release(projectId, writer);
+			if (failed) {
+				// Writer is closed after rollback, open a new one next time
+				writers.remove(projectId);
+			} else {
+				try {
+					index.searcherManager.maybeRefresh();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
 		}
 	}
 	
-	private IndexResult doIndex(Project project, ObjectId commit) {
-		try (Directory directory = FSDirectory.open(projectManager.getIndexDir(project.getId()).toPath())) {
-			if (DirectoryReader.indexExists(directory)) {
-				try (IndexReader reader = DirectoryReader.open(directory)) {
-					IndexSearcher searcher = new IndexSearcher(reader);
-					if (getIndexVersion().equals(getCommitIndexVersion(searcher, commit)))
-						return new IndexResult(0, 0);
-					else
-						return doIndex(project, commit, directory, searcher);
+	private IndexWriterConfig newWriterConfig() {
+		IndexWriterConfig writerConfig = new IndexWriterConfig(new NGramAnalyzer(NGRAM_SIZE, NGRAM_SIZE));
+		writerConfig.setOpenMode(OpenMode.CREATE_OR_APPEND);
+		writerConfig.setRAMBufferSizeMB(RAM_BUFFER_SIZE_MB);
+		return writerConfig;
+	}
+	
+	/**
+	 * Get index of specified project for search, opening it if necessary
+	 * 
+	 * @param create
+	 * 			whether to create the index if it does not exist yet
+	 * @return index of the project, or <tt>null</tt> if index does not exist and 
+	 * 			<tt>create</tt> is <tt>false</tt>
+	 */
+	@Nullable
+	private ProjectIndex getIndex(Long projectId, boolean create) {
+		ProjectIndex index = indexes.get(projectId);
+		if (index == null) synchronized (indexes) {
+			index = indexes.get(projectId);
+			if (index == null) {
+				try {
+					Directory directory = FSDirectory.open(projectManager.getIndexDir(projectId).toPath());
+					try {
+						if (!DirectoryReader.indexExists(directory) && create) {
+							// Commit an empty index so that searcher can be opened from directory
+							try (IndexWriter writer = new IndexWriter(directory, newWriterConfig())) {
+								writer.commit();
+							}
+						}
+						if (DirectoryReader.indexExists(directory)) {
+							index = new ProjectIndex(directory, new SearcherManager(directory, null));
+							indexes.put(projectId, index);
+						} else {
+							directory.close();
+						}
+					} catch (Exception e) {
+						directory.close();
+						throw e;
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+		return index;
+	}
+	
+	private void closeIndex(Long projectId) {
+		synchronized (indexes) {
+			writers.remove(projectId);
+			ProjectIndex index = indexes.remove(projectId);
+			if (index != null) {
+				try {
+					index.searcherManager.close();
+					index.directory.close();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
 				}
-			} else {
-				return doIndex(project, commit, directory, null);
 			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
 		}
 	}
+	
+	@Override
+	public SearcherManager getSearcherManager(Long projectId) {
+		ProjectIndex index = getIndex(projectId, false);
+		return index != null? index.searcherManager: null;
+	}
 
 	private String getIndexVersion() {
 		return DigestUtils.md5Hex(DATA_VERSION + ";" + SymbolExtractorRegistry.getVersion());
@@ -355,18 +546,20 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 
 			@Override
 			public Boolean call() {
-				File indexDir = projectManager.getIndexDir(projectId);
-				try (Directory directory = FSDirectory.open(indexDir.toPath())) {
-					if (DirectoryReader.indexExists(directory)) {
-						try (IndexReader reader = DirectoryReader.open(directory)) {
-							IndexSearcher searcher = new IndexSearcher(reader);
+				SearcherManager searcherManager = getSearcherManager(projectId);
+				if (searcherManager != null) {
+					try {
+						IndexSearcher searcher = searcherManager.acquire();
+						try {
 							return getIndexVersion().equals(getCommitIndexVersion(searcher, commitId));
+						} finally {
+							searcherManager.release(searcher);
 						}
-					} else {
-						return false;
+					} catch (IOException e) {
+						throw new RuntimeException(e);
 					}
-				} catch (IOException e) {
-					throw new RuntimeException(e);
+				} else {
+					return false;
 				}
 			}
 			
@@ -385,9 +578,40 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 		}
 	}
 
+	@Transactional
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Project) {
+			Long projectId = event.getEntity().getId();	
+			String activeServer = projectManager.getActiveServer(projectId, false);
+			if (activeServer != null) {
+				clusterManager.runOnServer(activeServer, () -> {
+					closeIndex(projectId);
+					return null;
+				});
+			}
+		}
+	}
+	
+	@Listen
+	public void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+		synchronized (indexes) {
+			for (Long projectId: new ArrayList<>(indexes.keySet())) {
+				try {
+					closeIndex(projectId);
+				} catch (Exception e) {
+					logger.error("Error closing code index", e);
+				}
+			}
+		}
+	}
+	
 	@Sessional
 	@Listen
 	public void on(SystemStarted event) {
+		taskId = taskScheduler.schedule(this);
 		for (File file: projectManager.getProjectsDir().listFiles()) {
 			Long projectId = Long.valueOf(file.getName());
 			File indexDir = projectManager.getIndexDir(projectId);
@@ -427,6 +651,43 @@ public class DefaultCodeIndexManager implements CodeIndexManager, Serializable {
 		});
 	}
 	
+	@Override
+	public void execute() {
+		// Close idle writers even if no other projects are being indexed
+		writers.sweep();
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatMinutelyForever();
+	}
+	
+	private static class ProjectIndex {
+		
+		final Directory directory;
+		
+		final SearcherManager searcherManager;
+		
+		ProjectIndex(Directory directory, SearcherManager searcherManager) {
+			this.directory = directory;
+			this.searcherManager = searcherManager;
+		}
+		
+	}
+	
+	private static class BlobToIndex {
+		
+		final ObjectId blobId;
+		
+		final String blobPath;
+		
+		BlobToIndex(ObjectId blobId, String blobPath) {
+			this.blobId = blobId;
+			this.blobPath = blobPath;
+		}
+		
+	}
+	
 	private static class IndexWork extends Prioritized {
 
 		private final ObjectId commitId;
@@ -1,6 +1,7 @@
 package io.onedev.server.search.code;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import io.onedev.commons.jsymbol.Symbol;
 import io.onedev.commons.jsymbol.SymbolExtractorRegistry;
 import io.onedev.commons.loader.ManagedSerializedForm;
@@ -8,12 +9,9 @@ import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.server.cluster.ClusterManager;
 import io.onedev.server.cluster.ClusterTask;
 import io.onedev.server.entitymanager.ProjectManager;
-import io.onedev.server.event.Listen;
-import io.onedev.server.event.entity.EntityRemoved;
-import io.onedev.server.event.project.CommitIndexed;
-import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.Project;
-import io.onedev.server.persistence.annotation.Transactional;
+import io.onedev.server.search.code.hit.ProjectQueryHit;
+import io.onedev.server.search.code.hit.ProjectQueryResult;
 import io.onedev.server.search.code.hit.QueryHit;
 import io.onedev.server.search.code.hit.SymbolHit;
 import io.onedev.server.search.code.query.BlobQuery;
@@ -22,13 +20,11 @@ import io.onedev.server.search.code.query.SymbolQuery;
 import org.apache.commons.lang3.SerializationUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.BinaryDocValues;
-import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.*;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevTree;
@@ -45,7 +41,10 @@ import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static io.onedev.server.search.code.FieldConstants.*;
@@ -55,9 +54,12 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 
 	private static final int MAX_BLOB_PATH_QUERY_COUNT = 5;
 	
-	private static final Logger logger = LoggerFactory.getLogger(DefaultCodeSearchManager.class);
+	// Maximum number of candidate blobs returned by each server for cross-project search
+	private static final int MAX_CANDIDATES = 10000;
+	
+	private static final int SEARCH_CONCURRENCY = Runtime.getRuntime().availableProcessors();
 	
-	private final Map<Long, SearcherManager> searcherManagers = new ConcurrentHashMap<>();
+	private static final Logger logger = LoggerFactory.getLogger(DefaultCodeSearchManager.class);
 	
 	private final CodeIndexManager indexManager;
 	
@@ -65,12 +67,15 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 	
 	private final ClusterManager clusterManager;
 	
+	private final ExecutorService executorService;
+	
 	@Inject
 	public DefaultCodeSearchManager(CodeIndexManager indexManager, ProjectManager projectManager, 
-									ClusterManager clusterManager) {
+									ClusterManager clusterManager, ExecutorService executorService) {
 		this.indexManager = indexManager;
 		this.projectManager = projectManager;
 		this.clusterManager = clusterManager;
+		this.executorService = executorService;
 	}
 	
 	public Object writeReplace() throws ObjectStreamException {
@@ -80,27 +85,17 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 	@Nullable
 	private SearcherManager getSearcherManager(Long projectId) throws InterruptedException {
 		try {
-			SearcherManager searcherManager = searcherManagers.get(projectId);
-			if (searcherManager == null) synchronized (searcherManagers) {
-				searcherManager = searcherManagers.get(projectId);
-				if (searcherManager == null) {
-					Directory directory = FSDirectory.open(projectManager.getIndexDir(projectId).toPath());
-					if (DirectoryReader.indexExists(directory)) {
-						searcherManager = new SearcherManager(directory, null);
-						searcherManagers.put(projectId, searcherManager);
-					}
-				}
-			}
-			return searcherManager;
-		} catch (ClosedByInterruptException e) {
+			return indexManager.getSearcherManager(projectId);
+		} catch (Exception e) {
 			// catch this exception and convert to normal InterruptedException as 
 			// we do not want to throw the original exception to surprise the user
 			// when they search by typing fast (and subsequent typing will cancel 
 			// search of previous typing by interrupting previous search thread 
-			// which may creating the searcher manager if it does not exist yet
-			throw new InterruptedException();
-		} catch (IOException e) {
-			throw ExceptionUtils.unchecked(e);
+			// which may opening the index if it is not opened yet
+			if (ExceptionUtils.find(e, ClosedByInterruptException.class) != null)
+				throw new InterruptedException();
+			else
+				throw e;
 		}
 	}
 	
@@ -133,11 +128,16 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 					try (RevWalk revWalk = new RevWalk(repository)){
 						final RevTree revTree = revWalk.parseCommit(commitId).getTree();
 						final Set<String> checkedBlobPaths = new HashSet<>();
+						final BlobIdCache blobIds = new BlobIdCache(repository, revTree);
 						
 						searcher.search(query.asLuceneQuery(), new SimpleCollector() {
 	
+							private LeafReaderContext context;
+							
 							private BinaryDocValues blobPathValues;
 							
+							private BinaryDocValues blobHashValues;
+							
 							@Override
 							public void collect(int doc) throws IOException {
 								if (hits.size() < query.getCount()) {
@@ -145,10 +145,21 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 									String blobPath = blobPathValues.binaryValue().utf8ToString();
 									
 									if (!checkedBlobPaths.contains(blobPath)) {
-										TreeWalk treeWalk = TreeWalk.forPath(repository, blobPath, revTree);									
-										if (treeWalk != null)
-											query.collect(searcher, treeWalk, hits);
-										checkedBlobPaths.add(blobPath);
+										ObjectId blobId = blobIds.get(blobPath);
+										if (blobId != null) {
+											Boolean blobVersion = isBlobVersion(blobHashValues, doc, blobId);
+											if (blobVersion == null || blobVersion) {
+												try (TreeWalk treeWalk = TreeWalk.forPath(repository, blobPath, revTree)) {
+													if (blobVersion == null)
+														query.collect(searcher, treeWalk, hits);
+													else
+														query.collect(searcher, context, doc, treeWalk, hits);
+												}
+												checkedBlobPaths.add(blobPath);
+											}
+										} else {
+											checkedBlobPaths.add(blobPath);
+										}
 									}
 								} else {
 									throw new CollectionTerminatedException();
@@ -157,7 +168,9 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 	
 							@Override
 							protected void doSetNextReader(LeafReaderContext context) throws IOException {
+								this.context = context;
 								blobPathValues  = context.reader().getBinaryDocValues(FieldConstants.BLOB_PATH.name());
+								blobHashValues = context.reader().getBinaryDocValues(FieldConstants.BLOB_HASH.name());
 							}
 
 							@Override
@@ -180,6 +193,270 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 		return hits;
 	}
 	
+	/*
+	 * Index contains documents of all versions of a blob path. Check whether specified document 
+	 * is of specified blob version via blob hash doc values without reading blob content. Return 
+	 * null if this can not be determined, which is the case for documents indexed before blob 
+	 * hash doc values being introduced
+	 */
+	@Nullable
+	private static Boolean isBlobVersion(@Nullable BinaryDocValues blobHashValues, int doc, 
+										 ObjectId blobId) throws IOException {
+		if (blobHashValues != null && blobHashValues.advanceExact(doc)) {
+			BytesRef blobHash = blobHashValues.binaryValue();
+			return ObjectId.fromRaw(blobHash.bytes, blobHash.offset).equals(blobId);
+		} else {
+			return null;
+		}
+	}
+	
+	@Override
+	public ProjectQueryResult search(Collection<Long> projectIds, BlobQuery query) {
+		// Collect candidate blobs of all projects first, so that hits are only collected from 
+		// blobs most relevant globally
+		var projectIdsByServer = projectManager.groupByActiveServers(projectIds);
+		List<BlobCandidate> candidates = new ArrayList<>();
+		Collection<Long> unindexedProjectIds = new HashSet<>();
+		for (var serverCandidates: clusterManager.runOnServers(projectIdsByServer.keySet(), (ClusterTask<Candidates>) () -> {
+			var projectIdsOnServer = projectIdsByServer.get(clusterManager.getLocalServerAddress());
+			return collectCandidates(projectIdsOnServer, query);
+		}).values()) {
+			candidates.addAll(serverCandidates.candidates);
+			unindexedProjectIds.addAll(serverCandidates.unindexedProjectIds);
+		}
+		candidates.sort(BlobCandidate.RELEVANCE_ORDER);
+		
+		List<ProjectQueryHit> hits = new ArrayList<>();
+		int fromIndex = 0;
+		while (hits.size() < query.getCount() && fromIndex < candidates.size()) {
+			// A candidate blob may not contain any hit if the index query is only an approximation, 
+			// so more candidates are collected in subsequent rounds if not enough hits found
+			int toIndex = Math.min(fromIndex + query.getCount() - hits.size(), candidates.size());
+			hits.addAll(collectHits(new ArrayList<>(candidates.subList(fromIndex, toIndex)), query));
+			fromIndex = toIndex;
+			hits.sort(ProjectQueryHit.RELEVANCE_ORDER);
+			if (hits.size() > query.getCount())
+				hits = new ArrayList<>(hits.subList(0, query.getCount()));
+		}
+		return new ProjectQueryResult(hits, unindexedProjectIds);
+	}
+	
+	private List<ProjectQueryHit> collectHits(List<BlobCandidate> candidates, BlobQuery query) {
+		var candidatesByProject = new HashMap<Long, List<BlobCandidate>>();
+		for (var candidate: candidates)
+			candidatesByProject.computeIfAbsent(candidate.projectId, k -> new ArrayList<>()).add(candidate);
+		var projectIdsByServer = projectManager.groupByActiveServers(candidatesByProject.keySet());
+		List<ProjectQueryHit> hits = new ArrayList<>();
+		for (var serverHits: clusterManager.runOnServers(projectIdsByServer.keySet(), (ClusterTask<List<ProjectQueryHit>>) () -> {
+			var projectIdsOnServer = projectIdsByServer.get(clusterManager.getLocalServerAddress());
+			return runConcurrently(projectIdsOnServer, (projectId, results) -> 
+					collectHits(projectId, candidatesByProject.get(projectId), query, results));
+		}).values()) {
+			hits.addAll(serverHits);
+		}
+		return hits;
+	}
+	
+	private <T> List<T> runConcurrently(Collection<Long> projectIds, ProjectTask<T> projectTask) 
+			throws InterruptedException {
+		List<Callable<List<T>>> tasks = new ArrayList<>();
+		int batchSize = Math.max(1, (projectIds.size() + SEARCH_CONCURRENCY - 1) / SEARCH_CONCURRENCY);
+		for (var batch: Lists.partition(new ArrayList<>(projectIds), batchSize)) {
+			tasks.add(() -> {
+				List<T> batchResults = new ArrayList<>();
+				for (var projectId: batch) 
+					projectTask.run(projectId, batchResults);
+				return batchResults;
+			});
+		}
+		
+		List<T> results = new ArrayList<>();
+		for (var future: executorService.invokeAll(tasks)) {
+			try {
+				results.addAll(future.get());
+			} catch (ExecutionException e) {
+				throw ExceptionUtils.unchecked(e.getCause());
+			}
+		}
+		return results;
+	}
+	
+	private Candidates collectCandidates(Collection<Long> projectIds, BlobQuery query) 
+			throws InterruptedException {
+		Collection<Long> unindexedProjectIds = Collections.synchronizedSet(new HashSet<>());
+		List<BlobCandidate> candidates = runConcurrently(projectIds, (projectId, results) -> {
+			ObjectId commitId = projectManager.getRepository(projectId).resolve(Constants.HEAD);
+			if (commitId != null) {
+				if (indexManager.isIndexed(projectId, commitId)) {
+					collectCandidates(projectId, commitId, query, results);
+				} else {
+					indexManager.indexAsync(projectId, commitId);
+					unindexedProjectIds.add(projectId);
+				}
+			}
+		});
+		candidates.sort(BlobCandidate.RELEVANCE_ORDER);
+		if (candidates.size() > MAX_CANDIDATES)
+			candidates = new ArrayList<>(candidates.subList(0, MAX_CANDIDATES));
+		return new Candidates(candidates, new HashSet<>(unindexedProjectIds));
+	}
+	
+	/*
+	 * Unlike the single project search collecting hits in index order and stopping as soon as 
+	 * enough hits are found, this collects all matching blobs at specified commit with their 
+	 * scores without reading blob content, so that candidate blobs of different projects can 
+	 * be merged by score before collecting hits
+	 */
+	private void collectCandidates(Long projectId, ObjectId commitId, BlobQuery query, 
+								   List<BlobCandidate> candidates) throws InterruptedException {
+		SearcherManager searcherManager = getSearcherManager(projectId);
+		if (searcherManager != null) {
+			try {
+				IndexSearcher searcher = searcherManager.acquire();
+				try {
+					Repository repository = projectManager.getRepository(projectId);
+					try (RevWalk revWalk = new RevWalk(repository)) {
+						RevTree revTree = revWalk.parseCommit(commitId).getTree();
+						BlobIdCache blobIds = new BlobIdCache(repository, revTree);
+						
+						// blob path -> candidate with highest score
+						Map<String, BlobCandidate> candidatesOfProject = new HashMap<>();
+						searcher.search(query.asLuceneQuery(), new SimpleCollector() {
+							
+							private Scorable scorer;
+
+							private BinaryDocValues blobPathValues;
+
+							private BinaryDocValues blobHashValues;
+							
+							@Override
+							public void collect(int doc) throws IOException {
+								Preconditions.checkState(blobPathValues.advanceExact(doc));
+								String blobPath = blobPathValues.binaryValue().utf8ToString();
+								ObjectId blobId = blobIds.get(blobPath);
+								if (blobId != null) {
+									Boolean blobVersion = isBlobVersion(blobHashValues, doc, blobId);
+									if (blobVersion == null || blobVersion) {
+										BlobCandidate candidate = candidatesOfProject.get(blobPath);
+										float score = scorer.score();
+										if (candidate == null || candidate.score < score) {
+											candidatesOfProject.put(blobPath, new BlobCandidate(projectId, commitId, 
+													blobPath, blobVersion != null? blobId: null, score));
+										}
+									}
+								}
+							}
+
+							@Override
+							public void setScorer(Scorable scorer) {
+								this.scorer = scorer;
+							}
+
+							@Override
+							protected void doSetNextReader(LeafReaderContext context) throws IOException {
+								blobPathValues = context.reader().getBinaryDocValues(BLOB_PATH.name());
+								blobHashValues = context.reader().getBinaryDocValues(BLOB_HASH.name());
+							}
+
+							@Override
+							public ScoreMode scoreMode() {
+								return ScoreMode.COMPLETE;
+							}
+
+						});
+						candidates.addAll(candidatesOfProject.values());
+					}
+				} finally {
+					searcherManager.release(searcher);
+				}
+			} catch (IOException e) {
+				throw ExceptionUtils.unchecked(e);
+			}
+		}
+		if (Thread.interrupted())
+			throw new InterruptedException();
+	}
+	
+	private void collectHits(Long projectId, List<BlobCandidate> candidates, BlobQuery query, 
+							 List<ProjectQueryHit> hits) throws InterruptedException {
+		SearcherManager searcherManager = getSearcherManager(projectId);
+		if (searcherManager != null) {
+			try {
+				IndexSearcher searcher = searcherManager.acquire();
+				try {
+					Repository repository = projectManager.getRepository(projectId);
+					try (RevWalk revWalk = new RevWalk(repository)) {
+						RevTree revTree = revWalk.parseCommit(candidates.iterator().next().commitId).getTree();
+						Query luceneQuery = query.asLuceneQuery();
+						List<QueryHit> blobHits = new ArrayList<>();
+						for (var candidate: candidates) {
+							if (Thread.currentThread().isInterrupted())
+								break;
+							blobHits.clear();
+							try (TreeWalk treeWalk = TreeWalk.forPath(repository, candidate.blobPath, revTree)) {
+								if (treeWalk == null)
+									continue;
+								if (candidate.blobId != null) 
+									collectVerified(searcher, luceneQuery, candidate, query, treeWalk, blobHits);
+								else
+									query.collect(searcher, treeWalk, blobHits);
+							}
+							for (var hit: blobHits)
+								hits.add(new ProjectQueryHit(projectId, candidate.commitId, hit, candidate.score));
+						}
+					}
+				} finally {
+					searcherManager.release(searcher);
+				}
+			} catch (IOException e) {
+				throw ExceptionUtils.unchecked(e);
+			}
+		}
+		if (Thread.interrupted())
+			throw new InterruptedException();
+	}
+	
+	/*
+	 * Locate document of candidate blob version again to collect hits from index data of the 
+	 * document, as index readers can not be passed around when collecting candidates
+	 */
+	private void collectVerified(IndexSearcher searcher, Query luceneQuery, BlobCandidate candidate, 
+								 BlobQuery query, TreeWalk treeWalk, List<QueryHit> hits) throws IOException {
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		builder.add(luceneQuery, Occur.MUST);
+		builder.add(BLOB_PATH.getTermQuery(candidate.blobPath), Occur.FILTER);
+		builder.add(BLOB_HASH.getTermQuery(candidate.blobId.name()), Occur.FILTER);
+		
+		AtomicReference<LeafReaderContext> contextRef = new AtomicReference<>(null);
+		AtomicInteger docRef = new AtomicInteger();
+		searcher.search(builder.build(), new SimpleCollector() {
+
+			private LeafReaderContext context;
+
+			@Override
+			public void collect(int doc) {
+				contextRef.set(context);
+				docRef.set(doc);
+				throw new CollectionTerminatedException();
+			}
+
+			@Override
+			protected void doSetNextReader(LeafReaderContext context) {
+				this.context = context;
+			}
+
+			@Override
+			public ScoreMode scoreMode() {
+				return ScoreMode.COMPLETE_NO_SCORES;
+			}
+
+		});
+		if (contextRef.get() != null)
+			query.collect(searcher, contextRef.get(), docRef.get(), treeWalk, hits);
+		else
+			query.collect(searcher, treeWalk, hits);
+	}
+	
 	@Override
 	public List<Symbol> getSymbols(Project project, ObjectId blobId, String blobPath) {
 		Long projectId = project.getId();
@@ -235,7 +512,6 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 
 					private LeafReaderContext context;
 
-					@SuppressWarnings("unchecked")
 					@Override
 					public void collect(int doc) throws IOException {
 						Document document = searcher.doc(context.docBase+doc);
@@ -243,7 +519,7 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 							BytesRef bytesRef = document.getBinaryValue(BLOB_SYMBOL_LIST.name());
 							if (bytesRef != null) {
 								try {
-									symbolsRef.set(SerializationUtils.deserialize(bytesRef.bytes));
+									symbolsRef.set(SymbolEncoding.decode(bytesRef.bytes, bytesRef.offset, bytesRef.length));
 								} catch (Exception e) {
 									logger.error("Error deserializing symbols", e);
 								}
@@ -270,55 +546,6 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 		return symbolsRef.get();
 	}
 	
-	@Listen
-	public void on(CommitIndexed event) {
-		try {
-			SearcherManager searcherManager = getSearcherManager(event.getProject().getId()); 
-			if (searcherManager != null)
-				searcherManager.maybeRefresh();
-		} catch (InterruptedException | IOException e) {
-			throw ExceptionUtils.unchecked(e);
-		}
-	}
-
-	@Transactional
-	@Listen
-	public void on(EntityRemoved event) {
-		if (event.getEntity() instanceof Project) {
-			Long projectId = event.getEntity().getId();	
-			String activeServer = projectManager.getActiveServer(projectId, false);
-			if (activeServer != null) {
-				clusterManager.runOnServer(activeServer, () -> {
-					synchronized (searcherManagers) {
-						SearcherManager searcherManager = searcherManagers.remove(projectId);
-						if (searcherManager != null) {
-							try {
-								searcherManager.close();
-							} catch (IOException e) {
-								throw ExceptionUtils.unchecked(e);
-							}
-						}
-					}
-					return null;
-				});
-			}
-		}
-	}
-
-	@Listen
-	public void on(SystemStopping event) {
-		synchronized (searcherManagers) {
-			for (SearcherManager searcherManager: searcherManagers.values()) {
-				try {
-					searcherManager.close();
-				} catch (IOException e) {
-					throw ExceptionUtils.unchecked(e);
-				}
-			}
-			searcherManagers.clear();
-		}
-	}
-
 	@Nullable
 	@Override
 	public String findBlobPathBySuffix(Project project, ObjectId commit, String blobPathSuffix) {
@@ -366,4 +593,83 @@ public class DefaultCodeSearchManager implements CodeSearchManager, Serializable
 		return found;
 	}
 
+	private static class BlobIdCache {
+		
+		private final Repository repository;
+		
+		private final RevTree revTree;
+		
+		private final Map<String, Optional<ObjectId>> blobIds = new HashMap<>();
+		
+		BlobIdCache(Repository repository, RevTree revTree) {
+			this.repository = repository;
+			this.revTree = revTree;
+		}
+		
+		@Nullable
+		ObjectId get(String blobPath) throws IOException {
+			Optional<ObjectId> blobId = blobIds.get(blobPath);
+			if (blobId == null) {
+				try (TreeWalk treeWalk = TreeWalk.forPath(repository, blobPath, revTree)) {
+					blobId = Optional.ofNullable(treeWalk != null? treeWalk.getObjectId(0): null);
+				}
+				blobIds.put(blobPath, blobId);
+			}
+			return blobId.orElse(null);
+		}
+		
+	}
+	
+	private static class BlobCandidate implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+
+		static final Comparator<BlobCandidate> RELEVANCE_ORDER = Comparator
+				.comparing((BlobCandidate it) -> -it.score)
+				.thenComparing(it -> it.projectId)
+				.thenComparing(it -> it.blobPath);
+		
+		final Long projectId;
+		
+		final ObjectId commitId;
+		
+		final String blobPath;
+		
+		// id of the blob if its matching document is verified to be of blob version at searched commit
+		@Nullable
+		final ObjectId blobId;
+		
+		final float score;
+		
+		BlobCandidate(Long projectId, ObjectId commitId, String blobPath, @Nullable ObjectId blobId, float score) {
+			this.projectId = projectId;
+			this.commitId = commitId.copy();
+			this.blobPath = blobPath;
+			this.blobId = blobId != null? blobId.copy(): null;
+			this.score = score;
+		}
+		
+	}
+	
+	private static class Candidates implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+
+		final List<BlobCandidate> candidates;
+		
+		final Collection<Long> unindexedProjectIds;
+		
+		Candidates(List<BlobCandidate> candidates, Collection<Long> unindexedProjectIds) {
+			this.candidates = candidates;
+			this.unindexedProjectIds = unindexedProjectIds;
+		}
+		
+	}
+	
+	private interface ProjectTask<T> {
+		
+		void run(Long projectId, List<T> results) throws Exception;
+		
+	}
+	
 }
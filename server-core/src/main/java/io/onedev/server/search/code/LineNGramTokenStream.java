@@ -0,0 +1,110 @@
+package io.onedev.server.search.code;
+
+import static io.onedev.server.search.code.IndexConstants.MAX_INDEXABLE_LINE_LEN;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+
+/**
+ * Token stream producing lower cased n-grams of each line of text, the same as {@link NGramAnalyzer}
+ * does for a single line. Position of each n-gram encodes its line number and code point column
+ * inside the line as <tt>line * LINE_POSITIONS + column</tt>, so that n-gram phrase queries never
+ * match across lines, and position of matches can be mapped back to line and column without
+ * scanning text again. Lines longer than {@link IndexConstants#MAX_INDEXABLE_LINE_LEN} are skipped
+ * but still counted.
+ */
+public final class LineNGramTokenStream extends TokenStream {
+
+	public static final int LINE_POSITIONS = MAX_INDEXABLE_LINE_LEN;
+
+	private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
+
+	private final PositionIncrementAttribute posIncAttr = addAttribute(PositionIncrementAttribute.class);
+
+	private final String text;
+
+	private final int gramSize;
+
+	private int lineStart;
+
+	private int lineNo;
+
+	private String line;
+
+	private int offset;
+
+	private int column;
+
+	private int remaining;
+
+	private int lastPosition = -1;
+
+	public LineNGramTokenStream(String text, int gramSize) {
+		this.text = text;
+		this.gramSize = gramSize;
+	}
+
+	public static int getLine(int position) {
+		return position / LINE_POSITIONS;
+	}
+
+	public static int getColumn(int position) {
+		return position % LINE_POSITIONS;
+	}
+
+	@Override
+	public boolean incrementToken() throws IOException {
+		clearAttributes();
+		while (true) {
+			if (line == null) {
+				if (lineStart > text.length())
+					return false;
+				int lineEnd = text.indexOf('\n', lineStart);
+				if (lineEnd == -1)
+					lineEnd = text.length();
+				if (lineEnd - lineStart <= MAX_INDEXABLE_LINE_LEN) {
+					line = lowerCase(text.substring(lineStart, lineEnd));
+					offset = 0;
+					column = 0;
+					remaining = line.codePointCount(0, line.length());
+				} else {
+					lineNo++;
+				}
+				lineStart = lineEnd + 1;
+			} else if (remaining >= gramSize) {
+				int gramEnd = line.offsetByCodePoints(offset, gramSize);
+				termAttr.append(line, offset, gramEnd);
+				int position = lineNo * LINE_POSITIONS + column;
+				posIncAttr.setPositionIncrement(position - lastPosition);
+				lastPosition = position;
+				offset += Character.charCount(line.codePointAt(offset));
+				column++;
+				remaining--;
+				return true;
+			} else {
+				line = null;
+				lineNo++;
+			}
+		}
+	}
+
+	// Lower case code points the same way as LowerCaseFilter
+	private static String lowerCase(String text) {
+		StringBuilder builder = new StringBuilder(text.length());
+		text.codePoints().forEach(it -> builder.appendCodePoint(Character.toLowerCase(it)));
+		return builder.toString();
+	}
+
+	@Override
+	public void reset() throws IOException {
+		super.reset();
+		lineStart = 0;
+		lineNo = 0;
+		line = null;
+		lastPosition = -1;
+	}
+
+}
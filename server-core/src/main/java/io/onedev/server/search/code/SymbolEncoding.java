@@ -0,0 +1,58 @@
+package io.onedev.server.search.code;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import io.onedev.commons.jsymbol.Symbol;
+
+/**
+ * Encoding of symbol list stored in code index. Symbols are polymorphic objects defined by
+ * different symbol extractors, with parent/child relationship relying on object identity, so
+ * they are still written with Java serialization, but the stream is compressed, and prefixed
+ * with an encoding version so that the format can evolve without re-indexing.
+ */
+class SymbolEncoding {
+
+	private static final int VERSION = 1;
+
+	static byte[] encode(List<Symbol> symbols) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write(VERSION);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try (ObjectOutputStream oos = new ObjectOutputStream(new DeflaterOutputStream(baos, deflater))) {
+			oos.writeObject(symbols instanceof Serializable? symbols: new ArrayList<>(symbols));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			deflater.end();
+		}
+		return baos.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	static List<Symbol> decode(byte[] bytes, int offset, int length) {
+		if (length == 0)
+			throw new IllegalArgumentException("Empty symbol data");
+		int version = bytes[offset] & 0xff;
+		if (version != VERSION)
+			throw new IllegalArgumentException("Unsupported symbol encoding version: " + version);
+		InputStream is = new InflaterInputStream(new ByteArrayInputStream(bytes, offset + 1, length - 1));
+		try (ObjectInputStream ois = new ObjectInputStream(is)) {
+			return (List<Symbol>) ois.readObject();
+		} catch (IOException | ClassNotFoundException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
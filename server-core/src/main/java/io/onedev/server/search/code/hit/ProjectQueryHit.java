@@ -0,0 +1,55 @@
+package io.onedev.server.search.code.hit;
+
+import java.io.Serializable;
+import java.util.Comparator;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Query hit of cross-project code search, identifying the project and commit it is found in
+ */
+public class ProjectQueryHit implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final Comparator<ProjectQueryHit> RELEVANCE_ORDER = Comparator
+			.comparing((ProjectQueryHit it) -> -it.getScore())
+			.thenComparing(ProjectQueryHit::getProjectId)
+			.thenComparing(it -> it.getHit().getBlobPath());
+
+	private final Long projectId;
+
+	private final ObjectId commitId;
+
+	private final QueryHit hit;
+
+	private final float score;
+
+	public ProjectQueryHit(Long projectId, ObjectId commitId, QueryHit hit, float score) {
+		this.projectId = projectId;
+		this.commitId = commitId.copy();
+		this.hit = hit;
+		this.score = score;
+	}
+
+	public Long getProjectId() {
+		return projectId;
+	}
+
+	public ObjectId getCommitId() {
+		return commitId;
+	}
+
+	public QueryHit getHit() {
+		return hit;
+	}
+
+	/**
+	 * @return relevance score of the blob containing this hit. Scores of hits in different projects 
+	 * are calculated against different indexes, and are only roughly comparable
+	 */
+	public float getScore() {
+		return score;
+	}
+
+}
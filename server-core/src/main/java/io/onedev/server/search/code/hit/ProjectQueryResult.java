@@ -0,0 +1,38 @@
+package io.onedev.server.search.code.hit;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Result of cross-project code search
+ */
+public class ProjectQueryResult implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<ProjectQueryHit> hits;
+
+	private final Collection<Long> unindexedProjectIds;
+
+	public ProjectQueryResult(List<ProjectQueryHit> hits, Collection<Long> unindexedProjectIds) {
+		this.hits = hits;
+		this.unindexedProjectIds = unindexedProjectIds;
+	}
+
+	/**
+	 * @return hits sorted by relevance
+	 */
+	public List<ProjectQueryHit> getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return ids of projects not searched as their default branches are not indexed yet.
+	 * Indexing of these projects is requested, and they can be searched later
+	 */
+	public Collection<Long> getUnindexedProjectIds() {
+		return unindexedProjectIds;
+	}
+
+}
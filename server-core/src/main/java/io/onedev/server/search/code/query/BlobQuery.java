@@ -1,6 +1,7 @@
 package io.onedev.server.search.code.query;
 
 import io.onedev.server.search.code.hit.QueryHit;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
@@ -38,6 +39,21 @@ public abstract class BlobQuery implements Serializable {
 
 	public abstract void collect(IndexSearcher searcher, TreeWalk treeWalk, List<QueryHit> hits);
 
+	/**
+	 * Collect hits of blob pointed by specified tree walk, with index document of the blob known 
+	 * to match lucene query of this query. Subclasses may override this to derive hits from 
+	 * index data of the document instead of scanning blob content
+	 * 
+	 * @param context
+	 * 			leaf reader context containing matched document
+	 * @param doc
+	 * 			id of matched document relative to the leaf reader context
+	 */
+	public void collect(IndexSearcher searcher, LeafReaderContext context, int doc, 
+						TreeWalk treeWalk, List<QueryHit> hits) {
+		collect(searcher, treeWalk, hits);
+	}
+
 	/**
 	 * Get lucene query representation of this query
 	 * 
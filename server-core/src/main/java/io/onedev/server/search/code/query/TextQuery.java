@@ -3,15 +3,26 @@ package io.onedev.server.search.code.query;
 import com.google.common.base.Preconditions;
 import io.onedev.server.search.code.hit.QueryHit;
 import io.onedev.server.search.code.hit.TextHit;
+import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Matches;
+import org.apache.lucene.search.MatchesIterator;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.Weight;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.treewalk.TreeWalk;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+import static io.onedev.server.search.code.FieldConstants.BLOB_TEXT;
+import static io.onedev.server.search.code.IndexConstants.NGRAM_SIZE;
+
 public class TextQuery extends BlobQuery {
 
 	private static final long serialVersionUID = 1L;
@@ -26,6 +37,10 @@ public class TextQuery extends BlobQuery {
 
 	private final String fileNames;
 	
+	private transient IndexSearcher textWeightSearcher;
+	
+	private transient Weight textWeight;
+	
 	private TextQuery(String term, boolean regex, boolean wholeWord, boolean caseSensitive, 
 					 @Nullable String fileNames, @Nullable String directory, int count) {
 		super(directory, count);
@@ -49,6 +64,45 @@ public class TextQuery extends BlobQuery {
 		}
 	}
 
+	@Override
+	public void collect(IndexSearcher searcher, LeafReaderContext context, int doc, 
+						TreeWalk treeWalk, List<QueryHit> hits) {
+		if (regex) {
+			collect(searcher, treeWalk, hits);
+		} else {
+			try {
+				// Get match positions from term n-gram positions in code index
+				List<Integer> positions = new ArrayList<>();
+				Matches matches = getTextWeight(searcher).matches(context, doc);
+				if (matches != null) {
+					MatchesIterator it = matches.getMatches(BLOB_TEXT.name());
+					if (it != null) {
+						while (it.next())
+							positions.add(it.startPosition());
+					}
+				}
+				if (!positions.isEmpty()) {
+					Collections.sort(positions);
+					var objectLoader = treeWalk.getObjectReader().open(treeWalk.getObjectId(0));
+					var blobPath = treeWalk.getPathString();
+					for (var match: getOption().matches(blobPath, objectLoader, positions, getCount() - hits.size()))
+						hits.add(new TextHit(blobPath, match.getPosition(), match.getLine()));
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	private Weight getTextWeight(IndexSearcher searcher) throws IOException {
+		if (textWeight == null || textWeightSearcher != searcher) {
+			Query textQuery = searcher.rewrite(new NGramLuceneQuery(BLOB_TEXT.name(), term, NGRAM_SIZE));
+			textWeight = searcher.createWeight(textQuery, ScoreMode.COMPLETE_NO_SCORES, 1);
+			textWeightSearcher = searcher;
+		}
+		return textWeight;
+	}
+
 	@Override
 	protected void applyConstraints(BooleanQuery.Builder builder) {
 		getOption().applyConstraints(builder);
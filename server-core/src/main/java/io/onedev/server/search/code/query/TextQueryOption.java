@@ -5,6 +5,7 @@ import com.google.common.base.Splitter;
 import io.onedev.commons.utils.LinearRange;
 import io.onedev.commons.utils.PlanarRange;
 import io.onedev.server.search.code.IndexConstants;
+import io.onedev.server.search.code.LineNGramTokenStream;
 import io.onedev.server.search.code.query.regex.RegexLiterals;
 import io.onedev.server.util.ContentDetector;
 import io.onedev.server.web.component.codequeryoption.TextQueryOptionEditor;
@@ -20,6 +21,7 @@ import org.eclipse.jgit.lib.ObjectLoader;
 import javax.annotation.Nullable;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -105,6 +107,22 @@ public class TextQueryOption implements QueryOption {
 		return CharUtils.isAsciiAlphanumeric(ch) || ch == '_';
 	}
 	
+	private boolean isWholeWord(String line, int start, int end) {
+		char beforeChar;
+		if (start == 0)
+			beforeChar = ' ';
+		else
+			beforeChar = line.charAt(start-1);
+
+		char afterChar;
+		if (end == line.length())
+			afterChar = ' ';
+		else
+			afterChar = line.charAt(end);
+		
+		return !isWordChar(beforeChar) && !isWordChar(afterChar);
+	}
+	
 	public List<Match> matches(String blobPath, ObjectLoader objectLoader, int count) {
 		Preconditions.checkNotNull(term);
 		
@@ -150,19 +168,7 @@ public class TextQueryOption implements QueryOption {
 							while (start != -1) {
 								int end = start + normalizedTerm.length();
 								if (wholeWord) {
-									char beforeChar;
-									if (start == 0)
-										beforeChar = ' ';
-									else
-										beforeChar = line.charAt(start-1);
-
-									char afterChar;
-									if (end == line.length())
-										afterChar = ' ';
-									else
-										afterChar = line.charAt(end);
-
-									if (!isWordChar(beforeChar) && !isWordChar(afterChar)) {
+									if (isWholeWord(line, start, end)) {
 										LinearRange range = new LinearRange(start, end);
 										PlanarRange position = new PlanarRange(lineNo, range.getFrom(), lineNo, range.getTo());
 										matches.add(new Match(line, position));
@@ -189,6 +195,54 @@ public class TextQueryOption implements QueryOption {
 		return matches;
 	}
 
+	/**
+	 * Get matches of plain text term at specified candidate positions. Candidate positions are 
+	 * positions of the term recorded in code index (see {@link LineNGramTokenStream}), ignoring 
+	 * case and word boundary. Blob content is only read to get text of matched lines, and to 
+	 * check case and word boundary if required, instead of being scanned for the term
+	 * 
+	 * @param positions
+	 * 			candidate positions in ascending order
+	 */
+	public List<Match> matches(String blobPath, ObjectLoader objectLoader, List<Integer> positions, int count) {
+		Preconditions.checkNotNull(term);
+		Preconditions.checkState(!regex);
+		
+		var matches = new ArrayList<Match>();
+		if (!positions.isEmpty() && objectLoader.getSize() <= IndexConstants.MAX_INDEXABLE_BLOB_SIZE) {
+			String content = ContentDetector.convertToText(objectLoader.getCachedBytes(), blobPath);
+			if (content != null) {
+				int termLength = term.codePointCount(0, term.length());
+				Iterator<String> lineIt = Splitter.on('\n').split(content).iterator();
+				String line = null;
+				int lineNo = -1;
+				for (int position: positions) {
+					int positionLineNo = LineNGramTokenStream.getLine(position);
+					while (lineNo < positionLineNo && lineIt.hasNext()) {
+						line = lineIt.next();
+						lineNo++;
+					}
+					if (lineNo != positionLineNo)
+						break;
+					
+					int column = LineNGramTokenStream.getColumn(position);
+					if (column + termLength > line.codePointCount(0, line.length()))
+						continue;
+					int start = line.offsetByCodePoints(0, column);
+					int end = line.offsetByCodePoints(start, termLength);
+					if (caseSensitive && !line.substring(start, end).equals(term))
+						continue;
+					if (wholeWord && !isWholeWord(line, start, end))
+						continue;
+					matches.add(new Match(line, new PlanarRange(lineNo, start, lineNo, end)));
+					if (matches.size() >= count)
+						break;
+				}
+			}
+		}
+		return matches;
+	}
+
 	public void applyConstraints(BooleanQuery.Builder builder) {
 		Preconditions.checkNotNull(term);
 		
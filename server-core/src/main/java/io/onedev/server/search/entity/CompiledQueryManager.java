@@ -0,0 +1,25 @@
+package io.onedev.server.search.entity;
+
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+
+import io.onedev.server.model.AbstractEntity;
+import io.onedev.server.model.Project;
+
+public interface CompiledQueryManager {
+
+	/**
+	 * Get compiled query of specified query string, parsing it with specified parser if not 
+	 * cached. Compiled queries are cached in current session by entity class, project and query 
+	 * string, so the parser should always parse the same way for the same entity class and project
+	 * 
+	 * @param project
+	 * 			project to parse the query in, <tt>null</tt> for global queries
+	 * @return compiled query, or <tt>null</tt> if query string can not be parsed
+	 */
+	@Nullable
+	<T extends AbstractEntity> EntityQuery<T> getQuery(Class<T> entityClass, @Nullable Project project, 
+			String queryString, Function<String, EntityQuery<T>> parser);
+	
+}
@@ -0,0 +1,161 @@
+package io.onedev.server.search.entity;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.hibernate.Session;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.onedev.commons.loader.ManagedSerializedForm;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.entity.EntityPersisted;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.model.AbstractEntity;
+import io.onedev.server.model.Build;
+import io.onedev.server.model.Group;
+import io.onedev.server.model.LabelSpec;
+import io.onedev.server.model.LinkSpec;
+import io.onedev.server.model.Milestone;
+import io.onedev.server.model.Project;
+import io.onedev.server.model.Setting;
+import io.onedev.server.model.User;
+import io.onedev.server.persistence.SessionManager;
+
+/**
+ * Compiled queries are cached per Hibernate session, as criterias may reference entities which 
+ * should not be accessed outside of the session loading them. Cached queries of current session 
+ * are discarded when settings or entities possibly affecting query parsing are changed in the 
+ * session, and queries failed to parse are not cached.
+ */
+@Singleton
+public class DefaultCompiledQueryManager implements CompiledQueryManager, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int MAX_CACHED_QUERIES = 1000;
+	
+	private final SessionManager sessionManager;
+	
+	// Weak keys so that caches of closed sessions can be garbage collected
+	private final Cache<Session, Cache<QueryKey, EntityQuery<?>>> compiledQueries = 
+			CacheBuilder.newBuilder().weakKeys().build();
+	
+	@Inject
+	public DefaultCompiledQueryManager(SessionManager sessionManager) {
+		this.sessionManager = sessionManager;
+	}
+
+	public Object writeReplace() throws ObjectStreamException {
+		return new ManagedSerializedForm(CompiledQueryManager.class);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public <T extends AbstractEntity> EntityQuery<T> getQuery(Class<T> entityClass, @Nullable Project project, 
+			String queryString, Function<String, EntityQuery<T>> parser) {
+		Session session = sessionManager.getSession();
+		if (session == null)
+			return parse(queryString, parser);
+		
+		Cache<QueryKey, EntityQuery<?>> queriesOfSession;
+		try {
+			queriesOfSession = compiledQueries.get(session, 
+					() -> CacheBuilder.newBuilder().maximumSize(MAX_CACHED_QUERIES).build());
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+		
+		QueryKey key = new QueryKey(entityClass.getName(), project!=null? project.getId(): null, queryString);
+		EntityQuery<T> query = (EntityQuery<T>) queriesOfSession.getIfPresent(key);
+		if (query == null) {
+			query = parse(queryString, parser);
+			if (query != null)
+				queriesOfSession.put(key, query);
+		}
+		return query;
+	}
+	
+	@Nullable
+	private <T extends AbstractEntity> EntityQuery<T> parse(String queryString, 
+			Function<String, EntityQuery<T>> parser) {
+		try {
+			return parser.apply(queryString);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+	
+	private void invalidate() {
+		Session session = sessionManager.getSession();
+		if (session != null)
+			compiledQueries.invalidate(session);
+	}
+	
+	private boolean isQueryRelevant(AbstractEntity entity) {
+		return entity instanceof Setting || entity instanceof LinkSpec || entity instanceof LabelSpec 
+				|| entity instanceof Milestone || entity instanceof User || entity instanceof Group 
+				|| entity instanceof Project || entity instanceof Build;
+	}
+	
+	@Listen
+	public void on(EntityPersisted event) {
+		if (isQueryRelevant(event.getEntity()))
+			invalidate();
+	}
+	
+	@Listen
+	public void on(EntityRemoved event) {
+		if (isQueryRelevant(event.getEntity()))
+			invalidate();
+	}
+	
+	private static class QueryKey {
+		
+		private final String entityClassName;
+		
+		private final Long projectId;
+		
+		private final String queryString;
+		
+		public QueryKey(String entityClassName, @Nullable Long projectId, String queryString) {
+			this.entityClassName = entityClassName;
+			this.projectId = projectId;
+			this.queryString = queryString;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof QueryKey)) 
+				return false;
+			if (this == other)
+				return true;
+			QueryKey otherKey = (QueryKey) other;
+			return new EqualsBuilder()
+					.append(entityClassName, otherKey.entityClassName)
+					.append(projectId, otherKey.projectId)
+					.append(queryString, otherKey.queryString)
+					.isEquals();
+		}
+
+		@Override
+		public int hashCode() {
+			return new HashCodeBuilder(17, 37)
+					.append(entityClassName)
+					.append(projectId)
+					.append(queryString)
+					.toHashCode();
+		}
+		
+	}
+	
+}
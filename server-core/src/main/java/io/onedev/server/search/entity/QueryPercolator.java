@@ -0,0 +1,133 @@
+package io.onedev.server.search.entity;
+
+import static java.util.Collections.newSetFromMap;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import io.onedev.server.model.AbstractEntity;
+import io.onedev.server.model.Issue;
+import io.onedev.server.model.PullRequest;
+import io.onedev.server.util.criteria.Criteria;
+
+/**
+ * Index of entity queries by values of properties required by their criterias, so that queries
+ * possibly matching an entity can be found without evaluating all of them. A query is indexed
+ * by the first property in {@link #INDEXED_PROPS} it requires, and queries not requiring any of
+ * these properties are always considered as candidates. Queries are compared by identity, and
+ * are expected to be obtained from {@link CompiledQueryManager}.
+ */
+public class QueryPercolator<T extends AbstractEntity> {
+
+	public static final String PROP_PROJECT = "project";
+
+	public static final String PROP_STATE = "state";
+
+	public static final String PROP_ASSIGNEE = "assignee";
+
+	public static final String PROP_LABEL = "label";
+
+	// Issue fields such as assignees, with values in form of <field name>:<field value>
+	public static final String PROP_FIELD = "field";
+
+	// Most selective properties come first
+	private static final List<String> INDEXED_PROPS = Lists.newArrayList(
+			PROP_ASSIGNEE, PROP_LABEL, PROP_FIELD, PROP_PROJECT, PROP_STATE);
+
+	private final Map<String, Map<String, Set<EntityQuery<T>>>> indexedQueries = new HashMap<>();
+
+	private final Set<EntityQuery<T>> unindexedQueries = newSetFromMap(new IdentityHashMap<>());
+
+	public void add(EntityQuery<T> query) {
+		Criteria<T> criteria = query.getCriteria();
+		if (criteria != null) {
+			for (String propName: INDEXED_PROPS) {
+				Collection<String> requiredValues = criteria.getRequiredValues(propName);
+				if (requiredValues != null) {
+					Map<String, Set<EntityQuery<T>>> queriesByValue =
+							indexedQueries.computeIfAbsent(propName, it -> new HashMap<>());
+					for (String value: requiredValues)
+						queriesByValue.computeIfAbsent(value, it -> newSetFromMap(new IdentityHashMap<>())).add(query);
+					return;
+				}
+			}
+		}
+		unindexedQueries.add(query);
+	}
+
+	/**
+	 * Get queries possibly matching specified entity
+	 *
+	 * @return set of candidate queries backed by an identity map
+	 */
+	public Set<EntityQuery<T>> getCandidates(T entity) {
+		Set<EntityQuery<T>> candidates = newSetFromMap(new IdentityHashMap<>());
+		candidates.addAll(unindexedQueries);
+		Map<String, Collection<String>> propValues = getPropValues(entity);
+		for (Map.Entry<String, Map<String, Set<EntityQuery<T>>>> entry: indexedQueries.entrySet()) {
+			Collection<String> values = propValues.get(entry.getKey());
+			if (values != null) {
+				for (String value: values) {
+					Set<EntityQuery<T>> queries = entry.getValue().get(value);
+					if (queries != null)
+						candidates.addAll(queries);
+				}
+			}
+		}
+		return candidates;
+	}
+
+	private static Map<String, Collection<String>> getPropValues(AbstractEntity entity) {
+		Map<String, Collection<String>> propValues = new HashMap<>();
+		if (entity instanceof Issue) {
+			Issue issue = (Issue) entity;
+			propValues.put(PROP_PROJECT, Sets.newHashSet(issue.getProject().getPath()));
+			propValues.put(PROP_STATE, Sets.newHashSet(issue.getState()));
+			propValues.put(PROP_FIELD, issue.getFields().stream()
+					.filter(it -> it.getValue() != null)
+					.map(it -> getFieldValue(it.getName(), it.getValue()))
+					.collect(Collectors.toSet()));
+		} else if (entity instanceof PullRequest) {
+			PullRequest request = (PullRequest) entity;
+			propValues.put(PROP_PROJECT, Sets.newHashSet(request.getTargetProject().getPath()));
+			propValues.put(PROP_STATE, Sets.newHashSet(request.getStatus().name()));
+			propValues.put(PROP_ASSIGNEE, request.getAssignments().stream()
+					.map(it -> String.valueOf(it.getUser().getId()))
+					.collect(Collectors.toSet()));
+			propValues.put(PROP_LABEL, request.getLabels().stream()
+					.map(it -> String.valueOf(it.getSpec().getId()))
+					.collect(Collectors.toSet()));
+		}
+		return propValues;
+	}
+
+	public static String getFieldValue(String fieldName, String fieldValue) {
+		return fieldName + ":" + fieldValue;
+	}
+
+	/**
+	 * Get required values of project path property for specified path pattern
+	 *
+	 * @return <tt>null</tt> if the pattern may match paths other than itself
+	 */
+	@Nullable
+	public static Collection<String> getRequiredPaths(String pathPattern) {
+		if (pathPattern.contains("*") || pathPattern.contains("?")
+				|| pathPattern.startsWith("/") || pathPattern.endsWith("/") || pathPattern.contains("//")) {
+			return null;
+		} else {
+			return Sets.newHashSet(pathPattern);
+		}
+	}
+
+}
@@ -1,97 +1,144 @@
 package io.onedev.server.search.entity;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
 
 import javax.annotation.Nullable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.onedev.server.OneDev;
 import io.onedev.server.model.AbstractEntity;
 import io.onedev.server.model.Issue;
+import io.onedev.server.model.Project;
 import io.onedev.server.model.PullRequest;
 import io.onedev.server.model.User;
 import io.onedev.server.model.support.NamedQuery;
 import io.onedev.server.model.support.QueryPersonalization;
+import io.onedev.server.util.ReflectionUtils;
 
-
+/**
+ * Watched queries are compiled via {@link CompiledQueryManager} and indexed with
+ * {@link QueryPercolator}, so that only queries possibly matching the entity are evaluated.
+ */
 public abstract class QueryWatchBuilder<T extends AbstractEntity> {
-	
+
 	private static final Logger logger = LoggerFactory.getLogger(QueryWatchBuilder.class);
-	
-	private final Map<String, Optional<EntityQuery<T>>> parsedQueries = new HashMap<>();
-	
+
+	private final Class<T> entityClass;
+
+	private final Map<String, EntityQuery<T>> compiledQueries = new HashMap<>();
+
 	private final Map<User, Boolean> watches = new HashMap<>();
 
+	@SuppressWarnings("unchecked")
 	public QueryWatchBuilder() {
-		for (QueryPersonalization<?> personalization: getQueryPersonalizations()) {
-			for (Map.Entry<String, Boolean> entry: personalization.getQueryWatchSupport().getQueryWatches().entrySet()) {
-				String globalName = NamedQuery.getCommonName(entry.getKey());
-				if (globalName != null) {
-					if (matches(NamedQuery.find(getNamedQueries(), globalName), personalization.getUser())) {
-						watches.putIfAbsent(personalization.getUser(), entry.getValue());
-						break;
+		List<Class<?>> typeArguments = ReflectionUtils.getTypeArguments(QueryWatchBuilder.class, getClass());
+		entityClass = (Class<T>) typeArguments.get(0);
+
+		Collection<? extends QueryPersonalization<?>> personalizations = getQueryPersonalizations();
+		QueryPercolator<T> percolator = new QueryPercolator<>();
+		for (QueryPersonalization<?> personalization: personalizations) {
+			for (String watchName: personalization.getQueryWatchSupport().getQueryWatches().keySet()) {
+				for (NamedQuery namedQuery: getWatchedQueries(personalization, watchName)) {
+					if (!compiledQueries.containsKey(namedQuery.getQuery())) {
+						EntityQuery<T> compiledQuery = compile(namedQuery, personalization.getUser());
+						compiledQueries.put(namedQuery.getQuery(), compiledQuery);
+						if (compiledQuery != null)
+							percolator.add(compiledQuery);
 					}
 				}
-				String personalName = NamedQuery.getPersonalName(entry.getKey());
-				if (personalName != null) {
-					if (matches(NamedQuery.find(personalization.getQueries(), personalName), personalization.getUser())) {
-						watches.putIfAbsent(personalization.getUser(), entry.getValue());
-						break;
-					}
+			}
+		}
+
+		Set<EntityQuery<T>> candidates = percolator.getCandidates(getEntity());
+		for (QueryPersonalization<?> personalization: personalizations) {
+			for (Map.Entry<String, Boolean> entry: personalization.getQueryWatchSupport().getQueryWatches().entrySet()) {
+				if (getWatchedQueries(personalization, entry.getKey()).stream().anyMatch(it -> {
+					EntityQuery<T> compiledQuery = compiledQueries.get(it.getQuery());
+					return compiledQuery != null && candidates.contains(compiledQuery)
+							&& matches(it, compiledQuery, personalization.getUser());
+				})) {
+					watches.putIfAbsent(personalization.getUser(), entry.getValue());
+					break;
 				}
 			}
 		}
 	}
-	
-	private boolean matches(@Nullable NamedQuery namedQuery, User user) {
-		if (namedQuery != null) {
-			User.push(user);
-			try {
-				Optional<EntityQuery<T>> entityQuery = parsedQueries.get(namedQuery.getQuery());
-				if (entityQuery == null) {
-					try {
-						entityQuery = Optional.of(parse(namedQuery.getQuery()));
-					} catch (Exception e) {
-						entityQuery = Optional.empty();
-					}
-					parsedQueries.put(namedQuery.getQuery(), entityQuery);
-				}
-				return entityQuery.isPresent() && entityQuery.get().matches(getEntity()); 
-			} catch (Exception e) {
-				String message;
-				if (getEntity() instanceof Issue) {
-					Issue issue = (Issue) getEntity();
-					message = String.format("Error processing watches (user: %s, issue: %s, query: %s)", 
-							user.getName(), issue.getFQN(), namedQuery.getQuery());
-				} else if (getEntity() instanceof PullRequest) {
-					PullRequest request = (PullRequest) getEntity();
-					message = String.format("Error processing watches (user: %s, pull request: %s, query: %s)", 
-							user.getName(), request.getFQN(), namedQuery.getQuery());
-				} else {
-					throw new RuntimeException("Unexpected watch entity type: " + getEntity().getClass());
-				}
-				logger.error(message, e);
-			} finally {
-				User.pop();
+
+	private List<NamedQuery> getWatchedQueries(QueryPersonalization<?> personalization, String watchName) {
+		List<NamedQuery> namedQueries = new ArrayList<>();
+		String globalName = NamedQuery.getCommonName(watchName);
+		if (globalName != null) {
+			NamedQuery namedQuery = NamedQuery.find(getNamedQueries(), globalName);
+			if (namedQuery != null)
+				namedQueries.add(namedQuery);
+		}
+		String personalName = NamedQuery.getPersonalName(watchName);
+		if (personalName != null) {
+			NamedQuery namedQuery = NamedQuery.find(personalization.getQueries(), personalName);
+			if (namedQuery != null)
+				namedQueries.add(namedQuery);
+		}
+		return namedQueries;
+	}
+
+	@Nullable
+	private EntityQuery<T> compile(NamedQuery namedQuery, User user) {
+		User.push(user);
+		try {
+			return OneDev.getInstance(CompiledQueryManager.class).getQuery(
+					entityClass, getProject(), namedQuery.getQuery(), this::parse);
+		} finally {
+			User.pop();
+		}
+	}
+
+	private boolean matches(NamedQuery namedQuery, EntityQuery<T> compiledQuery, User user) {
+		User.push(user);
+		try {
+			return compiledQuery.matches(getEntity());
+		} catch (Exception e) {
+			String message;
+			if (getEntity() instanceof Issue) {
+				Issue issue = (Issue) getEntity();
+				message = String.format("Error processing watches (user: %s, issue: %s, query: %s)",
+						user.getName(), issue.getFQN(), namedQuery.getQuery());
+			} else if (getEntity() instanceof PullRequest) {
+				PullRequest request = (PullRequest) getEntity();
+				message = String.format("Error processing watches (user: %s, pull request: %s, query: %s)",
+						user.getName(), request.getFQN(), namedQuery.getQuery());
+			} else {
+				throw new RuntimeException("Unexpected watch entity type: " + getEntity().getClass());
 			}
-		} 
-		return false;
+			logger.error(message, e);
+			return false;
+		} finally {
+			User.pop();
+		}
 	}
-	
+
 	protected abstract T getEntity();
-	
+
+	/**
+	 * @return project watched queries are parsed in, or <tt>null</tt> for global queries
+	 */
+	@Nullable
+	protected abstract Project getProject();
+
 	protected abstract Collection<? extends QueryPersonalization<?>> getQueryPersonalizations();
-	
+
 	protected abstract EntityQuery<T> parse(String queryString);
-	
+
 	protected abstract Collection<? extends NamedQuery> getNamedQueries();
 
 	public Map<User, Boolean> getWatches() {
 		return watches;
 	}
-	
+
 }
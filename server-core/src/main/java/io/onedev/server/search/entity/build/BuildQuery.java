@@ -78,7 +78,7 @@ public class BuildQuery extends EntityQuery<Build> {
 
 					@Override
 					public Criteria<Build> visitFuzzyCriteria(FuzzyCriteriaContext ctx) {
-						return new FuzzyCriteria(getValue(ctx.getText()));
+						return new FuzzyCriteria(getValue(ctx.getText()), project);
 					}
 					
 					@Override
@@ -1,33 +1,68 @@
 package io.onedev.server.search.entity.build;
 
 import io.onedev.commons.utils.StringUtils;
+import io.onedev.server.OneDev;
+import io.onedev.server.entitymanager.BuildManager;
+import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.model.Build;
+import io.onedev.server.model.Project;
+import io.onedev.server.search.entitytext.BuildTextManager;
+import io.onedev.server.security.SecurityUtils;
 import io.onedev.server.util.criteria.Criteria;
 import io.onedev.server.util.criteria.OrCriteria;
 
+import javax.annotation.Nullable;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.From;
 import javax.persistence.criteria.Predicate;
+import java.util.Collection;
+import java.util.Collections;
 
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Description and params are searched via full text index, in addition to version and job
+ */
 public class FuzzyCriteria extends Criteria<Build> {
 
 	private static final long serialVersionUID = 1L;
 
 	private final String value;
 	
-	public FuzzyCriteria(String value) {
+	private final Long projectId;
+	
+	/**
+	 * @param project
+	 * 			project of queried builds, or <tt>null</tt> to query builds of all projects with 
+	 * 			build access permission
+	 */
+	public FuzzyCriteria(String value, @Nullable Project project) {
 		this.value = value;
+		projectId = project != null? project.getId(): null;
 	}
 
 	@Override
 	public Predicate getPredicate(CriteriaQuery<?> query, From<Build, Build> from, CriteriaBuilder builder) {
-		return parse(value).getPredicate(query, from, builder);
+		Collection<Long> projectIds;
+		if (projectId != null) {
+			projectIds = Collections.singleton(projectId);
+		} else if (SecurityUtils.isAdministrator()) {
+			projectIds = OneDev.getInstance(ProjectManager.class).getIds();
+		} else {
+			projectIds = OneDev.getInstance(BuildManager.class).getAccessibleJobNames().keySet()
+					.stream().map(Project::getId).collect(toSet());
+		}
+		var buildIds = OneDev.getInstance(BuildTextManager.class).query(projectIds, value);
+		return builder.or(
+				forManyValues(builder, from.get(Build.PROP_ID), buildIds), 
+				parse(value).getPredicate(query, from, builder));
 	}
 
 	@Override
 	public boolean matches(Build build) {
-		return parse(value).matches(build);
+		return parse(value).matches(build) 
+				|| OneDev.getInstance(BuildTextManager.class).matches(build, value);
 	}
 	
 	private Criteria<Build> parse(String value) {
@@ -69,7 +69,7 @@ public class CodeCommentQuery extends EntityQuery<CodeComment> {
 				commentCriteria = new CodeCommentQueryBaseVisitor<Criteria<CodeComment>>() {
 					@Override
 					public Criteria<CodeComment> visitFuzzyCriteria(FuzzyCriteriaContext ctx) {
-						return new FuzzyCriteria(getValue(ctx.getText()));
+						return new FuzzyCriteria(getValue(ctx.getText()), project);
 					}
 
 					@Override
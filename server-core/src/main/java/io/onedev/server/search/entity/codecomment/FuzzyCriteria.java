@@ -1,40 +1,51 @@
 package io.onedev.server.search.entity.codecomment;
 
 import io.onedev.commons.utils.StringUtils;
+import io.onedev.server.OneDev;
 import io.onedev.server.model.CodeComment;
+import io.onedev.server.model.Project;
+import io.onedev.server.search.entitytext.CodeCommentTextManager;
 import io.onedev.server.util.criteria.Criteria;
-import io.onedev.server.util.criteria.OrCriteria;
 
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.From;
 import javax.persistence.criteria.Predicate;
+import java.util.Collections;
 
+/**
+ * Content and replies are searched via full text index to avoid table scan
+ */
 public class FuzzyCriteria extends Criteria<CodeComment> {
 
 	private static final long serialVersionUID = 1L;
 
 	private final String value;
 	
-	public FuzzyCriteria(String value) {
+	private final Long projectId;
+	
+	public FuzzyCriteria(String value, Project project) {
 		this.value = value;
+		projectId = project.getId();
 	}
 
 	@Override
 	public Predicate getPredicate(CriteriaQuery<?> query, From<CodeComment, CodeComment> from, CriteriaBuilder builder) {
-		return parse(value).getPredicate(query, from, builder);
+		var commentIds = OneDev.getInstance(CodeCommentTextManager.class)
+				.query(Collections.singleton(projectId), value);
+		return builder.or(
+				forManyValues(builder, from.get(CodeComment.PROP_ID), commentIds), 
+				newPathCriteria().getPredicate(query, from, builder));
 	}
 
 	@Override
 	public boolean matches(CodeComment comment) {
-		return parse(value).matches(comment);
+		return newPathCriteria().matches(comment) 
+				|| OneDev.getInstance(CodeCommentTextManager.class).matches(comment, value);
 	}
 	
-	private Criteria<CodeComment> parse(String value) {
-		return new OrCriteria<>(
-				new ContentCriteria(value), 
-				new ReplyCriteria(value), 
-				new PathCriteria("*" + value + "*", CodeCommentQueryLexer.Is));
+	private Criteria<CodeComment> newPathCriteria() {
+		return new PathCriteria("*" + value + "*", CodeCommentQueryLexer.Is);
 	}
 
 	@Override
@@ -11,11 +11,14 @@ import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.From;
 import javax.persistence.criteria.Predicate;
 
+import com.google.common.collect.Sets;
+
 import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.SettingManager;
 import io.onedev.server.model.Issue;
 import io.onedev.server.model.IssueField;
 import io.onedev.server.model.support.administration.GlobalIssueSetting;
+import io.onedev.server.search.entity.QueryPercolator;
 import io.onedev.server.buildspecmodel.inputspec.choiceinput.choiceprovider.SpecifiedChoices;
 import io.onedev.server.web.component.issue.workflowreconcile.UndefinedFieldValue;
 import io.onedev.server.web.component.issue.workflowreconcile.UndefinedFieldValuesResolution;
@@ -82,6 +85,14 @@ public class ChoiceFieldCriteria extends FieldCriteria {
 		}
 	}
 
+	@Override
+	public Collection<String> getRequiredValues(String propertyName) {
+		if (propertyName.equals(QueryPercolator.PROP_FIELD) && operator == IssueQueryLexer.Is)
+			return Sets.newHashSet(QueryPercolator.getFieldValue(getFieldName(), value));
+		else
+			return null;
+	}
+
 	@Override
 	public String toStringWithoutParens() {
 		return quote(getFieldName()) + " " 
@@ -4,10 +4,12 @@ import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.model.Issue;
 import io.onedev.server.model.Project;
+import io.onedev.server.search.entity.QueryPercolator;
 import io.onedev.server.util.criteria.Criteria;
 import io.onedev.server.util.match.WildcardUtils;
 
 import javax.persistence.criteria.*;
+import java.util.Collection;
 
 public class ProjectCriteria extends Criteria<Issue> {
 
@@ -49,6 +51,14 @@ public class ProjectCriteria extends Criteria<Issue> {
 		return Project.containsPath(this.projectPath, projectPath);
 	}
 
+	@Override
+	public Collection<String> getRequiredValues(String propertyName) {
+		if (propertyName.equals(QueryPercolator.PROP_PROJECT) && operator == IssueQueryLexer.Is)
+			return QueryPercolator.getRequiredPaths(projectPath);
+		else
+			return null;
+	}
+
 	@Override
 	public String toStringWithoutParens() {
 		return quote(Issue.NAME_PROJECT) + " " 
@@ -1,9 +1,11 @@
 package io.onedev.server.search.entity.issue;
 
+import com.google.common.collect.Sets;
 import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.SettingManager;
 import io.onedev.server.model.Issue;
 import io.onedev.server.model.support.administration.GlobalIssueSetting;
+import io.onedev.server.search.entity.QueryPercolator;
 import io.onedev.server.util.criteria.Criteria;
 import io.onedev.server.web.component.issue.workflowreconcile.UndefinedStateResolution;
 
@@ -61,6 +63,14 @@ public class StateCriteria extends Criteria<Issue> {
 		return ordinal;
 	}
 
+	@Override
+	public Collection<String> getRequiredValues(String propertyName) {
+		if (propertyName.equals(QueryPercolator.PROP_STATE) && operator == IssueQueryLexer.Is)
+			return Sets.newHashSet(value);
+		else
+			return null;
+	}
+
 	@Override
 	public String toStringWithoutParens() {
 		return quote(Issue.NAME_STATE) + " " 
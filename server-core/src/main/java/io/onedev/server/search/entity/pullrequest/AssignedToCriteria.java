@@ -1,11 +1,14 @@
 package io.onedev.server.search.entity.pullrequest;
 
+import com.google.common.collect.Sets;
 import io.onedev.server.model.PullRequest;
 import io.onedev.server.model.PullRequestAssignment;
 import io.onedev.server.model.User;
+import io.onedev.server.search.entity.QueryPercolator;
 import io.onedev.server.util.criteria.Criteria;
 
 import javax.persistence.criteria.*;
+import java.util.Collection;
 
 public class AssignedToCriteria extends Criteria<PullRequest> {
 
@@ -33,6 +36,14 @@ public class AssignedToCriteria extends Criteria<PullRequest> {
 		return request.getAssignments().stream().anyMatch(it->it.getUser().equals(user));
 	}
 
+	@Override
+	public Collection<String> getRequiredValues(String propertyName) {
+		if (propertyName.equals(QueryPercolator.PROP_ASSIGNEE))
+			return Sets.newHashSet(String.valueOf(user.getId()));
+		else
+			return null;
+	}
+
 	@Override
 	public String toStringWithoutParens() {
 		return PullRequestQuery.getRuleName(PullRequestQueryLexer.AssignedTo) + " " 
@@ -1,42 +1,63 @@
 package io.onedev.server.search.entity.pullrequest;
 
 import io.onedev.commons.utils.StringUtils;
+import io.onedev.server.OneDev;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.model.Project;
 import io.onedev.server.model.PullRequest;
+import io.onedev.server.search.entitytext.PullRequestTextManager;
+import io.onedev.server.security.permission.ReadCode;
 import io.onedev.server.util.criteria.Criteria;
-import io.onedev.server.util.criteria.OrCriteria;
 
+import javax.annotation.Nullable;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.From;
 import javax.persistence.criteria.Predicate;
+import java.util.Collection;
+import java.util.Collections;
 
+import static java.util.stream.Collectors.toSet;
+
+/**
+ * Title, description and comments are searched via full text index to avoid table scan
+ */
 public class FuzzyCriteria extends Criteria<PullRequest> {
 
 	private static final long serialVersionUID = 1L;
 
 	private final String value;
 	
-	public FuzzyCriteria(String value) {
+	private final Long projectId;
+	
+	/**
+	 * @param project
+	 * 			target project of queried pull requests, or <tt>null</tt> to query pull requests of 
+	 * 			all projects with code read permission
+	 */
+	public FuzzyCriteria(String value, @Nullable Project project) {
 		this.value = value;
+		projectId = project != null? project.getId(): null;
 	}
 
 	@Override
 	public Predicate getPredicate(CriteriaQuery<?> query, From<PullRequest, PullRequest> from, CriteriaBuilder builder) {
-		return parse(value).getPredicate(query, from, builder);
+		Collection<Long> projectIds;
+		if (projectId != null) {
+			projectIds = Collections.singleton(projectId);
+		} else {
+			projectIds = OneDev.getInstance(ProjectManager.class).getPermittedProjects(new ReadCode())
+					.stream().map(Project::getId).collect(toSet());
+		}
+		var requestIds = OneDev.getInstance(PullRequestTextManager.class).query(projectIds, value);
+		return forManyValues(builder, from.get(PullRequest.PROP_ID), requestIds);
 	}
 
 	@Override
 	public boolean matches(PullRequest request) {
-		return parse(value).matches(request);
+		return OneDev.getInstance(PullRequestTextManager.class).matches(request, value);
 	}
 	
-	private Criteria<PullRequest> parse(String value) {
-		return new OrCriteria<>(
-				new TitleCriteria(value),
-				new DescriptionCriteria(value),
-				new CommentCriteria(value));
-	}
-
 	@Override
 	public String toStringWithoutParens() {
 		return "~" + StringUtils.escape(value, "~") + "~";
@@ -1,13 +1,18 @@
 package io.onedev.server.search.entity.pullrequest;
 
+import java.util.Collection;
+
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.From;
 import javax.persistence.criteria.Predicate;
 
+import com.google.common.collect.Sets;
+
 import io.onedev.server.model.LabelSpec;
 import io.onedev.server.model.PullRequest;
 import io.onedev.server.model.PullRequestLabel;
+import io.onedev.server.search.entity.QueryPercolator;
 import io.onedev.server.util.criteria.Criteria;
 
 public class LabelCriteria extends Criteria<PullRequest> {
@@ -45,6 +50,14 @@ public class LabelCriteria extends Criteria<PullRequest> {
 		return matches;
 	}
 
+	@Override
+	public Collection<String> getRequiredValues(String propertyName) {
+		if (propertyName.equals(QueryPercolator.PROP_LABEL) && operator == PullRequestQueryLexer.Is)
+			return Sets.newHashSet(String.valueOf(labelSpec.getId()));
+		else
+			return null;
+	}
+
 	@Override
 	public String toStringWithoutParens() {
 		return Criteria.quote(PullRequest.NAME_LABEL) + " " 
@@ -90,7 +90,7 @@ public class PullRequestQuery extends EntityQuery<PullRequest> {
 
 					@Override
 					public Criteria<PullRequest> visitFuzzyCriteria(FuzzyCriteriaContext ctx) {
-						return new FuzzyCriteria(getValue(ctx.getText()));
+						return new FuzzyCriteria(getValue(ctx.getText()), project);
 					}
 					
 					@Override
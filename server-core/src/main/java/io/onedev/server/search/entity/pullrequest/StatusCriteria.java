@@ -1,13 +1,16 @@
 package io.onedev.server.search.entity.pullrequest;
 
+import com.google.common.collect.Sets;
 import io.onedev.server.model.PullRequest;
 import io.onedev.server.model.PullRequest.Status;
+import io.onedev.server.search.entity.QueryPercolator;
 import io.onedev.server.util.criteria.Criteria;
 
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.From;
 import javax.persistence.criteria.Predicate;
+import java.util.Collection;
 
 public class StatusCriteria extends Criteria<PullRequest> {
 
@@ -38,6 +41,14 @@ public class StatusCriteria extends Criteria<PullRequest> {
 		return matches;
 	}
 
+	@Override
+	public Collection<String> getRequiredValues(String propertyName) {
+		if (propertyName.equals(QueryPercolator.PROP_STATE) && operator == PullRequestQueryLexer.Is)
+			return Sets.newHashSet(status.name());
+		else
+			return null;
+	}
+
 	@Override
 	public String toStringWithoutParens() {
 		return quote(PullRequest.NAME_STATUS) + " " 
@@ -0,0 +1,23 @@
+package io.onedev.server.search.entitytext;
+
+import java.util.Collection;
+
+import io.onedev.server.model.Build;
+
+public interface BuildTextManager {
+
+	/**
+	 * Query ids of builds matching specified query string in specified projects. Permission is 
+	 * not checked, and caller should filter result as necessary
+	 * 
+	 * @return ids of all matching builds
+	 */
+	Collection<Long> query(Collection<Long> projectIds, String queryString);
+	
+	/**
+	 * Check whether specified build matches specified query string the same way as 
+	 * {@link #query(Collection, String)}, without searching the index
+	 */
+	boolean matches(Build build, String queryString);
+	
+}
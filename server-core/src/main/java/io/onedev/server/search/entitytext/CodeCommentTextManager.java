@@ -0,0 +1,23 @@
+package io.onedev.server.search.entitytext;
+
+import java.util.Collection;
+
+import io.onedev.server.model.CodeComment;
+
+public interface CodeCommentTextManager {
+
+	/**
+	 * Query ids of code comments matching specified query string in specified projects. Permission is 
+	 * not checked, and caller should filter result as necessary
+	 * 
+	 * @return ids of all matching code comments
+	 */
+	Collection<Long> query(Collection<Long> projectIds, String queryString);
+	
+	/**
+	 * Check whether specified code comment matches specified query string the same way as 
+	 * {@link #query(Collection, String)}, without searching the index
+	 */
+	boolean matches(CodeComment comment, String queryString);
+	
+}
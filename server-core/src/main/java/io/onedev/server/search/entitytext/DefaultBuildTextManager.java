@@ -0,0 +1,108 @@
+package io.onedev.server.search.entitytext;
+
+import io.onedev.commons.loader.ManagedSerializedForm;
+import io.onedev.server.buildspec.param.spec.ParamSpec;
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.entitymanager.BuildTouchManager;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.project.build.BuildsTouched;
+import io.onedev.server.model.Build;
+import io.onedev.server.model.support.EntityTouch;
+import io.onedev.server.persistence.SessionManager;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.persistence.annotation.Transactional;
+import io.onedev.server.persistence.dao.Dao;
+import io.onedev.server.taskschedule.TaskScheduler;
+import io.onedev.server.util.concurrent.BatchWorkManager;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.TextField;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.lucene.document.Field.Store.NO;
+
+@Singleton
+public class DefaultBuildTextManager extends ProjectTextManager<Build> implements BuildTextManager {
+	
+	private static final String FIELD_DESCRIPTION = "description";
+	
+	private static final String FIELD_PARAM = "params";
+
+	private final BuildTouchManager touchManager;
+	
+	@Inject
+	public DefaultBuildTextManager(Dao dao, BatchWorkManager batchWorkManager, TransactionManager transactionManager, 
+			ProjectManager projectManager, ClusterManager clusterManager, SessionManager sessionManager, 
+			BuildTouchManager touchManager, TaskScheduler taskScheduler) {
+		super(dao, batchWorkManager, transactionManager, projectManager, clusterManager, sessionManager, 
+				taskScheduler);
+		this.touchManager = touchManager;
+	}
+
+	public Object writeReplace() throws ObjectStreamException {
+		return new ManagedSerializedForm(BuildTextManager.class);
+	}
+	
+	@Override
+	protected int getIndexVersion() {
+		return 1;
+	}
+
+	@Override
+	protected List<? extends EntityTouch> queryTouchesAfter(Long projectId, Long afterTouchId) {
+		return touchManager.queryTouchesAfter(projectId, afterTouchId, Integer.MAX_VALUE);
+	}
+
+	private Map<String, List<String>> getFieldValues(Build entity) {
+		Map<String, List<String>> fieldValues = new HashMap<>();
+		fieldValues.put(FIELD_DESCRIPTION, new ArrayList<>());
+		if (entity.getDescription() != null)
+			fieldValues.get(FIELD_DESCRIPTION).add(entity.getDescription());
+		fieldValues.put(FIELD_PARAM, new ArrayList<>());
+		for (var param: entity.getParams()) {
+			if (!param.getType().equals(ParamSpec.SECRET) && param.getValue() != null)
+				fieldValues.get(FIELD_PARAM).add(param.getValue());
+		}
+		return fieldValues;
+	}
+	
+	@Override
+	protected void addFields(Document entityDoc, Build entity) {
+		for (var entry: getFieldValues(entity).entrySet()) {
+			for (var value: entry.getValue())
+				entityDoc.add(new TextField(entry.getKey(), value, NO));
+		}
+	}
+
+	@Transactional
+	@Listen
+	public void on(BuildsTouched event) {
+		requestToIndex(event.getProject().getId());
+	}
+	
+	@Override
+	public Collection<Long> query(Collection<Long> projectIds, String queryString) {
+		Map<String, Float> boosts = new HashMap<>();
+		boosts.put(FIELD_DESCRIPTION, 0.75f);
+		boosts.put(FIELD_PARAM, 0.25f);
+		var contentQuery = parseFuzzyQuery(queryString, boosts);
+		if (contentQuery != null)
+			return searchIds(new EntityTextQuery(contentQuery, projectIds));
+		else
+			return new ArrayList<>();
+	}
+
+	@Override
+	public boolean matches(Build build, String queryString) {
+		return matchesFuzzyQuery(queryString, getFieldValues(build));
+	}
+	
+}
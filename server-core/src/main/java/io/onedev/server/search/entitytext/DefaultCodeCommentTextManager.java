@@ -0,0 +1,104 @@
+package io.onedev.server.search.entitytext;
+
+import com.google.common.collect.Lists;
+import io.onedev.commons.loader.ManagedSerializedForm;
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.entitymanager.CodeCommentTouchManager;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.project.codecomment.CodeCommentsTouched;
+import io.onedev.server.model.CodeComment;
+import io.onedev.server.model.support.EntityTouch;
+import io.onedev.server.persistence.SessionManager;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.persistence.annotation.Transactional;
+import io.onedev.server.persistence.dao.Dao;
+import io.onedev.server.taskschedule.TaskScheduler;
+import io.onedev.server.util.concurrent.BatchWorkManager;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.TextField;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.lucene.document.Field.Store.NO;
+
+@Singleton
+public class DefaultCodeCommentTextManager extends ProjectTextManager<CodeComment> implements CodeCommentTextManager {
+	
+	private static final String FIELD_CONTENT = "content";
+	
+	private static final String FIELD_REPLY = "replies";
+
+	private final CodeCommentTouchManager touchManager;
+	
+	@Inject
+	public DefaultCodeCommentTextManager(Dao dao, BatchWorkManager batchWorkManager, TransactionManager transactionManager, 
+			ProjectManager projectManager, ClusterManager clusterManager, SessionManager sessionManager, 
+			CodeCommentTouchManager touchManager, TaskScheduler taskScheduler) {
+		super(dao, batchWorkManager, transactionManager, projectManager, clusterManager, sessionManager, 
+				taskScheduler);
+		this.touchManager = touchManager;
+	}
+
+	public Object writeReplace() throws ObjectStreamException {
+		return new ManagedSerializedForm(CodeCommentTextManager.class);
+	}
+	
+	@Override
+	protected int getIndexVersion() {
+		return 1;
+	}
+
+	@Override
+	protected List<? extends EntityTouch> queryTouchesAfter(Long projectId, Long afterTouchId) {
+		return touchManager.queryTouchesAfter(projectId, afterTouchId, Integer.MAX_VALUE);
+	}
+
+	private Map<String, List<String>> getFieldValues(CodeComment entity) {
+		Map<String, List<String>> fieldValues = new HashMap<>();
+		fieldValues.put(FIELD_CONTENT, Lists.newArrayList(entity.getContent()));
+		fieldValues.put(FIELD_REPLY, new ArrayList<>());
+		for (var reply: entity.getReplies())
+			fieldValues.get(FIELD_REPLY).add(reply.getContent());
+		return fieldValues;
+	}
+	
+	@Override
+	protected void addFields(Document entityDoc, CodeComment entity) {
+		for (var entry: getFieldValues(entity).entrySet()) {
+			for (var value: entry.getValue())
+				entityDoc.add(new TextField(entry.getKey(), value, NO));
+		}
+	}
+
+	@Transactional
+	@Listen
+	public void on(CodeCommentsTouched event) {
+		requestToIndex(event.getProject().getId());
+	}
+	
+	@Override
+	public Collection<Long> query(Collection<Long> projectIds, String queryString) {
+		Map<String, Float> boosts = new HashMap<>();
+		boosts.put(FIELD_CONTENT, 0.75f);
+		boosts.put(FIELD_REPLY, 0.25f);
+		var contentQuery = parseFuzzyQuery(queryString, boosts);
+		if (contentQuery != null)
+			return searchIds(new EntityTextQuery(contentQuery, projectIds));
+		else
+			return new ArrayList<>();
+	}
+
+	@Override
+	public boolean matches(CodeComment comment, String queryString) {
+		return matchesFuzzyQuery(queryString, getFieldValues(comment));
+	}
+	
+}
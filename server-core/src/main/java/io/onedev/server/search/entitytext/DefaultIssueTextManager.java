@@ -15,6 +15,7 @@ import io.onedev.server.persistence.dao.Dao;
 import io.onedev.server.security.SecurityUtils;
 import io.onedev.server.security.permission.AccessConfidentialIssues;
 import io.onedev.server.security.permission.AccessProject;
+import io.onedev.server.taskschedule.TaskScheduler;
 import io.onedev.server.util.ProjectScope;
 import io.onedev.server.util.concurrent.BatchWorkManager;
 import io.onedev.server.util.lucene.BooleanQueryBuilder;
@@ -72,8 +73,9 @@ public class DefaultIssueTextManager extends ProjectTextManager<Issue> implement
 								   TransactionManager transactionManager, ProjectManager projectManager,
 								   IssueFieldManager fieldManager, IssueLinkManager linkManager,
 								   ClusterManager clusterManager, SessionManager sessionManager, 
-								   IssueTouchManager touchManager) {
-		super(dao, batchWorkManager, transactionManager, projectManager, clusterManager, sessionManager);
+								   IssueTouchManager touchManager, TaskScheduler taskScheduler) {
+		super(dao, batchWorkManager, transactionManager, projectManager, clusterManager, sessionManager, 
+				taskScheduler);
 		this.userManager = userManager;
 		this.fieldManager = fieldManager;
 		this.linkManager = linkManager;
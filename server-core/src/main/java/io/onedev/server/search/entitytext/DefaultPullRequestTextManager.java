@@ -0,0 +1,117 @@
+package io.onedev.server.search.entitytext;
+
+import com.google.common.collect.Lists;
+import io.onedev.commons.loader.ManagedSerializedForm;
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.entitymanager.PullRequestTouchManager;
+import io.onedev.server.entitymanager.UserManager;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.project.pullrequest.PullRequestsTouched;
+import io.onedev.server.model.PullRequest;
+import io.onedev.server.model.support.EntityTouch;
+import io.onedev.server.persistence.SessionManager;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.persistence.annotation.Transactional;
+import io.onedev.server.persistence.dao.Dao;
+import io.onedev.server.taskschedule.TaskScheduler;
+import io.onedev.server.util.concurrent.BatchWorkManager;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.TextField;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.ObjectStreamException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.lucene.document.Field.Store.NO;
+
+@Singleton
+public class DefaultPullRequestTextManager extends ProjectTextManager<PullRequest> implements PullRequestTextManager {
+	
+	private static final String FIELD_TITLE = "title";
+	
+	private static final String FIELD_DESCRIPTION = "description";
+	
+	private static final String FIELD_COMMENT = "comments";
+	
+	private final UserManager userManager;
+
+	private final PullRequestTouchManager touchManager;
+	
+	@Inject
+	public DefaultPullRequestTextManager(Dao dao, BatchWorkManager batchWorkManager, TransactionManager transactionManager, 
+			ProjectManager projectManager, ClusterManager clusterManager, SessionManager sessionManager, 
+			PullRequestTouchManager touchManager, UserManager userManager, 
+			TaskScheduler taskScheduler) {
+		super(dao, batchWorkManager, transactionManager, projectManager, clusterManager, sessionManager, 
+				taskScheduler);
+		this.touchManager = touchManager;
+		this.userManager = userManager;
+	}
+
+	public Object writeReplace() throws ObjectStreamException {
+		return new ManagedSerializedForm(PullRequestTextManager.class);
+	}
+	
+	@Override
+	protected int getIndexVersion() {
+		return 1;
+	}
+
+	@Override
+	protected List<? extends EntityTouch> queryTouchesAfter(Long projectId, Long afterTouchId) {
+		return touchManager.queryTouchesAfter(projectId, afterTouchId, Integer.MAX_VALUE);
+	}
+
+	private Map<String, List<String>> getFieldValues(PullRequest entity) {
+		Map<String, List<String>> fieldValues = new HashMap<>();
+		fieldValues.put(FIELD_TITLE, Lists.newArrayList(entity.getTitle()));
+		fieldValues.put(FIELD_DESCRIPTION, new ArrayList<>());
+		if (entity.getDescription() != null)
+			fieldValues.get(FIELD_DESCRIPTION).add(entity.getDescription());
+		fieldValues.put(FIELD_COMMENT, new ArrayList<>());
+		for (var comment: entity.getComments()) {
+			if (!comment.getUser().equals(userManager.getSystem()))
+				fieldValues.get(FIELD_COMMENT).add(comment.getContent());
+		}
+		return fieldValues;
+	}
+	
+	@Override
+	protected void addFields(Document entityDoc, PullRequest entity) {
+		for (var entry: getFieldValues(entity).entrySet()) {
+			for (var value: entry.getValue())
+				entityDoc.add(new TextField(entry.getKey(), value, NO));
+		}
+	}
+
+	@Transactional
+	@Listen
+	public void on(PullRequestsTouched event) {
+		requestToIndex(event.getProject().getId());
+	}
+	
+	@Override
+	public Collection<Long> query(Collection<Long> projectIds, String queryString) {
+		Map<String, Float> boosts = new HashMap<>();
+		boosts.put(FIELD_TITLE, 0.75f);
+		boosts.put(FIELD_DESCRIPTION, 0.5f);
+		boosts.put(FIELD_COMMENT, 0.25f);
+		var contentQuery = parseFuzzyQuery(queryString, boosts);
+		if (contentQuery != null)
+			return searchIds(new EntityTextQuery(contentQuery, projectIds));
+		else
+			return new ArrayList<>();
+	}
+
+	@Override
+	public boolean matches(PullRequest request, String queryString) {
+		return matchesFuzzyQuery(queryString, getFieldValues(request));
+	}
+	
+}
@@ -13,6 +13,7 @@ import io.onedev.server.event.project.ProjectDeleted;
 import io.onedev.server.event.system.SystemStarted;
 import io.onedev.server.event.system.SystemStarting;
 import io.onedev.server.event.system.SystemStopped;
+import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.AbstractEntity;
 import io.onedev.server.model.support.EntityTouch;
 import io.onedev.server.model.support.ProjectBelonging;
@@ -21,6 +22,8 @@ import io.onedev.server.persistence.TransactionManager;
 import io.onedev.server.persistence.annotation.Sessional;
 import io.onedev.server.persistence.dao.Dao;
 import io.onedev.server.persistence.dao.EntityCriteria;
+import io.onedev.server.taskschedule.SchedulableTask;
+import io.onedev.server.taskschedule.TaskScheduler;
 import io.onedev.server.util.ReflectionUtils;
 import io.onedev.server.util.concurrent.BatchWorkManager;
 import io.onedev.server.util.concurrent.BatchWorker;
@@ -51,6 +54,8 @@ import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.*;
+import org.apache.lucene.index.memory.MemoryIndex;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
@@ -58,6 +63,8 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.IOUtils;
 import org.hibernate.criterion.Restrictions;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -67,6 +74,8 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 
 import static com.google.common.collect.Lists.partition;
@@ -78,7 +87,16 @@ import static org.apache.lucene.document.Field.Store.YES;
 import static org.apache.lucene.document.LongPoint.newExactQuery;
 import static org.apache.lucene.search.BooleanClause.Occur.MUST;
 
-public abstract class ProjectTextManager<T extends ProjectBelonging> implements Serializable {
+/**
+ * Base of managers maintaining full text index of project entities. Each index is written by a
+ * single writer kept open for server lifetime, and searched through near real-time readers 
+ * refreshed after each indexing batch. Changes are committed periodically and upon server stop. 
+ * Meta document of each project records id of last indexed entity touch, and is written after 
+ * entity documents with the same writer, so that it is never committed ahead of them. On start, 
+ * touches after the committed touch id are replayed, recovering changes lost in a crash. If an
+ * indexing batch fails, uncommitted changes are rolled back and touches are replayed the same way.
+ */
+public abstract class ProjectTextManager<T extends ProjectBelonging> implements SchedulableTask, Serializable {
 
 	private static final long serialVersionUID = 1L;
 
@@ -100,6 +118,18 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 	
 	private static final int BATCH_SIZE = 5000;
 	
+	private static final int COMMIT_INTERVAL = 60;
+	
+	private static final double RAM_BUFFER_SIZE_MB = 64;
+	
+	private static final Set<String> ENTITY_ID_FIELDS = Collections.singleton(FIELD_ENTITY_ID);
+	
+	/*
+	 * Max number of entity ids returned by text criteria of entity queries, so that id 
+	 * predicates translated from text criteria stay reasonably small
+	 */
+	private static final int MAX_SEARCH_IDS = 1000;
+	
 	private static final CharArraySet STOP_WORDS = new CharArraySet(1000, false);
 
 	static {
@@ -140,13 +170,26 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 	protected final ClusterManager clusterManager;
 	
 	private final SessionManager sessionManager;
+	
+	private final TaskScheduler taskScheduler;
 
+	private volatile IndexWriter writer;
+	
 	private volatile SearcherManager searcherManager;
 	
+	private volatile String taskId;
+	
+	// Writing and searching hold the read lock, while rolling back the writer holds the write lock
+	private final ReadWriteLock writerLock = new ReentrantReadWriteLock();
+	
+	// Analyzer is thread safe, and is shared for query parsing and in memory matching
+	private final Analyzer analyzer = newAnalyzer();
+	
 	@SuppressWarnings("unchecked")
 	public ProjectTextManager(Dao dao, BatchWorkManager batchWorkManager, 
 							  TransactionManager transactionManager, ProjectManager projectManager, 
-							  ClusterManager clusterManager, SessionManager sessionManager) {
+							  ClusterManager clusterManager, SessionManager sessionManager, 
+							  TaskScheduler taskScheduler) {
 		List<Class<?>> typeArguments = ReflectionUtils.getTypeArguments(ProjectTextManager.class, getClass());
 		if (typeArguments.size() == 1 && AbstractEntity.class.isAssignableFrom(typeArguments.get(0))) {
 			entityClass = (Class<T>) typeArguments.get(0);
@@ -160,6 +203,7 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 		this.transactionManager = transactionManager;
 		this.clusterManager = clusterManager;
 		this.sessionManager = sessionManager;
+		this.taskScheduler = taskScheduler;
 	}
 
 	@Listen
@@ -178,45 +222,112 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 				} catch (IndexFormatTooOldException ignored) {
 				}
 			}
-			if (indexVersion != getIndexVersion()) {
+			if (indexVersion != getIndexVersion())
 				FileUtils.cleanDir(indexDir);
-				callWithWriter(writer -> {
-					Document document = new Document();
-					document.add(new StoredField(FIELD_VERSION, String.valueOf(getIndexVersion())));
-					updateMetaDoc(writer, 0L, document);
-					return null;
-				});
+			
+			openWriter(directory);
+			if (indexVersion != getIndexVersion()) {
+				Document document = new Document();
+				document.add(new StoredField(FIELD_VERSION, String.valueOf(getIndexVersion())));
+				updateMetaDoc(writer, 0L, document);
+				writer.commit();
 			}
-			searcherManager = new SearcherManager(directory, null);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 
 	}
+	
+	private void openWriter(Directory directory) throws IOException {
+		IndexWriterConfig writerConfig = new IndexWriterConfig(newAnalyzer());
+		writerConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+		writerConfig.setRAMBufferSizeMB(RAM_BUFFER_SIZE_MB);
+		writer = new IndexWriter(directory, writerConfig);
+		searcherManager = new SearcherManager(writer, null);
+	}
+	
+	/*
+	 * Discard uncommitted changes of all projects, including changes of failed batch already 
+	 * visible to near real-time readers, and replay touches after committed touch ids of other 
+	 * projects. Touches of failed project will be replayed upon its next indexing, so that a 
+	 * persistent failure does not cause indexing to be retried endlessly
+	 */
+	private void rollbackWriter(Long failedProjectId) {
+		writerLock.writeLock().lock();
+		try {
+			logger.warn("Rolling back uncommitted changes of {} index", getIndexName());
+			searcherManager.close();
+			Directory directory = writer.getDirectory();
+			try (Analyzer analyzer = writer.getAnalyzer()) {
+				writer.rollback();
+			}
+			openWriter(directory);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			writerLock.writeLock().unlock();
+		}
+		for (var projectId: projectManager.getActiveIds()) {
+			if (!projectId.equals(failedProjectId))
+				requestToIndex(projectId);
+		}
+	}
 
 	@Listen
 	public void on(SystemStarted event) {
+		taskId = taskScheduler.schedule(this);
+		
+		// Replay touches not committed to the index yet
 		for (var projectId: projectManager.getActiveIds()) 
 			requestToIndex(projectId);
 	}
 	
+	@Listen
+	public void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+	}
+	
 	@Listen
 	public void on(SystemStopped event) {
-		if (searcherManager != null) {
-			try {
+		try {
+			if (searcherManager != null) 
 				searcherManager.close();
-			} catch (IOException e) {
-				throw ExceptionUtils.unchecked(e);
+			if (writer != null) {
+				// Closing writer commits pending changes
+				try (Analyzer analyzer = writer.getAnalyzer()) {
+					writer.close();
+				}
 			}
+		} catch (IOException e) {
+			throw ExceptionUtils.unchecked(e);
 		}
 	}
+	
+	@Override
+	public void execute() {
+		writerLock.readLock().lock();
+		try {
+			if (writer != null && writer.hasUncommittedChanges())
+				writer.commit();
+		} catch (Exception e) {
+			logger.error("Error committing " + getIndexName() + " index", e);
+		} finally {
+			writerLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatSecondlyForever(COMMIT_INTERVAL);
+	}
 
 	@Sessional
 	@Listen
 	public void on(ProjectDeleted event) {
 		Long projectId = event.getProjectId();
 		clusterManager.submitToAllServers(() -> {
-			callWithWriter(writer -> {
+			callWithWriter(projectId, writer -> {
 				try {
 					return writer.deleteDocuments(newExactQuery(FIELD_PROJECT_ID, projectId));
 				} catch (IOException e) {
@@ -234,20 +345,40 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 	}
 	
 	protected <R> R callWithSearcher(Function<IndexSearcher, R> func) {
-		return LuceneUtils.callWithSearcher(getIndexDir(), func);
+		writerLock.readLock().lock();
+		try {
+			IndexSearcher searcher = searcherManager.acquire();
+			try {
+				return func.apply(searcher);
+			} finally {
+				searcherManager.release(searcher);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			writerLock.readLock().unlock();
+		}
 	}
 	
-	protected synchronized <R> R callWithWriter(Function<IndexWriter, R> func) {
-		try (Analyzer analyzer = newAnalyzer()) {
-			return LuceneUtils.callWithWriter(getIndexDir(), analyzer, func);
-		} finally {
-			if (searcherManager != null) {
-				try {
-					searcherManager.maybeRefresh();
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				}
+	/*
+	 * Writer is shared by concurrent indexing of different projects. Changes made by specified 
+	 * function are visible to searches once this method returns. If the function fails, the 
+	 * writer is rolled back, as partial changes would otherwise be visible to near real-time 
+	 * readers and be committed later
+	 */
+	protected <R> R callWithWriter(Long projectId, Function<IndexWriter, R> func) {
+		try {
+			writerLock.readLock().lock();
+			try {
+				R result = func.apply(writer);
+				searcherManager.maybeRefreshBlocking();
+				return result;
+			} finally {
+				writerLock.readLock().unlock();
 			}
+		} catch (Exception e) {
+			rollbackWriter(projectId);
+			throw ExceptionUtils.unchecked(e);
 		}
 	}
 	
@@ -281,7 +412,7 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 					}
 				});
 				
-				callWithWriter(writer -> {
+				callWithWriter(projectId, writer -> {
 					if (touchInfo != null) {
 						for (var partition: partition(new ArrayList<>(touchInfo.getEntityIds()), BATCH_SIZE)) {
 							sessionManager.run(() -> {
@@ -336,6 +467,63 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 		}
 	}
 	
+	/**
+	 * Parse user input against specified fields. All words should be found in an entity for it to 
+	 * match, with each word matched as prefix. Input enclosed in double quotes is matched as phrase
+	 */
+	@Nullable
+	protected Query parseFuzzyQuery(String queryString, Map<String, Float> fieldBoosts) {
+		queryString = queryString.trim();
+		boolean phrase = queryString.length() > 2 && queryString.startsWith("\"") && queryString.endsWith("\"");
+		if (phrase)
+			queryString = queryString.substring(1, queryString.length() - 1);
+		var escaped = LuceneUtils.escape(queryString);
+		if (escaped != null) {
+			try {
+				MultiFieldQueryParser parser = new MultiFieldQueryParser(
+						fieldBoosts.keySet().toArray(new String[0]), analyzer, fieldBoosts) {
+					@Override
+					protected Query newTermQuery(Term term, float boost) {
+						return new BoostQuery(new PrefixQuery(term), boost);
+					}
+				};
+				parser.setDefaultOperator(QueryParser.AND_OPERATOR);
+				var query = parser.parse(phrase ? "\"" + escaped + "\"" : escaped);
+				if (!LuceneUtils.isEmpty(query))
+					return query;
+			} catch (ParseException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Check whether specified field values match specified user input the same way as query 
+	 * parsed via {@link #parseFuzzyQuery(String, Map)}, without searching the index. This is 
+	 * used to match entities against text criteria in memory
+	 * 
+	 * @param fieldValues
+	 * 			map of field name to values of the field, with fields being those passed to 
+	 * 			{@link #parseFuzzyQuery(String, Map)}
+	 */
+	protected boolean matchesFuzzyQuery(String queryString, Map<String, ? extends Collection<String>> fieldValues) {
+		Map<String, Float> fieldBoosts = new HashMap<>();
+		for (var fieldName: fieldValues.keySet())
+			fieldBoosts.put(fieldName, 1f);
+		var query = parseFuzzyQuery(queryString, fieldBoosts);
+		if (query != null) {
+			MemoryIndex index = new MemoryIndex();
+			for (var entry: fieldValues.entrySet()) {
+				for (var value: entry.getValue())
+					index.addField(entry.getKey(), value, analyzer);
+			}
+			return index.search(query) > 0;
+		} else {
+			return false;
+		}
+	}
+	
 	private Query buildQuery(Map<String, Collection<Long>> projectIdsByServer, String contentQueryString) {
 		var queryBuilder = new BooleanQueryBuilder();
 		var allIds = projectManager.getIds();
@@ -351,18 +539,15 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 			var projectIdsByServer = projectManager.groupByActiveServers(query.getApplicableProjectIds());
 			return clusterManager.runOnServers(projectIdsByServer.keySet(), () -> {
 				if (searcherManager != null) {
-					try {
-						IndexSearcher indexSearcher = searcherManager.acquire();
+					return callWithSearcher(searcher -> {
 						try {
 							TotalHitCountCollector collector = new TotalHitCountCollector();
-							indexSearcher.search(buildQuery(projectIdsByServer, contentQueryString), collector);
+							searcher.search(buildQuery(projectIdsByServer, contentQueryString), collector);
 							return (long) collector.getTotalHits();
-						} finally {
-							searcherManager.release(indexSearcher);
+						} catch (IOException e) {
+							throw new RuntimeException(e);
 						}
-					} catch (IOException e) {
-						throw new RuntimeException(e);
-					}
+					});
 				} else {
 					return 0L;
 				}
@@ -372,39 +557,55 @@ public abstract class ProjectTextManager<T extends ProjectBelonging> implements
 		}
 	}
 
-	protected List<T> search(@Nullable EntityTextQuery query, int firstResult, int maxResults) {
-		if (query != null) {
-			String contentQueryString = query.getContentQuery().toString();
-			var projectIdsByServer = projectManager.groupByActiveServers(query.getApplicableProjectIds());
-			Map<Long, Float> entityScores = new HashMap<>();
-			for (var entry : clusterManager.runOnServers(projectIdsByServer.keySet(), (ClusterTask<Map<Long, Float>>) () -> {
-				if (searcherManager != null) {
+	private List<Map.Entry<Long, Float>> searchEntityScores(EntityTextQuery query, int count) {
+		String contentQueryString = query.getContentQuery().toString();
+		var projectIdsByServer = projectManager.groupByActiveServers(query.getApplicableProjectIds());
+		Map<Long, Float> entityScores = new HashMap<>();
+		for (var entry : clusterManager.runOnServers(projectIdsByServer.keySet(), (ClusterTask<Map<Long, Float>>) () -> {
+			if (searcherManager != null) {
+				return callWithSearcher(searcher -> {
 					try {
-						IndexSearcher searcher = searcherManager.acquire();
-						try {
-							Map<Long, Float> innerEntityScores = new HashMap<>();
-							TopDocs topDocs = searcher.search(buildQuery(projectIdsByServer, contentQueryString), firstResult + maxResults);
-							for (var scoreDoc : topDocs.scoreDocs) {
-								Document doc = searcher.doc(scoreDoc.doc);
-								innerEntityScores.put(valueOf(doc.get(FIELD_ENTITY_ID)), scoreDoc.score);
-							}
-							return innerEntityScores;
-						} finally {
-							searcherManager.release(searcher);
+						Map<Long, Float> innerEntityScores = new HashMap<>();
+						TopDocs topDocs = searcher.search(buildQuery(projectIdsByServer, contentQueryString), count);
+						for (var scoreDoc : topDocs.scoreDocs) {
+							Document doc = searcher.doc(scoreDoc.doc, ENTITY_ID_FIELDS);
+							innerEntityScores.put(valueOf(doc.get(FIELD_ENTITY_ID)), scoreDoc.score);
 						}
+						return innerEntityScores;
 					} catch (IOException e) {
 						throw new RuntimeException(e);
 					}
-				} else {
-					return new HashMap<>();
-				}
-			}).entrySet()) {
-				entityScores.putAll(entry.getValue());
+				});
+			} else {
+				return new HashMap<>();
 			}
+		}).entrySet()) {
+			entityScores.putAll(entry.getValue());
+		}
 
-			List<Map.Entry<Long, Float>> entries = new ArrayList<>(entityScores.entrySet());
-			entries.sort((o1, o2) -> o2.getValue().compareTo(o1.getValue()));
-			
+		List<Map.Entry<Long, Float>> entries = new ArrayList<>(entityScores.entrySet());
+		entries.sort((o1, o2) -> o2.getValue().compareTo(o1.getValue()));
+		return entries;
+	}
+	
+	/**
+	 * Search ids of most relevant matching entities without loading them. This is used to 
+	 * translate text criteria of entity queries into id predicates, and at most 
+	 * {@link #MAX_SEARCH_IDS} ids are returned
+	 */
+	protected Collection<Long> searchIds(@Nullable EntityTextQuery query) {
+		if (query != null) {
+			var entries = searchEntityScores(query, MAX_SEARCH_IDS);
+			return entries.subList(0, min(MAX_SEARCH_IDS, entries.size())).stream()
+					.map(Map.Entry::getKey).collect(toList());
+		} else {
+			return new ArrayList<>();
+		}
+	}
+	
+	protected List<T> search(@Nullable EntityTextQuery query, int firstResult, int maxResults) {
+		if (query != null) {
+			var entries = searchEntityScores(query, firstResult + maxResults);
 			if (firstResult < entries.size()) {
 				entries = entries.subList(firstResult, min(firstResult + maxResults, entries.size()));
 				EntityCriteria<T> criteria = EntityCriteria.of(entityClass);
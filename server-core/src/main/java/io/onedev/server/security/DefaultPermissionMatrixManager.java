@@ -0,0 +1,222 @@
+package io.onedev.server.security;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.onedev.commons.loader.ManagedSerializedForm;
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.entitymanager.SettingManager;
+import io.onedev.server.entitymanager.UserManager;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.entity.EntityEvent;
+import io.onedev.server.event.entity.EntityPersisted;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.model.*;
+import io.onedev.server.persistence.SessionManager;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.security.permission.CreateRootProjects;
+import io.onedev.server.security.permission.PermissionMatrix;
+import io.onedev.server.security.permission.SystemAdministration;
+import io.onedev.server.util.facade.ProjectFacade;
+import io.onedev.server.util.facade.UserFacade;
+
+import org.hibernate.Transaction;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Permission matrices are cached per user, and invalidated on all servers when roles, groups, 
+ * memberships, authorizations, project hierarchy or security setting change. Matrices built 
+ * in active transactions are not cached as they may see uncommitted changes, and transactions 
+ * changing permissions always build their own matrices
+ */
+@Singleton
+public class DefaultPermissionMatrixManager implements PermissionMatrixManager, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Long ANONYMOUS_ID = 0L;
+
+	private static final int MAX_CACHED_MATRICES = 10000;
+
+	private static final long MATRIX_EXPIRE_MINUTES = 60;
+
+	private final UserManager userManager;
+
+	private final SettingManager settingManager;
+
+	private final SessionManager sessionManager;
+
+	private final TransactionManager transactionManager;
+
+	private final ClusterManager clusterManager;
+
+	private final ProjectManager projectManager;
+
+	private final Cache<Long, PermissionMatrix> matrices = CacheBuilder.newBuilder()
+			.maximumSize(MAX_CACHED_MATRICES)
+			.expireAfterAccess(MATRIX_EXPIRE_MINUTES, TimeUnit.MINUTES)
+			.build();
+
+	// Transactions changing permission related entities
+	private final Set<Transaction> changingTransactions = ConcurrentHashMap.newKeySet();
+
+	// Increased on each invalidation to avoid caching matrix built from stale data
+	private final AtomicLong version = new AtomicLong();
+
+	@Inject
+	public DefaultPermissionMatrixManager(UserManager userManager, SettingManager settingManager,
+										  SessionManager sessionManager, TransactionManager transactionManager,
+										  ClusterManager clusterManager, ProjectManager projectManager) {
+		this.userManager = userManager;
+		this.settingManager = settingManager;
+		this.sessionManager = sessionManager;
+		this.transactionManager = transactionManager;
+		this.clusterManager = clusterManager;
+		this.projectManager = projectManager;
+	}
+
+	public Object writeReplace() throws ObjectStreamException {
+		return new ManagedSerializedForm(PermissionMatrixManager.class);
+	}
+
+	@Nullable
+	private Transaction getActiveTransaction() {
+		Transaction transaction = transactionManager.getTransaction();
+		return transaction != null && transaction.isActive()? transaction: null;
+	}
+
+	@Override
+	public PermissionMatrix getPermissionMatrix(@Nullable Long userId) {
+		Transaction transaction = getActiveTransaction();
+		if (transaction != null && changingTransactions.contains(transaction))
+			return newPermissionMatrix(userId);
+
+		Long key = userId != null? userId: ANONYMOUS_ID;
+		PermissionMatrix matrix = matrices.getIfPresent(key);
+		if (matrix == null) {
+			long versionBeforeBuild = version.get();
+			matrix = sessionManager.call(() -> newPermissionMatrix(userId));
+			if (transaction == null) {
+				synchronized (version) {
+					if (version.get() == versionBeforeBuild)
+						matrices.asMap().putIfAbsent(key, matrix);
+				}
+			}
+		}
+		return matrix;
+	}
+
+	private PermissionMatrix newPermissionMatrix(@Nullable Long userId) {
+		boolean anonymousAccess = settingManager.getSecuritySetting().isEnableAnonymousAccess();
+		Map<Long, Collection<Long>> authorizedRoleIds = new HashMap<>();
+		Collection<Long> authorizedConfidentialIssueIds = new HashSet<>();
+		if (userId == null || userId.equals(ANONYMOUS_ID)) {
+			return new PermissionMatrix(null, false, false, anonymousAccess,
+					authorizedRoleIds, authorizedConfidentialIssueIds);
+		}
+
+		User user = userManager.load(userId);
+		UserFacade userFacade = user.getFacade();
+		if (user.isRoot() || user.isSystem())
+			return new PermissionMatrix(userFacade, true, false, true, authorizedRoleIds, authorizedConfidentialIssueIds);
+
+		List<Group> groups = new ArrayList<>(user.getGroups());
+		Group defaultLoginGroup = settingManager.getSecuritySetting().getDefaultLoginGroup();
+		if (defaultLoginGroup != null)
+			groups.add(defaultLoginGroup);
+
+		boolean createRootProjects = false;
+		for (Group group: groups) {
+			if (group.implies(new SystemAdministration())) {
+				return new PermissionMatrix(userFacade, true, false, true,
+						authorizedRoleIds, authorizedConfidentialIssueIds);
+			}
+			if (group.implies(new CreateRootProjects()))
+				createRootProjects = true;
+			for (GroupAuthorization authorization: group.getAuthorizations()) {
+				authorizedRoleIds.computeIfAbsent(authorization.getProject().getId(), it -> new HashSet<>())
+						.add(authorization.getRole().getId());
+			}
+		}
+		for (UserAuthorization authorization: user.getProjectAuthorizations()) {
+			authorizedRoleIds.computeIfAbsent(authorization.getProject().getId(), it -> new HashSet<>())
+					.add(authorization.getRole().getId());
+		}
+		for (IssueAuthorization authorization: user.getIssueAuthorizations()) 
+			authorizedConfidentialIssueIds.add(authorization.getIssue().getId());
+		return new PermissionMatrix(userFacade, false, createRootProjects, true,
+				authorizedRoleIds, authorizedConfidentialIssueIds);
+	}
+
+	private void invalidate(@Nullable Long userId) {
+		transactionManager.runAfterCommit(() -> clusterManager.submitToAllServers(() -> {
+			synchronized (version) {
+				version.incrementAndGet();
+				if (userId != null)
+					matrices.invalidate(userId);
+				else
+					matrices.invalidateAll();
+			}
+			return null;
+		}));
+	}
+
+	private boolean isHierarchyChanged(Project project, boolean newProject) {
+		if (newProject)
+			return true;
+		// Project cache is updated after commit, and still holds previous values here
+		ProjectFacade facade = projectManager.findFacadeById(project.getId());
+		return facade == null
+				|| !Objects.equals(facade.getParentId(), project.getParent() != null? project.getParent().getId(): null)
+				|| !Objects.equals(facade.getDefaultRoleId(), project.getDefaultRole() != null? project.getDefaultRole().getId(): null);
+	}
+
+	private void onChange(EntityEvent event) {
+		AbstractEntity entity = event.getEntity();
+		if (entity instanceof User) {
+			changed(entity.getId());
+		} else if (entity instanceof Membership) {
+			changed(((Membership) entity).getUser().getId());
+		} else if (entity instanceof UserAuthorization) {
+			changed(((UserAuthorization) entity).getUser().getId());
+		} else if (entity instanceof IssueAuthorization) {
+			changed(((IssueAuthorization) entity).getUser().getId());
+		} else if (entity instanceof Role || entity instanceof Group || entity instanceof GroupAuthorization) {
+			changed(null);
+		} else if (entity instanceof Project) {
+			if (!(event instanceof EntityPersisted) 
+					|| isHierarchyChanged((Project) entity, ((EntityPersisted) event).isNewEntity())) {
+				changed(null);
+			}
+		} else if (entity instanceof Setting && ((Setting) entity).getKey() == Setting.Key.SECURITY) {
+			changed(null);
+		}
+	}
+
+	private void changed(@Nullable Long userId) {
+		Transaction transaction = getActiveTransaction();
+		if (transaction != null && changingTransactions.add(transaction))
+			transactionManager.mustRunAfterTransaction(() -> changingTransactions.remove(transaction));
+		invalidate(userId);
+	}
+
+	@Listen
+	public void on(EntityPersisted event) {
+		onChange(event);
+	}
+
+	@Listen
+	public void on(EntityRemoved event) {
+		onChange(event);
+	}
+
+}
@@ -0,0 +1,17 @@
+package io.onedev.server.security;
+
+import javax.annotation.Nullable;
+
+import io.onedev.server.security.permission.PermissionMatrix;
+
+public interface PermissionMatrixManager {
+
+	/**
+	 * Get permission matrix of specified user
+	 * 
+	 * @param userId
+	 * 			id of the user, <tt>null</tt> for anonymous user
+	 */
+	PermissionMatrix getPermissionMatrix(@Nullable Long userId);
+	
+}
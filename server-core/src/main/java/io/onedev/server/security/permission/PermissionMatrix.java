@@ -0,0 +1,119 @@
+package io.onedev.server.security.permission;
+
+import io.onedev.server.OneDev;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.entitymanager.RoleManager;
+import io.onedev.server.model.Issue;
+import io.onedev.server.model.Project;
+import io.onedev.server.util.facade.ProjectFacade;
+import io.onedev.server.util.facade.UserFacade;
+import org.apache.shiro.authz.Permission;
+
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Permissions granted to a user, captured with ids instead of entities so that it can be cached
+ * across requests. Roles applicable to a project (authorized roles and default roles of the
+ * project and its ancestors) are resolved on first check of the project and remembered, so that
+ * subsequent checks do not need to walk the project tree.
+ */
+public class PermissionMatrix {
+
+	private final UserFacade user;
+
+	private final boolean systemAdministration;
+
+	private final boolean createRootProjects;
+
+	private final boolean defaultRolesApplicable;
+
+	// project id -> ids of roles authorized directly on the project
+	private final Map<Long, Collection<Long>> authorizedRoleIds;
+
+	// ids of confidential issues authorized directly. Project of the issue is not captured as 
+	// issue may be moved to other projects
+	private final Collection<Long> authorizedConfidentialIssueIds;
+
+	// project id -> ids of roles applicable to the project with inheritance resolved
+	private final Map<Long, Collection<Long>> resolvedRoleIds = new ConcurrentHashMap<>();
+
+	public PermissionMatrix(@Nullable UserFacade user, boolean systemAdministration, boolean createRootProjects,
+							boolean defaultRolesApplicable, Map<Long, Collection<Long>> authorizedRoleIds,
+							Collection<Long> authorizedConfidentialIssueIds) {
+		this.user = user;
+		this.systemAdministration = systemAdministration;
+		this.createRootProjects = createRootProjects;
+		this.defaultRolesApplicable = defaultRolesApplicable;
+		this.authorizedRoleIds = authorizedRoleIds;
+		this.authorizedConfidentialIssueIds = authorizedConfidentialIssueIds;
+	}
+
+	@Nullable
+	public UserFacade getUser() {
+		return user;
+	}
+
+	public boolean implies(Permission permission) {
+		if (systemAdministration)
+			return true;
+		if (permission instanceof CreateRootProjects) {
+			return createRootProjects;
+		} else if (permission instanceof UserAdministration) {
+			UserAdministration userAdministration = (UserAdministration) permission;
+			return user != null && user.getId().equals(userAdministration.getUser().getId());
+		} else if (permission instanceof ProjectPermission) {
+			ProjectPermission projectPermission = (ProjectPermission) permission;
+			Project project = projectPermission.getProject();
+			Permission privilege = projectPermission.getPrivilege();
+			if (privilege instanceof ConfidentialIssuePermission) {
+				Issue issue = ((ConfidentialIssuePermission) privilege).getIssue();
+				if (authorizedConfidentialIssueIds.contains(issue.getId()) 
+						&& project.getSelfAndAncestors().contains(issue.getProject())) {
+					return true;
+				}
+			}
+			RoleManager roleManager = OneDev.getInstance(RoleManager.class);
+			for (Long roleId: getRoleIds(project)) {
+				if (roleManager.load(roleId).implies(privilege))
+					return true;
+			}
+			return false;
+		} else {
+			return false;
+		}
+	}
+
+	private ProjectManager getProjectManager() {
+		return OneDev.getInstance(ProjectManager.class);
+	}
+
+	private Collection<Long> getRoleIds(Project project) {
+		if (project.getId() != null && getProjectManager().findFacadeById(project.getId()) != null) {
+			return resolvedRoleIds.computeIfAbsent(project.getId(), projectId -> {
+				Collection<Long> roleIds = new HashSet<>();
+				ProjectFacade facade = getProjectManager().findFacadeById(projectId);
+				while (facade != null) {
+					roleIds.addAll(authorizedRoleIds.getOrDefault(facade.getId(), Collections.emptySet()));
+					if (defaultRolesApplicable && facade.getDefaultRoleId() != null)
+						roleIds.add(facade.getDefaultRoleId());
+					facade = facade.getParentId() != null? getProjectManager().findFacadeById(facade.getParentId()): null;
+				}
+				return roleIds;
+			});
+		} else {
+			// Project not saved yet, resolve via entities
+			Collection<Long> roleIds = new HashSet<>();
+			while (project != null) {
+				if (project.getId() != null)
+					roleIds.addAll(authorizedRoleIds.getOrDefault(project.getId(), Collections.emptySet()));
+				if (defaultRolesApplicable && project.getDefaultRole() != null)
+					roleIds.add(project.getDefaultRole().getId());
+				project = project.getParent();
+			}
+			return roleIds;
+		}
+	}
+
+}
@@ -5,11 +5,10 @@ import io.onedev.server.entitymanager.GroupManager;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.entitymanager.SettingManager;
 import io.onedev.server.entitymanager.UserManager;
-import io.onedev.server.model.*;
 import io.onedev.server.persistence.SessionManager;
-import io.onedev.server.security.permission.*;
-import io.onedev.server.util.Pair;
-import io.onedev.server.util.facade.UserFacade;
+import io.onedev.server.security.PermissionMatrixManager;
+import io.onedev.server.security.permission.BasePermission;
+import io.onedev.server.security.permission.PermissionMatrix;
 import org.apache.shiro.authz.AuthorizationInfo;
 import org.apache.shiro.authz.Permission;
 import org.apache.shiro.realm.AuthorizingRealm;
@@ -20,8 +19,6 @@ import org.apache.wicket.request.cycle.RequestCycle;
 import javax.inject.Inject;
 import java.util.*;
 
-import static com.google.common.collect.Lists.newArrayList;
-
 public abstract class AbstractAuthorizingRealm extends AuthorizingRealm {
 
     protected final UserManager userManager;
@@ -34,69 +31,25 @@ public abstract class AbstractAuthorizingRealm extends AuthorizingRealm {
     
     protected final SettingManager settingManager;
     
+    protected final PermissionMatrixManager permissionMatrixManager;
+    
     @SuppressWarnings("serial")
 	private static final MetaDataKey<Map<Long, AuthorizationInfo>> AUTHORIZATION_INFOS = new MetaDataKey<>() {};    
     
 	@Inject
     public AbstractAuthorizingRealm(UserManager userManager, GroupManager groupManager, 
-    		ProjectManager projectManager, SessionManager sessionManager, SettingManager settingManager) {
+    		ProjectManager projectManager, SessionManager sessionManager, SettingManager settingManager, 
+    		PermissionMatrixManager permissionMatrixManager) {
     	this.userManager = userManager;
     	this.groupManager = groupManager;
     	this.projectManager = projectManager;
     	this.sessionManager = sessionManager;
     	this.settingManager = settingManager;
+    	this.permissionMatrixManager = permissionMatrixManager;
     }
 
 	private AuthorizationInfo newAuthorizationInfo(Long userId) {
-		var result = sessionManager.call(() -> {
-			Collection<Permission> permissions = new ArrayList<>();
-			User user = null;
-			if (userId != 0L) {
-				Permission systemAdministration = new SystemAdministration();
-				
-				user = userManager.load(userId);
-				if (user.isRoot() || user.isSystem()) 
-					return new Pair<>(user.getFacade(), newArrayList(systemAdministration));
-				
-				List<Group> groups = new ArrayList<>(user.getGroups());
-				Group defaultLoginGroup = settingManager.getSecuritySetting().getDefaultLoginGroup();
-				if (defaultLoginGroup != null) 
-					groups.add(defaultLoginGroup);
-
-				for (Group group : groups) {
-					if (group.implies(systemAdministration))
-						return new Pair<>(user.getFacade(), newArrayList(systemAdministration));
-					permissions.add(group);
-				}
-				   
-				permissions.add(new UserAdministration(user));
-				
-				for (UserAuthorization authorization: user.getProjectAuthorizations()) 
-					permissions.add(new ProjectPermission(authorization.getProject(), authorization.getRole()));
-				for (IssueAuthorization authorization: user.getIssueAuthorizations()) {
-					permissions.add(new ProjectPermission(
-							authorization.getIssue().getProject(), 
-							new ConfidentialIssuePermission(authorization.getIssue())));
-				}
-			}
-			if (user != null || settingManager.getSecuritySetting().isEnableAnonymousAccess()) {
-				permissions.add(p -> {
-					if (p instanceof ProjectPermission) {
-						ProjectPermission projectPermission = (ProjectPermission) p;
-						Project project = projectPermission.getProject();
-						Permission privilege = projectPermission.getPrivilege();
-						do {
-							if (project.getDefaultRole() != null && project.getDefaultRole().implies(privilege))
-								return true;
-							project = project.getParent();
-						} while (project != null);
-					}
-					return false;
-				});
-			}
-			
-			return new Pair<>(UserFacade.of(user), permissions);
-		});
+		PermissionMatrix matrix = permissionMatrixManager.getPermissionMatrix(userId != 0L? userId: null);
 		
 		return new AuthorizationInfo() {
 			
@@ -117,10 +70,10 @@ public abstract class AbstractAuthorizingRealm extends AuthorizingRealm {
 				return Lists.newArrayList(permission -> {
 					if (permission instanceof BasePermission) {
 						BasePermission basePermission = (BasePermission) permission;	
-						if (!basePermission.isApplicable(result.getLeft()))							
+						if (!basePermission.isApplicable(matrix.getUser()))							
 							return false;
 					} 
-					return result.getRight().stream().anyMatch(it -> it.implies(permission));
+					return matrix.implies(permission);
 				});
 			}
 			
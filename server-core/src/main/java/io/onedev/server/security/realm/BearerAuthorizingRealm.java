@@ -14,14 +14,17 @@ import io.onedev.server.entitymanager.SettingManager;
 import io.onedev.server.entitymanager.UserManager;
 import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.security.BearerAuthenticationToken;
+import io.onedev.server.security.PermissionMatrixManager;
 
 @Singleton
 public class BearerAuthorizingRealm extends AbstractAuthorizingRealm {
 
 	@Inject
     public BearerAuthorizingRealm(UserManager userManager, GroupManager groupManager, 
-    		ProjectManager projectManager, SessionManager sessionManager, SettingManager settingManager) {
-		super(userManager, groupManager, projectManager, sessionManager, settingManager);
+    		ProjectManager projectManager, SessionManager sessionManager, SettingManager settingManager, 
+    		PermissionMatrixManager permissionMatrixManager) {
+		super(userManager, groupManager, projectManager, sessionManager, settingManager, 
+				permissionMatrixManager);
 		setCredentialsMatcher(new AllowAllCredentialsMatcher());
     }
 
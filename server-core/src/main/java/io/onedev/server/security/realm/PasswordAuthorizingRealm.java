@@ -11,6 +11,7 @@ import io.onedev.server.model.support.administration.authenticator.Authenticator
 import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.persistence.TransactionManager;
 import io.onedev.server.persistence.annotation.Transactional;
+import io.onedev.server.security.PermissionMatrixManager;
 import io.onedev.server.validation.validator.UserNameValidator;
 import org.apache.shiro.authc.*;
 import org.apache.shiro.authc.credential.PasswordMatcher;
@@ -41,8 +42,10 @@ public class PasswordAuthorizingRealm extends AbstractAuthorizingRealm {
     		MembershipManager membershipManager, GroupManager groupManager, 
     		ProjectManager projectManager, SessionManager sessionManager, 
     		TransactionManager transactionManager, SshKeyManager sshKeyManager, 
-    		PasswordService passwordService, EmailAddressManager emailAddressManager) {
-		super(userManager, groupManager, projectManager, sessionManager, settingManager);
+    		PasswordService passwordService, EmailAddressManager emailAddressManager, 
+    		PermissionMatrixManager permissionMatrixManager) {
+		super(userManager, groupManager, projectManager, sessionManager, settingManager, 
+				permissionMatrixManager);
 		
 	    PasswordMatcher passwordMatcher = new PasswordMatcher();
 	    passwordMatcher.setPasswordService(passwordService);
@@ -0,0 +1,136 @@
+package io.onedev.server.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import io.onedev.commons.utils.FileUtils;
+
+/**
+ * Least recently used cache of files under specified directory. Entries are identified by
+ * relative paths, and are written to temp files first and then moved into place atomically,
+ * so that readers never see partially written entries. Least recently used entries are
+ * deleted when total size exceeds the limit, except for the most recently stored one, which
+ * is kept even if it alone exceeds the limit, so that it can be served.
+ * <p>
+ * Entries are only tracked in memory, and the directory should be cleaned via {@link #clean()}
+ * on startup.
+ */
+public class DiskCache {
+
+	private final File dir;
+
+	private final long maxSize;
+
+	// entry path -> file size, in access order
+	private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long size;
+
+	public DiskCache(File dir, long maxSize) {
+		this.dir = dir;
+		this.maxSize = maxSize;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	public File getFile(String path) {
+		return new File(dir, path);
+	}
+
+	/**
+	 * @return length of cached entry, or <tt>null</tt> if not cached
+	 */
+	@Nullable
+	public synchronized Long getLength(String path) {
+		return entries.get(path);
+	}
+
+	/**
+	 * Open cached entry for read. Entry remains readable via returned stream even if it is
+	 * evicted concurrently
+	 *
+	 * @return input stream of cached entry, or <tt>null</tt> if not cached
+	 */
+	@Nullable
+	public InputStream open(String path) {
+		if (getLength(path) == null)
+			return null;
+		try {
+			return new FileInputStream(getFile(path));
+		} catch (FileNotFoundException e) {
+			// Evicted concurrently
+			return null;
+		}
+	}
+
+	/**
+	 * @return a temp file to write content of specified entry, which can then be stored via
+	 * 			{@link #store(String, File)}. Caller should delete the temp file if it is not
+	 * 			stored
+	 */
+	public File newTempFile(String path) {
+		File file = getFile(path);
+		FileUtils.createDir(file.getParentFile());
+		return new File(file.getParentFile(), file.getName() + "." + UUID.randomUUID() + ".tmp");
+	}
+
+	/**
+	 * Move specified temp file into the cache as specified entry
+	 *
+	 * @return length of the stored entry
+	 */
+	public synchronized long store(String path, File tempFile) throws IOException {
+		long length = tempFile.length();
+		Files.move(tempFile.toPath(), getFile(path).toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		Long prevLength = entries.put(path, length);
+		size += length - (prevLength != null? prevLength: 0);
+
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (size > maxSize && entries.size() > 1) {
+			Map.Entry<String, Long> entry = it.next();
+			it.remove();
+			size -= entry.getValue();
+			FileUtils.deleteFile(getFile(entry.getKey()));
+		}
+		return length;
+	}
+
+	public synchronized void removeIf(Predicate<String> pathPredicate) {
+		Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, Long> entry = it.next();
+			if (pathPredicate.test(entry.getKey())) {
+				it.remove();
+				size -= entry.getValue();
+				FileUtils.deleteFile(getFile(entry.getKey()));
+			}
+		}
+	}
+
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public synchronized void clean() {
+		entries.clear();
+		size = 0;
+		FileUtils.createDir(dir);
+		FileUtils.cleanDir(dir);
+	}
+
+}
@@ -1,7 +1,14 @@
 package io.onedev.server.util.concurrent;
 
+import java.util.Collection;
+
 public interface BatchWorkManager {
 
 	void submit(BatchWorker worker, Prioritized work);
 	
+	/**
+	 * Get metrics of workers currently having queued or running works
+	 */
+	Collection<BatchWorkerMetrics> getMetrics();
+	
 }
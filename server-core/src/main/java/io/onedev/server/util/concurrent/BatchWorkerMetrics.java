@@ -0,0 +1,68 @@
+package io.onedev.server.util.concurrent;
+
+import java.io.Serializable;
+
+public class BatchWorkerMetrics implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String workerId;
+	
+	private final int queueDepth;
+	
+	private final boolean working;
+	
+	private final long batchCount;
+	
+	private final int lastBatchSize;
+	
+	private final long lastBatchLatency;
+	
+	private final long averageBatchLatency;
+	
+	public BatchWorkerMetrics(String workerId, int queueDepth, boolean working, long batchCount, 
+							  int lastBatchSize, long lastBatchLatency, long averageBatchLatency) {
+		this.workerId = workerId;
+		this.queueDepth = queueDepth;
+		this.working = working;
+		this.batchCount = batchCount;
+		this.lastBatchSize = lastBatchSize;
+		this.lastBatchLatency = lastBatchLatency;
+		this.averageBatchLatency = averageBatchLatency;
+	}
+
+	public String getWorkerId() {
+		return workerId;
+	}
+
+	/**
+	 * @return number of works waiting to be picked up by next batch
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	public boolean isWorking() {
+		return working;
+	}
+
+	public long getBatchCount() {
+		return batchCount;
+	}
+
+	public int getLastBatchSize() {
+		return lastBatchSize;
+	}
+
+	/**
+	 * @return milliseconds spent on last batch, from being scheduled to completion
+	 */
+	public long getLastBatchLatency() {
+		return lastBatchLatency;
+	}
+
+	public long getAverageBatchLatency() {
+		return averageBatchLatency;
+	}
+	
+}
@@ -13,108 +13,155 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.util.*;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
+/**
+ * Works of each worker are queued separately, and a batch is dispatched to work executor only
+ * when queue of the worker transits from idle to non-empty, or when previous batch of the
+ * worker finishes with more works queued. There is no global lock on submit path, and at
+ * most one batch is running for a worker at any time
+ */
 @Singleton
-public class DefaultBatchWorkManager implements BatchWorkManager, Runnable {
+public class DefaultBatchWorkManager implements BatchWorkManager {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultBatchWorkManager.class);
-	
+
 	private final WorkExecutor workExecutor;
-	
-	private final Map<BatchWorker, Works> works = new HashMap<>();
-	
-	private Thread thread;
-	
+
+	private final Map<BatchWorker, Works> works = new ConcurrentHashMap<>();
+
+	private volatile boolean started;
+
 	@Inject
 	public DefaultBatchWorkManager(WorkExecutor workExecutor) {
 		this.workExecutor = workExecutor;
 	}
-	
-	private Works getWorks(BatchWorker worker) {
-		Works worksOfWorker = works.get(worker);
-		if (worksOfWorker == null) {
-			worksOfWorker = new Works();
-			works.put(worker, worksOfWorker);
-		}
-		return worksOfWorker;
-	}
 
 	@Listen
 	public void on(SystemStarted event) {
-		thread = new Thread(this);
-		thread.start();
+		started = true;
+		for (Works worksOfWorker: works.values())
+			schedule(worksOfWorker);
 	}
 
 	@Listen
 	public void on(SystemStopping event) {
-		synchronized (this) {
-			thread = null;
-			notify();
-		}
+		started = false;
 	}
 
-	@Override
-	public synchronized void run() {
-		while (thread != null) {
-			for (Iterator<Map.Entry<BatchWorker, Works>> it = works.entrySet().iterator(); it.hasNext();) {
-				Map.Entry<BatchWorker, Works> entry = it.next();
-				BatchWorker worker = entry.getKey();
-				Works works = entry.getValue();
-				if (works.working.isEmpty()) {
-					works.queued.drainTo(works.working, worker.getMaxBatchSize());
-					if (!works.working.isEmpty()) {
-						double priority = works.working.stream().collect(Collectors.averagingInt(Prioritized::getPriority));
-						workExecutor.submit(new PrioritizedRunnable((int) priority) {
-
-							@Override
-							public void run() {
-								try {
-									worker.doWorks(works.working);
-								} catch (Exception e) {
-									logger.error("Error doing works", e);
-								} finally {
-									synchronized (DefaultBatchWorkManager.this) {
-										works.working.clear();
-										DefaultBatchWorkManager.this.notify();
-									}
-								}
-							}
-
-						});
-					} else {
-						it.remove();
-					}
-				}
+	private void schedule(Works worksOfWorker) {
+		if (started && !worksOfWorker.queued.isEmpty() && worksOfWorker.scheduled.compareAndSet(false, true)) {
+			long scheduleTime = System.currentTimeMillis();
+			List<Prioritized> batch = new ArrayList<>();
+			worksOfWorker.queued.drainTo(batch, worksOfWorker.worker.getMaxBatchSize());
+			if (batch.isEmpty()) {
+				complete(worksOfWorker);
+				return;
 			}
+			double priority = batch.stream().collect(Collectors.averagingInt(Prioritized::getPriority));
 			try {
-				wait();
-			} catch (InterruptedException ignored) {
+				workExecutor.submit(new PrioritizedRunnable((int) priority) {
+
+					@Override
+					public void run() {
+						try {
+							worksOfWorker.worker.doWorks(batch);
+						} catch (Exception e) {
+							logger.error("Error doing works", e);
+						} finally {
+							worksOfWorker.record(batch.size(), System.currentTimeMillis() - scheduleTime);
+							complete(worksOfWorker);
+						}
+					}
+
+				});
+			} catch (Exception e) {
+				logger.error("Error scheduling works", e);
+				worksOfWorker.queued.addAll(batch);
+				worksOfWorker.scheduled.set(false);
 			}
 		}
 	}
 
+	private void complete(Works worksOfWorker) {
+		worksOfWorker.scheduled.set(false);
+		/*
+		 * Remove idle entry under the key lock so that concurrent submissions either land in
+		 * this entry before removal, or create a new entry afterwards
+		 */
+		works.computeIfPresent(worksOfWorker.worker, (key, value) -> {
+			if (value == worksOfWorker && value.queued.isEmpty() && !value.scheduled.get())
+				return null;
+			else
+				return value;
+		});
+		schedule(worksOfWorker);
+	}
+
 	@Override
-	public synchronized void submit(BatchWorker worker, Prioritized work) {
+	public void submit(BatchWorker worker, Prioritized work) {
 		Subject subject = SecurityUtils.getSubject();
-		getWorks(new BatchWorker(worker.getId(), worker.getMaxBatchSize()) {
+		BatchWorker subjectAwareWorker = new BatchWorker(worker.getId(), worker.getMaxBatchSize()) {
 
 			@Override
 			public void doWorks(List<Prioritized> works) {
 				ThreadContext.bind(subject);
 				worker.doWorks(works);
 			}
-			
-		}).queued.offer(work);
-		
-		notify();
+
+		};
+		Works worksOfWorker = works.compute(subjectAwareWorker, (key, value) -> {
+			if (value == null)
+				value = new Works(subjectAwareWorker);
+			value.queued.offer(work);
+			return value;
+		});
+		schedule(worksOfWorker);
+	}
+
+	@Override
+	public Collection<BatchWorkerMetrics> getMetrics() {
+		Collection<BatchWorkerMetrics> metrics = new ArrayList<>();
+		for (Works worksOfWorker: works.values())
+			metrics.add(worksOfWorker.getMetrics());
+		return metrics;
 	}
 
 	private static class Works {
-		BlockingQueue<Prioritized> queued = new PriorityBlockingQueue<>();
-		
-		List<Prioritized> working = new ArrayList<>();
+
+		final BatchWorker worker;
+
+		final BlockingQueue<Prioritized> queued = new PriorityBlockingQueue<>();
+
+		final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+		private long batchCount;
+
+		private long totalBatchLatency;
+
+		private int lastBatchSize;
+
+		private long lastBatchLatency;
+
+		Works(BatchWorker worker) {
+			this.worker = worker;
+		}
+
+		synchronized void record(int batchSize, long batchLatency) {
+			batchCount++;
+			totalBatchLatency += batchLatency;
+			lastBatchSize = batchSize;
+			lastBatchLatency = batchLatency;
+		}
+
+		synchronized BatchWorkerMetrics getMetrics() {
+			return new BatchWorkerMetrics(worker.getId(), queued.size(), scheduled.get(), batchCount,
+					lastBatchSize, lastBatchLatency, batchCount != 0? totalBatchLatency / batchCount: 0);
+		}
+
 	}
 
 }
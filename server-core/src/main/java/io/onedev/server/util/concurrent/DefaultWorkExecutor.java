@@ -10,158 +10,256 @@ import javax.inject.Singleton;
 import java.util.*;
 import java.util.concurrent.*;
 
-import static java.util.Collections.sort;
-import static java.util.Comparator.comparingInt;
-
+/**
+ * Waiting groups are kept in a tree ordered by average priority of their works, so that
+ * submitting, cancelling and dispatching a group costs O(log n) instead of re-sorting all
+ * waiting groups. Groups with average priority not less than {@link #BACKGROUND_PRIORITY}
+ * are considered background works, and they can only take a share of the concurrency, with
+ * remaining slots reserved for interactive works such as git pull/push.
+ * <p>
+ * Works are still run on the shared executor service instead of a bounded work-stealing
+ * pool, as works of the same group may block waiting for each other which will dead lock
+ * a bounded pool.
+ */
 @Singleton
 public class DefaultWorkExecutor implements WorkExecutor {
 
+	public static final int BACKGROUND_PRIORITY = 50;
+
+	private static final String INTERACTIVE = "interactive";
+
+	private static final String BACKGROUND = "background";
+
 	private final SettingManager settingManager;
-	
+
 	private final ExecutorService executorService;
-	
-	private final Map<String, Collection<PrioritizedCallable<?>>> runnings = new HashMap<>();
-	
-	private final Map<String, Collection<WorkFuture<?>>> waitings = new HashMap<>();
-	
+
+	private final Map<String, WorkGroup> groups = new HashMap<>();
+
+	private final TreeSet<WorkGroup> waitingGroups = new TreeSet<>(
+			Comparator.comparingInt(WorkGroup::getAveragePriority).thenComparingLong(it -> it.sequence));
+
+	private final Map<String, WaitHistogram> waitHistograms = new LinkedHashMap<>();
+
+	private long sequence;
+
+	private int runningGroupCount;
+
+	private int runningBackgroundGroupCount;
+
 	@Inject
 	public DefaultWorkExecutor(ExecutorService executorService, SettingManager settingManager) {
 		this.executorService = executorService;
 		this.settingManager = settingManager;
+		waitHistograms.put(INTERACTIVE, new WaitHistogram());
+		waitHistograms.put(BACKGROUND, new WaitHistogram());
 	}
-	
+
 	@Listen
 	public void on(SystemSetting event) {
-			
+
 	}
-	
+
 	private int getConcurrency() {
 		return settingManager.getPerformanceSetting().getCpuIntensiveTaskConcurrency();
 	}
 
+	private int getBackgroundQuota(int concurrency) {
+		if (concurrency > 1)
+			return concurrency - Math.max(1, concurrency/4);
+		else
+			return concurrency;
+	}
+
 	private synchronized void check() {
-		if (getConcurrency() > runnings.size()) {
-			Map<String, Integer> averagePriorities = new HashMap<>();
-			for (Map.Entry<String, Collection<WorkFuture<?>>> entry: waitings.entrySet()) {
-				int totalPriorities = 0;
-				for (WorkFuture<?> future: entry.getValue()) 
-					totalPriorities += future.callable.getPriority();
-				averagePriorities.put(entry.getKey(), totalPriorities/entry.getValue().size());
-			}
-			List<String> groupIds = new ArrayList<>(waitings.keySet());
-			sort(groupIds, comparingInt(averagePriorities::get));
-			for (String groupId: groupIds) {
-				Collection<PrioritizedCallable<?>> runningsOfGroup = new ArrayList<>();
-				for (WorkFuture<?> future: waitings.remove(groupId)) {
-					future.runningFuture = call(future.groupId, future.callable);
-					notifyAll();
-					runningsOfGroup.add(future.callable);
-				}
-				runnings.put(groupId, runningsOfGroup);
-				if (runnings.size() == getConcurrency())
-					break;
-			}
+		int concurrency = getConcurrency();
+		int backgroundQuota = getBackgroundQuota(concurrency);
+		while (runningGroupCount < concurrency && !waitingGroups.isEmpty()) {
+			WorkGroup group = waitingGroups.first();
+			boolean background = group.getAveragePriority() >= BACKGROUND_PRIORITY;
+			/*
+			 * Groups are ordered by priority, hence all remaining waiting groups are
+			 * background groups if this one is
+			 */
+			if (background && runningBackgroundGroupCount >= backgroundQuota)
+				break;
+			waitingGroups.pollFirst();
+			group.running = true;
+			group.background = background;
+			runningGroupCount++;
+			if (background)
+				runningBackgroundGroupCount++;
+			for (WorkFuture<?> future: group.waitings)
+				run(group, future);
+			group.waitings.clear();
+			group.totalPriority = 0;
 		}
 	}
-	
-	private synchronized <T> Future<T> call(String groupId, PrioritizedCallable<T> callable) {
-		return executorService.submit(() -> {
+
+	private synchronized <T> void run(WorkGroup group, WorkFuture<T> future) {
+		group.runningCount++;
+		waitHistograms.get(group.background? BACKGROUND: INTERACTIVE)
+				.record(System.currentTimeMillis() - future.submitTime);
+		future.setRunningFuture(executorService.submit(() -> {
 			try {
-				return callable.call();
+				return future.callable.call();
 			} finally {
-				synchronized (DefaultWorkExecutor.this) {
-					Collection<PrioritizedCallable<?>> runningsOfGroup = runnings.get(groupId);
-					runningsOfGroup.remove(callable);
-					if (runningsOfGroup.isEmpty()) {
-						runnings.remove(groupId);
-						check();
-					}
-				}
+				completed(group);
 			}
-		});
+		}));
+	}
+
+	private synchronized void completed(WorkGroup group) {
+		if (--group.runningCount == 0) {
+			groups.remove(group.id);
+			runningGroupCount--;
+			if (group.background)
+				runningBackgroundGroupCount--;
+			check();
+		}
 	}
-	
+
 	@Override
 	public synchronized <T> Future<T> submit(String groupId, PrioritizedCallable<T> callable) {
 		callable = SecurityUtils.inheritSubject(callable);
-		Collection<PrioritizedCallable<?>> runningsOfGroup = runnings.get(groupId);
-		if (runningsOfGroup != null) {
-			runningsOfGroup.add(callable);
-			return call(groupId, callable);
+		WorkFuture<T> future = new WorkFuture<>(groupId, callable);
+		WorkGroup group = groups.get(groupId);
+		if (group != null && group.running) {
+			run(group, future);
 		} else {
-			WorkFuture<T> future = new WorkFuture<T>(groupId, callable);
-			Collection<WorkFuture<?>> waitingsOfGroup = waitings.get(groupId);
-			if (waitingsOfGroup == null) {
-				waitingsOfGroup = new ArrayList<>();
-				waitings.put(groupId, waitingsOfGroup);
+			if (group == null) {
+				group = new WorkGroup(groupId, sequence++);
+				groups.put(groupId, group);
+			} else {
+				waitingGroups.remove(group);
 			}
-			waitingsOfGroup.add(future);
+			group.waitings.add(future);
+			group.totalPriority += callable.getPriority();
+			waitingGroups.add(group);
 			check();
-			return future;
 		}
+		return future;
+	}
+
+	private synchronized boolean cancelWaiting(WorkFuture<?> future) {
+		WorkGroup group = groups.get(future.groupId);
+		if (group != null && !group.running && group.waitings.contains(future)) {
+			waitingGroups.remove(group);
+			group.waitings.remove(future);
+			group.totalPriority -= future.callable.getPriority();
+			if (group.waitings.isEmpty())
+				groups.remove(group.id);
+			else
+				waitingGroups.add(group);
+			return true;
+		} else {
+			return false;
+		}
+	}
+
+	@Override
+	public Map<String, WaitHistogram> getQueueWaitHistograms() {
+		return Collections.unmodifiableMap(waitHistograms);
+	}
+
+	private static class WorkGroup {
+
+		final String id;
+
+		final long sequence;
+
+		final Collection<WorkFuture<?>> waitings = new ArrayList<>();
+
+		int totalPriority;
+
+		int runningCount;
+
+		boolean running;
+
+		boolean background;
+
+		WorkGroup(String id, long sequence) {
+			this.id = id;
+			this.sequence = sequence;
+		}
+
+		int getAveragePriority() {
+			return waitings.isEmpty()? 0: totalPriority / waitings.size();
+		}
+
 	}
 
 	private class WorkFuture<T> implements Future<T> {
 
 		private final String groupId;
-		
+
 		private final PrioritizedCallable<T> callable;
-		
-		private Future<?> runningFuture;
-		
+
+		private final long submitTime = System.currentTimeMillis();
+
+		private Future<T> runningFuture;
+
+		private boolean cancelled;
+
 		public WorkFuture(String groupId, PrioritizedCallable<T> callable) {
 			this.groupId = groupId;
 			this.callable = callable;
 		}
-		
+
+		synchronized void setRunningFuture(Future<T> runningFuture) {
+			this.runningFuture = runningFuture;
+			notifyAll();
+		}
+
+		private synchronized Future<T> getRunningFuture() {
+			return runningFuture;
+		}
+
 		@Override
 		public boolean cancel(boolean mayInterruptIfRunning) {
-			synchronized (DefaultWorkExecutor.this) {
-				if (runningFuture != null) {
-					return runningFuture.cancel(mayInterruptIfRunning);
-				} else {
-					Collection<WorkFuture<?>> waitingsOfGroup = waitings.get(groupId);
-					if (waitingsOfGroup != null)
-						return waitingsOfGroup.remove(this);
-					else 
-						return false;
+			Future<T> runningFuture = getRunningFuture();
+			if (runningFuture != null) {
+				return runningFuture.cancel(mayInterruptIfRunning);
+			} else if (cancelWaiting(this)) {
+				synchronized (this) {
+					cancelled = true;
+					notifyAll();
 				}
+				return true;
+			} else {
+				runningFuture = getRunningFuture();
+				return runningFuture != null && runningFuture.cancel(mayInterruptIfRunning);
 			}
 		}
 
 		@Override
-		public boolean isCancelled() {
-			synchronized (DefaultWorkExecutor.this) {
-				if (runningFuture != null) {
-					return runningFuture.isCancelled();
-				} else {
-					Collection<WorkFuture<?>> waitingsOfGroup = waitings.get(groupId);
-					if (waitingsOfGroup != null)
-						return !waitingsOfGroup.contains(this);
-					else 
-						return true;
-				}
-			}
+		public synchronized boolean isCancelled() {
+			if (runningFuture != null)
+				return runningFuture.isCancelled();
+			else
+				return cancelled;
 		}
 
 		@Override
-		public boolean isDone() {
-			synchronized (DefaultWorkExecutor.this) {
-				if (runningFuture != null) 
-					return runningFuture.isDone();
-				else
-					return false;
-			}
+		public synchronized boolean isDone() {
+			if (runningFuture != null)
+				return runningFuture.isDone();
+			else
+				return cancelled;
 		}
 
-		@SuppressWarnings("unchecked")
 		@Override
 		public T get() throws InterruptedException, ExecutionException {
-			synchronized (DefaultWorkExecutor.this) {
-				while (runningFuture == null) 
-					DefaultWorkExecutor.this.wait();
+			Future<T> runningFuture;
+			synchronized (this) {
+				while (this.runningFuture == null) {
+					if (cancelled)
+						throw new CancellationException();
+					wait();
+				}
+				runningFuture = this.runningFuture;
 			}
-			return (T) runningFuture.get();
+			return runningFuture.get();
 		}
 
 		private long getRemainingTime(long timeoutTime) throws TimeoutException {
@@ -171,18 +269,22 @@ public class DefaultWorkExecutor implements WorkExecutor {
 			else
 				throw new TimeoutException();
 		}
-		
-		@SuppressWarnings("unchecked")
+
 		@Override
 		public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
 			long timeoutTime = System.currentTimeMillis() + unit.toMillis(timeout);
-			synchronized (DefaultWorkExecutor.this) {
-				while (runningFuture == null) 
-					DefaultWorkExecutor.this.wait(getRemainingTime(timeoutTime));
-			}			
-			return (T) runningFuture.get(getRemainingTime(timeoutTime), TimeUnit.MILLISECONDS);
+			Future<T> runningFuture;
+			synchronized (this) {
+				while (this.runningFuture == null) {
+					if (cancelled)
+						throw new CancellationException();
+					wait(getRemainingTime(timeoutTime));
+				}
+				runningFuture = this.runningFuture;
+			}
+			return runningFuture.get(getRemainingTime(timeoutTime), TimeUnit.MILLISECONDS);
 		}
-		
+
 	}
 
 	@Override
@@ -199,7 +301,7 @@ public class DefaultWorkExecutor implements WorkExecutor {
 				runnable.run();
 				return null;
 			}
-			
+
 		});
 	}
 
@@ -207,5 +309,5 @@ public class DefaultWorkExecutor implements WorkExecutor {
 	public Future<?> submit(PrioritizedRunnable runnable) {
 		return submit(UUID.randomUUID().toString(), runnable);
 	}
-	
+
 }
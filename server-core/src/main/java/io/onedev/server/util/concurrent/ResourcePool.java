@@ -0,0 +1,296 @@
+package io.onedev.server.util.concurrent;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+
+import io.onedev.commons.utils.ExceptionUtils;
+
+/**
+ * Bounded pool of opened resources. Resources not accessed for a while are closed, and least
+ * recently used resources are closed when number of open resources exceeds the limit. A
+ * resource is never closed while it is leased via {@link #lease(Object)}, while it is reported 
+ * busy via {@link #isBusy(Object)}, or within minimum idle time since last access via 
+ * {@link #get(Object)}, so that operations started after getting the resource can finish. 
+ * Operations spanning a long time should lease the resource.
+ * <p>
+ * If callers may hold resources obtained via {@link #get(Object)} for arbitrary long time,
+ * construct the pool with <tt>closeUnleased</tt> set to <tt>false</tt>. Such resources are
+ * then only removed from the pool on eviction, and are left to garbage collection instead
+ * of being closed.
+ * <p>
+ * Resources are opened and closed without holding any lock of the pool, so that opening a
+ * resource does not block access to other resources, and {@link #open(Object)} and 
+ * {@link #close(Object)} may acquire locks of their own without risking lock order inversion 
+ * with callers of the pool. Concurrent accesses of a resource being opened wait for the 
+ * opening to finish.
+ */
+public abstract class ResourcePool<K, R> {
+
+	private static final long SWEEP_INTERVAL = 60 * 1000L;
+
+	private static final long MIN_SWEEP_INTERVAL = 1000L;
+
+	private final int maxOpen;
+
+	private final long minIdleTime;
+
+	private final long maxIdleTime;
+
+	private final boolean closeUnleased;
+
+	private final Map<K, PooledResource<R>> resources = new ConcurrentHashMap<>();
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	private volatile long lastSweepTime = System.currentTimeMillis();
+
+	public ResourcePool(int maxOpen, long minIdleTime, long maxIdleTime, boolean closeUnleased) {
+		this.maxOpen = maxOpen;
+		this.minIdleTime = minIdleTime;
+		this.maxIdleTime = maxIdleTime;
+		this.closeUnleased = closeUnleased;
+	}
+
+	protected abstract R open(K key);
+
+	protected abstract void close(R resource);
+
+	/**
+	 * Whether specified resource is still being used, for instance by operations started 
+	 * after getting it via {@link #get(Object)}. Busy resources are not evicted even if 
+	 * idle for long
+	 */
+	protected boolean isBusy(R resource) {
+		return false;
+	}
+
+	public R get(K key) {
+		return getPooledResource(key, false).resource;
+	}
+
+	/**
+	 * Lease resource of specified key. The resource will not be closed until the lease is
+	 * released via {@link #release(Object, Object)}
+	 */
+	public R lease(K key) {
+		return getPooledResource(key, true).resource;
+	}
+
+	/**
+	 * Release lease of specified resource. Nothing happens if the resource is already removed 
+	 * from the pool, so that lease of a resource reopened under the same key is not affected
+	 */
+	public void release(K key, R resource) {
+		PooledResource<R> pooledResource = resources.get(key);
+		if (pooledResource != null && pooledResource.resource == resource) synchronized (pooledResource) {
+			pooledResource.leases--;
+			pooledResource.lastAccessTime = System.currentTimeMillis();
+		}
+	}
+
+	private PooledResource<R> getPooledResource(K key, boolean lease) {
+		PooledResource<R> pooledResource;
+		boolean hit = true;
+		while (true) {
+			pooledResource = resources.get(key);
+			if (pooledResource == null) {
+				PooledResource<R> newResource = new PooledResource<>();
+				pooledResource = resources.putIfAbsent(key, newResource);
+				if (pooledResource == null) {
+					pooledResource = newResource;
+					hit = false;
+					open(key, newResource);
+				}
+			}
+			pooledResource.waitForOpen();
+			synchronized (pooledResource) {
+				// Resource might be evicted after we got it from the map
+				if (!pooledResource.evicted) {
+					pooledResource.lastAccessTime = System.currentTimeMillis();
+					if (lease)
+						pooledResource.leases++;
+					else
+						pooledResource.handedOut = true;
+					break;
+				}
+			}
+		}
+		if (hit)
+			hitCount.incrementAndGet();
+		else
+			missCount.incrementAndGet();
+
+		// Just accessed resource will not be evicted as it is not idle long enough
+		long sinceLastSweep = System.currentTimeMillis() - lastSweepTime;
+		if (sinceLastSweep > SWEEP_INTERVAL
+				|| resources.size() > maxOpen && sinceLastSweep > MIN_SWEEP_INTERVAL) {
+			sweep();
+		}
+		return pooledResource;
+	}
+
+	private void open(K key, PooledResource<R> pooledResource) {
+		R resource;
+		try {
+			resource = open(key);
+		} catch (Throwable e) {
+			resources.remove(key, pooledResource);
+			synchronized (pooledResource) {
+				pooledResource.evicted = true;
+			}
+			pooledResource.opening.completeExceptionally(e);
+			throw e;
+		}
+		boolean evicted;
+		synchronized (pooledResource) {
+			pooledResource.resource = resource;
+			evicted = pooledResource.evicted;
+		}
+		pooledResource.opening.complete(null);
+		// Removed while opening, callers will open it again
+		if (evicted)
+			close(resource);
+	}
+
+	/**
+	 * Close resources idle for too long, or exceeding the limit. This is done upon access 
+	 * automatically, and can also be called periodically to close idle resources when the 
+	 * pool is not accessed
+	 */
+	public void sweep() {
+		List<R> resourcesToClose = new ArrayList<>();
+		synchronized (resources) {
+			long now = System.currentTimeMillis();
+			lastSweepTime = now;
+			List<Map.Entry<K, PooledResource<R>>> entries = new ArrayList<>(resources.entrySet());
+			entries.sort(Comparator.comparingLong(it -> it.getValue().lastAccessTime));
+			int openCount = entries.size();
+			for (Map.Entry<K, PooledResource<R>> entry: entries) {
+				PooledResource<R> pooledResource = entry.getValue();
+				synchronized (pooledResource) {
+					long idleTime = now - pooledResource.lastAccessTime;
+					if (pooledResource.resource != null && !pooledResource.evicted 
+							&& pooledResource.leases == 0 && idleTime >= minIdleTime
+							&& (openCount > maxOpen || idleTime >= maxIdleTime)
+							&& !isBusy(pooledResource.resource)) {
+						pooledResource.evicted = true;
+						resources.remove(entry.getKey(), pooledResource);
+						if (closeUnleased || !pooledResource.handedOut)
+							resourcesToClose.add(pooledResource.resource);
+						evictionCount.incrementAndGet();
+						openCount--;
+					}
+				}
+			}
+		}
+		for (R resource: resourcesToClose)
+			close(resource);
+	}
+
+	/**
+	 * Remove and close resource of specified key regardless of its leases, for instance
+	 * when the underlying storage is deleted. Resource being opened is closed once opened
+	 */
+	public void remove(K key) {
+		PooledResource<R> pooledResource = resources.remove(key);
+		if (pooledResource != null) {
+			R resource = evict(pooledResource);
+			if (resource != null)
+				close(resource);
+		}
+	}
+
+	/**
+	 * Remove and close resources with keys matching specified predicate regardless of
+	 * their leases
+	 */
+	public void removeIf(Predicate<K> predicate) {
+		List<R> resourcesToClose = new ArrayList<>();
+		for (Map.Entry<K, PooledResource<R>> entry: resources.entrySet()) {
+			if (predicate.test(entry.getKey()) && resources.remove(entry.getKey(), entry.getValue())) {
+				R resource = evict(entry.getValue());
+				if (resource != null)
+					resourcesToClose.add(resource);
+			}
+		}
+		for (R resource: resourcesToClose)
+			close(resource);
+	}
+
+	/**
+	 * @return resource to close, or <tt>null</tt> if the resource is still being opened and 
+	 * 			will be closed by the opener
+	 */
+	@Nullable
+	private R evict(PooledResource<R> pooledResource) {
+		synchronized (pooledResource) {
+			pooledResource.evicted = true;
+			return pooledResource.resource;
+		}
+	}
+
+	public void clear() {
+		removeIf(it -> true);
+	}
+
+	public int size() {
+		return resources.size();
+	}
+
+	public int count(Predicate<K> predicate) {
+		return (int) resources.keySet().stream().filter(predicate).count();
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * @return number of resources evicted due to idle or pool size limit since creation
+	 */
+	public long getEvictionCount() {
+		return evictionCount.get();
+	}
+
+	private static class PooledResource<R> {
+
+		final CompletableFuture<Void> opening = new CompletableFuture<>();
+
+		volatile R resource;
+
+		long lastAccessTime;
+
+		int leases;
+
+		boolean handedOut;
+
+		boolean evicted;
+
+		void waitForOpen() {
+			try {
+				opening.join();
+			} catch (CompletionException e) {
+				throw ExceptionUtils.unchecked(e.getCause());
+			}
+		}
+
+	}
+
+}
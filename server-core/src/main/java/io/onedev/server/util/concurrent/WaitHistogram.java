@@ -0,0 +1,59 @@
+package io.onedev.server.util.concurrent;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of wait times in milliseconds, with exponential bucket bounds
+ */
+public class WaitHistogram implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final long[] BUCKET_BOUNDS = new long[] {1, 10, 100, 1000, 10000, 60000};
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+	private final AtomicLongArray sums = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+	public void record(long millis) {
+		int bucket = 0;
+		while (bucket < BUCKET_BOUNDS.length && millis >= BUCKET_BOUNDS[bucket])
+			bucket++;
+		counts.incrementAndGet(bucket);
+		sums.addAndGet(bucket, millis);
+	}
+
+	/**
+	 * @return upper bounds (exclusive) of buckets in milliseconds. Count array returned
+	 * by {@link #getCounts()} has one more element for values exceeding last bound
+	 */
+	public long[] getBucketBounds() {
+		return BUCKET_BOUNDS.clone();
+	}
+
+	public long[] getCounts() {
+		long[] snapshot = new long[counts.length()];
+		for (int i=0; i<snapshot.length; i++)
+			snapshot[i] = counts.get(i);
+		return snapshot;
+	}
+
+	public long getTotalCount() {
+		long total = 0;
+		for (int i=0; i<counts.length(); i++)
+			total += counts.get(i);
+		return total;
+	}
+
+	public long getAverage() {
+		long count = 0;
+		long sum = 0;
+		for (int i=0; i<counts.length(); i++) {
+			count += counts.get(i);
+			sum += sums.get(i);
+		}
+		return count != 0? sum/count: 0;
+	}
+
+}
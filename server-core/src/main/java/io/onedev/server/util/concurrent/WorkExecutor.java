@@ -1,5 +1,6 @@
 package io.onedev.server.util.concurrent;
 
+import java.util.Map;
 import java.util.concurrent.Future;
 
 /**
@@ -17,4 +18,10 @@ public interface WorkExecutor {
 	Future<?> submit(String groupId, PrioritizedRunnable runnable); 
 	
 	Future<?> submit(PrioritizedRunnable runnable); 
+	
+	/**
+	 * Get histograms of time spent by works waiting for execution, keyed by priority class
+	 */
+	Map<String, WaitHistogram> getQueueWaitHistograms();
+	
 }
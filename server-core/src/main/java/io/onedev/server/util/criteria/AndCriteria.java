@@ -89,6 +89,21 @@ public class AndCriteria<T> extends Criteria<T> {
 	public boolean isUsingLink(String linkName) {
 		return criterias.stream().anyMatch(it->it.isUsingLink(linkName));
 	}
+	
+	@Override
+	public Collection<String> getRequiredValues(String propertyName) {
+		Collection<String> requiredValues = null;
+		for (Criteria<T> criteria: criterias) {
+			Collection<String> criteriaRequiredValues = criteria.getRequiredValues(propertyName);
+			if (criteriaRequiredValues != null) {
+				if (requiredValues == null) 
+					requiredValues = new HashSet<>(criteriaRequiredValues);
+				else 
+					requiredValues.retainAll(criteriaRequiredValues);
+			}
+		}
+		return requiredValues;
+	}
 
 	@Override
 	public Collection<String> getUndefinedStates() {
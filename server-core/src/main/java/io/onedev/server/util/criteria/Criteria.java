@@ -19,6 +19,8 @@ import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 
+import com.google.common.collect.Lists;
+
 import edu.emory.mathcs.backport.java.util.Collections;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.util.RangeBuilder;
@@ -59,6 +61,17 @@ public abstract class Criteria<T> implements Serializable {
 		return builder.or(predicates.toArray(new Predicate[0]));
 	}
 	
+	/**
+	 * Build predicate matching specified values, for use when all possible values are unknown 
+	 * and can not be compressed into ranges
+	 */
+	public static Predicate forManyValues(CriteriaBuilder builder, Path<Long> path, Collection<Long> matchValues) {
+		List<Predicate> predicates = new ArrayList<>();
+		for (List<Long> partition: Lists.partition(new ArrayList<>(matchValues), IN_CLAUSE_LIMIT))
+			predicates.add(path.in(partition));
+		return builder.or(predicates.toArray(new Predicate[0]));
+	}
+	
 	public static Query forManyValues(String fieldName, Collection<Long> matchValues, Collection<Long> allValues) {
 		BooleanQuery.Builder queryBuilder = new BooleanQuery.Builder();
 		forManyValues(matchValues, allValues, new NumberCriteriaBuilder() {
@@ -154,6 +167,19 @@ public abstract class Criteria<T> implements Serializable {
 		return false;
 	}
 	
+	/**
+	 * Get values of specified property an entity should have in order to match this criteria. 
+	 * This is used to index queries so that only queries possibly matching an entity need to 
+	 * be evaluated
+	 * 
+	 * @return values of the property, one of which should be held by matched entities. 
+	 * <tt>null</tt> if this criteria does not restrict the property
+	 */
+	@Nullable
+	public Collection<String> getRequiredValues(String propertyName) {
+		return null;
+	}
+	
 	public Collection<String> getUndefinedStates() {
 		return new HashSet<>();
 	}
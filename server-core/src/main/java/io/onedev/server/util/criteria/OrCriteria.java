@@ -90,6 +90,19 @@ public class OrCriteria<T> extends Criteria<T> {
 		return criterias.stream().anyMatch(it->it.isUsingLink(linkName));
 	}
 	
+	@Override
+	public Collection<String> getRequiredValues(String propertyName) {
+		Collection<String> requiredValues = new HashSet<>();
+		for (Criteria<T> criteria: criterias) {
+			Collection<String> criteriaRequiredValues = criteria.getRequiredValues(propertyName);
+			if (criteriaRequiredValues != null)
+				requiredValues.addAll(criteriaRequiredValues);
+			else
+				return null;
+		}
+		return requiredValues;
+	}
+	
 	@Override
 	public Collection<String> getUndefinedStates() {
 		List<String> undefinedStates = new ArrayList<>();
@@ -12,31 +12,149 @@ import io.onedev.server.util.patternset.PatternSet;
 import javax.annotation.Nullable;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static io.onedev.server.util.match.WildcardUtils.matchPath;
 import static java.util.Comparator.comparing;
 import static java.util.stream.Collectors.toSet;
 
+/**
+ * Reads are served from a local index of the delegate map, with lower-cased path to id index 
+ * and parent to children index. The index is loaded lazily from the delegate map, and is then
+ * updated incrementally for each entry written via this cache, or refreshed via 
+ * {@link #refresh(Long)} when an entry of the delegate map is changed elsewhere (for instance 
+ * by other cluster servers)
+ */
 public class ProjectCache extends MapProxy<Long, ProjectFacade> implements Serializable {
 
+	private static final long serialVersionUID = 1L;
+
+	private transient volatile Index index;
+
 	public ProjectCache(Map<Long, ProjectFacade> delegate) {
 		super(delegate);
 	}
 
-	private static final long serialVersionUID = 1L;
-	
+	private ProjectCache(Map<Long, ProjectFacade> delegate, Index index) {
+		super(delegate);
+		this.index = index;
+	}
+
+	/**
+	 * Drop local index so that it will be reloaded from the delegate map on next read
+	 */
+	public synchronized void invalidate() {
+		index = null;
+	}
+
+	/**
+	 * Update local index with current value of specified entry in the delegate map
+	 */
+	public synchronized void refresh(Long id) {
+		if (index != null)
+			index.update(id, delegate.get(id));
+	}
+
+	private synchronized void update(Long id, @Nullable ProjectFacade project) {
+		if (index != null)
+			index.update(id, project);
+	}
+
+	private Index getIndex() {
+		Index index = this.index;
+		if (index == null) {
+			synchronized (this) {
+				index = this.index;
+				if (index == null) {
+					index = new Index();
+					for (ProjectFacade project: new HashMap<>(delegate).values())
+						index.update(project.getId(), project);
+					this.index = index;
+				}
+			}
+		}
+		return index;
+	}
+
+	@Override
+	public int size() {
+		return getIndex().projects.size();
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return getIndex().projects.isEmpty();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return getIndex().projects.containsKey(key);
+	}
+
+	@Override
+	public ProjectFacade get(Object key) {
+		return getIndex().projects.get(key);
+	}
+
+	@Override
+	public Set<Long> keySet() {
+		return Collections.unmodifiableSet(getIndex().projects.keySet());
+	}
+
+	@Override
+	public Collection<ProjectFacade> values() {
+		return Collections.unmodifiableCollection(getIndex().projects.values());
+	}
+
+	@Override
+	public Set<Entry<Long, ProjectFacade>> entrySet() {
+		return Collections.unmodifiableMap(getIndex().projects).entrySet();
+	}
+
+	@Override
+	public ProjectFacade put(Long key, ProjectFacade value) {
+		ProjectFacade prevValue = super.put(key, value);
+		update(key, value);
+		return prevValue;
+	}
+
+	@Override
+	public ProjectFacade remove(Object key) {
+		ProjectFacade prevValue = super.remove(key);
+		if (key instanceof Long)
+			update((Long) key, null);
+		return prevValue;
+	}
+
+	@Override
+	public void putAll(Map<? extends Long, ? extends ProjectFacade> m) {
+		super.putAll(m);
+		for (Map.Entry<? extends Long, ? extends ProjectFacade> entry: m.entrySet())
+			update(entry.getKey(), entry.getValue());
+	}
+
+	@Override
+	public void clear() {
+		try {
+			super.clear();
+		} finally {
+			invalidate();
+		}
+	}
+
 	public boolean isSelfOrAncestorOf(Long parentId, Long childId) {
-		if (parentId.equals(childId)) { 
-			return true;
-		} else {
-			ProjectFacade childProject = get(childId);
-			if (childProject.getParentId() != null)
-				return isSelfOrAncestorOf(parentId, childProject.getParentId());
-			else
-				return false;
+		Map<Long, ProjectFacade> projects = getIndex().projects;
+		Set<Long> visited = new HashSet<>();
+		Long id = childId;
+		while (id != null && visited.add(id)) {
+			if (id.equals(parentId))
+				return true;
+			ProjectFacade project = projects.get(id);
+			id = project != null? project.getParentId(): null;
 		}
+		return false;
 	}
-	
+
 	public Collection<Long> getMatchingIds(String pathPattern) {
 		Collection<Long> ids = new HashSet<>();
 		for (ProjectFacade project: values()) {
@@ -54,52 +172,42 @@ public class ProjectCache extends MapProxy<Long, ProjectFacade> implements Seria
 		}
 		return ids;
 	}
-	
-	public Collection<Long> getSubtreeIds(Long id) {
-		return getSubtreeIds(values(), id);
-	}
 
-	private Collection<Long> getSubtreeIds(Collection<ProjectFacade> projects, Long id) {
-		Collection<Long> treeIds = Sets.newHashSet(id);
-		for (ProjectFacade facade: projects) {
-			if (id.equals(facade.getParentId()))
-				treeIds.addAll(getSubtreeIds(projects, facade.getId()));
+	public Collection<Long> getSubtreeIds(Long id) {
+		Index index = getIndex();
+		Collection<Long> ids = Sets.newHashSet(id);
+		Deque<Long> stack = new ArrayDeque<>();
+		stack.push(id);
+		// Use stack instead of recursion to avoid StackOverflowException for deep trees
+		while (!stack.isEmpty()) {
+			for (ProjectFacade child: index.children.getOrDefault(stack.pop(), Collections.emptyList())) {
+				if (ids.add(child.getId()))
+					stack.push(child.getId());
+			}
 		}
-		return treeIds;
+		return ids;
 	}
-	
+
     @Nullable
     public Long findId(String path) {
-    	ProjectFacade project = find(path);
-    	return project != null? project.getId(): null;
+    	return getIndex().idsByPath.get(path.toLowerCase());
     }
-    
+
     @Nullable
     public ProjectFacade find(String path) {
-    	for (ProjectFacade project: values()) {
-    		if (project.getPath().equalsIgnoreCase(path))
-    			return project;
-    	}
-    	return null;
+		Index index = getIndex();
+		Long id = index.idsByPath.get(path.toLowerCase());
+		return id != null? index.projects.get(id): null;
     }
-    
+
 	public List<ProjectFacade> getChildren(Long id) {
-		return getChildren(values(), id);
+		return new ArrayList<>(getIndex().children.getOrDefault(id, new ArrayList<>()));
 	}
 
-	private List<ProjectFacade> getChildren(Collection<ProjectFacade> projects, Long id) {
-		List<ProjectFacade> children = new ArrayList<>();
-		for (ProjectFacade facade: projects) {
-			if (id.equals(facade.getParentId()))
-				children.add(facade);
-		}
-		Collections.sort(children, comparing(ProjectFacade::getName));
-		return children;
-	}
-	
 	@Override
 	public ProjectCache clone() {
-		return new ProjectCache(new HashMap<>(delegate));
+		Index index = getIndex();
+		return new ProjectCache(new HashMap<>(index.projects), new Index(index));
 	}
 
 	public double getSimilarScore(Project project, @Nullable String term) {
@@ -111,9 +219,60 @@ public class ProjectCache extends MapProxy<Long, ProjectFacade> implements Seria
 		ProjectManager projectManager = OneDev.getInstance(ProjectManager.class);
 		return keySet().stream().map(projectManager::load).collect(toSet());
 	}
-	
+
 	public Comparator<Project> comparingPath() {
-		return (o1, o2) -> get(o1.getId()).getPath().compareTo(get(o2.getId()).getPath());		
+		return (o1, o2) -> get(o1.getId()).getPath().compareTo(get(o2.getId()).getPath());
+	}
+
+	private static class Index {
+
+		final Map<Long, ProjectFacade> projects;
+
+		final Map<String, Long> idsByPath;
+
+		// Children lists are sorted by name and replaced instead of being modified
+		final Map<Long, List<ProjectFacade>> children;
+
+		Index() {
+			projects = new ConcurrentHashMap<>();
+			idsByPath = new ConcurrentHashMap<>();
+			children = new ConcurrentHashMap<>();
+		}
+
+		Index(Index index) {
+			projects = new ConcurrentHashMap<>(index.projects);
+			idsByPath = new ConcurrentHashMap<>(index.idsByPath);
+			children = new ConcurrentHashMap<>(index.children);
+		}
+
+		void update(Long id, @Nullable ProjectFacade project) {
+			ProjectFacade prevProject = project != null? projects.put(id, project): projects.remove(id);
+			if (prevProject != null) {
+				idsByPath.remove(prevProject.getPath().toLowerCase(), id);
+				if (prevProject.getParentId() != null) {
+					List<ProjectFacade> siblings = children.get(prevProject.getParentId());
+					if (siblings != null) {
+						siblings = new ArrayList<>(siblings);
+						siblings.removeIf(it -> it.getId().equals(id));
+						if (siblings.isEmpty())
+							children.remove(prevProject.getParentId());
+						else
+							children.put(prevProject.getParentId(), siblings);
+					}
+				}
+			}
+			if (project != null) {
+				idsByPath.put(project.getPath().toLowerCase(), id);
+				if (project.getParentId() != null) {
+					List<ProjectFacade> siblings = new ArrayList<>(
+							children.getOrDefault(project.getParentId(), Collections.emptyList()));
+					siblings.add(project);
+					siblings.sort(comparing(ProjectFacade::getName));
+					children.put(project.getParentId(), siblings);
+				}
+			}
+		}
+
 	}
 
 }
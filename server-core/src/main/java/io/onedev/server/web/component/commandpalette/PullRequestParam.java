@@ -41,7 +41,7 @@ public class PullRequestParam extends ParamSegment {
 			if (NumberUtils.isDigits(normalizedMatchWith)) 
 				criteria = new SimpleNumberCriteria(Long.parseLong(normalizedMatchWith));
 			else 
-				criteria = new FuzzyCriteria(matchWith);
+				criteria = new FuzzyCriteria(matchWith, project);
 			requests = pullRequestManager.query(project, new PullRequestQuery(criteria), false, 0, count);
 		}
 		for (PullRequest request: requests) {
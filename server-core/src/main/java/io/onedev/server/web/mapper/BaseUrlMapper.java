@@ -56,6 +56,7 @@ import io.onedev.server.web.page.admin.usermanagement.password.UserPasswordPage;
 import io.onedev.server.web.page.admin.usermanagement.profile.UserProfilePage;
 import io.onedev.server.web.page.admin.usermanagement.sshkeys.UserSshKeysPage;
 import io.onedev.server.web.page.builds.BuildListPage;
+import io.onedev.server.web.page.codesearch.CodeSearchPage;
 import io.onedev.server.web.page.help.IncompatibilitiesPage;
 import io.onedev.server.web.page.help.MethodDetailPage;
 import io.onedev.server.web.page.help.ResourceDetailPage;
@@ -151,6 +152,7 @@ public class BaseUrlMapper extends CompoundRequestMapper {
 		add(new BasePageMapper("~pulls", PullRequestListPage.class));
 		add(new BasePageMapper("~builds", BuildListPage.class));
 		add(new BasePageMapper("~packages", PackListPage.class));
+		add(new BasePageMapper("~code-search", CodeSearchPage.class));
 		addAdministrationPages();
 		addMyPages();
 		addSecurityPages();
@@ -3,7 +3,11 @@ package io.onedev.server.web.page.admin.serverinformation;
 import io.onedev.server.OneDev;
 import io.onedev.server.cluster.ClusterManager;
 import io.onedev.server.util.DateUtils;
+import io.onedev.server.util.concurrent.BatchWorkManager;
+import io.onedev.server.util.concurrent.BatchWorkerMetrics;
+import io.onedev.server.util.concurrent.WorkExecutor;
 import io.onedev.server.web.page.admin.ServerDetailPage;
+import io.onedev.server.xodus.AbstractMultiEnvironmentManager;
 import org.apache.wicket.markup.ComponentTag;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.link.Link;
@@ -18,6 +22,8 @@ import javax.annotation.Nullable;
 import java.io.Serializable;
 import java.util.*;
 
+import static java.util.Comparator.comparingInt;
+
 @SuppressWarnings("serial")
 public class ServerInformationPage extends ServerDetailPage {
 	
@@ -102,6 +108,23 @@ public class ServerInformationPage extends ServerDetailPage {
 		serverInformation.properties.put("JVM", System.getProperty("java.vm.name") + " " + System.getProperty("java.version") + ", " + System.getProperty("java.vm.vendor"));
 		serverInformation.properties.put("Total Heap Memory", String.valueOf(Runtime.getRuntime().maxMemory() / 1024 / 1024) + " MB");
 		serverInformation.properties.put("Used Heap Memory", String.valueOf((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory()) / 1024 / 1024) + " MB");
+		serverInformation.properties.put("Open Xodus Environments", AbstractMultiEnvironmentManager.getTotalOpenEnvCount() 
+				+ " (" + AbstractMultiEnvironmentManager.getEvictionCount() + " closed due to idle or limit since startup)");
+		var batchWorkerMetrics = OneDev.getInstance(BatchWorkManager.class).getMetrics();
+		serverInformation.properties.put("Batch Workers", String.format("%d workers, %d working, %d works queued", 
+				batchWorkerMetrics.size(), 
+				batchWorkerMetrics.stream().filter(BatchWorkerMetrics::isWorking).count(), 
+				batchWorkerMetrics.stream().mapToLong(BatchWorkerMetrics::getQueueDepth).sum()));
+		batchWorkerMetrics.stream().max(comparingInt(BatchWorkerMetrics::getQueueDepth))
+				.filter(it -> it.getQueueDepth() != 0)
+				.ifPresent(it -> serverInformation.properties.put("Most Queued Batch Worker", String.format(
+						"%s (%d works queued, average batch latency %d ms)", 
+						it.getWorkerId(), it.getQueueDepth(), it.getAverageBatchLatency())));
+		for (var entry: OneDev.getInstance(WorkExecutor.class).getQueueWaitHistograms().entrySet()) {
+			var histogram = entry.getValue();
+			serverInformation.properties.put("Work Queue Wait (" + entry.getKey() + ")", String.format(
+					"average %d ms over %d works", histogram.getAverage(), histogram.getTotalCount()));
+		}
 		serverInformation.memoryUsage = (int)((Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory())*1.0
 				/ Runtime.getRuntime().maxMemory() * 100) + "%";
 		return serverInformation;
@@ -0,0 +1,271 @@
+package io.onedev.server.web.page.codesearch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.annotation.Nullable;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.form.Form;
+import org.apache.wicket.markup.html.link.BookmarkablePageLink;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.LoadableDetachableModel;
+import org.apache.wicket.model.Model;
+import org.apache.wicket.request.mapper.parameter.PageParameters;
+import org.eclipse.jgit.lib.FileMode;
+
+import io.onedev.server.OneDev;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.entitymanager.SettingManager;
+import io.onedev.server.git.BlobIdent;
+import io.onedev.server.model.Project;
+import io.onedev.server.search.code.CodeSearchManager;
+import io.onedev.server.search.code.hit.ProjectQueryHit;
+import io.onedev.server.search.code.hit.ProjectQueryResult;
+import io.onedev.server.search.code.hit.QueryHit;
+import io.onedev.server.search.code.query.BlobQuery;
+import io.onedev.server.search.code.query.TextQuery;
+import io.onedev.server.search.code.query.TextQueryOption;
+import io.onedev.server.search.code.query.TooGeneralQueryException;
+import io.onedev.server.security.permission.ReadCode;
+import io.onedev.server.web.component.codequeryoption.TextQueryOptionEditor;
+import io.onedev.server.web.page.layout.LayoutPage;
+import io.onedev.server.web.page.project.blob.ProjectBlobPage;
+import io.onedev.server.web.page.project.blob.render.BlobRenderer;
+import io.onedev.server.web.page.project.dashboard.ProjectDashboardPage;
+
+@SuppressWarnings("serial")
+public class CodeSearchPage extends LayoutPage {
+
+	private static final String PARAM_TERM = "term";
+
+	private static final String PARAM_REGEX = "regex";
+
+	private static final String PARAM_WHOLE_WORD = "whole-word";
+
+	private static final String PARAM_CASE_SENSITIVE = "case-sensitive";
+
+	private static final String PARAM_FILE_NAMES = "file-names";
+
+	private static final String PARAM_PAGE = "page";
+
+	private static final int PAGE_SIZE = 50;
+
+	private static final int MAX_PAGES = 20;
+
+	private final TextQueryOption option;
+
+	private final int page;
+
+	private final IModel<ProjectQueryResult> resultModel = new LoadableDetachableModel<>() {
+
+		@Override
+		protected ProjectQueryResult load() {
+			if (option.getTerm() != null) {
+				List<Long> projectIds = new ArrayList<>();
+				for (Project project: getProjectManager().getPermittedProjects(new ReadCode()))
+					projectIds.add(project.getId());
+
+				// Query one more hit to know if there is next page
+				BlobQuery query = new TextQuery.Builder(option)
+						.count((page + 1) * PAGE_SIZE + 1)
+						.build();
+				try {
+					if (option.isRegex())
+						Pattern.compile(option.getTerm());
+					return OneDev.getInstance(CodeSearchManager.class).search(projectIds, query);
+				} catch (TooGeneralQueryException | PatternSyntaxException e) {
+					// Invalid query from url, as query submitted from the form is validated 
+					return new ProjectQueryResult(new ArrayList<>(), new ArrayList<>());
+				}
+			} else {
+				return new ProjectQueryResult(new ArrayList<>(), new ArrayList<>());
+			}
+		}
+
+	};
+
+	private List<ProjectQueryHit> getHits() {
+		return resultModel.getObject().getHits();
+	}
+
+	public CodeSearchPage(PageParameters params) {
+		super(params);
+
+		option = new TextQueryOption(
+				params.get(PARAM_TERM).toOptionalString(),
+				params.get(PARAM_REGEX).toBoolean(false),
+				params.get(PARAM_WHOLE_WORD).toBoolean(false),
+				params.get(PARAM_CASE_SENSITIVE).toBoolean(false),
+				params.get(PARAM_FILE_NAMES).toOptionalString());
+		page = Math.min(Math.max(params.get(PARAM_PAGE).toInt(1), 1), MAX_PAGES) - 1;
+	}
+
+	private ProjectManager getProjectManager() {
+		return OneDev.getInstance(ProjectManager.class);
+	}
+
+	@Override
+	protected void onInitialize() {
+		super.onInitialize();
+
+		TextQueryOptionEditor optionEditor = new TextQueryOptionEditor("option", Model.of(option));
+		Form<?> form = new Form<Void>("form") {
+
+			@Override
+			protected void onSubmit() {
+				super.onSubmit();
+				setResponsePage(CodeSearchPage.class, paramsOf(optionEditor.getConvertedInput(), 0));
+			}
+
+		};
+		form.add(optionEditor);
+		add(form);
+
+		WebMarkupContainer result = new WebMarkupContainer("result") {
+
+			@Override
+			protected void onConfigure() {
+				super.onConfigure();
+				setVisible(option.getTerm() != null);
+			}
+
+		};
+		add(result);
+
+		result.add(new ListView<>("hits", new LoadableDetachableModel<List<ProjectQueryHit>>() {
+
+			@Override
+			protected List<ProjectQueryHit> load() {
+				List<ProjectQueryHit> hits = getHits();
+				int fromIndex = Math.min(page * PAGE_SIZE, hits.size());
+				int toIndex = Math.min((page + 1) * PAGE_SIZE, hits.size());
+				return new ArrayList<>(hits.subList(fromIndex, toIndex));
+			}
+
+		}) {
+
+			@Override
+			protected void populateItem(ListItem<ProjectQueryHit> item) {
+				ProjectQueryHit projectHit = item.getModelObject();
+				Project project = getProjectManager().load(projectHit.getProjectId());
+				QueryHit hit = projectHit.getHit();
+
+				BookmarkablePageLink<Void> projectLink = new BookmarkablePageLink<>("project",
+						ProjectDashboardPage.class, ProjectDashboardPage.paramsOf(project));
+				projectLink.setBody(Model.of(project.getPath()));
+				item.add(projectLink);
+
+				BlobIdent blobIdent = new BlobIdent(projectHit.getCommitId().name(), hit.getBlobPath(),
+						FileMode.REGULAR_FILE.getBits());
+				BookmarkablePageLink<Void> blobLink = new BookmarkablePageLink<>("blobLink",
+						ProjectBlobPage.class, ProjectBlobPage.paramsOf(project, blobIdent));
+				blobLink.add(new Label("blobPath", hit.getBlobPath()));
+				item.add(blobLink);
+
+				ProjectBlobPage.State state = new ProjectBlobPage.State(blobIdent);
+				state.position = BlobRenderer.getSourcePosition(hit.getHitPos());
+				BookmarkablePageLink<Void> hitLink = new BookmarkablePageLink<>("hitLink",
+						ProjectBlobPage.class, ProjectBlobPage.paramsOf(project, state));
+				hitLink.add(hit.renderIcon("icon"));
+				if (hit.getHitPos() != null)
+					hitLink.add(new Label("lineNo", String.valueOf(hit.getHitPos().getFromRow()+1) + ":"));
+				else
+					hitLink.add(new Label("lineNo").setVisible(false));
+				hitLink.add(hit.render("label"));
+				item.add(hitLink);
+			}
+
+		});
+
+		result.add(new Label("unindexed", new LoadableDetachableModel<String>() {
+
+			@Override
+			protected String load() {
+				int count = resultModel.getObject().getUnindexedProjectIds().size();
+				if (count == 1)
+					return "1 project is not searched as it is still being indexed";
+				else
+					return count + " projects are not searched as they are still being indexed";
+			}
+
+		}) {
+
+			@Override
+			protected void onConfigure() {
+				super.onConfigure();
+				setVisible(!resultModel.getObject().getUnindexedProjectIds().isEmpty());
+			}
+
+		});
+		result.add(new WebMarkupContainer("noHits") {
+
+			@Override
+			protected void onConfigure() {
+				super.onConfigure();
+				setVisible(getHits().isEmpty());
+			}
+
+		});
+
+		result.add(new BookmarkablePageLink<Void>("prevPage", CodeSearchPage.class, paramsOf(option, page - 1)) {
+
+			@Override
+			protected void onConfigure() {
+				super.onConfigure();
+				setVisible(page > 0);
+			}
+
+		});
+		result.add(new BookmarkablePageLink<Void>("nextPage", CodeSearchPage.class, paramsOf(option, page + 1)) {
+
+			@Override
+			protected void onConfigure() {
+				super.onConfigure();
+				setVisible(page + 1 < MAX_PAGES && getHits().size() > (page + 1) * PAGE_SIZE);
+			}
+
+		});
+	}
+
+	@Override
+	protected void onDetach() {
+		resultModel.detach();
+		super.onDetach();
+	}
+
+	public static PageParameters paramsOf(@Nullable TextQueryOption option, int page) {
+		PageParameters params = new PageParameters();
+		if (option != null && option.getTerm() != null) {
+			params.add(PARAM_TERM, option.getTerm());
+			if (option.isRegex())
+				params.add(PARAM_REGEX, true);
+			if (option.isWholeWord())
+				params.add(PARAM_WHOLE_WORD, true);
+			if (option.isCaseSensitive())
+				params.add(PARAM_CASE_SENSITIVE, true);
+			if (option.getFileNames() != null)
+				params.add(PARAM_FILE_NAMES, option.getFileNames());
+		}
+		if (page > 0)
+			params.add(PARAM_PAGE, page + 1);
+		return params;
+	}
+
+	@Override
+	protected Component newTopbarTitle(String componentId) {
+		return new Label(componentId, "Code Search");
+	}
+
+	@Override
+	protected String getPageTitle() {
+		return "Code Search - " + OneDev.getInstance(SettingManager.class).getBrandingSetting().getName();
+	}
+
+}
@@ -177,6 +177,8 @@ public abstract class LayoutPage extends BasePage {
 			protected List<SidebarMenu> load() {
 				List<SidebarMenu> menus = new ArrayList<>();
 				List<SidebarMenuItem> menuItems = new ArrayList<>(customization.getMainMenuItems());
+				for (var contribution: OneDev.getExtensions(MainMenuContribution.class))
+					menuItems.addAll(contribution.getMainMenuItems());
 				if (SecurityUtils.isAdministrator()) {
 					List<SidebarMenuItem> administrationMenuItems = new ArrayList<>();
 					administrationMenuItems.add(new SidebarMenuItem.Page(null, "System Settings",
@@ -0,0 +1,10 @@
+package io.onedev.server.web.page.layout;
+
+import java.io.Serializable;
+import java.util.List;
+
+public interface MainMenuContribution extends Serializable {
+	
+	List<SidebarMenuItem> getMainMenuItems();
+	
+}
@@ -307,6 +307,10 @@ public abstract class PullRequestDetailPage extends ProjectPage implements PullR
 	protected void onInitialize() {
 		super.onInitialize();
 
+		PullRequest request = getPullRequest();
+		if (request.isOpen() && request.checkMergePreview() == null)
+			getPullRequestManager().prioritizeCheck(request);
+		
 		add(newRequestHead());
 		add(newStatusBarContainer());
 		WebMarkupContainer summaryContainer = new WebMarkupContainer("requestSummary") {
@@ -1,29 +1,35 @@
 package io.onedev.server.web.resource;
 
+import com.google.common.base.Splitter;
 import io.onedev.k8shelper.KubernetesHelper;
 import io.onedev.server.OneDev;
 import io.onedev.server.cluster.ClusterManager;
 import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.exception.ExceptionUtils;
+import io.onedev.server.git.ArchiveManager;
+import io.onedev.server.git.ArchiveManager.ArchiveInfo;
 import io.onedev.server.git.GitUtils;
 import io.onedev.server.model.Project;
 import io.onedev.server.model.User;
 import io.onedev.server.security.SecurityUtils;
-import org.apache.commons.io.IOUtils;
+import io.onedev.server.util.LongRange;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.shiro.authz.UnauthorizedException;
 import org.apache.tika.mime.MimeTypes;
 import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.http.WebRequest;
+import org.apache.wicket.request.http.WebResponse;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.request.resource.AbstractResource;
-import org.eclipse.jgit.api.ArchiveCommand;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.archive.TgzFormat;
-import org.eclipse.jgit.archive.ZipFormat;
-import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.revwalk.RevWalk;
+import org.apache.wicket.util.time.Duration;
+import org.apache.wicket.util.time.Time;
+import org.eclipse.jetty.io.EofException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.ClientBuilder;
 import javax.ws.rs.client.Invocation;
@@ -32,17 +38,18 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 
-import static io.onedev.server.util.IOUtils.BUFFER_SIZE;
+import static io.onedev.server.util.IOUtils.copyRange;
 
 public class ArchiveResource extends AbstractResource {
 
 	private static final long serialVersionUID = 1L;
 
+	private static final Logger logger = LoggerFactory.getLogger(ArchiveResource.class);
+	
 	private static final String PARAM_PROJECT = "project";
 	
 	private static final String PARAM_REVISION = "revision";
@@ -75,10 +82,28 @@ public class ArchiveResource extends AbstractResource {
 				throw new UnauthorizedException();
 		}
 		
+		ArchiveInfo archiveInfo = getArchiveManager().getArchive(projectId, revision, format, null);
+		String etag = "\"" + archiveInfo.getHash() + "\"";
+		
 		ResourceResponse response = new ResourceResponse();
 		response.setContentType(MimeTypes.OCTET_STREAM);
+		response.setCacheScope(WebResponse.CacheScope.PRIVATE);
+		if (ObjectId.isId(revision))
+			response.setCacheDuration(Duration.days(365));
+		else
+			response.setCacheDuration(Duration.NONE);
+		response.setLastModified(Time.millis(archiveInfo.getLastModified()));
+		response.getHeaders().addHeader("ETag", etag);
+		
+		String ifNoneMatch = ((WebRequest) attributes.getRequest()).getHeader("If-None-Match");
+		if (matchesEtag(ifNoneMatch, etag)) 
+			return response.setError(HttpServletResponse.SC_NOT_MODIFIED);
 		
-		response.disableCaching();
+		// Generate archive only after etag check, as generating archive of large tree is expensive
+		long length = getArchiveManager().generateArchive(projectId, 
+				ObjectId.fromString(archiveInfo.getCommitHash()), format, null);
+		response.setAcceptRange(ContentRangeType.BYTES);
+		response.setContentLength(length);
 		
 		try {
 			String fileName;
@@ -100,36 +125,29 @@ public class ArchiveResource extends AbstractResource {
 
 			@Override
 			public void writeData(Attributes attributes) throws IOException {
+				RequestCycle requestCycle = RequestCycle.get();
+				LongRange range = getContentRange(requestCycle.getMetaData(CONTENT_RANGE_STARTBYTE), 
+						requestCycle.getMetaData(CONTENT_RANGE_ENDBYTE), length);
+				
+				// Archive is requested by commit hash below so that content does not change 
+				// even if specified revision is updated in the meantime
+				String commitHash = archiveInfo.getCommitHash();
 				ProjectManager projectManager = OneDev.getInstance(ProjectManager.class);
 				String activeServer = projectManager.getActiveServer(projectId, true);
 				ClusterManager clusterManager = OneDev.getInstance(ClusterManager.class);
 				if (activeServer.equals(clusterManager.getLocalServerAddress())) {
-					if (format.equals("zip"))
-						ArchiveCommand.registerFormat(format, new ZipFormat());
-					else
-						ArchiveCommand.registerFormat(format, new TgzFormat());
-					try {
-						RevCommit commit;
-						Repository repository = OneDev.getInstance(ProjectManager.class).getRepository(projectId);
-						try (RevWalk revWalk = new RevWalk(repository)) {
-							commit = revWalk.parseCommit(repository.resolve(revision));
-						}
-						ArchiveCommand archive = Git.wrap(repository).archive();
-						archive.setFormat(format);
-						archive.setTree(commit);
-						archive.setOutputStream(attributes.getResponse().getOutputStream());
-						archive.call();
-					} catch (GitAPIException e) {
-						throw new RuntimeException(e);
-					} finally {
-						ArchiveCommand.unregisterFormat(format);
+					try (InputStream is = getArchiveManager().openArchive(projectId, 
+							ObjectId.fromString(commitHash), format, null)) {
+						copyRange(is, attributes.getResponse().getOutputStream(), range);
+					} catch (Exception e) {
+						handle(e);
 					}
 				} else {
 	    			Client client = ClientBuilder.newClient();
 	    			try {
 	    				CharSequence path = RequestCycle.get().urlFor(
 	    						new ArchiveResourceReference(), 
-	    						ArchiveResource.paramsOf(projectId, revision, format));
+	    						ArchiveResource.paramsOf(projectId, commitHash, format));
 	    				String activeServerUrl = clusterManager.getServerUrl(activeServer) + path;
 	    				
 	    				WebTarget target = client.target(activeServerUrl).path(path.toString());
@@ -139,22 +157,60 @@ public class ArchiveResource extends AbstractResource {
 	    				
 	    				try (Response response = builder.get()) {
 	    					KubernetesHelper.checkStatus(response);
-	    					try (
-	    							InputStream is = response.readEntity(InputStream.class);
-	    							OutputStream os = attributes.getResponse().getOutputStream()) {
-	    						IOUtils.copy(is, os, BUFFER_SIZE);
-	    					} 
+	    					try (InputStream is = response.readEntity(InputStream.class)) {
+	    						copyRange(is, attributes.getResponse().getOutputStream(), range);
+	    					} catch (Exception e) {
+	    						handle(e);
+	    					}
 	    				} 
 	    			} finally {
 	    				client.close();
 	    			}
 				}
 			}				
+			
+			private void handle(Exception e) {
+				EofException eofException = ExceptionUtils.find(e, EofException.class);
+				if (eofException != null) 
+					logger.trace("EOF while writing data", eofException);
+				else 
+					throw ExceptionUtils.unchecked(e);
+			}
+			
 		});
 
 		return response;
 	}
 
+	/**
+	 * @return whether specified <tt>If-None-Match</tt> header matches specified etag. Weak 
+	 * 			comparison is used as required by RFC 7232 
+	 */
+	static boolean matchesEtag(@Nullable String ifNoneMatch, String etag) {
+		if (ifNoneMatch != null) {
+			for (String each: Splitter.on(',').trimResults().omitEmptyStrings().split(ifNoneMatch)) {
+				if (each.equals("*") || StringUtils.removeStart(each, "W/").equals(etag))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return range of content to write, with end inclusive
+	 */
+	static LongRange getContentRange(@Nullable Long start, @Nullable Long end, long contentLength) {
+		if (start == null)
+			start = 0L;
+		if (end == null || end == -1 || end >= contentLength)
+			end = contentLength - 1;
+		return new LongRange(start, end);
+	}
+
+	private ArchiveManager getArchiveManager() {
+		return OneDev.getInstance(ArchiveManager.class);
+	}
+	
 	public static PageParameters paramsOf(Long projectId, String revision, String format) {
 		PageParameters params = new PageParameters();
 		params.set(PARAM_PROJECT, projectId);
@@ -35,7 +35,6 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
 import static io.onedev.server.web.behavior.ChangeObserver.containsObservable;
-import static io.onedev.server.web.behavior.ChangeObserver.filterObservables;
 
 @Singleton
 public class DefaultWebSocketManager implements WebSocketManager, Serializable {
@@ -46,6 +45,8 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 	
 	private static final int KEEP_ALIVE_INTERVAL = 30;
 	
+	private static final int NOTIFY_INTERVAL = 250;
+	
 	private final Application application;
 	
 	private final TransactionManager transactionManager;
@@ -56,6 +57,17 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 	
 	private final Map<String, Map<IKey, Collection<String>>> registeredObservables = new ConcurrentHashMap<>();
 	
+	/*
+	 * Inverted index from registered observable to pages observing it 
+	 */
+	private final Map<String, Set<PageKey>> observingPages = new ConcurrentHashMap<>();
+	
+	/*
+	 * Changed observables pending to be notified, mapped to source page key if all changes 
+	 * of the observable in current interval come from that page  
+	 */
+	private final Map<String, Optional<PageKey>> pendingObservables = new ConcurrentHashMap<>();
+	
 	private final IWebSocketConnectionRegistry connectionRegistry = new SimpleWebSocketConnectionRegistry();
 	
 	private final Map<String, Pair<PageKey, Date>> notifiedObservables = new ConcurrentHashMap<>();
@@ -64,6 +76,8 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 
 	private String notifiedObservableCleanupTaskId;
 	
+	private String notifyTaskId;
+	
 	@Inject
 	public DefaultWebSocketManager(Application application, TransactionManager transactionManager, 
 			TaskScheduler taskScheduler, ClusterManager clusterManager) {
@@ -89,6 +103,12 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 			IKey pageKey = new PageIdKey(page.getPageId());
 			Collection<String> observables = page.findChangeObservables();
 			Collection<String> prevObservables = observablesOfSession.put(pageKey, observables);
+			
+			PageKey observingPage = new PageKey(sessionId, pageKey);
+			if (prevObservables != null)
+				unindex(observingPage, prevObservables);
+			index(observingPage, observables);
+			
 			if (prevObservables != null && !observables.stream().allMatch(it -> prevObservables.stream().anyMatch(it2 -> containsObservable(it2, it)))) {
 				IWebSocketConnection connection = connectionRegistry.getConnection(application, sessionId, pageKey);
 				if (connection != null)
@@ -99,7 +119,46 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 	
 	@Override
 	public void onDestroySession(String sessionId) {
-		registeredObservables.remove(sessionId);
+		Map<IKey, Collection<String>> observablesOfSession = registeredObservables.remove(sessionId);
+		if (observablesOfSession != null) {
+			for (var entry: observablesOfSession.entrySet())
+				unindex(new PageKey(sessionId, entry.getKey()), entry.getValue());
+		}
+	}
+	
+	private void index(PageKey pageKey, Collection<String> observables) {
+		for (String observable: observables) {
+			observingPages.compute(observable, (key, value) -> {
+				if (value == null)
+					value = ConcurrentHashMap.newKeySet();
+				value.add(pageKey);
+				return value;
+			});
+		}
+	}
+	
+	private void unindex(PageKey pageKey, Collection<String> observables) {
+		for (String observable: observables) {
+			observingPages.computeIfPresent(observable, (key, value) -> {
+				value.remove(pageKey);
+				return value.isEmpty()? null: value;
+			});
+		}
+	}
+	
+	/**
+	 * Get all forms of registered observables containing specified changed observable, 
+	 * which are the observable itself and its prefixes ending before a colon. This should 
+	 * be kept in sync with {@link io.onedev.server.web.behavior.ChangeObserver#containsObservable(String, String)}
+	 */
+	private Collection<String> getObservingForms(String changedObservable) {
+		Collection<String> forms = new ArrayList<>();
+		for (int i=0; i<changedObservable.length(); i++) {
+			if (changedObservable.charAt(i) == ':')
+				forms.add(changedObservable.substring(0, i));
+		}
+		forms.add(changedObservable);
+		return forms;
 	}
 	
 	@Nullable
@@ -139,30 +198,73 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 
 			@Override
 			public void run() {
-				clusterManager.submitToAllServers(() -> {
-					for (var observable: observables)
-						notifiedObservables.put(observable, new Pair<>(sourcePageKey, new Date()));
-					for (IWebSocketConnection connection: connectionRegistry.getConnections(application)) {
-						PageKey pageKey = ((WebSocketConnection) connection).getPageKey();
-						if (sourcePageKey == null || !sourcePageKey.equals(pageKey)) {
-							Collection<String> registeredObservables = getRegisteredObservables(connection);
-							if (registeredObservables != null) {
-								var registeredChangedObservables = 
-										filterObservables(registeredObservables, observables);
-								if (!registeredChangedObservables.isEmpty())
-									notifyObservables(connection, registeredChangedObservables);
-							}
-						}
-					}
-					return null;
-				});
+				Optional<PageKey> source = Optional.ofNullable(sourcePageKey);
+				for (var observable: observables) {
+					pendingObservables.merge(observable, source, 
+							(prevSource, currentSource) -> prevSource.equals(currentSource)? prevSource: Optional.empty());
+				}
 			}
 			
 		});
 	}
 	
+	private void flushPendingObservables() {
+		HashMap<String, PageKey> observables = new HashMap<>();
+		for (var observable: pendingObservables.keySet()) {
+			var source = pendingObservables.remove(observable);
+			if (source != null)
+				observables.put(observable, source.orElse(null));
+		}
+		if (!observables.isEmpty()) {
+			clusterManager.submitToAllServers(() -> {
+				notifyObservablesLocally(observables);
+				return null;
+			});
+		}
+	}
+	
+	private void notifyObservablesLocally(Map<String, PageKey> observables) {
+		Date now = new Date();
+		Map<PageKey, Collection<String>> changedObservablesOfPages = new HashMap<>();
+		for (var entry: observables.entrySet()) {
+			var observable = entry.getKey();
+			var sourcePageKey = entry.getValue();
+			notifiedObservables.put(observable, new Pair<>(sourcePageKey, now));
+			for (var observingForm: getObservingForms(observable)) {
+				var pageKeys = observingPages.get(observingForm);
+				if (pageKeys != null) {
+					for (var pageKey: pageKeys) {
+						if (sourcePageKey == null || !sourcePageKey.equals(pageKey))
+							changedObservablesOfPages.computeIfAbsent(pageKey, it -> new HashSet<>()).add(observable);
+					}
+				}
+			}
+		}
+		for (var entry: changedObservablesOfPages.entrySet()) {
+			var pageKey = entry.getKey();
+			var connection = connectionRegistry.getConnection(application, pageKey.getSessionId(), pageKey.getPageId());
+			if (connection != null && connection.isOpen())
+				notifyObservables(connection, entry.getValue());
+		}
+	}
+	
 	@Listen
 	public void on(SystemStarted event) {
+		notifyTaskId = taskScheduler.schedule(new SchedulableTask() {
+			
+			@Override
+			public ScheduleBuilder<?> getScheduleBuilder() {
+				return SimpleScheduleBuilder.simpleSchedule()
+						.withIntervalInMilliseconds(NOTIFY_INTERVAL).repeatForever();
+			}
+			
+			@Override
+			public void execute() {
+				flushPendingObservables();
+			}
+			
+		});
+		
 		keepAliveTaskId = taskScheduler.schedule(new SchedulableTask() {
 			
 			@Override
@@ -212,6 +314,8 @@ public class DefaultWebSocketManager implements WebSocketManager, Serializable {
 			taskScheduler.unschedule(keepAliveTaskId);
 		if (notifiedObservableCleanupTaskId != null)
 			taskScheduler.unschedule(notifiedObservableCleanupTaskId);
+		if (notifyTaskId != null)
+			taskScheduler.unschedule(notifyTaskId);
 	}
 	
 	/**
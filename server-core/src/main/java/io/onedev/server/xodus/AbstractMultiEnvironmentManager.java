@@ -1,54 +1,108 @@
 package io.onedev.server.xodus;
 
 import java.io.File;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.builder.EqualsBuilder;
+import org.apache.commons.lang3.builder.HashCodeBuilder;
 
 import io.onedev.commons.utils.FileUtils;
 import io.onedev.server.event.Listen;
 import io.onedev.server.event.system.SystemStopped;
+import io.onedev.server.util.concurrent.ResourcePool;
 import jetbrains.exodus.backup.BackupStrategy;
 import jetbrains.exodus.backup.VirtualFileDescriptor;
 import jetbrains.exodus.env.Environment;
 
+import static jetbrains.exodus.env.EnvironmentStatistics.Type.ACTIVE_TRANSACTIONS;
+
+/**
+ * Environments of all managers are kept in a single {@link ResourcePool}, so that
+ * {@link #MAX_OPEN_ENVS} is a budget shared by all managers instead of being applied to
+ * each one. An environment is never closed while it is leased via {@link #leaseEnv(String)}, 
+ * while it has active transactions, or within a few minutes since last access via 
+ * {@link #getEnv(String)}. Long-running operations spanning multiple transactions should 
+ * lease the environment.
+ */
 public abstract class AbstractMultiEnvironmentManager extends AbstractEnvironmentManager {
-	
-	private final Map<String, Environment> envs = new ConcurrentHashMap<>();
-	
+
+	private static final int MAX_OPEN_ENVS = 500;
+
+	private static final long MIN_IDLE_TIME = 5 * 60 * 1000L;
+
+	private static final long MAX_IDLE_TIME = 30 * 60 * 1000L;
+
+	private static final ResourcePool<EnvKey, Environment> envs = 
+			new ResourcePool<EnvKey, Environment>(MAX_OPEN_ENVS, MIN_IDLE_TIME, MAX_IDLE_TIME, true) {
+
+		@Override
+		protected Environment open(EnvKey key) {
+			return key.manager.newEnv(key.manager.getEnvDir(key.envKey));
+		}
+
+		@Override
+		protected void close(Environment env) {
+			env.close();
+		}
+
+		@Override
+		protected boolean isBusy(Environment env) {
+			// Environment is configured to be closed forcibly, make sure not to close it 
+			// while transactions of callers getting it without lease are running
+			return env.getStatistics().getStatisticsItem(ACTIVE_TRANSACTIONS).getTotal() != 0;
+		}
+
+	};
+
 	protected abstract File getEnvDir(String envKey);
-	
+
 	protected Environment getEnv(String envKey) {
-		Environment env = envs.get(envKey);
-		if (env == null) synchronized (envs) {
-			env = envs.get(envKey);
-			if (env == null) {
-				env = newEnv(getEnvDir(envKey));
-				envs.put(envKey, env);
-			}
-		}
-		return env;
+		return envs.get(new EnvKey(this, envKey));
+	}
+
+	/**
+	 * Lease environment of specified key. The environment will not be closed until the lease
+	 * is released via {@link #releaseEnv(String, Environment)}
+	 */
+	protected Environment leaseEnv(String envKey) {
+		return envs.lease(new EnvKey(this, envKey));
+	}
+
+	protected void releaseEnv(String envKey, Environment env) {
+		envs.release(new EnvKey(this, envKey), env);
 	}
-	
+
 	protected void removeEnv(String envKey) {
-		synchronized (envs) {
-			Environment env = envs.remove(envKey);
-			if (env != null)
-				env.close();
-		}
+		envs.remove(new EnvKey(this, envKey));
 	}
 
 	@Listen
 	public void on(SystemStopped event) {
-		synchronized (envs) {
-			for (Environment env: envs.values())
-				env.close();
-			envs.clear();
-		}
+		envs.removeIf(it -> it.manager == this);
+	}
+
+	public int getOpenEnvCount() {
+		return envs.count(it -> it.manager == this);
+	}
+
+	/**
+	 * @return number of open environments of all managers
+	 */
+	public static int getTotalOpenEnvCount() {
+		return envs.size();
+	}
+
+	/**
+	 * @return number of environments of all managers closed due to idle or pool size limit 
+	 * since startup
+	 */
+	public static long getEvictionCount() {
+		return envs.getEvictionCount();
 	}
 
 	public void export(String envKey, File targetDir) {
-		BackupStrategy backupStrategy = getEnv(envKey).getBackupStrategy();
+		Environment env = leaseEnv(envKey);
 		try {
+			BackupStrategy backupStrategy = env.getBackupStrategy();
 			backupStrategy.beforeBackup();
 			try {
 				for (VirtualFileDescriptor descriptor : backupStrategy.getContents()) {
@@ -60,7 +114,43 @@ public abstract class AbstractMultiEnvironmentManager extends AbstractEnvironmen
 			writeVersion(targetDir);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
+		} finally {
+			releaseEnv(envKey, env);
 		}
 	}
-	
+
+	private static class EnvKey {
+
+		final AbstractMultiEnvironmentManager manager;
+
+		final String envKey;
+
+		EnvKey(AbstractMultiEnvironmentManager manager, String envKey) {
+			this.manager = manager;
+			this.envKey = envKey;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof EnvKey))
+				return false;
+			if (this == other)
+				return true;
+			EnvKey otherKey = (EnvKey) other;
+			return new EqualsBuilder()
+					.append(manager, otherKey.manager)
+					.append(envKey, otherKey.envKey)
+					.isEquals();
+		}
+
+		@Override
+		public int hashCode() {
+			return new HashCodeBuilder(17, 37)
+					.append(manager)
+					.append(envKey)
+					.toHashCode();
+		}
+
+	}
+
 }
@@ -1,14 +1,18 @@
 package io.onedev.server.xodus;
 
 import java.io.File;
+import java.io.Serializable;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import org.eclipse.jgit.lib.ObjectId;
 
 import io.onedev.server.git.GitContribution;
 import io.onedev.server.git.GitContributor;
+import io.onedev.server.git.service.AheadBehind;
 import io.onedev.server.util.Day;
 import io.onedev.server.util.NameAndEmail;
 import io.onedev.server.util.facade.EmailAddressFacade;
@@ -38,6 +42,40 @@ public interface CommitInfoManager {
 	 */
 	Collection<ObjectId> getDescendants(Long projectId, Collection<ObjectId> ancestors);
 	
+	/**
+	 * Walk ancestors of specified commit (including the commit itself) in commit time order with 
+	 * help of commit graph, and collect values of first <tt>limit</tt> commits found in specified 
+	 * value map. Walk stops as soon as generation numbers tell that no remaining commits in the 
+	 * map can be reached
+	 * 
+	 * @return
+	 * 			collected values, or <tt>null</tt> if specified commit is not in commit graph yet
+	 */
+	@Nullable
+	<T extends Serializable> Collection<T> filterParents(Long projectId, ObjectId commitId, 
+			Map<ObjectId, T> values, int limit);
+	
+	/**
+	 * Check whether or not a commit is ancestor of another commit (or the same commit) with 
+	 * help of commit graph
+	 * 
+	 * @return
+	 * 			check result, or <tt>null</tt> if descendant commit is not in commit graph yet
+	 */
+	@Nullable
+	Boolean isAncestor(Long projectId, ObjectId ancestor, ObjectId descendant);
+	
+	/**
+	 * Calculate ahead/behind of specified compare commits relative to base commit with help of 
+	 * commit graph. Results are cached by commit pairs
+	 * 
+	 * @return
+	 * 			map of compare commit to its ahead/behind. Compare commits not in commit graph yet 
+	 * 			are not included, and map will be empty if base commit is not in commit graph yet 
+	 */
+	Map<ObjectId, AheadBehind> getAheadBehinds(Long projectId, ObjectId baseId, 
+			Collection<ObjectId> compareIds);
+	
 	void cloneInfo(Long sourceProjectId, Long targetProjectId);
 	
 	Collection<String> getHistoryPaths(Long projectId, String path);
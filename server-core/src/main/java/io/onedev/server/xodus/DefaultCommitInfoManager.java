@@ -2,6 +2,8 @@ package io.onedev.server.xodus;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Sets;
 import io.onedev.commons.loader.ManagedSerializedForm;
 import io.onedev.commons.utils.FileUtils;
@@ -23,6 +25,7 @@ import io.onedev.server.event.system.SystemStarted;
 import io.onedev.server.git.GitContribution;
 import io.onedev.server.git.GitContributor;
 import io.onedev.server.git.GitUtils;
+import io.onedev.server.git.service.AheadBehind;
 import io.onedev.server.git.command.*;
 import io.onedev.server.git.command.RevListCommand.Order;
 import io.onedev.server.model.Project;
@@ -74,7 +77,7 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultCommitInfoManager.class);
 
-	private static final int INFO_VERSION = 15;
+	private static final int INFO_VERSION = 16;
 
 	private static final long LOG_FILE_SIZE = 256 * 1024;
 
@@ -90,6 +93,8 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 	private static final String COMMITS_STORE = "commits";
 
+	private static final String COMMIT_GRAPH_STORE = "commitGraph";
+
 	private static final String FIX_COMMITS_STORE = "fixCommits";
 
 	private static final String COMMIT_COUNTS_STORE = "commitCounts";
@@ -136,6 +141,16 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 	private static final int PRIORITY = 100;
 
+	private static final int AHEAD_BEHIND_CACHE_SIZE = 100000;
+
+	private static final int GRAPH_FLAG_BASE = 1;
+
+	private static final int GRAPH_FLAG_COMPARE = 2;
+
+	private static final int GRAPH_FLAG_BOTH = GRAPH_FLAG_BASE | GRAPH_FLAG_COMPARE;
+
+	private static final int GRAPH_FLAG_POPPED = 4;
+
 	private final BatchWorkManager batchWorkManager;
 
 	private final ProjectManager projectManager;
@@ -162,6 +177,13 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 	private final Map<Long, List<NameAndEmail>> usersCache = new ConcurrentHashMap<>();
 
+	/*
+	 * Ahead/behind of a commit pair never changes, hence no need to invalidate. Keyed by
+	 * pair of base and compare commit
+	 */
+	private final Cache<Pair<ObjectId, ObjectId>, AheadBehind> aheadBehindCache =
+			CacheBuilder.newBuilder().maximumSize(AHEAD_BEHIND_CACHE_SIZE).build();
+
 	@Inject
 	public DefaultCommitInfoManager(ProjectManager projectManager, 
 									BatchWorkManager batchWorkManager, SessionManager sessionManager,
@@ -201,6 +223,7 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 		Store emailToIndexStore = getStore(env, EMAIL_TO_INDEX_STORE);
 		Store indexToUserStore = getStore(env, INDEX_TO_USER_STORE);
 		Store fixCommitsStore = getStore(env, FIX_COMMITS_STORE);
+		Store commitGraphStore = getStore(env, COMMIT_GRAPH_STORE);
 
 		Repository repository = projectManager.getRepository(project.getId());
 
@@ -243,6 +266,8 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 				else
 					users = new HashSet<>();
 
+				Map<ObjectId, CommitGraphNode> graphNodes = new HashMap<>();
+
 				new ElementPumper<GitCommit>() {
 
 					@Override
@@ -284,6 +309,13 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 							commitsStore.put(txn, currentCommitKey, new ArrayByteIterable(newCurrentCommitBytes));
 
+							List<ObjectId> parentIds = new ArrayList<>();
+							for (String parentCommitHash: currentCommit.getParentHashes())
+								parentIds.add(ObjectId.fromString(parentCommitHash));
+							int commitTime = currentCommit.getCommitDate() != null?
+									(int) (currentCommit.getCommitDate().getTime() / 1000): 0;
+							graphNodes.put(currentCommitId, new CommitGraphNode(0, commitTime, parentIds));
+
 							for (String parentCommitHash : currentCommit.getParentHashes()) {
 								ByteIterable parentCommitKey = new CommitByteIterable(ObjectId.fromString(parentCommitHash));
 								byte[] parentCommitBytes = readBytes(commitsStore, txn, parentCommitKey);
@@ -407,6 +439,8 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 				}.pump();
 
+				writeCommitGraph(commitGraphStore, txn, graphNodes);
+
 				writeInt(defaultStore, txn, COMMIT_COUNT_KEY, totalCommitCount.get());
 				totalCommitCountCache.remove(project.getId());
 
@@ -434,6 +468,64 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 		logger.debug("Collected commit information (project: {}, ref: {})", project.getPath(), refName);
 	}
 
+	/**
+	 * Write graph nodes of newly collected commits with generation numbers calculated. Generation 
+	 * of a commit is one plus max generation of its parents, and parents are either collected in
+	 * same batch, or collected previously and already in the graph. Commits with unknown parents
+	 * (for instance in a shallow repository) are left out of the graph, together with their 
+	 * descendants
+	 */
+	private void writeCommitGraph(Store store, Transaction txn, Map<ObjectId, CommitGraphNode> nodes) {
+		Map<ObjectId, Integer> generations = new HashMap<>();
+		
+		// Use stack instead of recursion to avoid StackOverflowException
+		Stack<ObjectId> stack = new Stack<>();
+		for (ObjectId commitId: nodes.keySet()) {
+			stack.push(commitId);
+			while (!stack.isEmpty()) {
+				ObjectId current = stack.peek();
+				if (generations.containsKey(current)) {
+					stack.pop();
+					continue;
+				}
+				CommitGraphNode node = nodes.get(current);
+				int generation = 1;
+				boolean resolved = true;
+				for (ObjectId parentId: node.parents) {
+					Integer parentGeneration = generations.get(parentId);
+					if (parentGeneration == null) {
+						if (nodes.containsKey(parentId)) {
+							stack.push(parentId);
+							resolved = false;
+							continue;
+						}
+						CommitGraphNode parentNode = readCommitGraphNode(store, txn, parentId);
+						parentGeneration = parentNode != null? parentNode.generation: 0;
+						generations.put(parentId, parentGeneration);
+					}
+					if (parentGeneration == 0 || generation == 0)
+						generation = 0;
+					else
+						generation = Math.max(generation, parentGeneration + 1);
+				}
+				if (resolved) {
+					stack.pop();
+					generations.put(current, generation);
+					if (generation != 0) {
+						node = new CommitGraphNode(generation, node.commitTime, node.parents);
+						store.put(txn, new CommitByteIterable(current), new ArrayByteIterable(node.toBytes()));
+					}
+				}
+			}
+		}
+	}
+
+	@Nullable
+	private CommitGraphNode readCommitGraphNode(Store store, Transaction txn, ObjectId commitId) {
+		byte[] bytes = readBytes(store, txn, new CommitByteIterable(commitId));
+		return bytes != null? CommitGraphNode.fromBytes(bytes): null;
+	}
+
 	private void collectContribs(Project project, ObjectId commitId) {
 		Environment env = getEnv(project.getId().toString());
 		Store defaultStore = getStore(env, DEFAULT_STORE);
@@ -982,6 +1074,218 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 		});
 	}
 
+	@Override
+	public <T extends Serializable> Collection<T> filterParents(Long projectId, ObjectId commitId, 
+			Map<ObjectId, T> values, int limit) {
+		return projectManager.runOnActiveServer(projectId, new ClusterTask<>() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public Collection<T> call() {
+				Environment env = getEnv(projectId.toString());
+				Store store = getStore(env, COMMIT_GRAPH_STORE);
+
+				return env.computeInReadonlyTransaction(txn -> {
+					CommitGraphNode startNode = readCommitGraphNode(store, txn, commitId);
+					if (startNode == null)
+						return null;
+
+					/*
+					 * A commit can only be ancestor of commits with higher generation. Candidates 
+					 * not in graph are not ancestors either, as all ancestors of a commit in graph
+					 * are in graph  
+					 */
+					Map<ObjectId, T> candidates = new HashMap<>();
+					TreeMap<Integer, Integer> candidateGenerations = new TreeMap<>();
+					for (Map.Entry<ObjectId, T> entry: values.entrySet()) {
+						CommitGraphNode node = readCommitGraphNode(store, txn, entry.getKey());
+						if (node != null && (node.generation < startNode.generation || entry.getKey().equals(commitId))) {
+							candidates.put(entry.getKey(), entry.getValue());
+							candidateGenerations.merge(node.generation, 1, Integer::sum);
+						}
+					}
+
+					Collection<T> filteredValues = new HashSet<>();
+					if (candidates.isEmpty())
+						return filteredValues;
+
+					PriorityQueue<Pair<ObjectId, CommitGraphNode>> queue = new PriorityQueue<>(
+							(o1, o2) -> o2.getRight().commitTime - o1.getRight().commitTime);
+					Set<ObjectId> visited = new HashSet<>();
+					queue.add(new Pair<>(commitId, startNode));
+					visited.add(commitId);
+					while (!queue.isEmpty()) {
+						Pair<ObjectId, CommitGraphNode> current = queue.poll();
+						T value = candidates.remove(current.getLeft());
+						if (value != null) {
+							filteredValues.add(value);
+							if (filteredValues.size() >= limit || candidates.isEmpty())
+								break;
+							int generation = current.getRight().generation;
+							if (candidateGenerations.merge(generation, -1, Integer::sum) == 0)
+								candidateGenerations.remove(generation);
+						}
+						int minGeneration = candidateGenerations.firstKey();
+						for (ObjectId parentId: current.getRight().parents) {
+							if (visited.add(parentId)) {
+								CommitGraphNode parentNode = readCommitGraphNode(store, txn, parentId);
+								if (parentNode != null && parentNode.generation >= minGeneration)
+									queue.add(new Pair<>(parentId, parentNode));
+							}
+						}
+					}
+					return filteredValues;
+				});
+			}
+
+		});
+	}
+
+	@Override
+	public Boolean isAncestor(Long projectId, ObjectId ancestor, ObjectId descendant) {
+		return projectManager.runOnActiveServer(projectId, new ClusterTask<>() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public Boolean call() {
+				Environment env = getEnv(projectId.toString());
+				Store store = getStore(env, COMMIT_GRAPH_STORE);
+
+				return env.computeInReadonlyTransaction(txn -> {
+					CommitGraphNode descendantNode = readCommitGraphNode(store, txn, descendant);
+					if (descendantNode == null)
+						return null;
+					if (descendant.equals(ancestor))
+						return true;
+					CommitGraphNode ancestorNode = readCommitGraphNode(store, txn, ancestor);
+					if (ancestorNode == null || ancestorNode.generation >= descendantNode.generation)
+						return false;
+
+					Set<ObjectId> visited = new HashSet<>();
+					Stack<CommitGraphNode> stack = new Stack<>();
+					stack.push(descendantNode);
+					while (!stack.isEmpty()) {
+						for (ObjectId parentId: stack.pop().parents) {
+							if (parentId.equals(ancestor))
+								return true;
+							if (visited.add(parentId)) {
+								CommitGraphNode parentNode = readCommitGraphNode(store, txn, parentId);
+								if (parentNode != null && parentNode.generation > ancestorNode.generation)
+									stack.push(parentNode);
+							}
+						}
+					}
+					return false;
+				});
+			}
+
+		});
+	}
+
+	@Override
+	public Map<ObjectId, AheadBehind> getAheadBehinds(Long projectId, ObjectId baseId, 
+			Collection<ObjectId> compareIds) {
+		return projectManager.runOnActiveServer(projectId, new ClusterTask<>() {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public Map<ObjectId, AheadBehind> call() {
+				Map<ObjectId, AheadBehind> aheadBehinds = new HashMap<>();
+				Collection<ObjectId> uncachedIds = new ArrayList<>();
+				for (ObjectId compareId: compareIds) {
+					AheadBehind aheadBehind = aheadBehindCache.getIfPresent(new Pair<>(baseId, compareId));
+					if (aheadBehind != null)
+						aheadBehinds.put(compareId, aheadBehind);
+					else
+						uncachedIds.add(compareId);
+				}
+				if (uncachedIds.isEmpty())
+					return aheadBehinds;
+
+				Environment env = getEnv(projectId.toString());
+				Store store = getStore(env, COMMIT_GRAPH_STORE);
+
+				env.executeInReadonlyTransaction(txn -> {
+					CommitGraphNode baseNode = readCommitGraphNode(store, txn, baseId);
+					if (baseNode != null) {
+						for (ObjectId compareId: uncachedIds) {
+							CommitGraphNode compareNode = readCommitGraphNode(store, txn, compareId);
+							if (compareNode != null) {
+								AheadBehind aheadBehind = getAheadBehind(store, txn, baseId, baseNode,
+										compareId, compareNode);
+								if (aheadBehind != null) {
+									aheadBehindCache.put(new Pair<>(baseId, compareId), aheadBehind);
+									aheadBehinds.put(compareId, aheadBehind);
+								}
+							}
+						}
+					}
+				});
+				return aheadBehinds;
+			}
+
+		});
+	}
+
+	/**
+	 * Walk commits reachable from base and compare commits in descending generation order, marking 
+	 * each commit with sides it is reachable from. As parents always have lower generations than 
+	 * children, marks of a commit are settled when it is popped. Walk stops as soon as all queued 
+	 * commits are reachable from both sides, so that only commits around the two sides are visited
+	 * instead of their full history
+	 */
+	@Nullable
+	private AheadBehind getAheadBehind(Store store, Transaction txn, ObjectId baseId, CommitGraphNode baseNode, 
+									   ObjectId compareId, CommitGraphNode compareNode) {
+		if (baseId.equals(compareId))
+			return new AheadBehind(0, 0);
+
+		Map<ObjectId, Integer> flags = new HashMap<>();
+		PriorityQueue<Pair<ObjectId, CommitGraphNode>> queue = new PriorityQueue<>(
+				(o1, o2) -> o2.getRight().generation - o1.getRight().generation);
+		flags.put(baseId, GRAPH_FLAG_BASE);
+		queue.add(new Pair<>(baseId, baseNode));
+		flags.put(compareId, GRAPH_FLAG_COMPARE);
+		queue.add(new Pair<>(compareId, compareNode));
+
+		// Number of queued commits not reachable from both sides
+		int uncommonCount = 2;
+		int ahead = 0;
+		int behind = 0;
+		while (uncommonCount != 0) {
+			Pair<ObjectId, CommitGraphNode> current = queue.poll();
+			int flag = flags.get(current.getLeft());
+			flags.put(current.getLeft(), flag | GRAPH_FLAG_POPPED);
+			if (flag == GRAPH_FLAG_COMPARE) {
+				ahead++;
+				uncommonCount--;
+			} else if (flag == GRAPH_FLAG_BASE) {
+				behind++;
+				uncommonCount--;
+			}
+			for (ObjectId parentId: current.getRight().parents) {
+				Integer parentFlag = flags.get(parentId);
+				if (parentFlag == null) {
+					CommitGraphNode parentNode = readCommitGraphNode(store, txn, parentId);
+					if (parentNode == null)
+						return null;
+					flags.put(parentId, flag);
+					queue.add(new Pair<>(parentId, parentNode));
+					if (flag != GRAPH_FLAG_BOTH)
+						uncommonCount++;
+				} else if ((parentFlag & GRAPH_FLAG_POPPED) == 0 && (parentFlag | flag) != parentFlag) {
+					flags.put(parentId, parentFlag | flag);
+					if ((parentFlag | flag) == GRAPH_FLAG_BOTH)
+						uncommonCount--;
+				}
+			}
+		}
+		return new AheadBehind(ahead, behind);
+	}
+
 	@Listen
 	public void on(EntityRemoved event) {
 		if (event.getEntity() instanceof Project) {
@@ -1006,16 +1310,25 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 
 			@Override
 			public void doWorks(List<Prioritized> works) {
-				sessionManager.run(() -> {
-					Project project = projectManager.load(projectId);
-					List<CollectingWork> collectingWorks = new ArrayList<>();
-					for (Object work : works)
-						collectingWorks.add((CollectingWork) work);
-					Collections.sort(collectingWorks, new CommitTimeComparator());
-
-					for (CollectingWork work : collectingWorks)
-						doCollect(project, work.getCommit().copy(), work.getRefName());
-				});
+				// Collecting spans many transactions, lease the environment and repository to 
+				// prevent them from being evicted
+				Environment env = leaseEnv(projectId.toString());
+				Repository repository = projectManager.leaseRepository(projectId);
+				try {
+					sessionManager.run(() -> {
+						Project project = projectManager.load(projectId);
+						List<CollectingWork> collectingWorks = new ArrayList<>();
+						for (Object work : works)
+							collectingWorks.add((CollectingWork) work);
+						Collections.sort(collectingWorks, new CommitTimeComparator());
+	
+						for (CollectingWork work : collectingWorks)
+							doCollect(project, work.getCommit().copy(), work.getRefName());
+					});
+				} finally {
+					projectManager.releaseRepository(projectId, repository);
+					releaseEnv(projectId.toString(), env);
+				}
 			}
 
 		};
@@ -1572,6 +1885,46 @@ public class DefaultCommitInfoManager extends AbstractMultiEnvironmentManager
 		int path;
 	}
 
+	/**
+	 * Node of commit graph. Stored as generation (int), commit time in seconds (int), followed by
+	 * raw ids of parents
+	 */
+	private static class CommitGraphNode {
+		
+		final int generation;
+		
+		final int commitTime;
+		
+		final List<ObjectId> parents;
+		
+		CommitGraphNode(int generation, int commitTime, List<ObjectId> parents) {
+			this.generation = generation;
+			this.commitTime = commitTime;
+			this.parents = parents;
+		}
+		
+		byte[] toBytes() {
+			ByteBuffer buffer = ByteBuffer.allocate(8 + parents.size() * 20);
+			buffer.putInt(generation);
+			buffer.putInt(commitTime);
+			byte[] bytes = buffer.array();
+			for (int i = 0; i < parents.size(); i++)
+				parents.get(i).copyRawTo(bytes, 8 + i * 20);
+			return bytes;
+		}
+		
+		static CommitGraphNode fromBytes(byte[] bytes) {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			int generation = buffer.getInt();
+			int commitTime = buffer.getInt();
+			List<ObjectId> parents = new ArrayList<>();
+			for (int i = 0; i < (bytes.length - 8) / 20; i++)
+				parents.add(ObjectId.fromRaw(bytes, 8 + i * 20));
+			return new CommitGraphNode(generation, commitTime, parents);
+		}
+		
+	}
+
 	private static interface CommitRangeProcessor {
 
 		void process(ObjectId untilCommitId, @Nullable ObjectId sinceCommitId);
@@ -0,0 +1,484 @@
+package io.onedev.server.xodus;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Comparator.comparingLong;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.LastCommitsOfChildren;
+import org.eclipse.jgit.revwalk.LastCommitsOfChildren.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.loader.ManagedSerializedForm;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.event.Listen;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.event.project.RefUpdated;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.git.GitUtils;
+import io.onedev.server.model.Project;
+import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.util.concurrent.BatchWorkManager;
+import io.onedev.server.util.concurrent.BatchWorker;
+import io.onedev.server.util.concurrent.Prioritized;
+import jetbrains.exodus.ArrayByteIterable;
+import jetbrains.exodus.ByteIterable;
+import jetbrains.exodus.env.Cursor;
+import jetbrains.exodus.env.Environment;
+import jetbrains.exodus.env.Store;
+
+/**
+ * Last commits of children of a directory are cached per project, keyed by commit id and path
+ * of the directory, and encoded with distinct commits stored only once. Computation consults the
+ * cache for every visited commit, so that last commits of a new commit can be calculated by
+ * walking commits since a cached commit, and complementing with cached entry of that commit.
+ * <p>
+ * Size of the cache is bounded per project, with least recently accessed entries evicted first.
+ * When a branch is updated, entries of the old branch head are carried to the new head in
+ * background, so that browsing after a push does not need to walk history.
+ * <p>
+ * Keys of cached entries are also kept in memory per project, so that the cache can be 
+ * consulted for every visited commit without touching the store for commits not cached. 
+ * Lookups of a calculation are performed in a single read-only transaction.
+ */
+@Singleton
+public class DefaultLastCommitsInfoManager extends AbstractMultiEnvironmentManager
+		implements LastCommitsInfoManager, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultLastCommitsInfoManager.class);
+
+	private static final int INFO_VERSION = 1;
+
+	private static final String INFO_DIR = "last_commits_store";
+
+	private static final String LEGACY_INFO_DIR = "last_commits";
+
+	private static final String DEFAULT_STORE = "default";
+
+	private static final String LAST_COMMITS_STORE = "lastCommits";
+
+	private static final String ACCESS_TIMES_STORE = "accessTimes";
+
+	private static final ByteIterable TOTAL_SIZE_KEY = new StringByteIterable("totalSize");
+
+	// Cache calculation result if it takes longer than this value in milliseconds
+	private static final int CACHE_THRESHOLD = 200;
+
+	private static final long MAX_CACHE_SIZE = 32 * 1024 * 1024;
+
+	// Access time of a cache entry is only updated if it is older than this value in milliseconds
+	private static final long ACCESS_TIME_GRANULARITY = 60 * 60 * 1000L;
+
+	// Maximum number of directories to carry over to new branch head
+	private static final int MAX_WARMING_PATHS = 100;
+
+	private static final int PRIORITY = 100;
+
+	private final ProjectManager projectManager;
+
+	private final BatchWorkManager batchWorkManager;
+
+	private final ClusterManager clusterManager;
+
+	// project id -> keys of cached entries of the project, see getCachedKey
+	private final Map<Long, Set<String>> cachedKeys = new ConcurrentHashMap<>();
+
+	@Inject
+	public DefaultLastCommitsInfoManager(ProjectManager projectManager, BatchWorkManager batchWorkManager,
+										 ClusterManager clusterManager) {
+		this.projectManager = projectManager;
+		this.batchWorkManager = batchWorkManager;
+		this.clusterManager = clusterManager;
+	}
+
+	@Override
+	protected File getEnvDir(String envKey) {
+		File infoDir = new File(projectManager.getInfoDir(Long.valueOf(envKey)), INFO_DIR);
+		FileUtils.createDir(infoDir);
+		return infoDir;
+	}
+
+	@Override
+	protected int getEnvVersion() {
+		return INFO_VERSION;
+	}
+
+	private static ByteIterable getKey(ObjectId commitId, String path) {
+		byte[] pathBytes = path.getBytes(UTF_8);
+		byte[] keyBytes = new byte[Constants.OBJECT_ID_LENGTH + pathBytes.length];
+		commitId.copyRawTo(keyBytes, 0);
+		System.arraycopy(pathBytes, 0, keyBytes, Constants.OBJECT_ID_LENGTH, pathBytes.length);
+		return new ArrayByteIterable(keyBytes);
+	}
+
+	private static String getCachedKey(ObjectId commitId, String path) {
+		return commitId.name() + path;
+	}
+
+	private static String getCachedKey(ByteIterable key) {
+		byte[] keyBytes = key.getBytesUnsafe();
+		return ObjectId.fromRaw(keyBytes, 0).name() + new String(keyBytes, Constants.OBJECT_ID_LENGTH,
+				key.getLength() - Constants.OBJECT_ID_LENGTH, UTF_8);
+	}
+
+	private Set<String> getCachedKeys(Long projectId) {
+		return cachedKeys.computeIfAbsent(projectId, it -> {
+			Environment env = getEnv(projectId.toString());
+			Store accessTimesStore = getStore(env, ACCESS_TIMES_STORE);
+			Set<String> keys = ConcurrentHashMap.newKeySet();
+			env.executeInReadonlyTransaction(txn -> {
+				try (Cursor cursor = accessTimesStore.openCursor(txn)) {
+					while (cursor.getNext())
+						keys.add(getCachedKey(cursor.getKey()));
+				}
+			});
+			return keys;
+		});
+	}
+
+	private static long getLong(ByteIterable value) {
+		return ByteBuffer.wrap(value.getBytesUnsafe(), 0, Long.BYTES).getLong();
+	}
+
+	@Override
+	public LastCommitsOfChildren getLastCommitsOfChildren(Long projectId, ObjectId commitId, @Nullable String path) {
+		String normalizedPath = GitUtils.normalizePath(path);
+		if (normalizedPath == null)
+			normalizedPath = "";
+
+		long time = System.currentTimeMillis();
+		LastCommitsOfChildren lastCommits = calcLastCommitsOfChildren(projectId, commitId, normalizedPath);
+		if (System.currentTimeMillis() - time > CACHE_THRESHOLD)
+			writeLastCommits(projectId, commitId, normalizedPath, lastCommits);
+		return lastCommits;
+	}
+
+	private LastCommitsOfChildren calcLastCommitsOfChildren(Long projectId, ObjectId commitId, String path) {
+		Repository repository = projectManager.getRepository(projectId);
+		Set<String> keys = getCachedKeys(projectId);
+		
+		// History walk may take long. Lease the environment as it spans multiple transactions, 
+		// and look up each cached commit in its own short transaction so that the walk does not
+		// pin a snapshot and block log cleaning
+		Environment env = leaseEnv(projectId.toString());
+		try {
+			Store lastCommitsStore = getStore(env, LAST_COMMITS_STORE);
+			Store accessTimesStore = getStore(env, ACCESS_TIMES_STORE);
+	
+			long now = System.currentTimeMillis();
+			List<ByteIterable> accessedKeys = new ArrayList<>();
+			LastCommitsOfChildren lastCommits = new LastCommitsOfChildren(repository, commitId, path, cachedCommitId -> {
+				if (!keys.contains(getCachedKey(cachedCommitId, path)))
+					return null;
+				ByteIterable key = getKey(cachedCommitId, path);
+				return env.computeInReadonlyTransaction(txn -> {
+					byte[] bytes = readBytes(lastCommitsStore, txn, key);
+					if (bytes != null) {
+						if (now - readLong(accessTimesStore, txn, key, 0) > ACCESS_TIME_GRANULARITY)
+							accessedKeys.add(key);
+						return decode(bytes);
+					} else {
+						return null;
+					}
+				});
+			});
+	
+			if (!accessedKeys.isEmpty()) {
+				env.executeInTransaction(txn -> {
+					for (ByteIterable key: accessedKeys) {
+						if (lastCommitsStore.get(txn, key) != null)
+							writeLong(accessTimesStore, txn, key, now);
+					}
+				});
+			}
+			return lastCommits;
+		} finally {
+			releaseEnv(projectId.toString(), env);
+		}
+	}
+
+	private boolean isCached(Long projectId, ObjectId commitId, String path) {
+		return getCachedKeys(projectId).contains(getCachedKey(commitId, path));
+	}
+
+	void writeLastCommits(Long projectId, ObjectId commitId, String path, Map<String, Value> lastCommits) {
+		Set<String> keys = getCachedKeys(projectId);
+		Environment env = getEnv(projectId.toString());
+		Store defaultStore = getStore(env, DEFAULT_STORE);
+		Store lastCommitsStore = getStore(env, LAST_COMMITS_STORE);
+		Store accessTimesStore = getStore(env, ACCESS_TIMES_STORE);
+		ByteIterable key = getKey(commitId, path);
+		byte[] bytes = encode(lastCommits);
+
+		List<String> evictedKeys = new ArrayList<>();
+		env.executeInTransaction(txn -> {
+			evictedKeys.clear();
+			long totalSize = readLong(defaultStore, txn, TOTAL_SIZE_KEY, 0);
+			ByteIterable prevValue = lastCommitsStore.get(txn, key);
+			if (prevValue != null)
+				totalSize -= prevValue.getLength();
+			lastCommitsStore.put(txn, key, new ArrayByteIterable(bytes));
+			writeLong(accessTimesStore, txn, key, System.currentTimeMillis());
+			totalSize += bytes.length;
+
+			if (totalSize > MAX_CACHE_SIZE) {
+				List<Map.Entry<ByteIterable, Long>> entries = new ArrayList<>();
+				try (Cursor cursor = accessTimesStore.openCursor(txn)) {
+					while (cursor.getNext()) {
+						byte[] keyBytes = Arrays.copyOf(cursor.getKey().getBytesUnsafe(), cursor.getKey().getLength());
+						entries.add(new HashMap.SimpleEntry<>(new ArrayByteIterable(keyBytes), getLong(cursor.getValue())));
+					}
+				}
+				entries.sort(comparingLong(Map.Entry::getValue));
+
+				// Evict to three quarters of max size to avoid evicting upon every write
+				for (Map.Entry<ByteIterable, Long> entry: entries) {
+					if (totalSize <= MAX_CACHE_SIZE * 3 / 4)
+						break;
+					ByteIterable value = lastCommitsStore.get(txn, entry.getKey());
+					if (value != null) {
+						totalSize -= value.getLength();
+						lastCommitsStore.delete(txn, entry.getKey());
+					}
+					accessTimesStore.delete(txn, entry.getKey());
+					evictedKeys.add(getCachedKey(entry.getKey()));
+				}
+			}
+			writeLong(defaultStore, txn, TOTAL_SIZE_KEY, totalSize);
+		});
+		keys.removeAll(evictedKeys);
+		keys.add(getCachedKey(commitId, path));
+	}
+
+	/**
+	 * @return cached paths of specified commit, with most recently accessed path first
+	 */
+	private List<String> getCachedPaths(Long projectId, ObjectId commitId) {
+		Environment env = getEnv(projectId.toString());
+		Store accessTimesStore = getStore(env, ACCESS_TIMES_STORE);
+		byte[] prefix = new byte[Constants.OBJECT_ID_LENGTH];
+		commitId.copyRawTo(prefix, 0);
+
+		Map<String, Long> accessTimes = env.computeInReadonlyTransaction(txn -> {
+			Map<String, Long> accessTimesOfPaths = new HashMap<>();
+			try (Cursor cursor = accessTimesStore.openCursor(txn)) {
+				if (cursor.getSearchKeyRange(new ArrayByteIterable(prefix)) != null) {
+					do {
+						byte[] keyBytes = Arrays.copyOf(cursor.getKey().getBytesUnsafe(), cursor.getKey().getLength());
+						if (keyBytes.length < prefix.length
+								|| !Arrays.equals(keyBytes, 0, prefix.length, prefix, 0, prefix.length)) {
+							break;
+						}
+						String path = new String(keyBytes, prefix.length, keyBytes.length - prefix.length, UTF_8);
+						accessTimesOfPaths.put(path, getLong(cursor.getValue()));
+					} while (cursor.getNext());
+				}
+			}
+			return accessTimesOfPaths;
+		});
+		List<String> paths = new ArrayList<>(accessTimes.keySet());
+		paths.sort(comparingLong(it -> -accessTimes.get(it)));
+		return paths;
+	}
+
+	private BatchWorker getBatchWorker(Long projectId) {
+		return new BatchWorker("project-" + projectId + "-warmLastCommits") {
+
+			@Override
+			public void doWorks(List<Prioritized> works) {
+				// Warming spans many transactions, lease the environment and repository to
+				// prevent them from being evicted
+				Environment env = leaseEnv(projectId.toString());
+				Repository repository = projectManager.leaseRepository(projectId);
+				try {
+					for (Prioritized work: works) {
+						WarmingWork warmingWork = (WarmingWork) work;
+						List<String> paths = getCachedPaths(projectId, warmingWork.oldCommitId);
+						for (String path: paths.subList(0, Math.min(paths.size(), MAX_WARMING_PATHS))) {
+							if (isCached(projectId, warmingWork.newCommitId, path))
+								continue;
+							LastCommitsOfChildren lastCommits;
+							try {
+								lastCommits = calcLastCommitsOfChildren(projectId, warmingWork.newCommitId, path);
+							} catch (IllegalArgumentException e) {
+								// Directory no longer exists in new commit
+								continue;
+							}
+							writeLastCommits(projectId, warmingWork.newCommitId, path, lastCommits);
+						}
+					}
+				} catch (Exception e) {
+					logger.error("Error warming last commits cache (project id: " + projectId + ")", e);
+				} finally {
+					projectManager.releaseRepository(projectId, repository);
+					releaseEnv(projectId.toString(), env);
+				}
+			}
+
+		};
+	}
+
+	@Sessional
+	@Listen
+	public void on(RefUpdated event) {
+		if (event.getRefName().startsWith(Constants.R_HEADS)
+				&& !event.getOldCommitId().equals(ObjectId.zeroId())
+				&& !event.getNewCommitId().equals(ObjectId.zeroId())) {
+			Long projectId = event.getProject().getId();
+			WarmingWork work = new WarmingWork(PRIORITY, event.getOldCommitId().copy(), event.getNewCommitId().copy());
+			batchWorkManager.submit(getBatchWorker(projectId), work);
+		}
+	}
+
+	@Sessional
+	@Listen
+	public void on(SystemStarted event) {
+		// Remove cache files of java serialized last commits of previous versions
+		for (var projectId: projectManager.getActiveIds()) {
+			File legacyDir = new File(projectManager.getInfoDir(projectId), LEGACY_INFO_DIR);
+			if (legacyDir.exists())
+				FileUtils.deleteDir(legacyDir);
+		}
+	}
+
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Project) {
+			Long projectId = event.getEntity().getId();
+			String activeServer = projectManager.getActiveServer(projectId, false);
+			if (activeServer != null) {
+				clusterManager.runOnServer(activeServer, () -> {
+					removeEnv(projectId.toString());
+					cachedKeys.remove(projectId);
+					return null;
+				});
+			}
+		}
+	}
+
+	static byte[] encode(Map<String, Value> lastCommits) {
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			try (DataOutputStream os = new DataOutputStream(baos)) {
+				Map<ObjectId, Integer> valueIndexes = new LinkedHashMap<>();
+				List<Value> values = new ArrayList<>();
+				for (Value value: lastCommits.values()) {
+					if (!valueIndexes.containsKey(value.getId())) {
+						valueIndexes.put(value.getId(), values.size());
+						values.add(value);
+					}
+				}
+				os.writeInt(values.size());
+				byte[] idBytes = new byte[Constants.OBJECT_ID_LENGTH];
+				for (Value value: values) {
+					value.getId().copyRawTo(idBytes, 0);
+					os.write(idBytes);
+					writeString(os, value.getAuthor().getName());
+					writeString(os, value.getAuthor().getEmailAddress());
+					os.writeLong(value.getAuthor().getWhen().getTime());
+					os.writeInt(value.getAuthor().getTimeZoneOffset());
+					os.writeLong(value.getCommitDate().getTime());
+					writeString(os, value.getSummary());
+				}
+				os.writeInt(lastCommits.size());
+				for (Map.Entry<String, Value> entry: lastCommits.entrySet()) {
+					writeString(os, entry.getKey());
+					os.writeInt(valueIndexes.get(entry.getValue().getId()));
+				}
+			}
+			return baos.toByteArray();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	static Map<String, Value> decode(byte[] bytes) {
+		try (DataInputStream is = new DataInputStream(new ByteArrayInputStream(bytes))) {
+			int valueCount = is.readInt();
+			List<Value> values = new ArrayList<>(valueCount);
+			byte[] idBytes = new byte[Constants.OBJECT_ID_LENGTH];
+			for (int i=0; i<valueCount; i++) {
+				is.readFully(idBytes);
+				ObjectId id = ObjectId.fromRaw(idBytes);
+				String authorName = readString(is);
+				String authorEmail = readString(is);
+				long authorTime = is.readLong();
+				int authorTimeZoneOffset = is.readInt();
+				Date commitDate = new Date(is.readLong());
+				String summary = readString(is);
+				PersonIdent author = new PersonIdent(authorName, authorEmail, authorTime, authorTimeZoneOffset);
+				values.add(new Value(id, author, commitDate, summary));
+			}
+			int childCount = is.readInt();
+			Map<String, Value> lastCommits = new HashMap<>();
+			for (int i=0; i<childCount; i++) {
+				String child = readString(is);
+				lastCommits.put(child, values.get(is.readInt()));
+			}
+			return lastCommits;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static void writeString(DataOutputStream os, String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF_8);
+		os.writeInt(bytes.length);
+		os.write(bytes);
+	}
+
+	private static String readString(DataInputStream is) throws IOException {
+		byte[] bytes = new byte[is.readInt()];
+		is.readFully(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	public Object writeReplace() throws ObjectStreamException {
+		return new ManagedSerializedForm(LastCommitsInfoManager.class);
+	}
+
+	private static class WarmingWork extends Prioritized {
+
+		private final ObjectId oldCommitId;
+
+		private final ObjectId newCommitId;
+
+		WarmingWork(int priority, ObjectId oldCommitId, ObjectId newCommitId) {
+			super(priority);
+			this.oldCommitId = oldCommitId;
+			this.newCommitId = newCommitId;
+		}
+
+	}
+
+}
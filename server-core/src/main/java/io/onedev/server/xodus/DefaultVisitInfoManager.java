@@ -12,14 +12,22 @@ import io.onedev.server.event.project.codecomment.CodeCommentEvent;
 import io.onedev.server.event.project.issue.IssueEvent;
 import io.onedev.server.event.project.pullrequest.PullRequestCodeCommentEvent;
 import io.onedev.server.event.project.pullrequest.PullRequestEvent;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.*;
 import io.onedev.server.persistence.annotation.Transactional;
+import io.onedev.server.taskschedule.SchedulableTask;
+import io.onedev.server.taskschedule.TaskScheduler;
+import io.onedev.server.util.Pair;
 import jetbrains.exodus.env.Environment;
 import jetbrains.exodus.env.Store;
 import org.joda.time.DateTime;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.ws.rs.client.Client;
@@ -33,19 +41,26 @@ import java.io.InputStream;
 import java.io.ObjectStreamException;
 import java.io.Serializable;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static java.lang.Long.valueOf;
 
 /**
  * Store project visit information here as we only need to load a single database to sort projects based on user 
  * visit information
+ * <p>
+ * Visits are buffered in memory with latest visit time kept for each user and entity, and flushed to replica 
+ * servers of the project periodically, with a single transaction per project. Reading visit date consults the 
+ * buffer first
  * 
  * @author robin
  *
  */
 @Singleton
 public class DefaultVisitInfoManager extends AbstractMultiEnvironmentManager 
-		implements VisitInfoManager, Serializable {
+		implements VisitInfoManager, SchedulableTask, Serializable {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultVisitInfoManager.class);
 	
@@ -59,14 +74,25 @@ public class DefaultVisitInfoManager extends AbstractMultiEnvironmentManager
 
 	private static final String ISSUE_STORE = "issueVisit";
 	
+	private static final long FLUSH_INTERVAL = 5000;
+	
 	private final ProjectManager projectManager;
 	
 	private final ClusterManager clusterManager;
 	
+	private final TaskScheduler taskScheduler;
+	
+	// project id -> store name -> (user id, entity id) -> visit time
+	private final Map<Long, Map<String, Map<Pair<Long, Long>, Long>>> pendingVisits = new ConcurrentHashMap<>();
+	
+	private volatile String taskId;
+	
 	@Inject
-	public DefaultVisitInfoManager(ProjectManager projectManager, ClusterManager clusterManager) {
+	public DefaultVisitInfoManager(ProjectManager projectManager, ClusterManager clusterManager, 
+								   TaskScheduler taskScheduler) {
 		this.projectManager = projectManager;
 		this.clusterManager = clusterManager;
+		this.taskScheduler = taskScheduler;
 	}
 	
 	public Object writeReplace() throws ObjectStreamException {
@@ -78,6 +104,7 @@ public class DefaultVisitInfoManager extends AbstractMultiEnvironmentManager
 	public void on(EntityRemoved event) {
 		if (event.getEntity() instanceof Project) {
 			Long projectId = event.getEntity().getId();
+			pendingVisits.remove(projectId);
 			String activeServer = projectManager.getActiveServer(projectId, false);
 			if (activeServer != null) {
 				clusterManager.runOnServer(activeServer, () -> {
@@ -100,138 +127,105 @@ public class DefaultVisitInfoManager extends AbstractMultiEnvironmentManager
 		return INFO_VERSION;
 	}
 	
-	@Override
-	public void visitIssue(User user, Issue issue) {
-		Long projectId = issue.getProject().getId();
-		Long userId = user.getId();
-		Long issueId = issue.getId();
+	private void visit(Long projectId, String storeName, Long userId, Long entityId) {
+		long time = new DateTime().plusSeconds(1).getMillis();
+		pendingVisits.compute(projectId, (key, value) -> {
+			if (value == null)
+				value = new ConcurrentHashMap<>();
+			value.computeIfAbsent(storeName, it -> new ConcurrentHashMap<>())
+					.merge(new Pair<>(userId, entityId), time, Math::max);
+			return value;
+		});
+	}
+	
+	@Nullable
+	private Date getVisitDate(Long projectId, String storeName, Long userId, Long entityId) {
+		long pendingMillis = -1;
+		var pendingVisitsOfProject = pendingVisits.get(projectId);
+		if (pendingVisitsOfProject != null) {
+			var pendingVisitsOfStore = pendingVisitsOfProject.get(storeName);
+			if (pendingVisitsOfStore != null) 
+				pendingMillis = pendingVisitsOfStore.getOrDefault(new Pair<>(userId, entityId), -1L);
+		}
+		long storedMillis = projectManager.runOnActiveServer(projectId, () -> {
+			Environment env = getEnv(projectId.toString());
+			Store store = getStore(env, storeName);
+			return env.computeInTransaction(txn -> readLong(store, txn, 
+					new LongsByteIterable(Lists.newArrayList(userId, entityId)), -1));
+		});
+		long millis = Math.max(pendingMillis, storedMillis);
+		if (millis != -1)
+			return new Date(millis);
+		else
+			return null;
+	}
+	
+	private void flush(Long projectId) {
+		var pendingVisitsOfProject = pendingVisits.remove(projectId);
+		if (pendingVisitsOfProject == null)
+			return;
+		
+		Map<String, Map<Pair<Long, Long>, Long>> visits = new HashMap<>();
+		for (var entry: pendingVisitsOfProject.entrySet()) 
+			visits.put(entry.getKey(), new HashMap<>(entry.getValue()));
+		
 		projectManager.submitToReplicaServers(projectId, () -> {
 			try {
 				Environment env = getEnv(projectId.toString());
-				Store store = getStore(env, ISSUE_STORE);
+				Map<String, Store> stores = new HashMap<>();
+				for (String storeName: visits.keySet())
+					stores.put(storeName, getStore(env, storeName));
 				env.executeInTransaction(txn -> {
-					long time = new DateTime().plusSeconds(1).getMillis();
-					writeLong(store, txn, new LongsByteIterable(Lists.newArrayList(userId, issueId)), time);
+					for (var entry: visits.entrySet()) {
+						Store store = stores.get(entry.getKey());
+						for (var visitEntry: entry.getValue().entrySet()) {
+							var key = new LongsByteIterable(Lists.newArrayList(
+									visitEntry.getKey().getLeft(), visitEntry.getKey().getRight()));
+							long time = Math.max(visitEntry.getValue(), readLong(store, txn, key, -1));
+							writeLong(store, txn, key, time);
+						}
+					}
 				});
 			} catch (Exception e) {
-				logger.error("Error writing issue visit timestamp", e);
+				logger.error("Error writing visit timestamps", e);
 			}
 			return null;
 		});
 	}
+	
+	@Override
+	public void visitIssue(User user, Issue issue) {
+		visit(issue.getProject().getId(), ISSUE_STORE, user.getId(), issue.getId());
+	}
 
 	@Override
 	public void visitPullRequest(User user, PullRequest request) {
-		Long projectId = request.getProject().getId();
-		Long userId = user.getId();
-		Long requestId = request.getId();
-		projectManager.submitToReplicaServers(projectId, () -> {
-			try {
-				Environment env = getEnv(projectId.toString());
-				Store store = getStore(env, PULL_REQUEST_STORE);
-				env.executeInTransaction(txn -> {
-					long time = new DateTime().plusSeconds(1).getMillis();
-					writeLong(store, txn, new LongsByteIterable(Lists.newArrayList(userId, requestId)), time);
-				});
-			} catch (Exception e) {
-				logger.error("Error writing pull request visit timestamp", e);
-			}
-			return null;
-		});
+		visit(request.getProject().getId(), PULL_REQUEST_STORE, user.getId(), request.getId());
 	}
 	
 	@Override
 	public void visitCodeComment(User user, CodeComment comment) {
-		Long projectId = comment.getProject().getId();
-		Long userId = user.getId();
-		Long commentId = comment.getId();
-		projectManager.submitToReplicaServers(projectId, () -> {
-			try {
-				Environment env = getEnv(projectId.toString());
-				Store store = getStore(env, CODE_COMMENT_STORE);
-				env.executeInTransaction(txn -> {
-					long time = new DateTime().plusSeconds(1).getMillis();
-					writeLong(store, txn, new LongsByteIterable(Lists.newArrayList(userId, commentId)), time);
-				});
-			} catch (Exception e) {
-				logger.error("Error writing code comment visit timestamp", e);
-			}
-			return null;
-		});
+		visit(comment.getProject().getId(), CODE_COMMENT_STORE, user.getId(), comment.getId());
 	}
 
 	@Override
 	public void visitPullRequestCodeComments(User user, PullRequest request) {
-		Long userId = user.getId();
-		Long projectId = request.getProject().getId();
-		Long requestId = request.getId();
-		projectManager.submitToReplicaServers(projectId, () -> {
-			try {
-				Environment env = getEnv(projectId.toString());
-				Store store = getStore(env, PULL_REQUEST_CODE_COMMENT_STORE);
-				env.executeInTransaction(txn -> {
-					long time = new DateTime().plusSeconds(1).getMillis();
-					writeLong(store, txn, new LongsByteIterable(Lists.newArrayList(userId, requestId)), time);
-				});
-			} catch (Exception e) {
-				logger.error("Error writing pull request code comments visit timestamp", e);
-			}
-			return null;
-		});
+		visit(request.getProject().getId(), PULL_REQUEST_CODE_COMMENT_STORE, user.getId(), request.getId());
 	}
 
 	@Override
 	public Date getPullRequestVisitDate(User user, PullRequest request) {
-		Long userId = user.getId();
-		Long requestId = request.getId();
-		Long projectId = request.getProject().getId();
-		return projectManager.runOnActiveServer(projectId, () -> {
-			Environment env = getEnv(projectId.toString());
-			Store store = getStore(env, PULL_REQUEST_STORE);
-			return env.computeInTransaction(txn -> {
-				long millis = readLong(store, txn, new LongsByteIterable(Lists.newArrayList(userId, requestId)), -1);
-				if (millis != -1)
-					return new Date(millis);
-				else
-					return null;
-			});
-		});
+		return getVisitDate(request.getProject().getId(), PULL_REQUEST_STORE, user.getId(), request.getId());
 	}
 
 	@Override
 	public Date getIssueVisitDate(User user, Issue issue) {
-		Long userId = user.getId();
-		Long projectId = issue.getProject().getId();
-		Long issueId = issue.getId();
-		return projectManager.runOnActiveServer(projectId, () -> {
-			Environment env = getEnv(projectId.toString());
-			Store store = getStore(env, ISSUE_STORE);
-			return env.computeInTransaction(txn -> {
-				long millis = readLong(store, txn, new LongsByteIterable(Lists.newArrayList(userId, issueId)), -1);
-				if (millis != -1)
-					return new Date(millis);
-				else
-					return null;
-			});
-		});
+		return getVisitDate(issue.getProject().getId(), ISSUE_STORE, user.getId(), issue.getId());
 	}
 	
 	@Override
 	public Date getCodeCommentVisitDate(User user, CodeComment comment) {
-		Long projectId = comment.getProject().getId();
-		Long commentId = comment.getId();
-		Long userId = user.getId();
-		return projectManager.runOnActiveServer(projectId, () -> {
-			Environment env = getEnv(projectId.toString());
-			Store store = getStore(env, CODE_COMMENT_STORE);
-			return env.computeInTransaction(txn -> {
-				long millis = readLong(store, txn, new LongsByteIterable(Lists.newArrayList(userId, commentId)), -1);
-				if (millis != -1)
-					return new Date(millis);
-				else
-					return null;
-			});
-		});
+		return getVisitDate(comment.getProject().getId(), CODE_COMMENT_STORE, user.getId(), comment.getId());
 	}
 
 	@Override
@@ -261,20 +255,37 @@ public class DefaultVisitInfoManager extends AbstractMultiEnvironmentManager
 
 	@Override
 	public Date getPullRequestCodeCommentsVisitDate(User user, PullRequest request) {
-		Long userId = user.getId();
-		Long projectId = request.getProject().getId();
-		Long requestId = request.getId();
-		return projectManager.runOnActiveServer(projectId, () -> {
-			Environment env = getEnv(projectId.toString());
-			Store store = getStore(env, PULL_REQUEST_CODE_COMMENT_STORE);
-			return env.computeInTransaction(txn -> {
-				long millis = readLong(store, txn, new LongsByteIterable(Lists.newArrayList(userId, requestId)), -1);
-				if (millis != -1)
-					return new Date(millis);
-				else
-					return null;
-			});
-		});
+		return getVisitDate(request.getProject().getId(), PULL_REQUEST_CODE_COMMENT_STORE, 
+				user.getId(), request.getId());
+	}
+	
+	@Listen
+	public void on(SystemStarted event) {
+		taskId = taskScheduler.schedule(this);
+	}
+	
+	@Listen
+	public void on(SystemStopping event) {
+		if (taskId != null)
+			taskScheduler.unschedule(taskId);
+		execute();
+	}
+	
+	@Override
+	public void execute() {
+		for (Long projectId: pendingVisits.keySet()) {
+			try {
+				flush(projectId);
+			} catch (Exception e) {
+				logger.error("Error flushing visit timestamps", e);
+			}
+		}
+	}
+	
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.simpleSchedule()
+				.withIntervalInMilliseconds(FLUSH_INTERVAL).repeatForever();
 	}
 	
 	@Listen
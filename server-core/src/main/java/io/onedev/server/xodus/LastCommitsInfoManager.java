@@ -0,0 +1,24 @@
+package io.onedev.server.xodus;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.LastCommitsOfChildren;
+
+public interface LastCommitsInfoManager {
+
+	/**
+	 * Get last commits of children of specified path. This method should be called on active
+	 * server of the project
+	 *
+	 * @param projectId
+	 * 			id of the project
+	 * @param commitId
+	 * 			get last commits no newer than this commit
+	 * @param path
+	 * 			parent directory to get last commits of children, use <tt>null</tt> or empty
+	 * 			string for repository root
+	 */
+	LastCommitsOfChildren getLastCommitsOfChildren(Long projectId, ObjectId commitId, @Nullable String path);
+
+}
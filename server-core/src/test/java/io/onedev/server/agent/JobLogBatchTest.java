@@ -0,0 +1,108 @@
+package io.onedev.server.agent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.Test;
+
+public class JobLogBatchTest {
+
+	private byte[] encode(boolean compress, String jobToken, String... sessionIdAndMessages) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		baos.write(0);
+		baos.write(compress? 1: 0);
+		try (DataOutputStream os = new DataOutputStream(compress? new DeflaterOutputStream(baos): baos)) {
+			writeString(os, jobToken);
+			os.writeInt(sessionIdAndMessages.length / 2);
+			for (String value: sessionIdAndMessages)
+				writeString(os, value);
+		}
+		return baos.toByteArray();
+	}
+
+	private void writeString(DataOutputStream os, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		os.writeInt(bytes.length);
+		os.write(bytes);
+	}
+
+	@Test
+	public void testBatch() throws IOException {
+		for (boolean compress: new boolean[] {false, true}) {
+			JobLogBatch batch = JobLogBatch.parse(encode(compress, "token", 
+					"", "first line", "session", "second: line", "", "\u7b2c\u4e09\u884c"));
+			assertEquals("token", batch.getJobToken());
+			assertEquals(3, batch.getMessages().size());
+			assertNull(batch.getMessages().get(0).getSessionId());
+			assertEquals("first line", batch.getMessages().get(0).getMessage());
+			assertEquals("session", batch.getMessages().get(1).getSessionId());
+			assertEquals("second: line", batch.getMessages().get(1).getMessage());
+			assertEquals("\u7b2c\u4e09\u884c", batch.getMessages().get(2).getMessage());
+		}
+	}
+
+	@Test
+	public void testSingleLine() {
+		JobLogBatch batch = JobLogBatch.parse("token:session:message: with colon".getBytes(StandardCharsets.UTF_8));
+		assertEquals("token", batch.getJobToken());
+		assertEquals(1, batch.getMessages().size());
+		assertEquals("session", batch.getMessages().get(0).getSessionId());
+		assertEquals("message: with colon", batch.getMessages().get(0).getMessage());
+
+		batch = JobLogBatch.parse("token::message".getBytes(StandardCharsets.UTF_8));
+		assertNull(batch.getMessages().get(0).getSessionId());
+		assertEquals("message", batch.getMessages().get(0).getMessage());
+
+		batch = JobLogBatch.parse("token:message".getBytes(StandardCharsets.UTF_8));
+		assertEquals("token", batch.getJobToken());
+		assertNull(batch.getMessages().get(0).getSessionId());
+		assertEquals("message", batch.getMessages().get(0).getMessage());
+
+		assertEquals(0, JobLogBatch.parse("token".getBytes(StandardCharsets.UTF_8)).getMessages().size());
+	}
+
+	@Test
+	public void testMalformedBatch() throws IOException {
+		for (boolean compress: new boolean[] {false, true}) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			baos.write(0);
+			baos.write(compress? 1: 0);
+			try (DataOutputStream os = new DataOutputStream(compress? new DeflaterOutputStream(baos): baos)) {
+				writeString(os, "token");
+				os.writeInt(Integer.MAX_VALUE);
+			}
+			assertMalformed(baos.toByteArray());
+
+			baos = new ByteArrayOutputStream();
+			baos.write(0);
+			baos.write(compress? 1: 0);
+			try (DataOutputStream os = new DataOutputStream(compress? new DeflaterOutputStream(baos): baos)) {
+				os.writeInt(Integer.MAX_VALUE);
+			}
+			assertMalformed(baos.toByteArray());
+		}
+
+		byte[] data = encode(false, "token", "session", "message");
+		assertMalformed(Arrays.copyOf(data, data.length - 1));
+
+		// Body decompressed beyond limit
+		assertMalformed(encode(true, "token", "", new String(new char[JobLogBatch.MAX_BODY_BYTES])));
+	}
+
+	private void assertMalformed(byte[] data) {
+		try {
+			JobLogBatch.parse(data);
+			fail("Malformed batch should be rejected");
+		} catch (RuntimeException e) {
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+package io.onedev.server.entitymanager.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import io.onedev.server.entitymanager.impl.PullRequestCheckQueue.PendingCheck;
+
+public class PullRequestCheckQueueTest {
+
+	@Test
+	public void testCoalesce() {
+		PullRequestCheckQueue queue = new PullRequestCheckQueue();
+		assertTrue(queue.add(1L, false, false, false, 0));
+		assertTrue(queue.add(1L, true, false, false, 0));
+		List<PendingCheck> checks = queue.poll(0);
+		assertEquals(1, checks.size());
+		assertTrue(checks.get(0).sourceUpdated);
+		assertFalse(checks.get(0).updateBuildCommit);
+
+		// Check of same request should not be dispatched while previous one is running
+		assertFalse(queue.add(1L, false, true, false, 0));
+		assertTrue(queue.poll(0).isEmpty());
+		queue.finish(1L);
+		checks = queue.poll(0);
+		assertEquals(1, checks.size());
+		assertFalse(checks.get(0).sourceUpdated);
+		assertTrue(checks.get(0).updateBuildCommit);
+	}
+
+	@Test
+	public void testDebounce() {
+		PullRequestCheckQueue queue = new PullRequestCheckQueue();
+		long delay = PullRequestCheckQueue.DEBOUNCE_DELAY;
+		assertFalse(queue.add(1L, false, false, true, 0));
+		assertFalse(queue.add(1L, false, false, true, delay - 1));
+		assertTrue(queue.poll(delay).isEmpty());
+		assertEquals(1, queue.poll(2 * delay).size());
+
+		// Continuous target branch updates should not postpone check forever
+		queue = new PullRequestCheckQueue();
+		long time = 0;
+		while (time < PullRequestCheckQueue.MAX_DEBOUNCE_DELAY) {
+			queue.add(1L, false, false, true, time);
+			assertTrue(queue.poll(time).isEmpty());
+			time += delay / 2;
+		}
+		assertEquals(1, queue.poll(time).size());
+	}
+
+	@Test
+	public void testPrioritize() {
+		PullRequestCheckQueue queue = new PullRequestCheckQueue();
+		queue.add(1L, false, false, false, 0);
+		queue.add(2L, false, false, true, 0);
+		assertFalse(queue.prioritize(3L, 0));
+		assertTrue(queue.prioritize(2L, 0));
+		List<PendingCheck> checks = queue.poll(0);
+		assertEquals(2, checks.size());
+		assertEquals(Long.valueOf(2L), checks.get(0).requestId);
+	}
+
+}
@@ -0,0 +1,130 @@
+package io.onedev.server.git;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jgit.transport.PacketLineOut;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.util.DiskCache;
+
+public class DefaultUploadPackCacheManagerTest extends AbstractGitTest {
+
+	private static final String COMMIT1 = "1111111111111111111111111111111111111111";
+
+	private static final String COMMIT2 = "2222222222222222222222222222222222222222";
+
+	private byte[] newRequest(String... lines) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		PacketLineOut pckOut = new PacketLineOut(baos);
+		for (String line: lines) {
+			if (line == null)
+				pckOut.end();
+			else if (line.equals("0001"))
+				pckOut.writeDelim();
+			else
+				pckOut.writeString(line + "\n");
+		}
+		return baos.toByteArray();
+	}
+
+	@Test
+	public void testProtocolV0() throws IOException {
+		String normalized1 = DefaultUploadPackCacheManager.normalizeRequest(newRequest(
+				"want " + COMMIT1 + " side-band-64k ofs-delta agent=git/2.39.0", null,
+				"have " + COMMIT2, "done"));
+		String normalized2 = DefaultUploadPackCacheManager.normalizeRequest(newRequest(
+				"want " + COMMIT1 + " ofs-delta agent=git/2.43.0 side-band-64k", null,
+				"have " + COMMIT2, "done"));
+		assertNotNull(normalized1);
+		assertEquals(normalized1, normalized2);
+
+		// Negotiation not finished yet
+		assertNull(DefaultUploadPackCacheManager.normalizeRequest(newRequest(
+				"want " + COMMIT1 + " side-band-64k ofs-delta", null, "have " + COMMIT2, null)));
+
+		// Completeness of response without side band can not be verified
+		assertNull(DefaultUploadPackCacheManager.normalizeRequest(newRequest(
+				"want " + COMMIT1 + " ofs-delta", null, "done")));
+	}
+
+	@Test
+	public void testProtocolV2() throws IOException {
+		String normalized1 = DefaultUploadPackCacheManager.normalizeRequest(newRequest(
+				"command=fetch", "agent=git/2.39.0", "object-format=sha1", "0001",
+				"thin-pack", "ofs-delta", "deepen 1", "want " + COMMIT1, "done", null));
+		String normalized2 = DefaultUploadPackCacheManager.normalizeRequest(newRequest(
+				"command=fetch", "agent=git/2.43.0", "session-id=abc", "object-format=sha1", "0001",
+				"thin-pack", "ofs-delta", "deepen 1", "want " + COMMIT1, "done", null));
+		assertNotNull(normalized1);
+		assertEquals(normalized1, normalized2);
+
+		assertNull(DefaultUploadPackCacheManager.normalizeRequest(newRequest(
+				"command=ls-refs", "agent=git/2.39.0", "0001", "peel", null)));
+	}
+
+	@Test
+	public void testMalformedRequest() {
+		assertNull(DefaultUploadPackCacheManager.normalizeRequest("00zzdone".getBytes(UTF_8)));
+		assertNull(DefaultUploadPackCacheManager.normalizeRequest("0032want".getBytes(UTF_8)));
+	}
+
+	@Test
+	public void testGzippedRequest() throws Exception {
+		addFileAndCommit("file", "content", "initial commit");
+
+		ProjectManager projectManager = Mockito.mock(ProjectManager.class);
+		Mockito.when(projectManager.getRepository(1L)).thenReturn(git.getRepository());
+		File cacheDir = FileUtils.createTempDir();
+		try {
+			DefaultUploadPackCacheManager manager = new DefaultUploadPackCacheManager(projectManager, 
+					new DiskCache(cacheDir, 1024 * 1024));
+
+			byte[] request = newRequest("want " + COMMIT1 + " side-band-64k ofs-delta", null, "done");
+			ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+			try (OutputStream os = new GZIPOutputStream(gzipped)) {
+				os.write(request);
+			}
+
+			List<byte[]> receivedRequests = new ArrayList<>();
+			UploadPackCacheManager.Runner runner = (input, output) -> {
+				try {
+					receivedRequests.add(IOUtils.toByteArray(input));
+					output.write("0009\u0001PACK0000".getBytes(UTF_8));
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			};
+
+			ByteArrayOutputStream response1 = new ByteArrayOutputStream();
+			manager.uploadPack(1L, null, new ByteArrayInputStream(gzipped.toByteArray()), 
+					response1, runner);
+			ByteArrayOutputStream response2 = new ByteArrayOutputStream();
+			manager.uploadPack(1L, null, new ByteArrayInputStream(request), response2, runner);
+
+			// Gzipped request is decompressed for upload pack, and cached response is shared 
+			// with identical plain request
+			assertEquals(1, receivedRequests.size());
+			assertEquals(new String(request, UTF_8), new String(receivedRequests.get(0), UTF_8));
+			assertEquals(response1.toString(UTF_8), response2.toString(UTF_8));
+		} finally {
+			FileUtils.deleteDir(cacheDir);
+		}
+	}
+
+}
@@ -0,0 +1,289 @@
+package io.onedev.server.job;
+
+import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.hazelcast.core.EntryListener;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.replicatedmap.ReplicatedMap;
+
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.cluster.ClusterRunnable;
+import io.onedev.server.cluster.ClusterTask;
+import io.onedev.server.entitymanager.AgentManager;
+import io.onedev.server.event.entity.EntityPersisted;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStarting;
+import io.onedev.server.model.Agent;
+import io.onedev.server.model.AgentAttribute;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.taskschedule.TaskScheduler;
+
+public class DefaultResourceAllocatorTest {
+
+	private static final String SERVER = "server1";
+
+	private final AgentManager agentManager = mock(AgentManager.class);
+
+	private final ClusterManager clusterManager = mock(ClusterManager.class);
+
+	private final JobManager jobManager = mock(JobManager.class);
+
+	private DefaultResourceAllocator newAllocator() {
+		TransactionManager transactionManager = mock(TransactionManager.class);
+		doAnswer(invocation -> {
+			invocation.getArgument(0, Runnable.class).run();
+			return null;
+		}).when(transactionManager).runAfterCommit(any());
+
+		var allocator = new DefaultResourceAllocator(agentManager, transactionManager,
+				clusterManager, jobManager, mock(TaskScheduler.class));
+
+		when(clusterManager.getLocalServerAddress()).thenReturn(SERVER);
+		when(clusterManager.getOnlineServers()).thenReturn(Lists.newArrayList(SERVER));
+		when(clusterManager.getServerAddresses()).thenAnswer(invocation -> Lists.newArrayList(SERVER));
+		when(clusterManager.submitToServer(anyString(), any(ClusterTask.class))).thenAnswer(invocation -> {
+			ClusterTask<?> task = invocation.getArgument(1);
+			return CompletableFuture.completedFuture(task.call());
+		});
+		when(clusterManager.submitToAllServers(any(ClusterTask.class))).thenAnswer(invocation -> {
+			ClusterTask<?> task = invocation.getArgument(0);
+			return Collections.singletonMap(SERVER, CompletableFuture.completedFuture(task.call()));
+		});
+
+		HazelcastInstance hazelcastInstance = mock(HazelcastInstance.class);
+		when(clusterManager.getHazelcastInstance()).thenReturn(hazelcastInstance);
+		when(hazelcastInstance.getReplicatedMap(anyString())).thenAnswer(invocation -> newReplicatedMap());
+
+		allocator.on(new SystemStarting());
+		return allocator;
+	}
+
+	/**
+	 * Mock replicated map backed by a local map, and notifying entry listeners synchronously
+	 * upon change
+	 */
+	@SuppressWarnings("unchecked")
+	private ReplicatedMap<Object, Object> newReplicatedMap() {
+		Map<Object, Object> map = new ConcurrentHashMap<>();
+		List<EntryListener<Object, Object>> listeners = new ArrayList<>();
+		return mock(ReplicatedMap.class, invocation -> {
+			var method = invocation.getMethod();
+			if (method.getName().equals("addEntryListener")) {
+				listeners.add(invocation.getArgument(0));
+				return null;
+			}
+			Object result;
+			try {
+				result = Map.class.getMethod(method.getName(), method.getParameterTypes())
+						.invoke(map, invocation.getArguments());
+			} catch (NoSuchMethodException e) {
+				return null;
+			}
+			if (method.getName().startsWith("put") || method.getName().startsWith("remove")) {
+				for (var listener: listeners)
+					listener.entryUpdated(null);
+			}
+			return result;
+		});
+	}
+
+	@Test
+	public void shouldCountAllocationsUntilAcquired() throws InterruptedException {
+		var allocator = newAllocator();
+
+		var acquireGate = new CountDownLatch(1);
+		var firstJobAllocated = new CountDownLatch(1);
+		var runJobCount = new AtomicInteger();
+		doAnswer(invocation -> {
+			if (runJobCount.incrementAndGet() == 1) {
+				// Hold first job after allocation and before acquiring on the resource node
+				firstJobAllocated.countDown();
+				acquireGate.await();
+			}
+			invocation.getArgument(1, ClusterRunnable.class).run();
+			return null;
+		}).when(jobManager).runJob(anyString(), any(ClusterRunnable.class));
+
+		var runningJobs = new AtomicInteger();
+		var maxRunningJobs = new AtomicInteger();
+		ClusterRunnable job = () -> {
+			maxRunningJobs.accumulateAndGet(runningJobs.incrementAndGet(), Math::max);
+			sleepUninterruptibly(10, MILLISECONDS);
+			runningJobs.decrementAndGet();
+		};
+
+		var firstJob = new Thread(() -> allocator.runServerJob("test", 1, 1, job));
+		firstJob.start();
+		assertTrue(firstJobAllocated.await(10, TimeUnit.SECONDS));
+
+		var secondJob = new Thread(() -> allocator.runServerJob("test", 1, 1, job));
+		secondJob.start();
+		waitForQueueLength(allocator, 1);
+
+		// Trigger another allocation round while first job is still not acquired
+		allocator.on(new SystemStarted());
+		Thread.sleep(100);
+		assertEquals(1, runJobCount.get());
+		assertEquals(1, getQueueLength(allocator));
+
+		acquireGate.countDown();
+		firstJob.join(10000);
+		secondJob.join(10000);
+
+		// Each server job calls runJob twice: once to acquire and once to run
+		assertEquals(4, runJobCount.get());
+		assertEquals(1, maxRunningJobs.get());
+	}
+
+	@Test
+	public void shouldPruneEmptyWaitQueues() throws InterruptedException {
+		var allocator = newAllocator();
+		doAnswer(invocation -> {
+			invocation.getArgument(1, ClusterRunnable.class).run();
+			return null;
+		}).when(jobManager).runJob(anyString(), any(ClusterRunnable.class));
+
+		List<Thread> jobs = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			var resourceType = "test" + i;
+			var thread = new Thread(() -> allocator.runServerJob(resourceType, 2, 1,
+					() -> sleepUninterruptibly(10, MILLISECONDS)));
+			jobs.add(thread);
+			thread.start();
+		}
+		for (var job: jobs)
+			job.join(10000);
+		assertTrue(allocator.getMetrics().isEmpty());
+	}
+
+	@Test
+	public void shouldOnlyBroadcastChangedAgents() {
+		var allocator = newAllocator();
+
+		var agent = new Agent();
+		agent.setId(1L);
+		agent.setName("agent1");
+		agent.setCpus(4);
+		var attribute = new AgentAttribute();
+		attribute.setAgent(agent);
+		attribute.setName("os");
+		attribute.setValue("linux");
+		agent.getAttributes().add(attribute);
+
+		when(agentManager.getOnlineAgents()).thenReturn(Lists.newArrayList(1L));
+		when(agentManager.get(1L)).thenReturn(agent);
+		allocator.on(new SystemStarted());
+
+		// Persisting for changes such as last used date should not be broadcasted
+		allocator.on(new EntityPersisted(agent, false));
+		verify(clusterManager, never()).submitToAllServers(any());
+
+		attribute.setValue("windows");
+		allocator.on(new EntityPersisted(agent, false));
+		verify(clusterManager, times(1)).submitToAllServers(any());
+
+		allocator.on(new EntityPersisted(agent, false));
+		verify(clusterManager, times(1)).submitToAllServers(any());
+
+		agent.setPaused(true);
+		allocator.on(new EntityPersisted(agent, false));
+		verify(clusterManager, times(2)).submitToAllServers(any());
+
+		// Offline agents are not indexed
+		var offlineAgent = new Agent();
+		offlineAgent.setId(2L);
+		allocator.on(new EntityPersisted(offlineAgent, false));
+		verify(clusterManager, times(2)).submitToAllServers(any());
+	}
+
+	@Test
+	public void shouldReleaseAllocationOfInterruptedWaiter() throws InterruptedException {
+		var allocator = newAllocator();
+		doAnswer(invocation -> {
+			invocation.getArgument(1, ClusterRunnable.class).run();
+			return null;
+		}).when(jobManager).runJob(anyString(), any(ClusterRunnable.class));
+
+		var serverOnline = new AtomicBoolean(false);
+		var waitingJob = new AtomicReference<Thread>();
+		when(clusterManager.getOnlineServers()).thenAnswer(invocation -> {
+			if (serverOnline.get()) {
+				// Interrupt waiting job in the middle of allocating resource for it
+				var thread = waitingJob.getAndSet(null);
+				if (thread != null)
+					thread.interrupt();
+				return Lists.newArrayList(SERVER);
+			} else {
+				return new ArrayList<>();
+			}
+		});
+
+		var jobRun = new AtomicBoolean(false);
+		var interrupted = new AtomicBoolean(false);
+		var firstJob = new Thread(() -> {
+			try {
+				allocator.runServerJob("test", 1, 1, () -> jobRun.set(true));
+			} catch (RuntimeException e) {
+				interrupted.set(e.getCause() instanceof InterruptedException);
+			}
+		});
+		waitingJob.set(firstJob);
+		firstJob.start();
+		waitForQueueLength(allocator, 1);
+
+		serverOnline.set(true);
+		allocator.on(new SystemStarted());
+		firstJob.join(10000);
+		assertTrue(interrupted.get());
+		assertFalse(jobRun.get());
+
+		// Allocation of interrupted job should not be counted as pending
+		var secondJob = new Thread(() -> allocator.runServerJob("test", 1, 1, () -> jobRun.set(true)));
+		secondJob.start();
+		secondJob.join(10000);
+		assertTrue(jobRun.get());
+	}
+
+	private int getQueueLength(DefaultResourceAllocator allocator) {
+		Collection<ResourceAllocationMetrics> metrics = allocator.getMetrics();
+		return metrics.stream().mapToInt(ResourceAllocationMetrics::getQueueLength).sum();
+	}
+
+	private void waitForQueueLength(DefaultResourceAllocator allocator, int queueLength)
+			throws InterruptedException {
+		long timeout = System.currentTimeMillis() + 10000;
+		while (getQueueLength(allocator) != queueLength) {
+			assertTrue(System.currentTimeMillis() < timeout);
+			Thread.sleep(10);
+		}
+	}
+
+}
@@ -0,0 +1,137 @@
+package io.onedev.server.job.log;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.buildspec.job.log.JobLogEntryEx;
+import io.onedev.server.buildspec.job.log.Message;
+import io.onedev.server.buildspec.job.log.Style;
+
+public class JobLogFileTest {
+
+	private List<JobLogEntryEx> newEntries(int from, int count) {
+		List<JobLogEntryEx> entries = new ArrayList<>();
+		for (int i=from; i<from+count; i++) {
+			Style style;
+			if (i % 3 == 0)
+				style = new Style("31", Style.BACKGROUND_COLOR_DEFAULT, true);
+			else
+				style = new StyleBuilder().build();
+			entries.add(new JobLogEntryEx(new Date(i), Lists.newArrayList(
+					new Message(style, "line " + i), new Message(new StyleBuilder().build(), " end"))));
+		}
+		return entries;
+	}
+
+	private void assertEntries(int from, List<JobLogEntryEx> entries) {
+		List<JobLogEntryEx> expected = newEntries(from, entries.size());
+		for (int i=0; i<entries.size(); i++) {
+			assertEquals(expected.get(i).getDate(), entries.get(i).getDate());
+			assertEquals(expected.get(i).getMessages(), entries.get(i).getMessages());
+		}
+	}
+
+	@Test
+	public void test() {
+		File tempDir = FileUtils.createTempDir();
+		try {
+			JobLogFile logFile = new JobLogFile(tempDir);
+			assertEquals(0, logFile.getEntryCount());
+			assertEquals(0, logFile.read(0, 0).size());
+
+			logFile.append(newEntries(0, 100));
+			logFile.append(newEntries(100, 1000));
+			logFile.append(newEntries(1100, 1));
+			assertEquals(1101, logFile.getEntryCount());
+
+			List<JobLogEntryEx> entries = logFile.read(0, 0);
+			assertEquals(1101, entries.size());
+			assertEntries(0, entries);
+
+			entries = logFile.read(255, 300);
+			assertEquals(300, entries.size());
+			assertEntries(255, entries);
+
+			entries = logFile.read(1000, 500);
+			assertEquals(101, entries.size());
+			assertEntries(1000, entries);
+
+			assertEquals(0, logFile.read(2000, 0).size());
+
+			List<JobLogEntryEx> visited = new ArrayList<>();
+			logFile.visit(entry -> {
+				visited.add(entry);
+				return visited.size() < 10;
+			});
+			assertEquals(10, visited.size());
+			assertEntries(0, visited);
+		} finally {
+			FileUtils.deleteDir(tempDir);
+		}
+	}
+
+	@Test
+	public void testIncrementalAppend() {
+		File incrementalDir = FileUtils.createTempDir();
+		File bulkDir = FileUtils.createTempDir();
+		try {
+			JobLogFile incrementalFile = new JobLogFile(incrementalDir);
+			for (int i=0; i<600; i++)
+				incrementalFile.append(newEntries(i, 1));
+			JobLogFile bulkFile = new JobLogFile(bulkDir);
+			bulkFile.append(newEntries(0, 600));
+
+			// Partial last block should be rewritten in place without leaving stale data
+			assertEquals(new File(bulkDir, JobLogFile.DATA_FILE_NAME).length(), 
+					new File(incrementalDir, JobLogFile.DATA_FILE_NAME).length());
+			assertEquals(600, incrementalFile.getEntryCount());
+
+			try (JobLogFile.Reader reader = incrementalFile.openReader()) {
+				List<JobLogEntryEx> entries = reader.read(0, 256);
+				assertEquals(256, entries.size());
+				assertEntries(0, entries);
+				entries = reader.read(256, 0);
+				assertEquals(344, entries.size());
+				assertEntries(256, entries);
+			}
+		} finally {
+			FileUtils.deleteDir(incrementalDir);
+			FileUtils.deleteDir(bulkDir);
+		}
+	}
+
+	@Test(timeout = 10000, expected = RuntimeException.class)
+	public void testTruncatedBlock() throws IOException {
+		File tempDir = FileUtils.createTempDir();
+		try {
+			JobLogFile logFile = new JobLogFile(tempDir);
+			logFile.append(newEntries(0, 256));
+
+			// Keep block header consistent but drop second half of compressed data
+			try (RandomAccessFile data = new RandomAccessFile(
+					new File(tempDir, JobLogFile.DATA_FILE_NAME), "rw")) {
+				assertEquals(1, data.readByte());
+				data.readInt();
+				int storedLength = data.readInt();
+				data.seek(5);
+				data.writeInt(storedLength / 2);
+				data.setLength(9 + storedLength / 2);
+			}
+			logFile.read(0, 0);
+		} finally {
+			FileUtils.deleteDir(tempDir);
+		}
+	}
+
+}
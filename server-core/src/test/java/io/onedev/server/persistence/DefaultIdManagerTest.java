@@ -0,0 +1,133 @@
+package io.onedev.server.persistence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.mapping.PersistentClass;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.hazelcast.cp.IAtomicLong;
+
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.data.DataManager;
+import io.onedev.server.model.BuildParam;
+import io.onedev.server.model.User;
+
+public class DefaultIdManagerTest {
+
+	// Cluster wide counters shared by all servers
+	private final Map<String, IAtomicLong> counters = new ConcurrentHashMap<>();
+
+	private DefaultIdManager newIdManager() throws SQLException {
+		DataManager dataManager = mock(DataManager.class);
+		when(dataManager.openConnection()).thenReturn(mock(Connection.class));
+
+		ClusterManager clusterManager = mock(ClusterManager.class, RETURNS_DEEP_STUBS);
+		when(clusterManager.getHazelcastInstance().getCPSubsystem().getAtomicLong(anyString()))
+				.thenAnswer(invocation -> counters.computeIfAbsent(invocation.getArgument(0), it -> newCounter()));
+
+		List<PersistentClass> entityBindings = Lists.newArrayList(
+				newEntityBinding(User.class), newEntityBinding(BuildParam.class));
+		Metadata metadata = mock(Metadata.class);
+		when(metadata.getEntityBindings()).thenReturn(entityBindings);
+		SessionFactoryManager sessionFactoryManager = mock(SessionFactoryManager.class);
+		when(sessionFactoryManager.getMetadata()).thenReturn(metadata);
+
+		DefaultIdManager idManager = new DefaultIdManager(dataManager, clusterManager, sessionFactoryManager);
+		idManager.init();
+		return idManager;
+	}
+
+	private PersistentClass newEntityBinding(Class<?> entityClass) {
+		PersistentClass entityBinding = mock(PersistentClass.class);
+		doReturn(entityClass).when(entityBinding).getMappedClass();
+		return entityBinding;
+	}
+
+	/**
+	 * Mock counter backed by a local atomic long, starting from 1 as in an empty database
+	 */
+	private IAtomicLong newCounter() {
+		AtomicLong value = new AtomicLong(1);
+		IAtomicLong counter = mock(IAtomicLong.class);
+		when(counter.get()).thenAnswer(invocation -> value.get());
+		when(counter.getAndIncrement()).thenAnswer(invocation -> value.getAndIncrement());
+		when(counter.getAndAdd(anyLong())).thenAnswer(invocation -> value.getAndAdd(invocation.<Long>getArgument(0)));
+		when(counter.getAndAddAsync(anyLong())).thenAnswer(invocation ->
+				CompletableFuture.completedFuture(value.getAndAdd(invocation.<Long>getArgument(0))));
+		when(counter.compareAndSet(anyLong(), anyLong())).thenAnswer(invocation ->
+				value.compareAndSet(invocation.<Long>getArgument(0), invocation.<Long>getArgument(1)));
+		return counter;
+	}
+
+	@Test
+	public void shouldAllocateUniqueIdsInBlocks() throws SQLException {
+		DefaultIdManager server1 = newIdManager();
+		DefaultIdManager server2 = newIdManager();
+
+		Set<Long> ids = new HashSet<>();
+		for (int i = 0; i < 5000; i++) {
+			assertTrue(ids.add(server1.nextId(BuildParam.class)));
+			assertTrue(ids.add(server2.nextId(BuildParam.class)));
+		}
+
+		// Ids are handed out sequentially within leased blocks
+		long id = server1.nextId(BuildParam.class);
+		assertEquals(id + 1, server1.nextId(BuildParam.class));
+
+		// Counter is only consulted when leasing blocks
+		verify(counters.get(BuildParam.class.getName()), never()).getAndIncrement();
+	}
+
+	@Test
+	public void shouldAllocateOtherIdsInOrder() throws SQLException {
+		DefaultIdManager server1 = newIdManager();
+		DefaultIdManager server2 = newIdManager();
+
+		assertEquals(1, server1.nextId(User.class));
+		assertEquals(2, server2.nextId(User.class));
+		assertEquals(3, server1.nextId(User.class));
+	}
+
+	@Test
+	public void shouldNotAllocateUsedIds() throws SQLException {
+		DefaultIdManager server1 = newIdManager();
+		DefaultIdManager server2 = newIdManager();
+
+		server1.useId(User.class, 10);
+		assertTrue(server2.nextId(User.class) > 10);
+
+		// Used id lower than next id should not move counter back
+		long nextId = server1.nextId(User.class);
+		server2.useId(User.class, 5);
+		assertTrue(server1.nextId(User.class) > nextId);
+
+		try {
+			server1.useId(BuildParam.class, 100);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+
+}
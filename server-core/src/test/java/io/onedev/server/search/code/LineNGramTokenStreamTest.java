@@ -0,0 +1,40 @@
+package io.onedev.server.search.code;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class LineNGramTokenStreamTest {
+
+	@Test
+	public void test() throws IOException {
+		List<String> tokens = new ArrayList<>();
+		List<Integer> positions = new ArrayList<>();
+		try (LineNGramTokenStream stream = new LineNGramTokenStream("aBcd\nxy\n\nEfg\n", 3)) {
+			CharTermAttribute termAttr = stream.getAttribute(CharTermAttribute.class);
+			PositionIncrementAttribute posIncAttr = stream.getAttribute(PositionIncrementAttribute.class);
+			stream.reset();
+			int position = -1;
+			while (stream.incrementToken()) {
+				position += posIncAttr.getPositionIncrement();
+				tokens.add(termAttr.toString());
+				positions.add(position);
+			}
+			stream.end();
+		}
+		assertEquals(Lists.newArrayList("abc", "bcd", "efg"), tokens);
+		int lineEfg = 3 * LineNGramTokenStream.LINE_POSITIONS;
+		assertEquals(Lists.newArrayList(0, 1, lineEfg), positions);
+		assertEquals(3, LineNGramTokenStream.getLine(lineEfg + 2));
+		assertEquals(2, LineNGramTokenStream.getColumn(lineEfg + 2));
+	}
+
+}
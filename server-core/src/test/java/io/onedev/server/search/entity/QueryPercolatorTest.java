@@ -0,0 +1,108 @@
+package io.onedev.server.search.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.junit.Test;
+
+import io.onedev.server.model.Issue;
+import io.onedev.server.model.IssueField;
+import io.onedev.server.model.Project;
+import io.onedev.server.search.entity.issue.ChoiceFieldCriteria;
+import io.onedev.server.search.entity.issue.IssueQuery;
+import io.onedev.server.search.entity.issue.IssueQueryLexer;
+import io.onedev.server.search.entity.issue.ProjectCriteria;
+import io.onedev.server.search.entity.issue.StateCriteria;
+import io.onedev.server.util.criteria.AndCriteria;
+import io.onedev.server.util.criteria.OrCriteria;
+
+public class QueryPercolatorTest {
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void test() {
+		IssueQuery openQuery = new IssueQuery(new StateCriteria("Open", IssueQueryLexer.Is));
+		IssueQuery closedInProjectQuery = new IssueQuery(new AndCriteria<>(
+				new ProjectCriteria("a/b", IssueQueryLexer.Is), 
+				new StateCriteria("Closed", IssueQueryLexer.Is)));
+		IssueQuery notClosedQuery = new IssueQuery(new OrCriteria<>(
+				new StateCriteria("Open", IssueQueryLexer.Is), 
+				new StateCriteria("Closed", IssueQueryLexer.IsNot)));
+		IssueQuery wildcardProjectQuery = new IssueQuery(new ProjectCriteria("a/*", IssueQueryLexer.Is));
+		IssueQuery allQuery = new IssueQuery();
+		
+		QueryPercolator<Issue> percolator = new QueryPercolator<>();
+		percolator.add(openQuery);
+		percolator.add(closedInProjectQuery);
+		percolator.add(notClosedQuery);
+		percolator.add(wildcardProjectQuery);
+		percolator.add(allQuery);
+		
+		Project project = new Project();
+		project.setPath("a/c");
+		Issue issue = new Issue();
+		issue.setProject(project);
+		issue.setState("Open");
+		
+		Set<EntityQuery<Issue>> candidates = percolator.getCandidates(issue);
+		assertEquals(4, candidates.size());
+		assertTrue(candidates.contains(openQuery));
+		assertTrue(candidates.contains(notClosedQuery));
+		assertTrue(candidates.contains(wildcardProjectQuery));
+		assertTrue(candidates.contains(allQuery));
+		
+		project.setPath("a/b");
+		issue.setState("Closed");
+		candidates = percolator.getCandidates(issue);
+		assertEquals(4, candidates.size());
+		assertTrue(candidates.contains(closedInProjectQuery));
+	}
+
+	@Test
+	public void testFields() {
+		IssueQuery assignedQuery = new IssueQuery(new AndCriteria<>(
+				new StateCriteria("Open", IssueQueryLexer.Is), 
+				new ChoiceFieldCriteria("Assignees", "robin", -1, IssueQueryLexer.Is, true)));
+		IssueQuery notAssignedQuery = new IssueQuery(
+				new ChoiceFieldCriteria("Assignees", "robin", -1, IssueQueryLexer.IsNot, true));
+		IssueQuery typeQuery = new IssueQuery(
+				new ChoiceFieldCriteria("Type", "Bug", 0, IssueQueryLexer.Is, false));
+		
+		QueryPercolator<Issue> percolator = new QueryPercolator<>();
+		percolator.add(assignedQuery);
+		percolator.add(notAssignedQuery);
+		percolator.add(typeQuery);
+		
+		Project project = new Project();
+		project.setPath("a");
+		Issue issue = new Issue();
+		issue.setProject(project);
+		issue.setState("Open");
+		issue.getFields().add(newField(issue, "Assignees", "alex"));
+		issue.getFields().add(newField(issue, "Assignees", "robin"));
+		
+		Set<EntityQuery<Issue>> candidates = percolator.getCandidates(issue);
+		assertEquals(2, candidates.size());
+		assertTrue(candidates.contains(assignedQuery));
+		assertTrue(candidates.contains(notAssignedQuery));
+		
+		issue.getFields().clear();
+		issue.getFields().add(newField(issue, "Type", "Bug"));
+		issue.getFields().add(newField(issue, "Assignees", null));
+		candidates = percolator.getCandidates(issue);
+		assertEquals(2, candidates.size());
+		assertTrue(candidates.contains(typeQuery));
+		assertTrue(candidates.contains(notAssignedQuery));
+	}
+	
+	private IssueField newField(Issue issue, String name, String value) {
+		IssueField field = new IssueField();
+		field.setIssue(issue);
+		field.setName(name);
+		field.setValue(value);
+		return field;
+	}
+
+}
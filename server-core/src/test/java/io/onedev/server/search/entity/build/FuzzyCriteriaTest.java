@@ -0,0 +1,69 @@
+package io.onedev.server.search.entity.build;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import io.onedev.commons.loader.AppLoaderMocker;
+import io.onedev.server.OneDev;
+import io.onedev.server.buildspec.param.spec.ParamSpec;
+import io.onedev.server.entitymanager.BuildTouchManager;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.model.Build;
+import io.onedev.server.model.BuildParam;
+import io.onedev.server.search.entitytext.BuildTextManager;
+import io.onedev.server.search.entitytext.DefaultBuildTextManager;
+
+public class FuzzyCriteriaTest extends AppLoaderMocker {
+
+	@Test
+	public void testMatches() {
+		Build build = new Build();
+		build.setJobName("release");
+		build.setVersion("2.3.0-rc1");
+		build.setDescription("Nightly build for staging");
+		build.setParams(new ArrayList<>());
+		build.getParams().add(newParam(build, ParamSpec.TEXT, "deploy-target"));
+		build.getParams().add(newParam(build, ParamSpec.SECRET, "topsecret"));
+
+		// version and job are matched as substring, same as the database query
+		assertTrue(new FuzzyCriteria("3.0-rc", null).matches(build));
+		assertTrue(new FuzzyCriteria("leas", null).matches(build));
+
+		// description and params are matched by word prefix, same as the index
+		assertTrue(new FuzzyCriteria("night stag", null).matches(build));
+		assertTrue(new FuzzyCriteria("deploy", null).matches(build));
+		assertFalse(new FuzzyCriteria("ightly", null).matches(build));
+		assertFalse(new FuzzyCriteria("nightly production", null).matches(build));
+
+		// secret params are not indexed
+		assertFalse(new FuzzyCriteria("topsecret", null).matches(build));
+	}
+
+	private BuildParam newParam(Build build, String type, String value) {
+		BuildParam param = new BuildParam();
+		param.setBuild(build);
+		param.setName(type);
+		param.setType(type);
+		param.setValue(value);
+		return param;
+	}
+
+	@Override
+	protected void setup() {
+		ProjectManager projectManager = mock(ProjectManager.class);
+		when(OneDev.getInstance(ProjectManager.class)).thenReturn(projectManager);
+		when(OneDev.getInstance(BuildTextManager.class)).thenReturn(new DefaultBuildTextManager(
+				null, null, null, projectManager, null, null, mock(BuildTouchManager.class), null));
+	}
+
+	@Override
+	protected void teardown() {
+	}
+
+}
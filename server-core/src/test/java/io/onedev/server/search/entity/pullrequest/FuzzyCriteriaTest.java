@@ -0,0 +1,118 @@
+package io.onedev.server.search.entity.pullrequest;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.From;
+import javax.persistence.criteria.Path;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import io.onedev.commons.loader.AppLoaderMocker;
+import io.onedev.server.OneDev;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.entitymanager.PullRequestTouchManager;
+import io.onedev.server.entitymanager.UserManager;
+import io.onedev.server.model.Project;
+import io.onedev.server.model.PullRequest;
+import io.onedev.server.model.PullRequestComment;
+import io.onedev.server.model.User;
+import io.onedev.server.search.entitytext.DefaultPullRequestTextManager;
+import io.onedev.server.search.entitytext.PullRequestTextManager;
+
+public class FuzzyCriteriaTest extends AppLoaderMocker {
+
+	private ProjectManager projectManager;
+
+	private User system;
+
+	@Test
+	public void testMatches() {
+		UserManager userManager = mock(UserManager.class);
+		when(userManager.getSystem()).thenReturn(system);
+		when(OneDev.getInstance(PullRequestTextManager.class)).thenReturn(new DefaultPullRequestTextManager(
+				null, null, null, projectManager, null, null, mock(PullRequestTouchManager.class),
+				userManager, null));
+
+		User user = new User();
+		user.setId(1L);
+
+		PullRequest request = new PullRequest();
+		request.setTitle("Improve code search");
+		request.setDescription("Search default branches of all projects");
+		request.setComments(new ArrayList<>());
+		request.getComments().add(newComment(request, system, "Merged feature branch"));
+		request.getComments().add(newComment(request, user, "Looks good to me"));
+
+		assertTrue(new FuzzyCriteria("code search", null).matches(request));
+		assertTrue(new FuzzyCriteria("improve default", null).matches(request));
+		assertTrue(new FuzzyCriteria("sear", null).matches(request));
+		assertTrue(new FuzzyCriteria("looks", null).matches(request));
+		assertTrue(new FuzzyCriteria("\"default branches\"", null).matches(request));
+		assertFalse(new FuzzyCriteria("\"branches default\"", null).matches(request));
+		assertFalse(new FuzzyCriteria("merged", null).matches(request));
+		assertFalse(new FuzzyCriteria("code review", null).matches(request));
+
+		// Substring not at word start does not match, consistent with the index
+		assertFalse(new FuzzyCriteria("earch", null).matches(request));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testPredicateScope() {
+		PullRequestTextManager textManager = mock(PullRequestTextManager.class);
+		when(OneDev.getInstance(PullRequestTextManager.class)).thenReturn(textManager);
+		when(textManager.query(anyCollection(), any())).thenReturn(Lists.newArrayList(1L, 2L));
+
+		Project project1 = new Project();
+		project1.setId(1L);
+		Project project2 = new Project();
+		project2.setId(2L);
+		when(projectManager.getPermittedProjects(any())).thenReturn(Lists.newArrayList(project1, project2));
+
+		CriteriaBuilder builder = mock(CriteriaBuilder.class);
+		From<PullRequest, PullRequest> from = mock(From.class);
+		when(from.get(PullRequest.PROP_ID)).thenReturn(mock(Path.class));
+
+		new FuzzyCriteria("foo", project2).getPredicate(mock(CriteriaQuery.class), from, builder);
+		verify(textManager).query(eq(Collections.singleton(2L)), eq("foo"));
+
+		new FuzzyCriteria("bar", null).getPredicate(mock(CriteriaQuery.class), from, builder);
+		verify(textManager).query(eq(Set.of(1L, 2L)), eq("bar"));
+	}
+
+	private PullRequestComment newComment(PullRequest request, User user, String content) {
+		PullRequestComment comment = new PullRequestComment();
+		comment.setRequest(request);
+		comment.setUser(user);
+		comment.setContent(content);
+		return comment;
+	}
+
+	@Override
+	protected void setup() {
+		projectManager = mock(ProjectManager.class);
+		when(OneDev.getInstance(ProjectManager.class)).thenReturn(projectManager);
+		system = new User();
+		system.setId(User.SYSTEM_ID);
+	}
+
+	@Override
+	protected void teardown() {
+	}
+
+}
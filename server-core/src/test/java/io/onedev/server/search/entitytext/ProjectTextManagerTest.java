@@ -0,0 +1,162 @@
+package io.onedev.server.search.entitytext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import io.onedev.server.model.PullRequest;
+import io.onedev.server.model.support.EntityTouch;
+
+public class ProjectTextManagerTest {
+
+	private static final String FIELD_TITLE = "title";
+
+	private static final String FIELD_COMMENT = "comments";
+
+	private final TestTextManager textManager = new TestTextManager();
+
+	private final List<Map<String, List<String>>> entities = new ArrayList<>();
+
+	public ProjectTextManagerTest() {
+		entities.add(newEntity("Fix NullPointerException in build log",
+				"The quick brown fox", "jumps over the lazy dog"));
+		entities.add(newEntity("Upgrade lucene to 8.7"));
+		entities.add(newEntity("foo-bar baz", "hello, world"));
+		entities.add(newEntity("Fox and the hound"));
+	}
+
+	private Map<String, List<String>> newEntity(String title, String... comments) {
+		Map<String, List<String>> fieldValues = new HashMap<>();
+		fieldValues.put(FIELD_TITLE, Lists.newArrayList(title));
+		fieldValues.put(FIELD_COMMENT, Lists.newArrayList(comments));
+		return fieldValues;
+	}
+
+	@Test
+	public void testMatchesFuzzyQuery() {
+		assertEquals(Set.of(0), match("fix"));
+		assertEquals(Set.of(0), match("nullpointer"));
+		assertEquals(Set.of(0), match("build FIX"));
+		assertEquals(Set.of(0, 3), match("fox"));
+		assertEquals(Set.of(0), match("fox dog"));
+		assertEquals(Set.of(0), match("\"quick brown\""));
+		assertEquals(Set.of(), match("\"brown quick\""));
+		assertEquals(Set.of(0, 2, 3), match("\"fo\""));
+		assertEquals(Set.of(1), match("lucene 8.7"));
+		assertEquals(Set.of(), match("upgrade fox"));
+		assertEquals(Set.of(), match("xyz"));
+		assertEquals(Set.of(), match("*"));
+	}
+
+	@Test
+	public void shouldMatchSameAsIndex() throws IOException {
+		var queryStrings = Lists.newArrayList(
+				"fix", "nullpointer", "Fix build", "build fix", "quick dog", "fox", "fox dog",
+				"\"quick brown\"", "\"brown quick\"", "\"the quick\"", "\"lazy\"", "\"fo\"",
+				"\"fox jumps\"", "\"over the lazy\"", "\"over lazy\"", "\"fox hound\"",
+				"lucene 8", "lucene 8.7", "upgrade fox", "foo-bar", "foo,bar", "foo,xyz",
+				"hello,world", "world hello", "the", "the fox", "xyz", "*", "AND", "fox AND dog",
+				"\"\"", "   ");
+
+		try (Directory directory = new ByteBuffersDirectory()) {
+			IndexWriterConfig writerConfig = new IndexWriterConfig(textManager.newAnalyzer());
+			try (IndexWriter writer = new IndexWriter(directory, writerConfig)) {
+				for (int i = 0; i < entities.size(); i++) {
+					Document document = new Document();
+					document.add(new StoredField("index", i));
+					for (var entry: entities.get(i).entrySet()) {
+						for (var value: entry.getValue())
+							document.add(new TextField(entry.getKey(), value, Store.NO));
+					}
+					writer.addDocument(document);
+				}
+			}
+
+			try (DirectoryReader reader = DirectoryReader.open(directory)) {
+				IndexSearcher searcher = new IndexSearcher(reader);
+				for (var queryString: queryStrings) {
+					Set<Integer> indexMatches = new HashSet<>();
+					Query query = textManager.parseFuzzyQuery(queryString, getBoosts());
+					if (query != null) {
+						for (ScoreDoc scoreDoc: searcher.search(query, entities.size()).scoreDocs)
+							indexMatches.add(searcher.doc(scoreDoc.doc).getField("index").numericValue().intValue());
+					}
+					assertEquals(queryString, indexMatches, match(queryString));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void shouldNotMatchEmptyInput() {
+		assertFalse(textManager.matchesFuzzyQuery("", entities.get(0)));
+		assertFalse(textManager.matchesFuzzyQuery("\"\"", entities.get(0)));
+		assertFalse(textManager.matchesFuzzyQuery("the", entities.get(0)));
+		assertTrue(textManager.matchesFuzzyQuery("the fox", entities.get(0)));
+	}
+
+	private Set<Integer> match(String queryString) {
+		Set<Integer> matches = new HashSet<>();
+		for (int i = 0; i < entities.size(); i++) {
+			if (textManager.matchesFuzzyQuery(queryString, entities.get(i)))
+				matches.add(i);
+		}
+		return matches;
+	}
+
+	private Map<String, Float> getBoosts() {
+		Map<String, Float> boosts = new HashMap<>();
+		boosts.put(FIELD_TITLE, 0.75f);
+		boosts.put(FIELD_COMMENT, 0.25f);
+		return boosts;
+	}
+
+	private static class TestTextManager extends ProjectTextManager<PullRequest> {
+
+		private static final long serialVersionUID = 1L;
+
+		TestTextManager() {
+			super(null, null, null, null, null, null, null);
+		}
+
+		@Override
+		protected int getIndexVersion() {
+			return 0;
+		}
+
+		@Override
+		protected List<? extends EntityTouch> queryTouchesAfter(Long projectId, Long touchId) {
+			return new ArrayList<>();
+		}
+
+		@Override
+		protected void addFields(Document entityDoc, PullRequest entity) {
+		}
+
+	}
+
+}
@@ -0,0 +1,187 @@
+package io.onedev.server.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ResourcePoolTest {
+
+	private static class TestPool extends ResourcePool<String, StringBuilder> {
+
+		final Set<String> closed = new HashSet<>();
+
+		final Set<String> busy = new HashSet<>();
+
+		TestPool(int maxOpen, boolean closeUnleased) {
+			super(maxOpen, 0, Long.MAX_VALUE, closeUnleased);
+		}
+
+		@Override
+		protected StringBuilder open(String key) {
+			return new StringBuilder(key);
+		}
+
+		@Override
+		protected void close(StringBuilder resource) {
+			closed.add(resource.toString());
+		}
+
+		@Override
+		protected boolean isBusy(StringBuilder resource) {
+			return busy.contains(resource.toString());
+		}
+
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() throws InterruptedException {
+		TestPool pool = new TestPool(2, true);
+		StringBuilder a = pool.get("a");
+		Thread.sleep(2);
+		pool.get("b");
+		Thread.sleep(2);
+		pool.get("c");
+		Thread.sleep(2);
+		pool.sweep();
+		assertEquals(2, pool.size());
+		assertEquals(1, pool.getEvictionCount());
+		assertTrue(pool.closed.contains("a"));
+		assertNotSame(a, pool.get("a"));
+		assertEquals(0, pool.getHitCount());
+		assertEquals(4, pool.getMissCount());
+	}
+
+	@Test
+	public void testLeasedNotEvicted() throws InterruptedException {
+		TestPool pool = new TestPool(1, true);
+		StringBuilder a = pool.lease("a");
+		Thread.sleep(2);
+		pool.get("b");
+		Thread.sleep(2);
+		pool.sweep();
+		assertFalse(pool.closed.contains("a"));
+		assertTrue(pool.closed.contains("b"));
+		assertSame(a, pool.get("a"));
+
+		pool.release("a", a);
+		pool.get("c");
+		Thread.sleep(2);
+		pool.sweep();
+		assertTrue(pool.closed.contains("a"));
+	}
+
+	@Test
+	public void testHandedOutNotClosed() throws InterruptedException {
+		TestPool pool = new TestPool(1, false);
+		pool.get("a");
+		Thread.sleep(2);
+		StringBuilder b = pool.lease("b");
+		pool.release("b", b);
+		Thread.sleep(2);
+		pool.sweep();
+		assertEquals(1, pool.size());
+		assertEquals(1, pool.getEvictionCount());
+		assertTrue(pool.closed.isEmpty());
+
+		pool.remove("b");
+		assertTrue(pool.closed.contains("b"));
+	}
+
+	@Test
+	public void testReleaseRemovedResource() throws InterruptedException {
+		TestPool pool = new TestPool(1, true);
+		StringBuilder a = pool.lease("a");
+		pool.remove("a");
+		StringBuilder reopened = pool.lease("a");
+		assertNotSame(a, reopened);
+
+		// Releasing lease of removed resource should not affect the reopened one
+		pool.release("a", a);
+		Thread.sleep(2);
+		pool.get("b");
+		Thread.sleep(2);
+		pool.sweep();
+		assertSame(reopened, pool.get("a"));
+	}
+
+	@Test
+	public void testBusyNotEvicted() throws InterruptedException {
+		TestPool pool = new TestPool(1, true);
+		pool.get("a");
+		pool.busy.add("a");
+		Thread.sleep(2);
+		pool.get("b");
+		Thread.sleep(2);
+		pool.sweep();
+		assertFalse(pool.closed.contains("a"));
+		assertTrue(pool.closed.contains("b"));
+
+		pool.busy.clear();
+		pool.get("c");
+		Thread.sleep(2);
+		pool.sweep();
+		assertTrue(pool.closed.contains("a"));
+		assertFalse(pool.closed.contains("c"));
+	}
+
+	@Test(timeout=10000)
+	public void testOpenWithoutBlockingOthers() throws InterruptedException {
+		CountDownLatch openStarted = new CountDownLatch(1);
+		CountDownLatch openGate = new CountDownLatch(1);
+		AtomicInteger openCount = new AtomicInteger();
+		ResourcePool<String, StringBuilder> pool = new ResourcePool<String, StringBuilder>(10, 0, Long.MAX_VALUE, true) {
+
+			@Override
+			protected StringBuilder open(String key) {
+				openCount.incrementAndGet();
+				if (key.equals("slow")) {
+					openStarted.countDown();
+					try {
+						openGate.await();
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				return new StringBuilder(key);
+			}
+
+			@Override
+			protected void close(StringBuilder resource) {
+			}
+
+		};
+
+		List<StringBuilder> slowResources = new CopyOnWriteArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 2; i++) {
+			Thread thread = new Thread(() -> slowResources.add(pool.get("slow")));
+			threads.add(thread);
+			thread.start();
+		}
+		openStarted.await();
+
+		// Other resources can be opened and removed while a resource is being opened
+		pool.get("fast");
+		pool.remove("fast");
+
+		openGate.countDown();
+		for (Thread thread: threads)
+			thread.join();
+		assertEquals(2, slowResources.size());
+		assertSame(slowResources.get(0), slowResources.get(1));
+		assertEquals(2, openCount.get());
+	}
+
+}
@@ -0,0 +1,129 @@
+package io.onedev.server.web.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import javax.annotation.Nullable;
+
+import org.apache.shiro.subject.Subject;
+import org.apache.shiro.util.ThreadContext;
+import org.apache.wicket.request.http.WebRequest;
+import org.apache.wicket.request.http.WebResponse;
+import org.apache.wicket.request.resource.AbstractResource.ResourceResponse;
+import org.apache.wicket.request.resource.IResource.Attributes;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import io.onedev.commons.loader.AppLoader;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.cluster.ClusterTask;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.git.AbstractGitTest;
+import io.onedev.server.git.ArchiveManager;
+import io.onedev.server.git.DefaultArchiveManager;
+import io.onedev.server.model.User;
+import io.onedev.server.util.DiskCache;
+import io.onedev.server.util.LongRange;
+
+public class ArchiveResourceTest extends AbstractGitTest {
+
+	private static final String ETAG = "\"abc\"";
+
+	@Test
+	public void testMatchesEtag() {
+		assertFalse(ArchiveResource.matchesEtag(null, ETAG));
+		assertTrue(ArchiveResource.matchesEtag(ETAG, ETAG));
+		assertTrue(ArchiveResource.matchesEtag("*", ETAG));
+		assertTrue(ArchiveResource.matchesEtag("\"xyz\", " + ETAG, ETAG));
+		assertTrue(ArchiveResource.matchesEtag("W/" + ETAG, ETAG));
+		assertFalse(ArchiveResource.matchesEtag("\"xyz\"", ETAG));
+		assertFalse(ArchiveResource.matchesEtag("abc", ETAG));
+		assertFalse(ArchiveResource.matchesEtag("", ETAG));
+	}
+
+	@Test
+	public void testGetContentRange() {
+		LongRange range = ArchiveResource.getContentRange(null, null, 100);
+		assertEquals(0, range.getStart());
+		assertEquals(99, range.getEnd());
+
+		// bytes=10-
+		range = ArchiveResource.getContentRange(10L, -1L, 100);
+		assertEquals(10, range.getStart());
+		assertEquals(99, range.getEnd());
+
+		// bytes=10-19
+		range = ArchiveResource.getContentRange(10L, 19L, 100);
+		assertEquals(10, range.getStart());
+		assertEquals(19, range.getEnd());
+
+		// End beyond content length is capped
+		range = ArchiveResource.getContentRange(90L, 200L, 100);
+		assertEquals(90, range.getStart());
+		assertEquals(99, range.getEnd());
+	}
+
+	@Test
+	public void testArchiveRequest() throws IOException {
+		String commitHash = addFileAndCommit("file", "content", "initial commit");
+
+		ProjectManager projectManager = mock(ProjectManager.class);
+		when(projectManager.runOnActiveServer(any(), any()))
+				.thenAnswer(invocation -> invocation.getArgument(1, ClusterTask.class).call());
+		when(projectManager.getRepository(1L)).thenReturn(git.getRepository());
+		File cacheDir = FileUtils.createTempDir();
+		DiskCache cache = new DiskCache(cacheDir, 1024 * 1024);
+		ArchiveManager archiveManager = new DefaultArchiveManager(projectManager, cache);
+		when(AppLoader.getInstance(ArchiveManager.class)).thenReturn(archiveManager);
+
+		Subject subject = mock(Subject.class);
+		when(subject.getPrincipal()).thenReturn(User.SYSTEM_ID);
+		ThreadContext.bind(subject);
+		try {
+			String etag = "\"" + archiveManager.getArchive(1L, "main", ArchiveResource.FORMAT_ZIP, null).getHash() + "\"";
+
+			// Archive should not be generated if client cached archive is still valid
+			ResourceResponse response = new ArchiveResource().newResourceResponse(newAttributes(etag));
+			assertEquals(Integer.valueOf(304), response.getErrorCode());
+			assertEquals(etag, response.getHeaders().getHeader("ETag"));
+			assertEquals(0, cache.getSize());
+
+			response = new ArchiveResource().newResourceResponse(newAttributes("\"outdated\""));
+			assertNull(response.getErrorCode());
+			assertEquals(etag, response.getHeaders().getHeader("ETag"));
+			assertEquals(cache.getSize(), response.getContentLength());
+			assertTrue(response.getContentLength() > 0);
+
+			try (InputStream is = archiveManager.openArchive(1L, ObjectId.fromString(commitHash), 
+					ArchiveResource.FORMAT_ZIP, null);
+				 ZipInputStream zis = new ZipInputStream(is)) {
+				ZipEntry entry = zis.getNextEntry();
+				assertNotNull(entry);
+				assertEquals("file", entry.getName());
+			}
+		} finally {
+			ThreadContext.unbindSubject();
+			FileUtils.deleteDir(cacheDir);
+		}
+	}
+
+	private Attributes newAttributes(@Nullable String ifNoneMatch) {
+		WebRequest request = mock(WebRequest.class);
+		when(request.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+		return new Attributes(request, mock(WebResponse.class), 
+				ArchiveResource.paramsOf(1L, "main", ArchiveResource.FORMAT_ZIP));
+	}
+
+}
@@ -0,0 +1,82 @@
+package io.onedev.server.xodus;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.LastCommitsOfChildren;
+import org.eclipse.jgit.revwalk.LastCommitsOfChildren.Value;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.cluster.ClusterManager;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.event.system.SystemStopped;
+import io.onedev.server.git.AbstractGitTest;
+import io.onedev.server.util.concurrent.BatchWorkManager;
+
+public class DefaultLastCommitsInfoManagerTest extends AbstractGitTest {
+
+	@Test
+	public void testEncodeAndDecode() {
+		PersonIdent author = new PersonIdent("\u5f20\u4e09", "zhangsan@example.com", 1600000000000L, 480);
+		Value value1 = new Value(ObjectId.fromString("1111111111111111111111111111111111111111"),
+				author, new Date(1600000001000L), "first commit");
+		Value value2 = new Value(ObjectId.fromString("2222222222222222222222222222222222222222"),
+				author, new Date(1600000002000L), "");
+
+		Map<String, Value> lastCommits = new HashMap<>();
+		lastCommits.put("src", value1);
+		lastCommits.put("pom.xml", value1);
+		lastCommits.put("readme.md", value2);
+
+		Map<String, Value> decoded = DefaultLastCommitsInfoManager.decode(DefaultLastCommitsInfoManager.encode(lastCommits));
+		assertEquals(lastCommits, decoded);
+		for (Map.Entry<String, Value> entry: lastCommits.entrySet()) {
+			Value decodedValue = decoded.get(entry.getKey());
+			assertEquals(entry.getValue().getAuthor(), decodedValue.getAuthor());
+			assertEquals(entry.getValue().getCommitDate(), decodedValue.getCommitDate());
+			assertEquals(entry.getValue().getSummary(), decodedValue.getSummary());
+		}
+	}
+
+	@Test
+	public void testCachedLastCommits() throws Exception {
+		addFileAndCommit("a", "1", "add a");
+		addFileAndCommit("b", "1", "add b");
+		ObjectId oldCommitId = git.getRepository().resolve("main");
+
+		File infoDir = FileUtils.createTempDir();
+		ProjectManager projectManager = Mockito.mock(ProjectManager.class);
+		Mockito.when(projectManager.getRepository(1L)).thenReturn(git.getRepository());
+		Mockito.when(projectManager.getInfoDir(1L)).thenReturn(infoDir);
+		DefaultLastCommitsInfoManager manager = new DefaultLastCommitsInfoManager(projectManager, 
+				Mockito.mock(BatchWorkManager.class), Mockito.mock(ClusterManager.class));
+		try {
+			LastCommitsOfChildren lastCommits = manager.getLastCommitsOfChildren(1L, oldCommitId, null);
+			assertEquals(oldCommitId, lastCommits.get("b").getId());
+
+			// Alter cached entry so that we can tell whether it is consulted via cache callback
+			Map<String, Value> cachedLastCommits = new HashMap<>(lastCommits);
+			Value value = cachedLastCommits.get("a");
+			cachedLastCommits.put("a", new Value(value.getId(), value.getAuthor(), value.getCommitDate(), "cached"));
+			manager.writeLastCommits(1L, oldCommitId, "", cachedLastCommits);
+
+			addFileAndCommit("b", "2", "update b");
+			ObjectId newCommitId = git.getRepository().resolve("main");
+			lastCommits = manager.getLastCommitsOfChildren(1L, newCommitId, null);
+			assertEquals("cached", lastCommits.get("a").getSummary());
+			assertEquals(newCommitId, lastCommits.get("b").getId());
+		} finally {
+			manager.on(new SystemStopped());
+			FileUtils.deleteDir(infoDir);
+		}
+	}
+
+}